@@ -0,0 +1,96 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates do-nothing implementations of interfaces, so that the benchmarks
+ * can run the destination's code without a database or a knowledge source.
+ * Methods return <code>false</code>, zero, empty collections and arrays,
+ * or stubs of the interfaces that they return, so a stub connection hands out
+ * stub statements that accept and discard parameters and batches.
+ *
+ * @author Andrew Post
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    public static <T> T of(Class<T> cls) {
+        return cls.cast(Proxy.newProxyInstance(cls.getClassLoader(),
+                new Class<?>[]{cls},
+                (proxy, method, args) -> defaultValue(proxy, method, args)));
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "stub " + method.getDeclaringClass().getSimpleName();
+            default:
+                break;
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            return null;
+        } else if (returnType == boolean.class) {
+            return false;
+        } else if (returnType == char.class) {
+            return '\0';
+        } else if (returnType == byte.class) {
+            return (byte) 0;
+        } else if (returnType == short.class) {
+            return (short) 0;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else if (returnType == float.class) {
+            return 0f;
+        } else if (returnType == double.class) {
+            return 0d;
+        } else if (returnType.isArray()) {
+            return Array.newInstance(returnType.getComponentType(), 0);
+        } else if (returnType == List.class) {
+            return Collections.emptyList();
+        } else if (returnType == Set.class) {
+            return Collections.emptySet();
+        } else if (returnType == Map.class) {
+            return Collections.emptyMap();
+        } else if (returnType.isInterface() && returnType.getName().startsWith("java.sql.")) {
+            return of(returnType);
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package edu.emory.cci.aiw.i2b2etl.dest.metadata;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropDefConceptId;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Concept id and concept lookups against a frozen concept tree, as they
+ * happen for every fact of a load.
+ *
+ * @author Andrew Post
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConceptIdBenchmark {
+
+    @Param({"3", "4"})
+    public int depth;
+
+    @Param({"10"})
+    public int fanOut;
+
+    private Metadata metadata;
+    private String[] propIds;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticOntology ontology = new SyntheticOntology(this.depth, this.fanOut);
+        this.metadata = ontology.getMetadata();
+        this.propIds = ontology.getPropIds().toArray(new String[0]);
+    }
+
+    private String nextPropId() {
+        String propId = this.propIds[this.next];
+        if (++this.next == this.propIds.length) {
+            this.next = 0;
+        }
+        return propId;
+    }
+
+    @Benchmark
+    public PropDefConceptId propDefConceptId() {
+        return PropDefConceptId.getInstance(nextPropId(), null, null, this.metadata);
+    }
+
+    @Benchmark
+    public ModifierConceptId modifierConceptId() {
+        return ModifierConceptId.getInstance(nextPropId(), SyntheticOntology.MODIFIER_PROPERTY, null, this.metadata);
+    }
+
+    @Benchmark
+    public Concept concept() {
+        return this.metadata.getFromIdCache(nextPropId(), null, null);
+    }
+}
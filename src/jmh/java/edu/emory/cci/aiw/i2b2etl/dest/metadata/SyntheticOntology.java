@@ -0,0 +1,123 @@
+package edu.emory.cci.aiw.i2b2etl.dest.metadata;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.Stubs;
+import edu.emory.cci.aiw.i2b2etl.dest.config.Data;
+import edu.emory.cci.aiw.i2b2etl.dest.config.FolderSpec;
+import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropDefConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.SimpleConceptId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.protempa.KnowledgeSource;
+import org.protempa.KnowledgeSourceCache;
+import org.protempa.KnowledgeSourceCacheFactory;
+import org.protempa.KnowledgeSourceReadException;
+import org.protempa.PropositionDefinition;
+import org.protempa.PropositionDefinitionCache;
+
+/**
+ * A concept tree of a given depth and fan-out for the benchmarks, built
+ * without a knowledge source or metadata schema. Every concept has a
+ * modifier, and every concept is in use. The concept caches are frozen, as
+ * they are during a load.
+ *
+ * @author Andrew Post
+ */
+public final class SyntheticOntology {
+
+    public static final String MODIFIER_PROPERTY = "modifier";
+
+    private static final String NOT_RECORDED_PROVIDER_ID = MetadataUtil.DEFAULT_CONCEPT_ID_PREFIX_INTERNAL + "|Provider:NotRecorded";
+
+    private final Metadata metadata;
+    private final Concept root;
+    private final List<String> propIds;
+
+    public SyntheticOntology(int depth, int fanOut) throws KnowledgeSourceReadException, InvalidConceptCodeException {
+        PropositionDefinitionCache propDefs = new PropositionDefinitionCache(Collections.<PropositionDefinition>emptyList());
+        KnowledgeSourceCache cache = new KnowledgeSourceCacheFactory().getInstance(Stubs.of(KnowledgeSource.class), propDefs, false);
+        this.metadata = new Metadata(propDefs, "BENCHMARK", cache, null, new FolderSpec[0],
+                Stubs.of(Settings.class), Stubs.of(Data.class), null);
+        this.propIds = new ArrayList<>();
+        this.root = newConcept("Root");
+        addChildren(this.root, "Root", depth, fanOut);
+        /*
+         * The provider subtree is only built by a full ontology build, so
+         * create the provider concept of encounters without a provider up
+         * front, as if a previous encounter had created it.
+         */
+        Concept notRecorded = new Concept(SimpleConceptId.getInstance(NOT_RECORDED_PROVIDER_ID, this.metadata), null, this.metadata);
+        notRecorded.setDisplayName("Not Recorded");
+        notRecorded.setInUse(true);
+        this.metadata.addToIdCache(notRecorded);
+        this.metadata.freeze();
+    }
+
+    public Metadata getMetadata() {
+        return this.metadata;
+    }
+
+    public Concept getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Returns the proposition ids of the concepts, in depth-first order.
+     *
+     * @return an unmodifiable list.
+     */
+    public List<String> getPropIds() {
+        return Collections.unmodifiableList(this.propIds);
+    }
+
+    private void addChildren(Concept parent, String parentId, int depth, int fanOut) throws InvalidConceptCodeException {
+        if (depth > 0) {
+            for (int i = 0; i < fanOut; i++) {
+                String id = parentId + "." + i;
+                Concept child = newConcept(id);
+                parent.add(child);
+                addChildren(child, id, depth - 1, fanOut);
+            }
+        }
+    }
+
+    private Concept newConcept(String propId) throws InvalidConceptCodeException {
+        Concept concept = new Concept(PropDefConceptId.getInstance(propId, null, null, this.metadata), null, this.metadata);
+        concept.setDisplayName(propId);
+        concept.setSourceSystemCode("BENCHMARK");
+        concept.setDataType(DataType.TEXT);
+        concept.setInUse(true);
+        this.metadata.addToIdCache(concept);
+        Concept modifier = new Concept(ModifierConceptId.getInstance(propId, MODIFIER_PROPERTY, null, this.metadata), null, this.metadata);
+        modifier.setDisplayName(propId + " " + MODIFIER_PROPERTY);
+        modifier.setAppliedPath("\\" + propId + "\\%");
+        modifier.setInUse(true);
+        this.metadata.addToIdCache(modifier);
+        this.propIds.add(propId);
+        return concept;
+    }
+}
@@ -0,0 +1,76 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.Stubs;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.SyntheticOntology;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Walking a concept tree to stage its concept dimension records, as after
+ * every load. Statements are stubs, so no database is involved.
+ *
+ * @author Andrew Post
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConceptDimensionLoaderBenchmark {
+
+    @Param({"3", "4"})
+    public int depth;
+
+    @Param({"10"})
+    public int fanOut;
+
+    private Concept root;
+    private ConceptDimensionHandler handler;
+
+    @Setup
+    public void setup() throws Exception {
+        this.root = new SyntheticOntology(this.depth, this.fanOut).getRoot();
+        this.handler = new ConceptDimensionHandler(Stubs.of(ConnectionSpec.class), null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.handler.close();
+    }
+
+    @Benchmark
+    public void execute() throws SQLException {
+        new ConceptDimensionLoader(this.handler).execute(this.root);
+    }
+}
@@ -0,0 +1,140 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.Stubs;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.SyntheticOntology;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropDefConceptId;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.protempa.SourceSystem;
+import org.protempa.proposition.DerivedSourceId;
+import org.protempa.proposition.DerivedUniqueId;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+import org.protempa.proposition.interval.IntervalFactory;
+import org.protempa.proposition.value.AbsoluteTimeGranularity;
+
+/**
+ * Populating observation facts and filling in their rows, per fact of a load.
+ * Connections and statements are stubs, so no database is involved.
+ *
+ * @author Andrew Post
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FactHandlerBenchmark {
+
+    private static final String PROP_ID = "Root.1.2";
+
+    private BenchmarkFactHandler handler;
+    private RowBuffer row;
+    private Proposition prop;
+    private PatientDimension patient;
+    private VisitDimension visit;
+    private ProviderDimension provider;
+    private PropDefConceptId conceptId;
+    private ModifierConceptId modConceptId;
+    private ObservationFact obx;
+
+    @Setup
+    public void setup() throws Exception {
+        Metadata metadata = new SyntheticOntology(3, 10).getMetadata();
+        this.handler = new BenchmarkFactHandler(Stubs.of(ConnectionSpec.class), metadata);
+        this.row = new RowBuffer(25);
+        this.conceptId = PropDefConceptId.getInstance(PROP_ID, null, null, metadata);
+        this.modConceptId = ModifierConceptId.getInstance(PROP_ID, SyntheticOntology.MODIFIER_PROPERTY, null, metadata);
+
+        long now = System.currentTimeMillis();
+        Event event = new Event(PROP_ID, new UniqueId(DerivedSourceId.getInstance(), new DerivedUniqueId("event")));
+        event.setInterval(new IntervalFactory().getInstance(now - 3600000L, AbsoluteTimeGranularity.MINUTE, now, AbsoluteTimeGranularity.MINUTE));
+        event.setSourceSystem(SourceSystem.DERIVED);
+        this.prop = event;
+
+        this.patient = new PatientDimension();
+        this.patient.setEncryptedPatientId("1");
+        this.patient.setEncryptedPatientIdSource("BENCHMARK");
+        this.visit = new VisitDimension();
+        this.visit.setVisitId("1");
+        this.visit.setVisitIdSource("BENCHMARK");
+        this.provider = new ProviderDimension();
+        this.provider.setConcept(metadata.getFromIdCache(PROP_ID, null, null));
+        this.obx = populate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.handler.close();
+    }
+
+    private ObservationFact populate() throws InvalidFactException {
+        return this.handler.populateObxFact(this.prop, this.prop, this.patient, this.visit, this.provider, this.conceptId, null);
+    }
+
+    @Benchmark
+    public ObservationFact populateObxFact() throws InvalidFactException {
+        return populate();
+    }
+
+    @Benchmark
+    public ObservationFact populateModifierObxFact() throws InvalidFactException {
+        return this.handler.populateObxFact(this.prop, this.prop, this.patient, this.visit, this.provider, this.conceptId, this.modConceptId);
+    }
+
+    @Benchmark
+    public void setParameters() throws SQLException {
+        this.handler.setParameters(this.row, this.obx);
+    }
+
+    @Benchmark
+    public void populateAndInsert() throws InvalidFactException, SQLException {
+        this.handler.insert(populate());
+    }
+
+    private static final class BenchmarkFactHandler extends FactHandler {
+
+        BenchmarkFactHandler(ConnectionSpec connSpec, Metadata metadata) throws SQLException {
+            super(connSpec, null, null, null, null, metadata, null, null, null, null, "benchmark");
+        }
+
+        @Override
+        public void handleRecord(PatientDimension patient, VisitDimension visit,
+                ProviderDimension provider, Proposition encounterProp,
+                EncounterLinkTraverser linkTraverser) throws InvalidFactException {
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.Stubs;
+import edu.emory.cci.aiw.i2b2etl.dest.config.Data;
+import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.SyntheticOntology;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.protempa.proposition.DerivedSourceId;
+import org.protempa.proposition.DerivedUniqueId;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * Resolving the provider of an encounter, once with an empty per-patient
+ * cache, as for a patient's first encounter, and once with the provider
+ * already cached, as for the patient's other encounters.
+ *
+ * @author Andrew Post
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProviderDimensionFactoryBenchmark {
+
+    private ProviderDimensionFactory factory;
+    private Proposition encounter;
+    private Map<UniqueId, Proposition> references;
+    private Map<List<UniqueId>, ProviderDimension> cache;
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticOntology ontology = new SyntheticOntology(1, 1);
+        this.factory = new ProviderDimensionFactory(ontology.getMetadata(),
+                Stubs.of(Settings.class), Stubs.of(Data.class),
+                Stubs.of(ConnectionSpec.class), null);
+        this.encounter = new Event("Encounter", new UniqueId(DerivedSourceId.getInstance(), new DerivedUniqueId("encounter")));
+        this.references = Collections.emptyMap();
+        this.cache = new HashMap<>();
+        this.factory.getInstance(this.encounter, this.references, this.cache);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.factory.close();
+    }
+
+    @Benchmark
+    public ProviderDimension uncached() throws InvalidConceptCodeException, SQLException {
+        return this.factory.getInstance(this.encounter, this.references, new HashMap<>(4));
+    }
+
+    @Benchmark
+    public ProviderDimension cached() throws InvalidConceptCodeException, SQLException {
+        return this.factory.getInstance(this.encounter, this.references, this.cache);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import java.util.logging.Level;
+import org.apache.commons.dbcp2.ConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.dbcp2.PoolableConnectionFactory;
+import org.apache.commons.dbcp2.PoolingDataSource;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.arp.javautil.sql.ConnectionSpec;
+
+/**
+ * A bounded pool of connections to one of the destination's databases,
+ * shared by the record handlers and by the steps of {@link I2b2QueryResultsHandler#start(org.protempa.PropositionDefinitionCache) }
+ * and {@link I2b2QueryResultsHandler#finish() }. Connections are validated
+ * when they are borrowed, and prepared statements are cached per connection.
+ * Closing a borrowed connection returns it to the pool. When the data and
+ * metadata schemas are in the same database, one pool serves both.
+ *
+ * @author Andrew Post
+ */
+final class ConnectionPool implements AutoCloseable {
+
+    private static final long MAX_WAIT_MILLIS = 5L * 60L * 1000L;
+
+    private final GenericObjectPool<PoolableConnection> pool;
+    private final PoolingDataSource<PoolableConnection> dataSource;
+    private final PooledConnectionSpec connectionSpec;
+
+    /**
+     * Creates a pool that opens its connections with the given connection
+     * spec.
+     *
+     * @param connectionSpec the connection spec of the database.
+     * @param settings the pool size, statement cache size and validation query.
+     */
+    ConnectionPool(ConnectionSpec connectionSpec, Settings settings) {
+        ConnectionFactory connectionFactory = connectionSpec::getOrCreate;
+        PoolableConnectionFactory factory = new PoolableConnectionFactory(connectionFactory, null);
+        factory.setDefaultAutoCommit(Boolean.TRUE);
+        int statementCacheSize = settings.getConnectionPoolStatementCacheSize();
+        if (statementCacheSize > 0) {
+            factory.setPoolStatements(true);
+            factory.setMaxOpenPreparedStatements(statementCacheSize);
+        }
+        String validationQuery = settings.getConnectionPoolValidationQuery();
+        if (validationQuery != null) {
+            factory.setValidationQuery(validationQuery);
+        }
+
+        int size = settings.getConnectionPoolSize();
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(size);
+        config.setMaxIdle(size);
+        config.setMinIdle(0);
+        config.setTestOnBorrow(true);
+        config.setBlockWhenExhausted(true);
+        config.setMaxWaitMillis(MAX_WAIT_MILLIS);
+        this.pool = new GenericObjectPool<>(factory, config);
+        factory.setPool(this.pool);
+        this.dataSource = new PoolingDataSource<>(this.pool);
+        this.dataSource.setAccessToUnderlyingConnectionAllowed(true);
+
+        this.connectionSpec = new PooledConnectionSpec(this.dataSource, connectionSpec);
+        I2b2ETLUtil.logger().log(Level.FINE, "Created connection pool with at most {0} connection(s)", size);
+    }
+
+    /**
+     * Returns a connection spec whose connections are borrowed from this
+     * pool.
+     *
+     * @return a connection spec.
+     */
+    PooledConnectionSpec getConnectionSpec() {
+        return this.connectionSpec;
+    }
+
+    /**
+     * Closes the idle connections in the pool. Connections that are still
+     * borrowed are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        this.pool.close();
+    }
+}
@@ -27,31 +27,30 @@ import edu.emory.cci.aiw.i2b2etl.dest.config.DataSpec;
 import edu.emory.cci.aiw.etl.dest.config.Database;
 import edu.emory.cci.aiw.etl.dest.config.DatabaseSpec;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
-import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
-import edu.emory.cci.aiw.i2b2etl.dest.table.InvalidPatientRecordException;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.MetadataFactory;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.OntologyBuildException;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
 import edu.emory.cci.aiw.i2b2etl.dest.table.ConceptDimensionHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.ConceptDimensionLoader;
+import edu.emory.cci.aiw.i2b2etl.dest.table.EncounterLinkTraverser;
 import edu.emory.cci.aiw.i2b2etl.dest.table.EncounterMappingHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.FactHandler;
-import edu.emory.cci.aiw.i2b2etl.dest.table.InvalidFactException;
+import edu.emory.cci.aiw.i2b2etl.dest.table.FactWriterPool;
 import edu.emory.cci.aiw.i2b2etl.dest.table.MetaTableConceptLoader;
 import edu.emory.cci.aiw.i2b2etl.dest.table.MetaTableConceptHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.ModifierDimensionHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.ModifierDimensionLoader;
-import edu.emory.cci.aiw.i2b2etl.dest.table.PatientDimension;
 import edu.emory.cci.aiw.i2b2etl.dest.table.PatientDimensionHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.PatientDimensionFactory;
 import edu.emory.cci.aiw.i2b2etl.dest.table.PatientMappingHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.PropositionFactHandler;
-import edu.emory.cci.aiw.i2b2etl.dest.table.ProviderDimension;
 import edu.emory.cci.aiw.i2b2etl.dest.table.ProviderDimensionHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.ProviderDimensionFactory;
 import edu.emory.cci.aiw.i2b2etl.dest.table.RejectedFactHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.RejectedFactHandlerFactory;
-import edu.emory.cci.aiw.i2b2etl.dest.table.VisitDimension;
+import edu.emory.cci.aiw.i2b2etl.dest.table.RejectedFactWriter;
 import edu.emory.cci.aiw.i2b2etl.dest.table.VisitDimensionHandler;
 import edu.emory.cci.aiw.i2b2etl.dest.table.VisitDimensionFactory;
 import org.arp.javautil.sql.ConnectionSpec;
@@ -61,13 +60,11 @@ import org.protempa.PropositionDefinition;
 import org.protempa.dest.AbstractQueryResultsHandler;
 import org.protempa.dest.QueryResultsHandlerInitException;
 import org.protempa.dest.QueryResultsHandlerProcessingException;
-import org.protempa.dest.table.Link;
-import org.protempa.dest.table.Reference;
 import org.protempa.proposition.Proposition;
-import org.protempa.proposition.TemporalProposition;
 import org.protempa.proposition.UniqueId;
 import org.protempa.query.Query;
 
+import java.io.File;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -75,10 +72,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -169,36 +167,52 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
     // upload_id for all the dimension table stored procedures
     private final static int UPLOAD_ID = 0;
 
+    // names of the finish steps in the load journal, besides the promotions
+    private static final String OBSERVATION_FACT_STEP = "observation fact";
+    private static final String METADATA_STEP = "metadata";
+
     private final Query query;
     private final KnowledgeSource knowledgeSource;
     private final Settings settings;
     private final Data data;
     private final Database database;
     private final ConnectionSpec dataConnectionSpec;
+    private final ConnectionPool dataConnectionPool;
     private final Concepts conceptsSection;
-    private List<FactHandler> factHandlers;
+    private PatientLoaderPool patientLoaders;
+    private RejectedFactWriter rejectedFactWriter;
+    private FactWriterPool factWriterPool;
     private ConceptDimensionHandler conceptDimensionHandler;
     private ModifierDimensionHandler modifierDimensionHandler;
     private Metadata metadata;
-    private final DataSpec providerFullNameSpec;
-    private final DataSpec providerFirstNameSpec;
-    private final DataSpec providerMiddleNameSpec;
-    private final DataSpec providerLastNameSpec;
     private final ConnectionSpec metadataConnectionSpec;
-    private final String visitPropId;
-    private Connection dataSchemaConnection;
+    private final ConnectionPool metadataConnectionPool;
     private final Set<String> dataSourceBackendIds;
     private final RemoveMethod dataRemoveMethod;
     private RemoveMethod metaRemoveMethod;
     private final Set<String> knowledgeSourceBackendIds;
     private final String qrhId;
     private ProviderDimensionFactory providerDimensionFactory;
-    private PatientDimensionFactory patientDimensionFactory;
-    private VisitDimensionFactory visitDimensionFactory;
     private final Configuration configuration;
     private KnowledgeSourceCache cache;
     private List<? extends ProtempaEventListener> eventListeners;
     private String dataSchemaName;
+    private String[] potentialDerivedPropIds;
+    private LoadJournal journal;
+    private Set<String> stagedKeys;
+    private Set<String> completedSteps;
+    private List<String> pendingKeys;
+    private boolean resuming;
+    private LoadWatermarks watermarks;
+    private int unchangedPatients;
+    private LoadPartitions partitions;
+    private LoadMetrics metrics;
+    private long stagingStartNanos;
+    private int promotionBatchSize;
+    private int batchPatients;
+    private int promotedBatches;
+    private final Map<String, Long> batchFactCounts = new HashMap<>();
+    private final long[] batchRecordCounts = new long[3];
 
     /**
      * Creates a new query results handler that will use the provided
@@ -236,25 +250,40 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         this.data = this.configuration.getData();
         this.conceptsSection = this.configuration.getConcepts();
         this.database = this.configuration.getDatabase();
+        boolean pooled = this.settings.getConnectionPoolSize() > 0;
         DatabaseSpec dataSchemaSpec = this.database.getDataSpec();
-        if (dataSchemaSpec != null) {
+        if (dataSchemaSpec != null && pooled) {
+            this.dataConnectionPool = new ConnectionPool(dataSchemaSpec.toConnectionSpec(), this.settings);
+            this.dataConnectionSpec = this.dataConnectionPool.getConnectionSpec();
+        } else if (dataSchemaSpec != null) {
+            this.dataConnectionPool = null;
             this.dataConnectionSpec = dataSchemaSpec.toConnectionSpec();
         } else {
+            this.dataConnectionPool = null;
             this.dataConnectionSpec = null;
         }
 
         DatabaseSpec metadataSchemaSpec = this.database.getMetadataSpec();
-        if (metadataSchemaSpec != null) {
+        if (metadataSchemaSpec != null && pooled && isSameDatabase(dataSchemaSpec, metadataSchemaSpec)) {
+            // One pool, so that the load opens at most the pool size in sessions.
+            this.metadataConnectionPool = null;
+            this.metadataConnectionSpec = this.dataConnectionSpec;
+        } else if (metadataSchemaSpec != null && pooled) {
+            this.metadataConnectionPool = new ConnectionPool(metadataSchemaSpec.toConnectionSpec(), this.settings);
+            this.metadataConnectionSpec = this.metadataConnectionPool.getConnectionSpec();
+        } else if (metadataSchemaSpec != null) {
+            this.metadataConnectionPool = null;
             this.metadataConnectionSpec = metadataSchemaSpec.toConnectionSpec();
         } else {
+            this.metadataConnectionPool = null;
             this.metadataConnectionSpec = null;
         }
-
-        this.providerFullNameSpec = this.data.get(this.settings.getProviderFullName());
-        this.providerFirstNameSpec = this.data.get(this.settings.getProviderFirstName());
-        this.providerMiddleNameSpec = this.data.get(this.settings.getProviderMiddleName());
-        this.providerLastNameSpec = this.data.get(this.settings.getProviderLastName());
-        this.visitPropId = this.settings.getVisitDimension();
+        if (pooled) {
+            logger.log(Level.FINE, "Pooling at most {0} connection(s) per database", this.settings.getConnectionPoolSize());
+            if (this.metadataConnectionSpec != null && this.metadataConnectionSpec == this.dataConnectionSpec) {
+                logger.log(Level.FINE, "The data and metadata schemas share a connection pool");
+            }
+        }
 
         RemoveMethod removeMethod = this.settings.getDataRemoveMethod();
         if (removeMethod != null) {
@@ -303,42 +332,109 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         return this.qrhId;
     }
 
+    /**
+     * Returns the metrics of the load. They stay readable after
+     * {@link #finish() } unregisters their MBean.
+     *
+     * @return the metrics, or <code>null</code> if the load has not started.
+     */
+    LoadMetrics getMetrics() {
+        return this.metrics;
+    }
+
     /**
      * Builds most of the concept tree, truncates the data tables, opens a
      * connection to the i2b2 project database, and does some other prep. This
      * method is called before the first call to
      * {@link #handleQueryResult(String, java.util.List, java.util.Map, java.util.Map, java.util.Map)}.
+     * If the load is resumable and the load journal has entries for this
+     * query, the data tables and the temp tables are not truncated. Instead,
+     * the load continues where the failed run left off. If the load is
+     * incremental, the watermarks of the last successful run are read so that
+     * unchanged patients can be skipped. If the load is partitioned, only
+     * the coordinator prepares the tables; the other partitions wait for it.
      *
      * @throws QueryResultsHandlerProcessingException
      */
     @Override
     public void start(PropositionDefinitionCache propDefs) throws QueryResultsHandlerProcessingException {
         Logger logger = I2b2ETLUtil.logger();
+        this.metrics = new LoadMetrics(this.query.getName());
+        this.metrics.start(this.settings.getMetricsLogInterval());
         try {
-            this.conceptDimensionHandler = new ConceptDimensionHandler(dataConnectionSpec);
-            this.modifierDimensionHandler = new ModifierDimensionHandler(dataConnectionSpec);
+            if (this.settings.getPartitionCount() > 1) {
+                this.partitions = new LoadPartitions(this.dataConnectionSpec, this.query.getName(),
+                        this.settings.getPartition(), this.settings.getPartitionCount(), this.settings.getPartitionTimeout());
+            }
+            boolean coordinator = isCoordinator();
+            if (coordinator) {
+                this.conceptDimensionHandler = new ConceptDimensionHandler(dataConnectionSpec, this.settings.getStagingMethod(), this.metrics);
+                this.modifierDimensionHandler = new ModifierDimensionHandler(dataConnectionSpec, this.settings.getStagingMethod(), this.metrics);
+            }
+            long ontologyStart = System.nanoTime();
             this.cache = new KnowledgeSourceCacheFactory().getInstance(this.knowledgeSource, propDefs, true);
             this.metadata = new MetadataFactory().getInstance(propDefs, this.qrhId, this.cache, collectUserPropositionDefinitions(), this.conceptsSection.getFolderSpecs(), settings, this.data, this.metadataConnectionSpec);
-            this.providerDimensionFactory = new ProviderDimensionFactory(this.metadata, this.settings, this.dataConnectionSpec);
-            this.patientDimensionFactory = new PatientDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec);
-            this.visitDimensionFactory = new VisitDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec);
-            DataRemoverFactory f = new DataRemoverFactory();
-            if (this.query.getQueryMode() == QueryMode.REPLACE) {
-                f.getInstance(this.dataRemoveMethod).doRemoveData();
-            }
-            f.getInstance(this.metaRemoveMethod).doRemoveMetadata();
-            this.factHandlers = new ArrayList<>();
-            addPropositionFactHandlers();
-            executePreHook();
-            // disable indexes on observation_fact to speed up inserts
-            disableObservationFactIndexes();
-            // create i2b2 temporary tables using stored procedures
-            truncateTempTables();
-            this.dataSchemaConnection = openDataDatabaseConnection();
-
-            this.dataSchemaName = this.dataSchemaConnection.getSchema();
-
-            if (this.settings.getManageCTotalNum()) {
+            this.metrics.phaseEnded("ontology", ontologyStart);
+            this.providerDimensionFactory = new ProviderDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec, this.metrics);
+            this.potentialDerivedPropIds = this.metadata.extractDerived();
+            if (this.settings.getResumable() && this.partitions != null) {
+                logger.log(Level.WARNING, "Partitioned loads are not resumable; journaling is off for query {0}", this.query.getName());
+            } else if (this.settings.getResumable()) {
+                this.journal = new LoadJournal(this.dataConnectionSpec, this.query.getName());
+                this.stagedKeys = this.journal.readStagedKeys();
+                this.completedSteps = this.journal.readCompletedSteps();
+                this.pendingKeys = new ArrayList<>();
+                this.resuming = !this.stagedKeys.isEmpty() || !this.completedSteps.isEmpty();
+            }
+            if (this.settings.getPromotionBatchSize() > 0) {
+                if (this.journal != null || this.partitions != null) {
+                    logger.log(Level.WARNING, "Resumable and partitioned loads are not promoted in batches; promoting at the end for query {0}", this.query.getName());
+                } else {
+                    this.promotionBatchSize = this.settings.getPromotionBatchSize();
+                }
+            }
+            if (this.settings.getIncrementalLoad()) {
+                if (this.query.getQueryMode() == QueryMode.UPDATE) {
+                    this.watermarks = new LoadWatermarks(this.dataConnectionSpec, partitionName());
+                    int sources = this.watermarks.read();
+                    logger.log(Level.INFO, "Incremental load of query {0} has watermarks for {1} source system(s)", new Object[]{this.query.getName(), sources});
+                } else {
+                    logger.log(Level.WARNING, "Incremental load requires query mode UPDATE; loading all patients for query {0}", this.query.getName());
+                }
+            }
+            if (coordinator) {
+                if (this.partitions != null) {
+                    this.partitions.reset();
+                }
+                DataRemoverFactory f = new DataRemoverFactory();
+                if (this.query.getQueryMode() == QueryMode.REPLACE && !this.resuming) {
+                    f.getInstance(this.dataRemoveMethod).doRemoveData();
+                }
+                if (!isStepCompleted(METADATA_STEP)) {
+                    f.getInstance(this.metaRemoveMethod).doRemoveMetadata();
+                }
+                executePreHook();
+                // disable indexes on observation_fact to speed up inserts
+                disableObservationFactIndexes();
+                if (this.resuming) {
+                    resumeStaging();
+                } else {
+                    // create i2b2 temporary tables using stored procedures
+                    truncateTempTables();
+                }
+            } else {
+                logger.log(Level.INFO, "Partition {0} of query {1} is waiting for the coordinator",
+                        new Object[]{this.partitions.getPartition(), this.query.getName()});
+                this.partitions.awaitCoordinatorReady();
+            }
+            this.rejectedFactWriter = newRejectedFactWriter();
+            this.factWriterPool = newFactWriterPool();
+            this.patientLoaders = newPatientLoaderPool();
+            try (Connection conn = openDataDatabaseConnection()) {
+                this.dataSchemaName = conn.getSchema();
+            }
+
+            if (coordinator && this.settings.getManageCTotalNum()) {
                 try (Connection conn = openMetadataDatabaseConnection()) {
                     conn.setAutoCommit(true);
                     try (CallableStatement mappingCall = conn.prepareCall("{ call ECMETA.EC_CLEAR_C_TOTALNUM() }")) {
@@ -347,12 +443,311 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
                     }
                 }
             }
+            if (coordinator && this.partitions != null) {
+                this.partitions.setStatus(LoadPartitions.READY);
+            }
             logger.log(Level.INFO, "Populating observation facts table for query {0}", this.query.getName());
-        } catch (KnowledgeSourceReadException | SQLException | OntologyBuildException ex) {
+            this.stagingStartNanos = System.nanoTime();
+        } catch (KnowledgeSourceReadException | SQLException | OntologyBuildException | InvalidConceptCodeException ex) {
+            if (this.partitions != null) {
+                try {
+                    this.partitions.setStatus(LoadPartitions.FAILED);
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+            }
+            this.metrics.close();
             throw new QueryResultsHandlerProcessingException("Error during i2b2 load", ex);
         }
     }
 
+    /**
+     * Prepares the temp tables and the concept tree to continue a load that
+     * failed. Records of patients that were staged after the last checkpoint
+     * are deleted, and the providers and concepts that the previously staged
+     * patients use are restored.
+     */
+    private void resumeStaging() throws SQLException, InvalidConceptCodeException {
+        Logger logger = I2b2ETLUtil.logger();
+        String queryId = this.query.getName();
+        logger.log(Level.INFO, "Resuming query {0}: {1} patient(s) already staged, completed steps {2}",
+                new Object[]{queryId, this.stagedKeys.size(), this.completedSteps});
+        String[][] keyedTables = {
+            {tempPatientTableName(), "patient_id"},
+            {tempPatientMappingTableName(), "patient_id"},
+            {tempVisitTableName(), "patient_id"},
+            {tempEncounterMappingTableName(), "patient_map_id"},
+            {tempObservationFactTableName(), "patient_id"}
+        };
+        for (String[] keyedTable : keyedTables) {
+            int purged = this.journal.purgeUnstagedKeys(keyedTable[0], keyedTable[1]);
+            logger.log(Level.FINE, "Deleted {0} partially staged record(s) from {1}", new Object[]{purged, keyedTable[0]});
+        }
+        int providers = this.providerDimensionFactory.restoreStagedProviders();
+        logger.log(Level.FINE, "Restored {0} provider(s) for query {1}", new Object[]{providers, queryId});
+        restoreInUseConcepts();
+    }
+
+    /**
+     * Marks the concepts and modifiers of the staged observation facts as in
+     * use, as staging them did in the run that failed.
+     */
+    private void restoreInUseConcepts() throws SQLException {
+        Map<String, List<Concept>> concepts = new HashMap<>();
+        Map<String, List<Concept>> modifiers = new HashMap<>();
+        for (Concept root : this.metadata.getAllRoots()) {
+            for (Concept concept : root.postorder()) {
+                String conceptCode = concept.getConceptCode();
+                if (conceptCode != null) {
+                    Map<String, List<Concept>> byCode = concept.isModifier() ? modifiers : concepts;
+                    byCode.computeIfAbsent(conceptCode, k -> new ArrayList<>(1)).add(concept);
+                }
+            }
+        }
+        try (Connection conn = openDataDatabaseConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT DISTINCT concept_cd, modifier_cd FROM " + tempObservationFactTableName())) {
+            while (rs.next()) {
+                markInUse(concepts.get(rs.getString(1)));
+                String modifierCd = rs.getString(2);
+                if (modifierCd != null && !"@".equals(modifierCd)) {
+                    markInUse(modifiers.get(modifierCd));
+                }
+            }
+        }
+    }
+
+    private static void markInUse(List<Concept> concepts) {
+        if (concepts != null) {
+            for (Concept concept : concepts) {
+                concept.setInUse(true);
+            }
+        }
+    }
+
+    private boolean isStepCompleted(String step) {
+        return this.completedSteps != null && this.completedSteps.contains(step);
+    }
+
+    /**
+     * Wraps a finish step so that its wall time is recorded in the load
+     * metrics, it is skipped if a previous run completed it, and it is
+     * journaled when it completes.
+     */
+    private PromotionGraph.Step journaled(String step, PromotionGraph.Step delegate) {
+        return () -> {
+            if (isStepCompleted(step)) {
+                I2b2ETLUtil.logger().log(Level.INFO, "Skipping completed step {0} for query {1}", new Object[]{step, this.query.getName()});
+            } else {
+                long start = System.nanoTime();
+                delegate.execute();
+                this.metrics.phaseEnded(step, start);
+                if (this.journal != null) {
+                    this.journal.recordStep(step);
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the promotion of the patient and encounter mappings and of the
+     * patient, visit and provider dimensions from the temp tables.
+     */
+    private void addDimensionPromotions(PromotionGraph promotion) {
+        Logger logger = I2b2ETLUtil.logger();
+        String queryId = this.query.getName();
+        promotion.add("patient mapping", journaled("patient mapping", () -> {
+            logger.log(Level.INFO, "Populating patient dimension for query {0}", queryId);
+            callFromTemp("EK_INSERT_PID_MAP_FROMTEMP", tempPatientMappingTableName());
+        }));
+        promotion.add("encounter mapping", journaled("encounter mapping", () -> {
+            callFromTemp("EK_INSERT_EID_MAP_FROMTEMP", tempEncounterMappingTableName());
+        }), "patient mapping");
+        promotion.add("patient", journaled("patient", () -> {
+            callFromTemp("EK_INS_PATIENT_FROMTEMP", tempPatientTableName());
+        }), "patient mapping");
+        promotion.add("visit", journaled("visit", () -> {
+            logger.log(Level.INFO, "Populating visit dimension for query {0}", queryId);
+            callFromTemp("EK_INS_ENC_VISIT_FROMTEMP", tempVisitTableName());
+        }), "encounter mapping");
+        promotion.add("provider", journaled("provider", () -> {
+            logger.log(Level.INFO, "Populating provider dimension for query {0}", queryId);
+            callFromTemp("EK_INS_PROVIDER_FROMTEMP", tempProviderTableName());
+        }));
+    }
+
+    /**
+     * Merges the staged facts into observation_fact.
+     */
+    private void updateObservationFact() throws SQLException {
+        try (Connection conn = openDataDatabaseConnection()) {
+            conn.setAutoCommit(true);
+            I2b2ETLUtil.logger().log(Level.INFO, "Populating observation_fact from temporary table");
+            try (CallableStatement call = conn.prepareCall("{ call EUREKA.EK_UPDATE_OBSERVATION_FACT(?, ?, ?, ?) }")) {
+                call.setString(1, tempObservationFactTableName());
+                call.setString(2, tempObservationFactCompleteTableName());
+                call.setLong(3, UPLOAD_ID);
+                call.setLong(4, (this.query.getQueryMode() == QueryMode.UPDATE && this.settings.getMergeOnUpdate()) ? 1 : 0); // appendFlag
+                long start = System.nanoTime();
+                call.execute();
+                this.metrics.procedureCalled("EK_UPDATE_OBSERVATION_FACT", start);
+            }
+        }
+    }
+
+    /**
+     * Adds the number of merged facts per concept code in the temp tables to
+     * the counts of earlier batches, so that {@link #finish() } can report
+     * totals after the temp tables have been truncated.
+     */
+    private void countBatchFacts() throws SQLException {
+        try (Connection conn = openDataDatabaseConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT concept_cd, COUNT(*) FROM "
+                        + tempObservationFactCompleteTableName()
+                        + " WHERE modifier_cd='@' AND patient_num IS NOT NULL AND encounter_num IS NOT NULL GROUP BY concept_cd")) {
+            while (rs.next()) {
+                this.batchFactCounts.merge(rs.getString(1), rs.getLong(2), Long::sum);
+            }
+        }
+    }
+
+    /**
+     * Sums the fact counts of all batches under each of the given concept
+     * paths, using the concept paths in the temp concept table. Concept
+     * paths are matched by prefix, as in the count of an unbatched load.
+     */
+    private void sumBatchFacts(List<String> cFullNames, long[] counts) throws SQLException {
+        try (Connection conn = openDataDatabaseConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT concept_cd, concept_path FROM " + tempConceptTableName())) {
+            while (rs.next()) {
+                Long count = this.batchFactCounts.get(rs.getString(1));
+                String conceptPath = rs.getString(2);
+                if (count != null && conceptPath != null) {
+                    for (int i = 0; i < counts.length; i++) {
+                        if (conceptPath.startsWith(cFullNames.get(i))) {
+                            counts[i] += count;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Escapes the wildcards and escape character of a <code>LIKE</code>
+     * pattern, for matching with <code>ESCAPE '\'</code>.
+     */
+    private static String escapeLike(String str) {
+        return str.replaceAll("[\\\\%_]", "\\\\$0");
+    }
+
+    /**
+     * Counts the rows of the given tables in a single round trip.
+     *
+     * @return the counts, in the order of the tables.
+     */
+    private long[] countRecords(String... tableNames) throws SQLException {
+        StringBuilder countQuery = new StringBuilder();
+        for (int i = 0; i < tableNames.length; i++) {
+            if (i > 0) {
+                countQuery.append(" UNION ALL ");
+            }
+            countQuery.append("SELECT ").append(i).append(", COUNT(*) FROM ").append(tableNames[i]);
+        }
+        long[] counts = new long[tableNames.length];
+        try (Connection conn = openDataDatabaseConnection();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(countQuery.toString())) {
+            while (rs.next()) {
+                counts[rs.getInt(1)] = rs.getLong(2);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Promotes the patients staged since the last batch into the dimension
+     * and fact tables, and truncates the temp tables that held them, so that
+     * the temp tables and the fact merge stay bounded. Concepts and
+     * modifiers are still promoted when the load finishes, because which
+     * ones are in use is not known until then.
+     */
+    private void promoteBatch() throws QueryResultsHandlerProcessingException {
+        Logger logger = I2b2ETLUtil.logger();
+        String queryId = this.query.getName();
+        try {
+            this.patientLoaders.awaitCompletion();
+            PatientLoaderPool loaders = this.patientLoaders;
+            this.patientLoaders = null;
+            loaders.close();
+            if (this.factWriterPool != null) {
+                this.factWriterPool.flush();
+            }
+            this.rejectedFactWriter.flush();
+            ProviderDimensionFactory providers = this.providerDimensionFactory;
+            this.providerDimensionFactory = null;
+            providers.close();
+            long start = System.nanoTime();
+            PromotionGraph promotion = new PromotionGraph(queryId, Math.max(this.settings.getPromotionThreads(), 1));
+            addDimensionPromotions(promotion);
+            promotion.execute();
+            updateObservationFact();
+            countBatchFacts();
+            long[] recordCounts = countRecords(tempPatientTableName(), tempVisitTableName(), tempProviderTableName());
+            for (int i = 0; i < recordCounts.length; i++) {
+                this.batchRecordCounts[i] += recordCounts[i];
+            }
+            try (Connection conn = openDataDatabaseConnection()) {
+                conn.setAutoCommit(true);
+                String[] batchTables = {tempPatientTableName(), tempPatientMappingTableName(), tempVisitTableName(), tempEncounterMappingTableName(), tempProviderTableName(), tempObservationFactTableName(), tempObservationFactCompleteTableName()};
+                for (String tableName : batchTables) {
+                    truncateTable(conn, tableName);
+                }
+            }
+            this.promotedBatches++;
+            this.metrics.phaseEnded("batch promotion", start);
+            logger.log(Level.INFO, "Promoted batch {0} of {1} patient(s) for query {2}",
+                    new Object[]{this.promotedBatches, this.batchPatients, queryId});
+            this.batchPatients = 0;
+            this.providerDimensionFactory = new ProviderDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec, this.metrics);
+            this.patientLoaders = newPatientLoaderPool();
+        } catch (SQLException ex) {
+            throw new QueryResultsHandlerProcessingException("Load into i2b2 failed for query " + queryId, ex);
+        }
+    }
+
+    /**
+     * Flushes the loaders and journals the patients staged since the last
+     * checkpoint, so that a failed load can resume from here.
+     */
+    private void checkpoint() throws QueryResultsHandlerProcessingException {
+        String queryId = this.query.getName();
+        try {
+            this.patientLoaders.awaitCompletion();
+            PatientLoaderPool loaders = this.patientLoaders;
+            this.patientLoaders = null;
+            loaders.close();
+            if (this.factWriterPool != null) {
+                this.factWriterPool.flush();
+            }
+            this.rejectedFactWriter.flush();
+            ProviderDimensionFactory providers = this.providerDimensionFactory;
+            this.providerDimensionFactory = null;
+            providers.close();
+            this.journal.recordStagedKeys(this.pendingKeys);
+            I2b2ETLUtil.logger().log(Level.FINE, "Checkpoint: {0} patient(s) staged for query {1}",
+                    new Object[]{this.stagedKeys.size() + this.pendingKeys.size(), queryId});
+            this.stagedKeys.addAll(this.pendingKeys);
+            this.pendingKeys.clear();
+            this.providerDimensionFactory = new ProviderDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec, this.metrics);
+            this.patientLoaders = newPatientLoaderPool();
+        } catch (SQLException ex) {
+            throw new QueryResultsHandlerProcessingException("Load into i2b2 failed for query " + queryId, ex);
+        }
+    }
+
     private String rejectedObservationFactTable() {
         return RejectedFactHandler.REJECTED_FACT_TABLE;
     }
@@ -417,46 +812,27 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             Map<Proposition, Set<Proposition>> forwardDerivations, 
             Map<Proposition, Set<Proposition>> backwardDerivations, 
             Map<UniqueId, Proposition> references) throws QueryResultsHandlerProcessingException {
-        Logger logger = I2b2ETLUtil.logger();
-        logger.log(Level.FINER, "Loading patient into i2b2");
-        try {
-            Set<Proposition> derivedPropositions = new HashSet<>();
-            PatientDimension pd = null;
-            for (Proposition prop : propositions) {
-                if (prop.getId().equals(this.visitPropId)) {
-                    pd = handlePatient(pd, keyId, prop, references, forwardDerivations, backwardDerivations, derivedPropositions);
-                }
+        if (this.partitions != null && !this.partitions.contains(keyId)) {
+            return;
+        }
+        if (this.watermarks != null && !this.watermarks.isChanged(propositions, references)) {
+            this.unchangedPatients++;
+            return;
+        }
+        if (this.journal == null) {
+            this.patientLoaders.load(keyId, propositions, forwardDerivations, backwardDerivations, references);
+            this.metrics.patientLoaded();
+            if (this.promotionBatchSize > 0 && ++this.batchPatients >= this.promotionBatchSize) {
+                promoteBatch();
+            }
+        } else if (!this.stagedKeys.contains(keyId)) {
+            this.patientLoaders.load(keyId, propositions, forwardDerivations, backwardDerivations, references);
+            this.metrics.patientLoaded();
+            this.pendingKeys.add(keyId);
+            if (this.pendingKeys.size() >= Math.max(this.settings.getCheckpointInterval(), 1)) {
+                checkpoint();
             }
-        } catch (InvalidConceptCodeException | InvalidFactException | InvalidPatientRecordException | SQLException ex) {
-            throw new QueryResultsHandlerProcessingException("Load into i2b2 failed for query " + this.query.getName(), ex);
         }
-        logger.log(Level.FINER, "Done loading patient into i2b2");
-    }
-
-    private PatientDimension handlePatient(PatientDimension pd, String keyId, 
-            Proposition prop, Map<UniqueId, Proposition> references, 
-            Map<Proposition, Set<Proposition>> forwardDerivations, 
-            Map<Proposition, Set<Proposition>> backwardDerivations, 
-            Set<Proposition> derivedPropositions) throws SQLException, InvalidConceptCodeException, InvalidFactException, InvalidPatientRecordException {
-        if (pd == null) {
-            pd = this.patientDimensionFactory.getInstance(keyId, prop, references);
-        }
-        ProviderDimension providerDimension = this.providerDimensionFactory.getInstance(
-                prop,
-                this.providerFullNameSpec != null ? this.providerFullNameSpec.getReferenceName() : null,
-                this.providerFullNameSpec != null ? this.providerFullNameSpec.getPropertyName() : null,
-                this.providerFirstNameSpec != null ? this.providerFirstNameSpec.getReferenceName() : null,
-                this.providerFirstNameSpec != null ? this.providerFirstNameSpec.getPropertyName() : null,
-                this.providerMiddleNameSpec != null ? this.providerMiddleNameSpec.getReferenceName() : null,
-                this.providerMiddleNameSpec != null ? this.providerMiddleNameSpec.getPropertyName() : null,
-                this.providerLastNameSpec != null ? this.providerLastNameSpec.getReferenceName() : null,
-                this.providerLastNameSpec != null ? this.providerLastNameSpec.getPropertyName() : null,
-                references);
-        VisitDimension vd = this.visitDimensionFactory.getInstance(pd.getEncryptedPatientId(), pd.getEncryptedPatientIdSource(), (TemporalProposition) prop, references);
-        for (FactHandler factHandler : this.factHandlers) {
-            factHandler.handleRecord(pd, vd, providerDimension, prop, forwardDerivations, backwardDerivations, references, derivedPropositions);
-        }
-        return pd;
     }
 
     @Override
@@ -468,22 +844,22 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
 
         SQLException exception = null;
 
-        try {
-            if (this.factHandlers != null) {
-                for (Iterator<FactHandler> itr = this.factHandlers.iterator(); itr.hasNext();) {
-                    FactHandler factHandler = itr.next();
-                    factHandler.close();
-                    itr.remove();
-                }
+        if (this.patientLoaders != null) {
+            // wait for the load threads to stage their remaining patients.
+            this.patientLoaders.awaitCompletion();
+            try {
+                // persist Patients, Visits & facts.
+                this.patientLoaders.close();
+                this.patientLoaders = null;
+            } catch (SQLException ex) {
+                exception = ex;
             }
-        } catch (SQLException ex) {
-            exception = ex;
         }
 
-        if (this.dataSchemaConnection != null) {
+        if (this.factWriterPool != null) {
             try {
-                this.dataSchemaConnection.close();
-                this.dataSchemaConnection = null;
+                this.factWriterPool.close();
+                this.factWriterPool = null;
             } catch (SQLException ex) {
                 if (exception == null) {
                     exception = ex;
@@ -491,11 +867,10 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             }
         }
 
-        if (this.patientDimensionFactory != null) {
+        if (this.rejectedFactWriter != null) {
             try {
-                // persist Patients & Visits.
-                this.patientDimensionFactory.close();
-                this.patientDimensionFactory = null;
+                this.rejectedFactWriter.close();
+                this.rejectedFactWriter = null;
             } catch (SQLException ex) {
                 if (exception == null) {
                     exception = ex;
@@ -505,23 +880,11 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
 
         logger.log(Level.INFO, "Populating dimensions for query {0}", queryId);
 
-        if (exception == null) {
-            try (Connection conn = openDataDatabaseConnection();
-                    CallableStatement mappingCall = conn.prepareCall("{ call EUREKA.EK_INSERT_PID_MAP_FROMTEMP(?, ?) }")) {
-                conn.setAutoCommit(true);
-                logger.log(Level.INFO, "Populating patient dimension for query {0}", queryId);
-                mappingCall.setString(1, tempPatientMappingTableName());
-                mappingCall.setInt(2, UPLOAD_ID);
-                mappingCall.execute();
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-        }
-
-        if (this.visitDimensionFactory != null) {
+        if (this.providerDimensionFactory != null) {
             try {
-                this.visitDimensionFactory.close();
-                this.visitDimensionFactory = null;
+                // find Provider root. gather its leaf nodes. persist Providers.
+                this.providerDimensionFactory.close();
+                this.providerDimensionFactory = null;
             } catch (SQLException ex) {
                 if (exception == null) {
                     exception = ex;
@@ -529,81 +892,76 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             }
         }
 
-        if (exception == null) {
-            try (Connection conn = openDataDatabaseConnection();
-                    CallableStatement mappingCall = conn.prepareCall("{ call EUREKA.EK_INSERT_EID_MAP_FROMTEMP(?, ?) }")) {
-                conn.setAutoCommit(true);
-                mappingCall.setString(1, tempEncounterMappingTableName());
-                mappingCall.setInt(2, UPLOAD_ID);
-                mappingCall.execute();
-            } catch (SQLException ex) {
-                exception = ex;
-            }
+        if (this.metrics != null && this.stagingStartNanos != 0L) {
+            this.metrics.phaseEnded("staging", this.stagingStartNanos);
         }
 
-        if (exception == null) {
-            try (Connection conn = openDataDatabaseConnection()) {
-                try (CallableStatement call = conn.prepareCall("{ call EUREKA.EK_INS_PATIENT_FROMTEMP(?, ?) }")) {
-                    conn.setAutoCommit(true);
-                    call.setString(1, tempPatientTableName());
-                    call.setInt(2, UPLOAD_ID);
-                    call.execute();
-                }
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-        }
-
-        if (exception == null) {
-            try (Connection conn = openDataDatabaseConnection();
-                    CallableStatement call = conn.prepareCall("{ call EUREKA.EK_INS_ENC_VISIT_FROMTEMP(?, ?) }")) {
-                conn.setAutoCommit(true);
-                logger.log(Level.INFO, "Populating visit dimension for query {0}", queryId);
-                call.setString(1, tempVisitTableName());
-                call.setInt(2, UPLOAD_ID);
-                call.execute();
+        if (exception == null && this.journal != null) {
+            try {
+                this.journal.recordStagedKeys(this.pendingKeys);
+                this.pendingKeys.clear();
             } catch (SQLException ex) {
                 exception = ex;
             }
         }
 
-        if (this.providerDimensionFactory != null) {
-            try {
-                // find Provider root. gather its leaf nodes. persist Providers.
-                this.providerDimensionFactory.close();
-                this.providerDimensionFactory = null;
-            } catch (SQLException ex) {
-                if (exception == null) {
-                    exception = ex;
-                }
-            }
+        if (!isCoordinator()) {
+            finishPartition(exception);
+            return;
         }
 
-        if (exception == null) {
+        if (exception == null && this.partitions != null) {
             try {
-                logger.log(Level.INFO, "Populating provider dimension for query {0}", queryId);
-                try (Connection conn = openDataDatabaseConnection()) {
-                    conn.setAutoCommit(true);
-                    try (CallableStatement call = conn.prepareCall("{ call EUREKA.EK_INS_PROVIDER_FROMTEMP(?, ?) }")) {
-                        call.setString(1, tempProviderTableName());
-                        call.setInt(2, UPLOAD_ID);
-                        call.execute();
-                    }
+                logger.log(Level.INFO, "Waiting for the other partitions of query {0}", queryId);
+                this.partitions.awaitPartitionsDone();
+                ProviderDimensionFactory providers = new ProviderDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec, this.metrics);
+                try {
+                    int count = providers.consolidateStagedProviders();
+                    logger.log(Level.FINE, "Consolidated {0} provider(s) for query {1}", new Object[]{count, queryId});
+                } finally {
+                    providers.close();
                 }
+                restoreInUseConcepts();
             } catch (SQLException ex) {
                 exception = ex;
+            } catch (InvalidConceptCodeException ex) {
+                exception = new SQLException("Error consolidating the partitions of query " + queryId, ex);
             }
         }
 
         if (exception == null) {
-            try {
+            // provider, concept and modifier do not depend on the patient and
+            // encounter mappings, so they may be promoted concurrently.
+            PromotionGraph promotion = new PromotionGraph(queryId, Math.max(this.settings.getPromotionThreads(), 1));
+            addDimensionPromotions(promotion);
+            promotion.add("concept", journaled("concept", () -> {
                 // flush hot concepts out of the tree. persist Concepts.
-                logger.log(Level.INFO, "Populating concept dimension for query {0}", this.query.getName());
+                logger.log(Level.INFO, "Populating concept dimension for query {0}", queryId);
+                if (this.resuming) {
+                    truncateTempTable(tempConceptTableName());
+                }
                 new ConceptDimensionLoader(this.conceptDimensionHandler).execute(this.metadata.getAllRoots());
+                this.conceptDimensionHandler.close();
+                this.conceptDimensionHandler = null;
+                callFromTemp("EK_INS_CONCEPT_FROMTEMP", tempConceptTableName());
+            }));
+            promotion.add("modifier", journaled("modifier", () -> {
+                logger.log(Level.INFO, "Populating modifier dimension for query {0}", queryId);
+                if (this.resuming) {
+                    truncateTempTable(tempModifierTableName());
+                }
+                new ModifierDimensionLoader(this.modifierDimensionHandler).execute(this.metadata.getModifierRoots());
+                this.modifierDimensionHandler.close();
+                this.modifierDimensionHandler = null;
+                callFromTemp("EK_INS_MODIFIER_FROMTEMP", tempModifierTableName());
+            }));
+            try {
+                promotion.execute();
             } catch (SQLException ex) {
                 exception = ex;
             }
         }
+
         if (this.conceptDimensionHandler != null) {
             try {
                 this.conceptDimensionHandler.close();
@@ -614,30 +972,6 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
                 }
             }
         }
-
-        if (exception == null) {
-            try {
-                try (Connection conn = openDataDatabaseConnection()) {
-                    conn.setAutoCommit(true);
-                    try (CallableStatement call = conn.prepareCall("{ call EUREKA.EK_INS_CONCEPT_FROMTEMP(?, ?) }")) {
-                        call.setString(1, tempConceptTableName());
-                        call.setInt(2, UPLOAD_ID);
-                        call.execute();
-                    }
-                }
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-        }
-
-        if (exception == null) {
-            try {
-                logger.log(Level.INFO, "Populating modifier dimension for query {0}", this.query.getName());
-                new ModifierDimensionLoader(this.modifierDimensionHandler).execute(this.metadata.getModifierRoots());
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-        }
         if (this.modifierDimensionHandler != null) {
             try {
                 this.modifierDimensionHandler.close();
@@ -649,34 +983,15 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             }
         }
 
-        if (exception == null) {
-            try (Connection conn = openDataDatabaseConnection()) {
-                conn.setAutoCommit(true);
-                try (CallableStatement call = conn.prepareCall("{ call EUREKA.EK_INS_MODIFIER_FROMTEMP(?, ?) }")) {
-                    call.setString(1, tempModifierTableName());
-                    call.setInt(2, UPLOAD_ID);
-                    call.execute();
-                }
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-        }
-
         if (exception == null) {
             try {
                 logger.log(Level.INFO, "Done populating dimensions for query {0}", queryId);
-
-                try (Connection conn = openDataDatabaseConnection()) {
-                    conn.setAutoCommit(true);
-                    logger.log(Level.INFO, "Populating observation_fact from temporary table");
-                    try (CallableStatement call = conn.prepareCall("{ call EUREKA.EK_UPDATE_OBSERVATION_FACT(?, ?, ?, ?) }")) {
-                        call.setString(1, tempObservationFactTableName());
-                        call.setString(2, tempObservationFactCompleteTableName());
-                        call.setLong(3, UPLOAD_ID);
-                        call.setLong(4, (this.query.getQueryMode() == QueryMode.UPDATE && this.settings.getMergeOnUpdate()) ? 1 : 0); // appendFlag
-                        call.execute();
+                journaled(OBSERVATION_FACT_STEP, () -> {
+                    if (this.resuming) {
+                        truncateTempTable(tempObservationFactCompleteTableName());
                     }
-                }
+                    updateObservationFact();
+                }).execute();
             } catch (SQLException ex) {
                 exception = ex;
             }
@@ -700,6 +1015,15 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             }
         }
 
+        if (exception == null && this.promotedBatches > 0) {
+            // the last batch is still in the temp tables.
+            try {
+                countBatchFacts();
+            } catch (SQLException ex) {
+                exception = ex;
+            }
+        }
+
         List<String> cFullNames = new ArrayList<>();
         if (exception == null && this.metadataConnectionSpec != null) {
             logger.log(Level.INFO, "Querying TABLE_ACCESS for full names");
@@ -716,30 +1040,52 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         }
 
         if (exception == null && !cFullNames.isEmpty()) {
-            for (String cFullName : cFullNames) {
+            // count the records under every root in a single pass.
+            StringBuilder countQuery = new StringBuilder("SELECT ");
+            for (int i = 0, n = cFullNames.size(); i < n; i++) {
+                String cFullName = cFullNames.get(i);
                 logger.log(Level.INFO, "Getting number of records loaded for {0}", cFullName);
                 fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_START, getClass(), new Date(), "Count of " + cFullName));
-                String countQuery = "SELECT count(*) FROM " + tempObservationFactCompleteTableName()
-                        + " obx join "
-                        + tempConceptTableName()
-                        + " tc ON (obx.concept_cd=tc.concept_cd) WHERE tc.concept_path like '"
-                        + cFullName
-                        + "%' AND obx.modifier_cd='@' AND obx.patient_num IS NOT NULL AND obx.encounter_num IS NOT NULL";
-                int count = -1;
+                if (i > 0) {
+                    countQuery.append(", ");
+                }
+                // Escape the wildcards so that the count matches concept
+                // paths by prefix like sumBatchFacts does.
+                countQuery.append("SUM(CASE WHEN tc.concept_path LIKE '")
+                        .append(escapeLike(cFullName).replace("'", "''"))
+                        .append("%' ESCAPE '\\' THEN 1 ELSE 0 END)");
+            }
+            countQuery.append(" FROM ")
+                    .append(tempObservationFactCompleteTableName())
+                    .append(" obx join ")
+                    .append(tempConceptTableName())
+                    .append(" tc ON (obx.concept_cd=tc.concept_cd) WHERE obx.modifier_cd='@' AND obx.patient_num IS NOT NULL AND obx.encounter_num IS NOT NULL");
+            long[] counts = new long[cFullNames.size()];
+            if (this.promotedBatches == 0) {
                 try (Connection conn = openDataDatabaseConnection();
                         Statement stmt = conn.createStatement();
-                        ResultSet rs = stmt.executeQuery(countQuery)) {
+                        ResultSet rs = stmt.executeQuery(countQuery.toString())) {
                     if (rs.next()) {
-                        count = rs.getInt(1);
+                        for (int i = 0; i < counts.length; i++) {
+                            counts[i] = rs.getLong(i + 1);
+                        }
                     }
                 } catch (SQLException ex) {
                     exception = ex;
-                    break;
                 }
+            } else {
+                try {
+                    sumBatchFacts(cFullNames, counts);
+                } catch (SQLException ex) {
+                    exception = ex;
+                }
+            }
+            for (int i = 0; i < counts.length; i++) {
+                String cFullName = cFullNames.get(i);
                 fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_STOP, getClass(), new Date(), "Count of " + cFullName));
                 if (exception == null) {
-                    logger.log(Level.INFO, "{0} {1} record(s) loaded", new Object[]{count, cFullName});
-                    fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of " + cFullName + ": " + count));
+                    logger.log(Level.INFO, "{0} {1} record(s) loaded", new Object[]{counts[i], cFullName});
+                    fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of " + cFullName + ": " + counts[i]));
                 } else {
                     fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of " + cFullName + ": ERROR (" + exception.getMessage() + ")"));
                 }
@@ -747,90 +1093,30 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         }
 
         if (exception == null) {
-            logger.log(Level.INFO, "Getting number of patient records loaded");
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_START, getClass(), new Date(), "Count of patient records"));
-            int count = -1;
-            try (Connection conn = openDataDatabaseConnection();
-                    Statement stmt = conn.createStatement();
-                    ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tempPatientTableName())) {
-                if (rs.next()) {
-                    count = rs.getInt(1);
-                }
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_STOP, getClass(), new Date(), "Count of patient records"));
-            if (exception == null) {
-                logger.log(Level.INFO, "{0} patient record(s) loaded", count);
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of patient records: " + count));
-            } else {
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of patient records: ERROR (" + exception.getMessage() + ")"));
+            // patient, visit and provider records of earlier batches were
+            // counted before their temp tables were truncated.
+            String[] recordTypes = {"patient", "visit", "provider", "concept"};
+            for (String recordType : recordTypes) {
+                logger.log(Level.INFO, "Getting number of {0} records loaded", recordType);
+                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_START, getClass(), new Date(), "Count of " + recordType + " records"));
             }
-        }
-
-        if (exception == null) {
-            logger.log(Level.INFO, "Getting number of visit records loaded");
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_START, getClass(), new Date(), "Count of visit records"));
-            int count = -1;
-            try (Connection conn = openDataDatabaseConnection();
-                    Statement stmt = conn.createStatement();
-                    ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tempVisitTableName())) {
-                if (rs.next()) {
-                    count = rs.getInt(1);
-                }
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_STOP, getClass(), new Date(), "Count of visit records"));
-            if (exception == null) {
-                logger.log(Level.INFO, "{0} visit record(s) loaded", count);
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of visit records: " + count));
-            } else {
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of visit records: ERROR (" + exception.getMessage() + ")"));
-            }
-        }
-
-        if (exception == null) {
-            logger.log(Level.INFO, "Getting number of provider records loaded");
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_START, getClass(), new Date(), "Count of provider records"));
-            int count = -1;
-            try (Connection conn = openDataDatabaseConnection();
-                    Statement stmt = conn.createStatement();
-                    ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tempProviderTableName())) {
-                if (rs.next()) {
-                    count = rs.getInt(1);
+            long[] counts = null;
+            try {
+                counts = countRecords(tempPatientTableName(), tempVisitTableName(), tempProviderTableName(), tempConceptTableName());
+                for (int i = 0; i < this.batchRecordCounts.length; i++) {
+                    counts[i] += this.batchRecordCounts[i];
                 }
             } catch (SQLException ex) {
                 exception = ex;
             }
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_STOP, getClass(), new Date(), "Count of provider records"));
-            if (exception == null) {
-                logger.log(Level.INFO, "{0} provider record(s) loaded", count);
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of provider records: " + count));
-            } else {
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of provider records: ERROR (" + exception.getMessage() + ")"));
-            }
-        }
-
-        if (exception == null) {
-            logger.log(Level.INFO, "Getting number of concept records loaded");
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_START, getClass(), new Date(), "Count of concept records"));
-            int count = -1;
-            try (Connection conn = openDataDatabaseConnection();
-                    Statement stmt = conn.createStatement();
-                    ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tempConceptTableName())) {
-                if (rs.next()) {
-                    count = rs.getInt(1);
+            for (int i = 0; i < recordTypes.length; i++) {
+                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_STOP, getClass(), new Date(), "Count of " + recordTypes[i] + " records"));
+                if (exception == null) {
+                    logger.log(Level.INFO, "{0} {1} record(s) loaded", new Object[]{counts[i], recordTypes[i]});
+                    fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of " + recordTypes[i] + " records: " + counts[i]));
+                } else {
+                    fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of " + recordTypes[i] + " records: ERROR (" + exception.getMessage() + ")"));
                 }
-            } catch (SQLException ex) {
-                exception = ex;
-            }
-            fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_STOP, getClass(), new Date(), "Count of concept records"));
-            if (exception == null) {
-                logger.log(Level.INFO, "{0} concept record(s) loaded", count);
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of concept records: " + count));
-            } else {
-                fireProtempaEvent(new ProtempaEvent(ProtempaEvent.Level.INFO, ProtempaEvent.Type.QRH_STEP_RESULT, getClass(), new Date(), "Count of concept records: ERROR (" + exception.getMessage() + ")"));
             }
         }
 
@@ -838,13 +1124,15 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             try {
                 logger.log(Level.INFO, "Done populating observation fact table for query {0}", queryId);
                 if (this.metadataConnectionSpec != null) {
-                    logger.log(Level.INFO, "Populating metadata tables for query {0}", queryId);
-                    String tableName = this.settings.getMetaTableName();
-                    try (MetaTableConceptHandler metaTableHandler = new MetaTableConceptHandler(this.metadataConnectionSpec, tableName)) {
-                        MetaTableConceptLoader metaTableConceptLoader = new MetaTableConceptLoader(metaTableHandler);
-                        metaTableConceptLoader.execute(this.metadata.getAllRoots());
-                        logger.log(Level.INFO, "Done populating metadata tables for query {0}", queryId);
-                    }
+                    journaled(METADATA_STEP, () -> {
+                        logger.log(Level.INFO, "Populating metadata tables for query {0}", queryId);
+                        String tableName = this.settings.getMetaTableName();
+                        try (MetaTableConceptHandler metaTableHandler = new MetaTableConceptHandler(this.metadataConnectionSpec, tableName)) {
+                            MetaTableConceptLoader metaTableConceptLoader = new MetaTableConceptLoader(metaTableHandler);
+                            metaTableConceptLoader.execute(this.metadata.getAllRoots());
+                            logger.log(Level.INFO, "Done populating metadata tables for query {0}", queryId);
+                        }
+                    }).execute();
                 } else {
                     logger.log(Level.INFO, "Skipping metadata tables for query {0}", queryId);
                 }
@@ -860,7 +1148,9 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
                     try (CallableStatement mappingCall = conn.prepareCall("{ call ECMETA.EC_UPDATE_C_TOTALNUM(?) }")) {
                         logger.log(Level.INFO, "Updating C_TOTALNUM for query {0}", this.query.getName());
                         mappingCall.setString(1, this.dataSchemaName);
+                        long start = System.nanoTime();
                         mappingCall.execute();
+                        this.metrics.procedureCalled("EC_UPDATE_C_TOTALNUM", start);
                     }
                 } catch (SQLException ex) {
                     exception = ex;
@@ -870,6 +1160,39 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             }
         }
 
+        if (exception == null && this.journal != null) {
+            try {
+                this.journal.clear();
+            } catch (SQLException ex) {
+                exception = ex;
+            }
+        }
+
+        if (exception == null && this.watermarks != null) {
+            try {
+                this.watermarks.write();
+                logger.log(Level.INFO, "Skipped {0} unchanged patient(s) in query {1}", new Object[]{this.unchangedPatients, queryId});
+            } catch (SQLException ex) {
+                exception = ex;
+            }
+        }
+
+        if (this.partitions != null) {
+            try {
+                this.partitions.setStatus(exception == null ? LoadPartitions.DONE : LoadPartitions.FAILED);
+            } catch (SQLException ex) {
+                if (exception == null) {
+                    exception = ex;
+                } else {
+                    exception.addSuppressed(ex);
+                }
+            }
+        }
+
+        if (this.metrics != null) {
+            this.metrics.close();
+        }
+
         if (exception
                 != null) {
             logger.log(Level.SEVERE, "Load into i2b2 failed for query " + queryId, exception);
@@ -877,6 +1200,55 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         }
     }
 
+    private boolean isCoordinator() {
+        return this.partitions == null || this.partitions.isCoordinator();
+    }
+
+    /**
+     * Returns the name under which this process's load state is stored, which
+     * is scoped by partition if the load is partitioned.
+     */
+    private String partitionName() {
+        if (this.partitions == null) {
+            return this.query.getName();
+        } else {
+            return this.query.getName() + "#" + this.partitions.getPartition();
+        }
+    }
+
+    /**
+     * Finishes a partition other than the coordinator. It reports whether its
+     * patients were staged, and then waits for the coordinator to promote the
+     * temp tables.
+     */
+    private void finishPartition(SQLException exception) throws QueryResultsHandlerProcessingException {
+        Logger logger = I2b2ETLUtil.logger();
+        String queryId = this.query.getName();
+        try {
+            this.partitions.setStatus(exception == null ? LoadPartitions.DONE : LoadPartitions.FAILED);
+            if (exception == null) {
+                logger.log(Level.INFO, "Partition {0} of query {1} is waiting for the coordinator to finish",
+                        new Object[]{this.partitions.getPartition(), queryId});
+                this.partitions.awaitCoordinatorDone();
+                if (this.watermarks != null) {
+                    this.watermarks.write();
+                    logger.log(Level.INFO, "Skipped {0} unchanged patient(s) in query {1}", new Object[]{this.unchangedPatients, queryId});
+                }
+            }
+        } catch (SQLException ex) {
+            if (exception == null) {
+                exception = ex;
+            } else {
+                exception.addSuppressed(ex);
+            }
+        }
+        this.metrics.close();
+        if (exception != null) {
+            logger.log(Level.SEVERE, "Load into i2b2 failed for query " + queryId, exception);
+            throw new QueryResultsHandlerProcessingException("Load into i2b2 failed for query " + queryId, exception);
+        }
+    }
+
     private void fireProtempaEvent(ProtempaEvent evt) {
         for (ProtempaEventListener listener : this.eventListeners) {
             listener.eventFired(evt);
@@ -886,27 +1258,26 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
     @Override
     public void close() throws QueryResultsHandlerCloseException {
 
-        if (this.factHandlers != null) {
-            for (FactHandler factHandler : this.factHandlers) {
-                try {
-                    factHandler.close();
-                } catch (SQLException ignore) {
-                }
+        if (this.patientLoaders != null) {
+            try {
+                this.patientLoaders.close();
+            } catch (SQLException ignore) {
             }
-            this.factHandlers = null;
+            this.patientLoaders = null;
         }
-
-        if (this.visitDimensionFactory != null) {
+        if (this.factWriterPool != null) {
             try {
-                this.visitDimensionFactory.close();
+                this.factWriterPool.close();
             } catch (SQLException ignore) {
             }
+            this.factWriterPool = null;
         }
-        if (this.patientDimensionFactory != null) {
+        if (this.rejectedFactWriter != null) {
             try {
-                this.patientDimensionFactory.close();
+                this.rejectedFactWriter.close();
             } catch (SQLException ignore) {
             }
+            this.rejectedFactWriter = null;
         }
         if (this.conceptDimensionHandler != null) {
             try {
@@ -920,11 +1291,11 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             } catch (SQLException ignore) {
             }
         }
-        if (this.dataSchemaConnection != null) {
-            try {
-                this.dataSchemaConnection.close();
-            } catch (SQLException ignore) {
-            }
+        if (this.dataConnectionPool != null) {
+            this.dataConnectionPool.close();
+        }
+        if (this.metadataConnectionPool != null) {
+            this.metadataConnectionPool.close();
         }
     }
 
@@ -940,26 +1311,85 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         return result.toArray(new PropositionDefinition[result.size()]);
     }
 
-    private void addPropositionFactHandlers() throws KnowledgeSourceReadException, SQLException {
-        String[] potentialDerivedPropIdsArr = this.metadata.extractDerived();
+    /**
+     * Creates one patient loader per load thread. Each loader gets its own
+     * patient and visit dimension factories and fact handlers, and thus its
+     * own database connections. The provider dimension factory is shared.
+     */
+    private PatientLoaderPool newPatientLoaderPool() throws SQLException {
+        int loadThreads = Math.max(this.settings.getLoadThreads(), 1);
+        if (loadThreads > 1) {
+            I2b2ETLUtil.logger().log(Level.INFO, "Staging patients with {0} load threads for query {1}", new Object[]{loadThreads, this.query.getName()});
+        }
+        List<PatientLoader> loaders = new ArrayList<>(loadThreads);
+        try {
+            for (int i = 0; i < loadThreads; i++) {
+                List<FactHandler> factHandlers = new ArrayList<>();
+                addPropositionFactHandlers(factHandlers);
+                loaders.add(new PatientLoader(this.settings,
+                        this.providerDimensionFactory,
+                        new PatientDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec, this.metrics),
+                        new VisitDimensionFactory(this.metadata, this.settings, this.data, this.dataConnectionSpec, this.metrics),
+                        factHandlers,
+                        new EncounterLinkTraverser(this.cache, this.potentialDerivedPropIds)));
+            }
+        } catch (SQLException ex) {
+            for (PatientLoader loader : loaders) {
+                try {
+                    loader.close();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+            }
+            throw ex;
+        }
+        return new PatientLoaderPool(this.query.getName(), loaders);
+    }
+
+    /**
+     * Creates the writer that all of the loaders share for rejected facts.
+     */
+    private RejectedFactWriter newRejectedFactWriter() {
+        String file = this.settings.getRejectedFactFile();
+        if (file != null && this.partitions != null) {
+            file += "." + this.partitions.getPartition();
+        }
+        return new RejectedFactWriter(this.query.getName(),
+                new RejectedFactHandlerFactory(this.dataConnectionSpec, rejectedObservationFactTable(), this.metrics),
+                file != null ? new File(file) : null,
+                this.settings.getRejectedFactDetailLimit(),
+                this.settings.getRejectedFactQueueSize());
+    }
+
+    /**
+     * Creates the threads that all of the loaders share for inserting facts,
+     * if there are to be any.
+     */
+    private FactWriterPool newFactWriterPool() {
+        int factWriterThreads = this.settings.getFactWriterThreads();
+        if (factWriterThreads < 1) {
+            return null;
+        }
+        I2b2ETLUtil.logger().log(Level.INFO, "Writing facts with {0} writer threads for query {1}", new Object[]{factWriterThreads, this.query.getName()});
+        return new FactWriterPool(this.query.getName(), this.dataConnectionSpec,
+                this.settings.getStagingMethod(), this.metrics, factWriterThreads);
+    }
+
+    private void addPropositionFactHandlers(List<FactHandler> factHandlers) throws SQLException {
         Set<String> dimDataTypes = this.settings.getDimensionDataTypes();
-        RejectedFactHandlerFactory rejectedFactHandlerFactory
-                = new RejectedFactHandlerFactory(this.dataConnectionSpec, rejectedObservationFactTable());
         for (DataSpec dataSpec : this.data.getAll()) {
             if (!dimDataTypes.contains(dataSpec.getKey())) {
-                Link[] links;
-                if (dataSpec.getReferenceName() != null) {
-                    links = new Link[]{new Reference(dataSpec.getReferenceName())};
-                } else {
-                    links = null;
-                }
                 PropositionFactHandler propFactHandler
-                        = new PropositionFactHandler(this.dataConnectionSpec, links, dataSpec.getPropertyName(),
+                        = new PropositionFactHandler(this.dataConnectionSpec, dataSpec.getReferenceName(), dataSpec.getPropertyName(),
                                 dataSpec.getStart(), dataSpec.getFinish(), dataSpec.getUnits(),
-                                potentialDerivedPropIdsArr, this.metadata,
+                                this.metadata,
                                 this.cache,
-                                rejectedFactHandlerFactory);
-                this.factHandlers.add(propFactHandler);
+                                this.rejectedFactWriter,
+                                this.factWriterPool,
+                                this.settings.getStagingMethod(),
+                                this.metrics,
+                                dataSpec.getKey());
+                factHandlers.add(propFactHandler);
 
             }
         }
@@ -1023,6 +1453,13 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
 
     }
 
+    private void truncateTempTable(String tableName) throws SQLException {
+        try (Connection conn = openDataDatabaseConnection()) {
+            conn.setAutoCommit(true);
+            truncateTable(conn, tableName);
+        }
+    }
+
     private void truncateTable(Connection conn, String tableName) throws SQLException {
         Logger logger = I2b2ETLUtil.logger();
         String queryId = query.getName();
@@ -1106,7 +1543,9 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
         logger.log(Level.INFO, "Executing post-hook");
         try (Connection conn = openDataDatabaseConnection();
                 CallableStatement stmt = conn.prepareCall("{call EUREKA.EK_POST_HOOK()}")) {
+            long start = System.nanoTime();
             stmt.execute();
+            this.metrics.procedureCalled("EK_POST_HOOK", start);
             logger.log(Level.INFO, "Post-hook executed successfully");
         }
     }
@@ -1130,12 +1569,46 @@ public final class I2b2QueryResultsHandler extends AbstractQueryResultsHandler {
             logger.log(Level.INFO, "Enabling indices on observation_fact");
             try (Connection conn = openDataDatabaseConnection();
                     CallableStatement stmt = conn.prepareCall("{call EUREKA.EK_ENABLE_INDEXES()}")) {
+                long start = System.nanoTime();
                 stmt.execute();
+                this.metrics.procedureCalled("EK_ENABLE_INDEXES", start);
                 logger.log(Level.INFO, "Enabled indices on observation_fact");
             }
         }
     }
 
+    /**
+     * Calls one of the stored procedures that promote a temp table into the
+     * star schema, on its own connection.
+     *
+     * @param procedure the name of the procedure in the EUREKA schema.
+     * @param tempTableName the temp table to promote.
+     * @throws SQLException if an error occurred.
+     */
+    private void callFromTemp(String procedure, String tempTableName) throws SQLException {
+        try (Connection conn = openDataDatabaseConnection()) {
+            conn.setAutoCommit(true);
+            try (CallableStatement call = conn.prepareCall("{ call EUREKA." + procedure + "(?, ?) }")) {
+                call.setString(1, tempTableName);
+                call.setInt(2, UPLOAD_ID);
+                long start = System.nanoTime();
+                call.execute();
+                this.metrics.procedureCalled(procedure, start);
+            }
+        }
+    }
+
+    /**
+     * Returns whether two database specs connect to the same database as the
+     * same user, in which case their connections can share a pool.
+     */
+    private static boolean isSameDatabase(DatabaseSpec spec1, DatabaseSpec spec2) {
+        return spec1 != null && spec2 != null
+                && spec1.getClass() == spec2.getClass()
+                && Objects.equals(spec1.getConnect(), spec2.getConnect())
+                && Objects.equals(spec1.getUser(), spec2.getUser());
+    }
+
     private Connection openDataDatabaseConnection() throws SQLException {
         return this.dataConnectionSpec.getOrCreate();
     }
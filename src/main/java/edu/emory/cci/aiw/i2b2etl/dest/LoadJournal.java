@@ -0,0 +1,200 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.arp.javautil.sql.ConnectionSpec;
+
+/**
+ * The progress journal of a resumable load, stored in the
+ * <code>EK_LOAD_JOURNAL</code> table of the data schema. It records the key
+ * ids whose patients are durably staged in the temp tables, and the steps of
+ * {@link I2b2QueryResultsHandler#finish() } that have completed. Entries are
+ * scoped by query name. Each method uses its own connection, so the journal
+ * may be used from multiple threads.
+ *
+ * @author Andrew Post
+ */
+final class LoadJournal {
+
+    static final String JOURNAL_TABLE = "ek_load_journal";
+
+    private static final String KEY = "KEY";
+    private static final String STEP = "STEP";
+    private static final int BATCH_SIZE = 1000;
+
+    private final ConnectionSpec connectionSpec;
+    private final String queryName;
+
+    LoadJournal(ConnectionSpec connectionSpec, String queryName) {
+        if (connectionSpec == null) {
+            throw new IllegalArgumentException("connectionSpec cannot be null");
+        }
+        if (queryName == null) {
+            throw new IllegalArgumentException("queryName cannot be null");
+        }
+        this.connectionSpec = connectionSpec;
+        this.queryName = queryName;
+    }
+
+    /**
+     * Reads the key ids that a previous run staged.
+     *
+     * @return a modifiable set of key ids.
+     * @throws SQLException if an error occurred reading the journal.
+     */
+    Set<String> readStagedKeys() throws SQLException {
+        return read(KEY);
+    }
+
+    /**
+     * Reads the finish steps that a previous run completed.
+     *
+     * @return a modifiable set of step names.
+     * @throws SQLException if an error occurred reading the journal.
+     */
+    Set<String> readCompletedSteps() throws SQLException {
+        return read(STEP);
+    }
+
+    /**
+     * Records that the given keys are staged, in a single transaction. Call
+     * only after the records of those keys have been committed to the temp
+     * tables.
+     *
+     * @param keyIds the key ids.
+     * @throws SQLException if an error occurred writing the journal.
+     */
+    void recordStagedKeys(Collection<String> keyIds) throws SQLException {
+        if (!keyIds.isEmpty()) {
+            write(KEY, keyIds);
+        }
+    }
+
+    /**
+     * Records that a finish step completed.
+     *
+     * @param step the name of the step.
+     * @throws SQLException if an error occurred writing the journal.
+     */
+    void recordStep(String step) throws SQLException {
+        write(STEP, Collections.singleton(step));
+    }
+
+    /**
+     * Deletes the records of patients whose keys are not journaled from a temp
+     * table. Such records were staged after the last checkpoint of a failed
+     * run, and would be staged again.
+     *
+     * @param tableName the temp table.
+     * @param keyColumn the column that contains the key id.
+     * @return the number of records deleted.
+     * @throws SQLException if an error occurred.
+     */
+    int purgeUnstagedKeys(String tableName, String keyColumn) throws SQLException {
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM " + tableName + " WHERE " + keyColumn
+                    + " NOT IN (SELECT ENTRY_ID FROM " + JOURNAL_TABLE
+                    + " WHERE QUERY_NAME = ? AND ENTRY_TYPE = ?)")) {
+                stmt.setString(1, this.queryName);
+                stmt.setString(2, KEY);
+                return stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Deletes this query's entries, after the load completes.
+     *
+     * @throws SQLException if an error occurred.
+     */
+    void clear() throws SQLException {
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM " + JOURNAL_TABLE + " WHERE QUERY_NAME = ?")) {
+                stmt.setString(1, this.queryName);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private Set<String> read(String entryType) throws SQLException {
+        Set<String> result = new HashSet<>();
+        try (Connection conn = this.connectionSpec.getOrCreate();
+                PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT ENTRY_ID FROM " + JOURNAL_TABLE
+                        + " WHERE QUERY_NAME = ? AND ENTRY_TYPE = ?")) {
+            stmt.setString(1, this.queryName);
+            stmt.setString(2, entryType);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(rs.getString(1));
+                }
+            }
+        }
+        return result;
+    }
+
+    private void write(String entryType, Collection<String> entryIds) throws SQLException {
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO " + JOURNAL_TABLE
+                    + " (QUERY_NAME, ENTRY_TYPE, ENTRY_ID, CREATED) VALUES (?, ?, ?, ?)")) {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                int n = 0;
+                for (String entryId : entryIds) {
+                    stmt.setString(1, this.queryName);
+                    stmt.setString(2, entryType);
+                    stmt.setString(3, entryId);
+                    stmt.setTimestamp(4, now);
+                    stmt.addBatch();
+                    if (++n % BATCH_SIZE == 0) {
+                        stmt.executeBatch();
+                    }
+                }
+                if (n % BATCH_SIZE != 0) {
+                    stmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException ex) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+                throw ex;
+            }
+        }
+    }
+}
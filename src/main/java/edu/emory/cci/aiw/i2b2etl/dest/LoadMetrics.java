@@ -0,0 +1,376 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters, rates and latencies of a running load. Recording is lock-free
+ * and safe from any load thread. The metrics are registered as a JMX MBean
+ * named <code>edu.emory.cci.aiw.i2b2etl:type=LoadMetrics,query=...</code>
+ * while the load runs, and a summary line is logged periodically so that
+ * stalls show up in the log.
+ *
+ * @author Andrew Post
+ */
+public final class LoadMetrics implements LoadMetricsMXBean {
+
+    private static final String OBJECT_NAME_PREFIX = "edu.emory.cci.aiw.i2b2etl:type=LoadMetrics,query=";
+
+    private static final String SUMMARY_MESSAGE = "Query {0}: {1} patient(s) ({2}/s), {3} fact(s) ({4}/s), {5} rejected, concept cache hit rate {6}";
+
+    private final String queryName;
+    private final long startNanos;
+    private final LongAdder patients;
+    private final ConcurrentMap<String, FactCounters> factCounters;
+    private final ConcurrentMap<String, Histogram> batchWriteLatencies;
+    private final ConcurrentMap<String, Long> procedureMillis;
+    private final ConcurrentMap<String, Long> phaseMillis;
+    private final LongAdder conceptCacheHits;
+    private final LongAdder conceptCacheMisses;
+    private ScheduledExecutorService summaryExecutor;
+    private ObjectName objectName;
+    private boolean closed;
+    private long lastPatients;
+    private long lastFacts;
+    private long lastSummaryNanos;
+
+    public LoadMetrics(String queryName) {
+        if (queryName == null) {
+            throw new IllegalArgumentException("queryName cannot be null");
+        }
+        this.queryName = queryName;
+        this.startNanos = System.nanoTime();
+        this.lastSummaryNanos = this.startNanos;
+        this.patients = new LongAdder();
+        this.conceptCacheHits = new LongAdder();
+        this.conceptCacheMisses = new LongAdder();
+        this.factCounters = new ConcurrentHashMap<>();
+        this.batchWriteLatencies = new ConcurrentHashMap<>();
+        this.procedureMillis = new ConcurrentHashMap<>();
+        this.phaseMillis = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers the MBean and starts logging a summary line every
+     * <code>logInterval</code> seconds.
+     *
+     * @param logInterval the summary interval in seconds, or <code>0</code>
+     * to log a summary only when the load ends.
+     */
+    public synchronized void start(int logInterval) {
+        Logger logger = I2b2ETLUtil.logger();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(this.queryName));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (JMException ex) {
+            logger.log(Level.WARNING, "Could not register load metrics for query " + this.queryName, ex);
+        }
+        if (logInterval > 0) {
+            this.summaryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "i2b2 load metrics " + this.queryName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.summaryExecutor.scheduleAtFixedRate(this::logSummary, logInterval, logInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Logs a final summary, stops the periodic summaries and unregisters the
+     * MBean. Calling it again has no effect.
+     */
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.summaryExecutor != null) {
+            this.summaryExecutor.shutdownNow();
+            this.summaryExecutor = null;
+        }
+        logSummary();
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException ex) {
+                I2b2ETLUtil.logger().log(Level.FINE, "Could not unregister load metrics for query " + this.queryName, ex);
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * Adds the concept id lookups of a fact handler. Handlers count their
+     * lookups in plain fields and add them here every thousand lookups and
+     * when they are flushed.
+     *
+     * @param hits the number of lookups that found a concept id.
+     * @param misses the number of lookups that found none.
+     */
+    public void conceptCacheLookups(long hits, long misses) {
+        this.conceptCacheHits.add(hits);
+        this.conceptCacheMisses.add(misses);
+    }
+
+    public void patientLoaded() {
+        this.patients.increment();
+    }
+
+    /**
+     * Gets the fact counters of a fact handler. Handlers with the same name,
+     * such as the copies that each load thread has, share counters.
+     *
+     * @param name the name of the fact handler.
+     * @return the counters.
+     */
+    public FactCounters getFactCounters(String name) {
+        return this.factCounters.computeIfAbsent(name, k -> new FactCounters());
+    }
+
+    /**
+     * Gets the batch write latency histogram of a temp table.
+     *
+     * @param tableName the table.
+     * @return the histogram.
+     */
+    public Histogram getBatchWriteLatency(String tableName) {
+        return this.batchWriteLatencies.computeIfAbsent(tableName, k -> new Histogram());
+    }
+
+    /**
+     * Records the wall time of a stored procedure call.
+     *
+     * @param procedure the procedure name.
+     * @param startNanos the value of {@link System#nanoTime() } when the call
+     * started.
+     */
+    public void procedureCalled(String procedure, long startNanos) {
+        recordTime(this.procedureMillis, "{0} took {1} ms for query {2}", procedure, startNanos);
+    }
+
+    /**
+     * Records the wall time of a phase of the load, such as building the
+     * ontology, staging the patients or a step of promoting the temp tables.
+     *
+     * @param phase the phase name.
+     * @param startNanos the value of {@link System#nanoTime() } when the
+     * phase started.
+     */
+    public void phaseEnded(String phase, long startNanos) {
+        recordTime(this.phaseMillis, "Phase {0} took {1} ms for query {2}", phase, startNanos);
+    }
+
+    @Override
+    public String getQueryName() {
+        return this.queryName;
+    }
+
+    @Override
+    public long getElapsedSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.startNanos);
+    }
+
+    @Override
+    public long getPatients() {
+        return this.patients.sum();
+    }
+
+    @Override
+    public double getPatientsPerSecond() {
+        return perSecond(getPatients(), System.nanoTime() - this.startNanos);
+    }
+
+    @Override
+    public long getFacts() {
+        long result = 0L;
+        for (FactCounters counters : this.factCounters.values()) {
+            result += counters.facts.sum();
+        }
+        return result;
+    }
+
+    @Override
+    public double getFactsPerSecond() {
+        return perSecond(getFacts(), System.nanoTime() - this.startNanos);
+    }
+
+    @Override
+    public long getRejectedFacts() {
+        long result = 0L;
+        for (FactCounters counters : this.factCounters.values()) {
+            result += counters.rejected.sum();
+        }
+        return result;
+    }
+
+    @Override
+    public double getRejectedFactsPerSecond() {
+        return perSecond(getRejectedFacts(), System.nanoTime() - this.startNanos);
+    }
+
+    @Override
+    public Map<String, Long> getFactsByHandler() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, FactCounters> me : this.factCounters.entrySet()) {
+            result.put(me.getKey(), me.getValue().facts.sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getRejectedFactsByHandler() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, FactCounters> me : this.factCounters.entrySet()) {
+            result.put(me.getKey(), me.getValue().rejected.sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, long[]> getBatchWriteLatencyHistograms() {
+        Map<String, long[]> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> me : this.batchWriteLatencies.entrySet()) {
+            result.put(me.getKey(), me.getValue().getCounts());
+        }
+        return result;
+    }
+
+    @Override
+    public long getConceptCacheHits() {
+        return this.conceptCacheHits.sum();
+    }
+
+    @Override
+    public long getConceptCacheMisses() {
+        return this.conceptCacheMisses.sum();
+    }
+
+    @Override
+    public double getConceptCacheHitRate() {
+        long hits = getConceptCacheHits();
+        long total = hits + getConceptCacheMisses();
+        return total > 0 ? (double) hits / total : 0.0;
+    }
+
+    @Override
+    public Map<String, Long> getProcedureMillis() {
+        return new TreeMap<>(this.procedureMillis);
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        return new TreeMap<>(this.phaseMillis);
+    }
+
+    /**
+     * Logs the totals, and the rates since the previous summary.
+     */
+    synchronized void logSummary() {
+        long now = System.nanoTime();
+        long patientCount = getPatients();
+        long factCount = getFacts();
+        long interval = now - this.lastSummaryNanos;
+        I2b2ETLUtil.logger().log(Level.INFO, SUMMARY_MESSAGE,
+                new Object[]{this.queryName,
+                    patientCount, Math.round(perSecond(patientCount - this.lastPatients, interval)),
+                    factCount, Math.round(perSecond(factCount - this.lastFacts, interval)),
+                    getRejectedFacts(), getConceptCacheHitRate()});
+        this.lastPatients = patientCount;
+        this.lastFacts = factCount;
+        this.lastSummaryNanos = now;
+    }
+
+    private void recordTime(ConcurrentMap<String, Long> times, String message, String name, long startNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        times.merge(name, millis, Long::sum);
+        I2b2ETLUtil.logger().log(Level.FINE, message, new Object[]{name, millis, this.queryName});
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos > 0 ? count * 1e9 / nanos : 0.0;
+    }
+
+    /**
+     * The fact and rejected fact counters of a fact handler.
+     */
+    public static final class FactCounters {
+
+        private final LongAdder facts = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+
+        public void fact() {
+            this.facts.increment();
+        }
+
+        public void rejected() {
+            this.rejected.increment();
+        }
+    }
+
+    /**
+     * A latency histogram with power-of-two microsecond buckets.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 32;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        /**
+         * Records a latency.
+         *
+         * @param nanos the latency in nanoseconds.
+         */
+        public void record(long nanos) {
+            long micros = nanos / 1000L;
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+            this.counts.incrementAndGet(bucket);
+        }
+
+        long[] getCounts() {
+            long[] result = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] = this.counts.get(i);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Map;
+
+/**
+ * The JMX view of a load's {@link LoadMetrics}. Rates are averages since the
+ * load started.
+ *
+ * @author Andrew Post
+ */
+public interface LoadMetricsMXBean {
+
+    String getQueryName();
+
+    long getElapsedSeconds();
+
+    long getPatients();
+
+    double getPatientsPerSecond();
+
+    long getFacts();
+
+    double getFactsPerSecond();
+
+    long getRejectedFacts();
+
+    double getRejectedFactsPerSecond();
+
+    Map<String, Long> getFactsByHandler();
+
+    Map<String, Long> getRejectedFactsByHandler();
+
+    /**
+     * Returns the batch write latencies of each temp table as counts per
+     * bucket. A sample is the time to send one batch of records, as a JDBC
+     * batch or a copy, and commit it. Bucket <code>i</code> counts the batches
+     * that took less than <code>2<sup>i</sup></code> microseconds and at least
+     * half that.
+     *
+     * @return the histograms, keyed by table name.
+     */
+    Map<String, long[]> getBatchWriteLatencyHistograms();
+
+    /**
+     * Returns the number of concept id lookups while staging facts that
+     * found a concept id. Each fact handler adds its lookups every thousand
+     * lookups and when it flushes its facts.
+     *
+     * @return the number of hits.
+     */
+    long getConceptCacheHits();
+
+    /**
+     * Returns the number of concept id lookups while staging facts that
+     * found no concept id, so that the data were not loaded.
+     *
+     * @return the number of misses.
+     */
+    long getConceptCacheMisses();
+
+    double getConceptCacheHitRate();
+
+    /**
+     * Returns the wall time of each stored procedure call of the load.
+     *
+     * @return milliseconds, keyed by procedure name.
+     */
+    Map<String, Long> getProcedureMillis();
+
+    /**
+     * Returns the wall time of each phase of the load that has ended so far.
+     *
+     * @return milliseconds, keyed by phase name.
+     */
+    Map<String, Long> getPhaseMillis();
+}
@@ -0,0 +1,311 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.arp.javautil.sql.ConnectionSpec;
+
+/**
+ * Coordinates a load that is split across several processes, through the
+ * <code>EK_LOAD_PARTITION</code> control table of the data schema. Each
+ * process loads the patients whose key ids hash to its partition into the
+ * shared temp tables. Partition <code>0</code> is the coordinator: it
+ * prepares the temp tables, waits for the other partitions to finish
+ * staging, and then promotes the temp tables. The other partitions wait for
+ * the coordinator's outcome, so every process's load fails if the
+ * promotion fails.
+ * <p>
+ * Every run of the coordinator has a new run id, which it writes with its
+ * statuses. A partition takes the run id of the coordinator's
+ * {@link #READY} status and writes it with its own statuses, and the
+ * coordinator only counts the statuses of its run. A status that a crashed
+ * run left behind therefore cannot complete a later run. If a partition
+ * started staging under such a status, it fails as soon as it sees that the
+ * coordinator has started a new run, and it can then be run again.
+ *
+ * @author Andrew Post
+ */
+final class LoadPartitions {
+
+    static final String PARTITION_TABLE = "ek_load_partition";
+
+    static final String READY = "READY";
+    static final String DONE = "DONE";
+    static final String FAILED = "FAILED";
+
+    private static final long POLL_INTERVAL = 5000L;
+
+    private final ConnectionSpec connectionSpec;
+    private final String queryName;
+    private final int partition;
+    private final int partitionCount;
+    private final long timeout;
+    private String runId;
+
+    LoadPartitions(ConnectionSpec connectionSpec, String queryName,
+            int partition, int partitionCount, long timeout) {
+        if (connectionSpec == null) {
+            throw new IllegalArgumentException("connectionSpec cannot be null");
+        }
+        if (queryName == null) {
+            throw new IllegalArgumentException("queryName cannot be null");
+        }
+        if (partitionCount < 2) {
+            throw new IllegalArgumentException("partitionCount must be at least 2");
+        }
+        if (partition < 0 || partition >= partitionCount) {
+            throw new IllegalArgumentException("partition must be between 0 and " + (partitionCount - 1));
+        }
+        this.connectionSpec = connectionSpec;
+        this.queryName = queryName;
+        this.partition = partition;
+        this.partitionCount = partitionCount;
+        this.timeout = TimeUnit.SECONDS.toMillis(timeout);
+    }
+
+    /**
+     * Returns the partition of a key id. It depends only on the key id and
+     * the number of partitions, so every process computes the same one.
+     *
+     * @param keyId a key id.
+     * @param partitionCount the number of partitions.
+     * @return the partition, between <code>0</code> and
+     * <code>partitionCount - 1</code>.
+     */
+    static int partitionOf(String keyId, int partitionCount) {
+        return Math.floorMod(keyId.hashCode(), partitionCount);
+    }
+
+    int getPartition() {
+        return this.partition;
+    }
+
+    boolean isCoordinator() {
+        return this.partition == 0;
+    }
+
+    /**
+     * Returns whether this process loads the patient with the given key id.
+     *
+     * @param keyId a key id.
+     * @return <code>true</code> if the key id is in this partition.
+     */
+    boolean contains(String keyId) {
+        return partitionOf(keyId, this.partitionCount) == this.partition;
+    }
+
+    /**
+     * Starts a new run: deletes the control rows of previous runs and creates
+     * the run id. Called by the coordinator before it prepares the temp
+     * tables.
+     *
+     * @throws SQLException if an error occurred.
+     */
+    void reset() throws SQLException {
+        this.runId = UUID.randomUUID().toString();
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            conn.setAutoCommit(true);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "DELETE FROM " + PARTITION_TABLE + " WHERE QUERY_NAME = ?")) {
+                stmt.setString(1, this.queryName);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Records the status of this partition, with the run id. A partition that
+     * fails before it has seen the coordinator's {@link #READY} status
+     * records no run id.
+     *
+     * @param status one of {@link #READY}, {@link #DONE} or {@link #FAILED}.
+     * @throws SQLException if an error occurred.
+     */
+    void setStatus(String status) throws SQLException {
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM " + PARTITION_TABLE + " WHERE QUERY_NAME = ? AND PARTITION_NUM = ?")) {
+                    stmt.setString(1, this.queryName);
+                    stmt.setInt(2, this.partition);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO " + PARTITION_TABLE
+                        + " (QUERY_NAME, PARTITION_NUM, STATUS, RUN_ID, UPDATED) VALUES (?, ?, ?, ?, ?)")) {
+                    stmt.setString(1, this.queryName);
+                    stmt.setInt(2, this.partition);
+                    stmt.setString(3, status);
+                    stmt.setString(4, this.runId);
+                    stmt.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException ex) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Waits until the coordinator has prepared the temp tables, and takes the
+     * run id of its {@link #READY} status. The status that a previous run
+     * left behind may still be in the control table until the coordinator
+     * starts, so a failed coordinator is waited out rather than reported.
+     *
+     * @throws SQLException if an error occurred or the wait timed out.
+     */
+    void awaitCoordinatorReady() throws SQLException {
+        Logger logger = I2b2ETLUtil.logger();
+        long deadline = System.currentTimeMillis() + this.timeout;
+        while (true) {
+            Status coordinator = readStatuses().get(0);
+            if (coordinator != null && READY.equals(coordinator.status)) {
+                this.runId = coordinator.runId;
+                logger.log(Level.FINE, "Partition {0} of query {1} joined run {2}",
+                        new Object[]{this.partition, this.queryName, this.runId});
+                return;
+            }
+            logger.log(Level.FINE, "Partition {0} of query {1} is waiting for the coordinator",
+                    new Object[]{this.partition, this.queryName});
+            pause(deadline, "the coordinator");
+        }
+    }
+
+    /**
+     * Waits until the coordinator has promoted the temp tables in the run
+     * that this partition joined.
+     *
+     * @throws SQLException if an error occurred, the coordinator failed or
+     * started a new run, or the wait timed out.
+     */
+    void awaitCoordinatorDone() throws SQLException {
+        Logger logger = I2b2ETLUtil.logger();
+        long deadline = System.currentTimeMillis() + this.timeout;
+        while (true) {
+            Status coordinator = readStatuses().get(0);
+            if (coordinator != null) {
+                if (!Objects.equals(this.runId, coordinator.runId)) {
+                    throw new SQLException("The coordinator of query " + this.queryName
+                            + " started a new run after partition " + this.partition
+                            + " started staging; load the partition again");
+                } else if (DONE.equals(coordinator.status)) {
+                    return;
+                } else if (FAILED.equals(coordinator.status)) {
+                    throw new SQLException("The coordinator of query " + this.queryName + " failed");
+                }
+            }
+            logger.log(Level.FINE, "Partition {0} of query {1} is waiting for the coordinator",
+                    new Object[]{this.partition, this.queryName});
+            pause(deadline, "the coordinator");
+        }
+    }
+
+    /**
+     * Waits until every other partition has finished staging in this run.
+     * Statuses of other runs are ignored.
+     *
+     * @throws SQLException if an error occurred, a partition failed, or the
+     * wait timed out.
+     */
+    void awaitPartitionsDone() throws SQLException {
+        Logger logger = I2b2ETLUtil.logger();
+        long deadline = System.currentTimeMillis() + this.timeout;
+        while (true) {
+            Map<Integer, Status> statuses = readStatuses();
+            int done = 0;
+            for (int i = 1; i < this.partitionCount; i++) {
+                Status status = statuses.get(i);
+                if (status == null || !this.runId.equals(status.runId)) {
+                    continue;
+                }
+                if (FAILED.equals(status.status)) {
+                    throw new SQLException("Partition " + i + " of query " + this.queryName + " failed");
+                } else if (DONE.equals(status.status)) {
+                    done++;
+                }
+            }
+            if (done == this.partitionCount - 1) {
+                return;
+            }
+            logger.log(Level.FINE, "Waiting for {0} partition(s) of query {1}",
+                    new Object[]{this.partitionCount - 1 - done, this.queryName});
+            pause(deadline, "the other partitions");
+        }
+    }
+
+    private void pause(long deadline, String awaited) throws SQLException {
+        if (System.currentTimeMillis() >= deadline) {
+            throw new SQLException("Timed out waiting for " + awaited + " of query " + this.queryName);
+        }
+        try {
+            Thread.sleep(POLL_INTERVAL);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for " + awaited + " of query " + this.queryName, ex);
+        }
+    }
+
+    private Map<Integer, Status> readStatuses() throws SQLException {
+        Map<Integer, Status> result = new HashMap<>();
+        try (Connection conn = this.connectionSpec.getOrCreate();
+                PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT PARTITION_NUM, STATUS, RUN_ID FROM " + PARTITION_TABLE
+                        + " WHERE QUERY_NAME = ?")) {
+            stmt.setString(1, this.queryName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getInt(1), new Status(rs.getString(2), rs.getString(3)));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Status {
+
+        final String status;
+        final String runId;
+
+        Status(String status, String runId) {
+            this.status = status;
+            this.runId = runId;
+        }
+    }
+}
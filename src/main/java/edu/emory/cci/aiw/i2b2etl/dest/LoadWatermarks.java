@@ -0,0 +1,199 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.MetadataUtil;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * The per-source high-water marks of an incremental load, stored in the
+ * <code>EK_LOAD_WATERMARK</code> table of the data schema. For each source
+ * system, it records the latest update date (or create date, if there is no
+ * update date) and download date of the data that the last successful run of
+ * a query saw. A patient whose data are no newer than the marks is
+ * unchanged. Not thread-safe.
+ *
+ * @author Andrew Post
+ */
+final class LoadWatermarks {
+
+    static final String WATERMARK_TABLE = "ek_load_watermark";
+
+    private static final int UNDATED = 0;
+    private static final int UNCHANGED = 1;
+    private static final int CHANGED = 2;
+
+    private final ConnectionSpec connectionSpec;
+    private final String queryName;
+    private final Map<String, long[]> marks;
+    private final Map<String, long[]> newMarks;
+
+    LoadWatermarks(ConnectionSpec connectionSpec, String queryName) {
+        if (connectionSpec == null) {
+            throw new IllegalArgumentException("connectionSpec cannot be null");
+        }
+        if (queryName == null) {
+            throw new IllegalArgumentException("queryName cannot be null");
+        }
+        this.connectionSpec = connectionSpec;
+        this.queryName = queryName;
+        this.marks = new HashMap<>();
+        this.newMarks = new HashMap<>();
+    }
+
+    /**
+     * Reads the marks of the last successful run.
+     *
+     * @return the number of source systems with marks.
+     * @throws SQLException if an error occurred reading the marks.
+     */
+    int read() throws SQLException {
+        this.marks.clear();
+        try (Connection conn = this.connectionSpec.getOrCreate();
+                PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT SOURCESYSTEM_CD, UPDATE_DATE, DOWNLOAD_DATE FROM "
+                        + WATERMARK_TABLE + " WHERE QUERY_NAME = ?")) {
+            stmt.setString(1, this.queryName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long[] mark = {toMillis(rs.getTimestamp(2)), toMillis(rs.getTimestamp(3))};
+                    this.marks.put(rs.getString(1), mark);
+                    this.newMarks.put(rs.getString(1), mark.clone());
+                }
+            }
+        }
+        return this.marks.size();
+    }
+
+    /**
+     * Returns whether any of a patient's data are newer than the marks, and
+     * advances the new marks past them. A patient with no dated data, or with
+     * data from a source system with no mark, is changed.
+     *
+     * @param propositions the patient's propositions.
+     * @param references the patient's references.
+     * @return <code>true</code> if the patient must be loaded.
+     */
+    boolean isChanged(List<Proposition> propositions,
+            Map<UniqueId, Proposition> references) {
+        boolean changed = false;
+        boolean dated = false;
+        for (Proposition prop : propositions) {
+            int result = check(prop);
+            dated |= result != UNDATED;
+            changed |= result == CHANGED;
+        }
+        for (Proposition prop : references.values()) {
+            int result = check(prop);
+            dated |= result != UNDATED;
+            changed |= result == CHANGED;
+        }
+        return changed || !dated;
+    }
+
+    /**
+     * Replaces the stored marks with the latest dates seen in this run. Call
+     * only after the run succeeds.
+     *
+     * @throws SQLException if an error occurred writing the marks.
+     */
+    void write() throws SQLException {
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM " + WATERMARK_TABLE + " WHERE QUERY_NAME = ?")) {
+                    stmt.setString(1, this.queryName);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "INSERT INTO " + WATERMARK_TABLE
+                        + " (QUERY_NAME, SOURCESYSTEM_CD, UPDATE_DATE, DOWNLOAD_DATE) VALUES (?, ?, ?, ?)")) {
+                    for (Map.Entry<String, long[]> me : this.newMarks.entrySet()) {
+                        long[] mark = me.getValue();
+                        stmt.setString(1, this.queryName);
+                        stmt.setString(2, me.getKey());
+                        stmt.setTimestamp(3, toTimestamp(mark[0]));
+                        stmt.setTimestamp(4, toTimestamp(mark[1]));
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException ex) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private int check(Proposition prop) {
+        Date updated = prop.getUpdateDate();
+        if (updated == null) {
+            updated = prop.getCreateDate();
+        }
+        Date downloaded = prop.getDownloadDate();
+        if (updated == null && downloaded == null) {
+            return UNDATED;
+        }
+        String source = MetadataUtil.toSourceSystemCode(
+                prop.getSourceSystem().getStringRepresentation());
+        long updatedMillis = updated != null ? updated.getTime() : Long.MIN_VALUE;
+        long downloadedMillis = downloaded != null ? downloaded.getTime() : Long.MIN_VALUE;
+        long[] newMark = this.newMarks.get(source);
+        if (newMark == null) {
+            this.newMarks.put(source, new long[]{updatedMillis, downloadedMillis});
+        } else {
+            newMark[0] = Math.max(newMark[0], updatedMillis);
+            newMark[1] = Math.max(newMark[1], downloadedMillis);
+        }
+        long[] mark = this.marks.get(source);
+        if (mark == null || updatedMillis > mark[0] || downloadedMillis > mark[1]) {
+            return CHANGED;
+        } else {
+            return UNCHANGED;
+        }
+    }
+
+    private static long toMillis(Timestamp timestamp) {
+        return timestamp != null ? timestamp.getTime() : Long.MIN_VALUE;
+    }
+
+    private static Timestamp toTimestamp(long millis) {
+        return millis != Long.MIN_VALUE ? new Timestamp(millis) : null;
+    }
+}
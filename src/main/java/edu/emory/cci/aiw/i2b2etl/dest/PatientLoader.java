@@ -0,0 +1,148 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
+import edu.emory.cci.aiw.i2b2etl.dest.table.EncounterLinkTraverser;
+import edu.emory.cci.aiw.i2b2etl.dest.table.FactHandler;
+import edu.emory.cci.aiw.i2b2etl.dest.table.InvalidFactException;
+import edu.emory.cci.aiw.i2b2etl.dest.table.InvalidPatientRecordException;
+import edu.emory.cci.aiw.i2b2etl.dest.table.PatientDimension;
+import edu.emory.cci.aiw.i2b2etl.dest.table.PatientDimensionFactory;
+import edu.emory.cci.aiw.i2b2etl.dest.table.ProviderDimension;
+import edu.emory.cci.aiw.i2b2etl.dest.table.ProviderDimensionFactory;
+import edu.emory.cci.aiw.i2b2etl.dest.table.VisitDimension;
+import edu.emory.cci.aiw.i2b2etl.dest.table.VisitDimensionFactory;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.TemporalProposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * Stages one patient at a time into the temp tables. Each loader owns its
+ * patient and visit dimension factories and its fact handlers, and thus their
+ * database connections, so loaders may run on separate threads. The provider
+ * dimension factory is shared between loaders.
+ *
+ * @author Andrew Post
+ */
+final class PatientLoader {
+
+    private final String visitPropId;
+    private final ProviderDimensionFactory providerDimensionFactory;
+    private final Map<List<UniqueId>, ProviderDimension> providerCache;
+    private final PatientDimensionFactory patientDimensionFactory;
+    private final VisitDimensionFactory visitDimensionFactory;
+    private final List<FactHandler> factHandlers;
+    private final EncounterLinkTraverser linkTraverser;
+
+    PatientLoader(Settings settings,
+            ProviderDimensionFactory providerDimensionFactory,
+            PatientDimensionFactory patientDimensionFactory,
+            VisitDimensionFactory visitDimensionFactory,
+            List<FactHandler> factHandlers,
+            EncounterLinkTraverser linkTraverser) {
+        this.visitPropId = settings.getVisitDimension();
+        this.providerDimensionFactory = providerDimensionFactory;
+        this.providerCache = new HashMap<>();
+        this.patientDimensionFactory = patientDimensionFactory;
+        this.visitDimensionFactory = visitDimensionFactory;
+        this.factHandlers = factHandlers;
+        this.linkTraverser = linkTraverser;
+    }
+
+    void load(String keyId, List<Proposition> propositions,
+            Map<Proposition, Set<Proposition>> forwardDerivations,
+            Map<Proposition, Set<Proposition>> backwardDerivations,
+            Map<UniqueId, Proposition> references) throws InvalidConceptCodeException, InvalidFactException, InvalidPatientRecordException, SQLException {
+        this.providerCache.clear();
+        PatientDimension pd = null;
+        for (Proposition prop : propositions) {
+            if (prop.getId().equals(this.visitPropId)) {
+                pd = handlePatient(pd, keyId, prop, references, forwardDerivations, backwardDerivations);
+            }
+        }
+    }
+
+    private PatientDimension handlePatient(PatientDimension pd, String keyId,
+            Proposition prop, Map<UniqueId, Proposition> references,
+            Map<Proposition, Set<Proposition>> forwardDerivations,
+            Map<Proposition, Set<Proposition>> backwardDerivations) throws SQLException, InvalidConceptCodeException, InvalidFactException, InvalidPatientRecordException {
+        if (pd == null) {
+            pd = this.patientDimensionFactory.getInstance(keyId, prop, references);
+        }
+        ProviderDimension providerDimension = this.providerDimensionFactory.getInstance(prop, references, this.providerCache);
+        VisitDimension vd = this.visitDimensionFactory.getInstance(pd.getEncryptedPatientId(), pd.getEncryptedPatientIdSource(), (TemporalProposition) prop, references);
+        this.linkTraverser.reset(prop, forwardDerivations, backwardDerivations, references);
+        for (FactHandler factHandler : this.factHandlers) {
+            factHandler.handleRecord(pd, vd, providerDimension, prop, this.linkTraverser);
+        }
+        return pd;
+    }
+
+    /**
+     * Flushes and closes the fact handlers and the patient and visit
+     * dimension factories. The shared provider dimension factory is not
+     * closed. All of them are closed even if closing one fails; the first
+     * failure is thrown.
+     *
+     * @throws SQLException if an error occurred flushing records to the
+     * database.
+     */
+    void close() throws SQLException {
+        SQLException exception = null;
+        for (FactHandler factHandler : this.factHandlers) {
+            try {
+                factHandler.close();
+            } catch (SQLException ex) {
+                exception = addSuppressed(exception, ex);
+            }
+        }
+        this.factHandlers.clear();
+        try {
+            this.patientDimensionFactory.close();
+        } catch (SQLException ex) {
+            exception = addSuppressed(exception, ex);
+        }
+        try {
+            this.visitDimensionFactory.close();
+        } catch (SQLException ex) {
+            exception = addSuppressed(exception, ex);
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static SQLException addSuppressed(SQLException exception, SQLException ex) {
+        if (exception == null) {
+            return ex;
+        } else {
+            exception.addSuppressed(ex);
+            return exception;
+        }
+    }
+}
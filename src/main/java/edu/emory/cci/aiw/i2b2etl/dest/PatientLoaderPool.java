@@ -0,0 +1,249 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
+import edu.emory.cci.aiw.i2b2etl.dest.table.InvalidFactException;
+import edu.emory.cci.aiw.i2b2etl.dest.table.InvalidPatientRecordException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.protempa.dest.QueryResultsHandlerProcessingException;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * Distributes patients across a fixed set of {@link PatientLoader}s. With one
+ * loader, patients are staged on the caller's thread. With more than one,
+ * each loader gets its own worker thread, and each key id is routed by its
+ * hash to the same worker every time. Each worker has a bounded queue, so the
+ * caller blocks rather than buffering an unbounded number of patients.
+ *
+ * @author Andrew Post
+ */
+final class PatientLoaderPool {
+
+    private static final int QUEUE_CAPACITY = 100;
+
+    private final String queryName;
+    private final PatientLoader[] loaders;
+    private final Worker[] workers;
+    private final AtomicReference<QueryResultsHandlerProcessingException> failure;
+    private boolean stopped;
+
+    PatientLoaderPool(String queryName, List<PatientLoader> loaders) {
+        if (loaders == null || loaders.isEmpty()) {
+            throw new IllegalArgumentException("loaders cannot be null or empty");
+        }
+        this.queryName = queryName;
+        this.loaders = loaders.toArray(new PatientLoader[loaders.size()]);
+        this.failure = new AtomicReference<>();
+        if (this.loaders.length > 1) {
+            this.workers = new Worker[this.loaders.length];
+            for (int i = 0; i < this.workers.length; i++) {
+                this.workers[i] = new Worker(i, this.loaders[i]);
+                this.workers[i].start();
+            }
+        } else {
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Stages a patient, or hands it off to the worker that owns its shard.
+     *
+     * @throws QueryResultsHandlerProcessingException if staging this patient
+     * failed, or if a worker failed staging a previous patient.
+     */
+    void load(String keyId, List<Proposition> propositions,
+            Map<Proposition, Set<Proposition>> forwardDerivations,
+            Map<Proposition, Set<Proposition>> backwardDerivations,
+            Map<UniqueId, Proposition> references) throws QueryResultsHandlerProcessingException {
+        checkFailure();
+        Job job = new Job(keyId, propositions, forwardDerivations, backwardDerivations, references);
+        if (this.workers == null) {
+            stage(job, this.loaders[0]);
+            checkFailure();
+        } else {
+            this.workers[workerOf(keyId, this.workers.length)].submit(job);
+        }
+    }
+
+    /**
+     * Returns the worker that stages the patient with the given key id. It
+     * depends only on the key id and the number of workers, so all of a
+     * patient's records go through the same loader.
+     *
+     * @param keyId a key id.
+     * @param workers the number of workers.
+     * @return the worker, between <code>0</code> and
+     * <code>workers - 1</code>.
+     */
+    static int workerOf(String keyId, int workers) {
+        return Math.floorMod(keyId.hashCode(), workers);
+    }
+
+    /**
+     * Waits for the workers to stage all of the patients that have been
+     * submitted, and stops them. After this method returns, the temp tables
+     * contain every staged patient once the loaders are closed.
+     *
+     * @throws QueryResultsHandlerProcessingException if a worker failed.
+     */
+    void awaitCompletion() throws QueryResultsHandlerProcessingException {
+        stopWorkers();
+        checkFailure();
+    }
+
+    /**
+     * Stops the workers, if they are still running, and closes all of the
+     * loaders.
+     *
+     * @throws SQLException if an error occurred closing a loader.
+     */
+    void close() throws SQLException {
+        try {
+            stopWorkers();
+        } catch (QueryResultsHandlerProcessingException ignore) {
+        }
+        SQLException exception = null;
+        for (PatientLoader loader : this.loaders) {
+            try {
+                loader.close();
+            } catch (SQLException ex) {
+                if (exception == null) {
+                    exception = ex;
+                } else {
+                    exception.addSuppressed(ex);
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private void stopWorkers() throws QueryResultsHandlerProcessingException {
+        if (this.workers != null && !this.stopped) {
+            this.stopped = true;
+            for (Worker worker : this.workers) {
+                worker.submit(Job.END);
+            }
+            for (Worker worker : this.workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new QueryResultsHandlerProcessingException("Interrupted waiting for load threads for query " + this.queryName, ex);
+                }
+            }
+        }
+    }
+
+    private void checkFailure() throws QueryResultsHandlerProcessingException {
+        QueryResultsHandlerProcessingException ex = this.failure.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        private final PatientLoader loader;
+        private final BlockingQueue<Job> queue;
+
+        Worker(int index, PatientLoader loader) {
+            super("i2b2-load-" + queryName + "-" + index);
+            setDaemon(true);
+            this.loader = loader;
+            this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        }
+
+        void submit(Job job) throws QueryResultsHandlerProcessingException {
+            try {
+                this.queue.put(job);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new QueryResultsHandlerProcessingException("Interrupted queuing a patient for query " + queryName, ex);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Job job = this.queue.take(); job != Job.END; job = this.queue.take()) {
+                    // After a failure, keep draining so the caller never blocks.
+                    if (failure.get() == null) {
+                        try {
+                            stage(job, this.loader);
+                        } catch (Throwable t) {
+                            // An error must not end the thread, or the caller
+                            // would block on the full queue.
+                            failure.compareAndSet(null, new QueryResultsHandlerProcessingException("Load thread failed for query " + queryName, t));
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                failure.compareAndSet(null, new QueryResultsHandlerProcessingException("Load thread interrupted for query " + queryName, ex));
+            }
+        }
+    }
+
+    private static final class Job {
+
+        static final Job END = new Job(null, null, null, null, null);
+
+        private final String keyId;
+        private final List<Proposition> propositions;
+        private final Map<Proposition, Set<Proposition>> forwardDerivations;
+        private final Map<Proposition, Set<Proposition>> backwardDerivations;
+        private final Map<UniqueId, Proposition> references;
+
+        Job(String keyId, List<Proposition> propositions,
+                Map<Proposition, Set<Proposition>> forwardDerivations,
+                Map<Proposition, Set<Proposition>> backwardDerivations,
+                Map<UniqueId, Proposition> references) {
+            this.keyId = keyId;
+            this.propositions = propositions;
+            this.forwardDerivations = forwardDerivations;
+            this.backwardDerivations = backwardDerivations;
+            this.references = references;
+        }
+    }
+
+    private void stage(Job job, PatientLoader loader) {
+        Logger logger = I2b2ETLUtil.logger();
+        logger.log(Level.FINER, "Loading patient into i2b2");
+        try {
+            loader.load(job.keyId, job.propositions, job.forwardDerivations, job.backwardDerivations, job.references);
+        } catch (InvalidConceptCodeException | InvalidFactException | InvalidPatientRecordException | SQLException | RuntimeException ex) {
+            this.failure.compareAndSet(null, new QueryResultsHandlerProcessingException("Load into i2b2 failed for query " + this.queryName, ex));
+            return;
+        }
+        logger.log(Level.FINER, "Done loading patient into i2b2");
+    }
+}
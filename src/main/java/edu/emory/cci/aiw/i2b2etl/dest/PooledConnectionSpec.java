@@ -0,0 +1,76 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.arp.javautil.sql.ConnectionSpecVisitor;
+
+/**
+ * A connection spec whose connections are borrowed from a
+ * {@link ConnectionPool}. Closing a connection returns it to the pool.
+ * Visitors and the auto-commit setting are those of the connection spec of
+ * the pooled database, so code that inspects a connection spec sees the
+ * database, not the pool. Record handlers may check for this class to decide
+ * whether to borrow a connection per batch instead of holding one.
+ *
+ * @author Andrew Post
+ */
+public final class PooledConnectionSpec implements ConnectionSpec {
+
+    private final DataSource dataSource;
+    private final ConnectionSpec connectionSpec;
+
+    /**
+     * Creates a connection spec for a pool.
+     *
+     * @param dataSource the pool's data source.
+     * @param connectionSpec the connection spec with which the pool opens its
+     * connections.
+     */
+    PooledConnectionSpec(DataSource dataSource, ConnectionSpec connectionSpec) {
+        this.dataSource = dataSource;
+        this.connectionSpec = connectionSpec;
+    }
+
+    /**
+     * Borrows a connection from the pool, waiting if all of them are in use.
+     *
+     * @return a connection.
+     * @throws SQLException if no connection could be borrowed.
+     */
+    @Override
+    public Connection getOrCreate() throws SQLException {
+        return this.dataSource.getConnection();
+    }
+
+    @Override
+    public void accept(ConnectionSpecVisitor connectionSpecVisitor) {
+        this.connectionSpec.accept(connectionSpecVisitor);
+    }
+
+    @Override
+    public boolean isAutoCommitEnabled() {
+        return this.connectionSpec.isAutoCommitEnabled();
+    }
+}
@@ -0,0 +1,174 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the steps that promote the temp tables into the star schema,
+ * respecting the dependencies between them. With one thread, the steps run
+ * on the caller's thread in the order in which they were added. With more,
+ * each step runs on a pool thread as soon as the steps it depends on are
+ * done, so independent steps run concurrently. Each step is expected to open
+ * its own connection.
+ *
+ * After a step fails, no further steps are started, and the first failure is
+ * thrown once the running steps finish.
+ *
+ * @author Andrew Post
+ */
+final class PromotionGraph {
+
+    @FunctionalInterface
+    interface Step {
+
+        void execute() throws SQLException;
+    }
+
+    private final String queryName;
+    private final int threads;
+    private final Map<String, Node> nodes;
+
+    PromotionGraph(String queryName, int threads) {
+        this.queryName = queryName;
+        this.threads = threads;
+        this.nodes = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a step. The steps it depends on must already have been added.
+     *
+     * @param name the step's name, for logging.
+     * @param step the step.
+     * @param dependencies the names of the steps that must finish first.
+     */
+    void add(String name, Step step, String... dependencies) {
+        if (this.nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate step " + name);
+        }
+        List<Node> deps = new ArrayList<>(dependencies.length);
+        for (String dependency : dependencies) {
+            Node dep = this.nodes.get(dependency);
+            if (dep == null) {
+                throw new IllegalArgumentException("Step " + name + " depends on unknown step " + dependency);
+            }
+            deps.add(dep);
+        }
+        this.nodes.put(name, new Node(name, step, deps));
+    }
+
+    /**
+     * Runs all of the steps.
+     *
+     * @throws SQLException the first error thrown by a step.
+     */
+    void execute() throws SQLException {
+        int poolSize = Math.min(this.threads, this.nodes.size());
+        if (poolSize <= 1) {
+            for (Node node : this.nodes.values()) {
+                node.execute();
+            }
+        } else {
+            executeConcurrently(poolSize);
+        }
+    }
+
+    private void executeConcurrently(int poolSize) throws SQLException {
+        Logger logger = I2b2ETLUtil.logger();
+        logger.log(Level.FINE, "Promoting temp tables for query {0} on {1} threads", new Object[]{this.queryName, poolSize});
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "i2b2-promote-" + this.queryName + "-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        Map<Node, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        try {
+            for (Node node : this.nodes.values()) {
+                CompletableFuture<?>[] deps = new CompletableFuture<?>[node.dependencies.size()];
+                for (int i = 0; i < deps.length; i++) {
+                    deps[i] = futures.get(node.dependencies.get(i));
+                }
+                futures.put(node, CompletableFuture.allOf(deps).thenRunAsync(() -> {
+                    if (failure.get() == null) {
+                        try {
+                            node.execute();
+                        } catch (SQLException ex) {
+                            failure.compareAndSet(null, ex);
+                            throw new CompletionException(ex);
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).join();
+        } catch (CompletionException ex) {
+            if (failure.get() == null) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw ex;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        SQLException ex = failure.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private static final class Node {
+
+        private final String name;
+        private final Step step;
+        private final List<Node> dependencies;
+
+        Node(String name, Step step, List<Node> dependencies) {
+            this.name = name;
+            this.step = step;
+            this.dependencies = dependencies;
+        }
+
+        void execute() throws SQLException {
+            Logger logger = I2b2ETLUtil.logger();
+            logger.log(Level.FINE, "Beginning promotion step {0}", this.name);
+            this.step.execute();
+            logger.log(Level.FINE, "Done with promotion step {0}", this.name);
+        }
+    }
+}
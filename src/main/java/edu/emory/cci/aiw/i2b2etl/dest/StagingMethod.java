@@ -0,0 +1,34 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * How records are written into the temp tables. The <code>COPY</code>
+ * methods use PostgreSQL's <code>COPY ... FROM STDIN</code> and fall back to
+ * {@link #INSERT} on other databases.
+ *
+ * @author Andrew Post
+ */
+public enum StagingMethod {
+    INSERT,
+    COPY_TEXT,
+    COPY_BINARY
+}
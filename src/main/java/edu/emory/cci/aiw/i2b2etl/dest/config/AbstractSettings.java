@@ -20,6 +20,7 @@ package edu.emory.cci.aiw.i2b2etl.dest.config;
  * #L%
  */
 
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.util.Set;
 
 /**
@@ -37,4 +38,265 @@ public abstract class AbstractSettings implements Settings {
     public Set<String> getDimensionDataTypes() {
         return this.settingsSupport.getDimensionDataTypes();
     }
+
+    /**
+     * Returns the number of worker threads that stage patients into the temp
+     * tables. This implementation returns <code>1</code>, which loads patients
+     * on the caller's thread.
+     *
+     * @return the number of load threads.
+     */
+    @Override
+    public int getLoadThreads() {
+        return 1;
+    }
+
+    /**
+     * Returns how records are written into the temp tables. This
+     * implementation returns {@link StagingMethod#INSERT}.
+     *
+     * @return the staging method.
+     */
+    @Override
+    public StagingMethod getStagingMethod() {
+        return StagingMethod.INSERT;
+    }
+
+    /**
+     * Returns the number of threads that promote the temp tables into the
+     * dimension tables. This implementation returns <code>1</code>, which
+     * promotes one dimension at a time.
+     *
+     * @return the number of promotion threads.
+     */
+    @Override
+    public int getPromotionThreads() {
+        return 1;
+    }
+
+    /**
+     * Returns the maximum number of connections that the destination opens
+     * to each database. This implementation returns <code>0</code>, which
+     * disables pooling.
+     *
+     * @return the connection pool size.
+     */
+    @Override
+    public int getConnectionPoolSize() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of prepared statements cached per pooled connection.
+     * This implementation returns <code>20</code>.
+     *
+     * @return the statement cache size.
+     */
+    @Override
+    public int getConnectionPoolStatementCacheSize() {
+        return 20;
+    }
+
+    /**
+     * Returns the query that validates a pooled connection before it is
+     * used. This implementation returns <code>null</code>, which validates
+     * connections with {@link java.sql.Connection#isValid(int) }.
+     *
+     * @return a SQL query, or <code>null</code>.
+     */
+    @Override
+    public String getConnectionPoolValidationQuery() {
+        return null;
+    }
+
+    /**
+     * Returns whether to journal the progress of a load so that it can be
+     * resumed if it fails. This implementation returns <code>false</code>.
+     *
+     * @return <code>true</code> to journal progress.
+     */
+    @Override
+    public boolean getResumable() {
+        return false;
+    }
+
+    /**
+     * Returns the number of patients staged between checkpoints of a
+     * resumable load. This implementation returns <code>10000</code>.
+     *
+     * @return the checkpoint interval.
+     */
+    @Override
+    public int getCheckpointInterval() {
+        return 10000;
+    }
+
+    /**
+     * Returns whether to load only the patients whose data changed since the
+     * last successful run of the query, according to per-source watermarks
+     * of update and download dates. Applies only to queries with mode
+     * {@link org.protempa.query.QueryMode#UPDATE}. This implementation
+     * returns <code>false</code>.
+     *
+     * @return <code>true</code> to load incrementally.
+     */
+    @Override
+    public boolean getIncrementalLoad() {
+        return false;
+    }
+
+    /**
+     * Returns the number of processes that split the patients of a load
+     * between them. This implementation returns <code>1</code>, which loads
+     * all patients in this process.
+     *
+     * @return the number of partitions.
+     */
+    @Override
+    public int getPartitionCount() {
+        return 1;
+    }
+
+    /**
+     * Returns the partition that this process loads, between <code>0</code>
+     * and the number of partitions minus one. Partition <code>0</code>
+     * coordinates the load. This implementation returns <code>0</code>.
+     *
+     * @return the partition.
+     */
+    @Override
+    public int getPartition() {
+        return 0;
+    }
+
+    /**
+     * Returns how long, in seconds, a partitioned load waits for the other
+     * processes. This implementation returns <code>86400</code>.
+     *
+     * @return the timeout in seconds.
+     */
+    @Override
+    public int getPartitionTimeout() {
+        return 86400;
+    }
+
+    /**
+     * Returns how often, in seconds, to log a summary of the load's
+     * throughput. This implementation returns <code>60</code>. Zero logs a
+     * summary only when the load ends.
+     *
+     * @return the interval in seconds.
+     */
+    @Override
+    public int getMetricsLogInterval() {
+        return 60;
+    }
+
+    /**
+     * Returns the number of rejected facts that may be waiting to be written
+     * before loaders block. This implementation returns <code>10000</code>.
+     *
+     * @return the queue size.
+     */
+    @Override
+    public int getRejectedFactQueueSize() {
+        return 10000;
+    }
+
+    /**
+     * Returns the maximum number of rejected facts to write per load. All
+     * rejected facts are counted regardless. This implementation returns
+     * <code>-1</code>, which writes all of them.
+     *
+     * @return the limit, or a negative number for no limit.
+     */
+    @Override
+    public int getRejectedFactDetailLimit() {
+        return -1;
+    }
+
+    /**
+     * Returns the path of a gzip-compressed, tab-delimited file to which to
+     * append rejected facts instead of the rejected fact table. A partitioned
+     * load appends the partition number to the path. This implementation
+     * returns <code>null</code>.
+     *
+     * @return a file path, or <code>null</code>.
+     */
+    @Override
+    public String getRejectedFactFile() {
+        return null;
+    }
+
+    /**
+     * Returns the number of threads, each with its own connection, that
+     * insert facts into the temp observation fact table while the load
+     * threads build them. This implementation returns <code>0</code>, which
+     * inserts facts on the load threads.
+     *
+     * @return the number of fact writer threads.
+     */
+    @Override
+    public int getFactWriterThreads() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of patients to stage before promoting them into the
+     * dimension and fact tables and truncating the temp tables. Does not
+     * apply to resumable or partitioned loads. This implementation returns
+     * <code>0</code>, which promotes all patients when the load finishes.
+     *
+     * @return the number of patients per batch.
+     */
+    @Override
+    public int getPromotionBatchSize() {
+        return 0;
+    }
+
+    /**
+     * Returns the directory in which to keep snapshots of built ontologies.
+     * A load reads the snapshot whose fingerprint matches its proposition
+     * definitions, value sets, ontology table row counts, update dates and
+     * concept path checksums, and configuration, instead of building the
+     * ontology again. See {@link #getRebuildOntologySnapshot() } for the
+     * edits that the fingerprint misses. This
+     * implementation returns <code>null</code>, which always builds the
+     * ontology.
+     *
+     * @return a directory path, or <code>null</code>.
+     */
+    @Override
+    public String getOntologySnapshotDirectory() {
+        return null;
+    }
+
+    /**
+     * Returns whether to build the ontology and overwrite its snapshot even
+     * if a snapshot with a matching fingerprint exists. The fingerprint
+     * covers the row count, last update date and a checksum of the
+     * EK_UNIQUE_ID and C_FULLNAME pairs of each ontology table, so other
+     * edits to those tables, such as changed display names or modifiers that
+     * keep the update dates, are not detected without a rebuild. This
+     * implementation returns <code>false</code>.
+     *
+     * @return <code>true</code> to rebuild the ontology snapshot.
+     */
+    @Override
+    public boolean getRebuildOntologySnapshot() {
+        return false;
+    }
+
+    /**
+     * Returns the number of threads that build the subtrees of folders
+     * concurrently. Folders that share propositions with other folders or
+     * with the phenotypes are still built one at a time, so the ontology is
+     * the same either way. This implementation returns <code>1</code>.
+     *
+     * @return the number of ontology build threads.
+     */
+    @Override
+    public int getOntologyBuildThreads() {
+        return 1;
+    }
 }
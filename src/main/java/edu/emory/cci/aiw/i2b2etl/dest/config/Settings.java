@@ -26,6 +26,7 @@ package edu.emory.cci.aiw.i2b2etl.dest.config;
  */
 
 import edu.emory.cci.aiw.i2b2etl.dest.RemoveMethod;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.util.Set;
 
 /**
@@ -61,4 +62,25 @@ public interface Settings {
     String getMetaTableName();
     Set<String> getDimensionDataTypes();
     boolean getManageCTotalNum();
+    int getLoadThreads();
+    StagingMethod getStagingMethod();
+    int getPromotionThreads();
+    int getConnectionPoolSize();
+    int getConnectionPoolStatementCacheSize();
+    String getConnectionPoolValidationQuery();
+    boolean getResumable();
+    int getCheckpointInterval();
+    boolean getIncrementalLoad();
+    int getPartitionCount();
+    int getPartition();
+    int getPartitionTimeout();
+    int getMetricsLogInterval();
+    int getRejectedFactQueueSize();
+    int getRejectedFactDetailLimit();
+    String getRejectedFactFile();
+    int getFactWriterThreads();
+    int getPromotionBatchSize();
+    String getOntologySnapshotDirectory();
+    boolean getRebuildOntologySnapshot();
+    int getOntologyBuildThreads();
 }
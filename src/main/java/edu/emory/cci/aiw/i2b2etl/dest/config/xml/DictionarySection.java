@@ -20,6 +20,7 @@
 package edu.emory.cci.aiw.i2b2etl.dest.config.xml;
 
 import edu.emory.cci.aiw.i2b2etl.dest.RemoveMethod;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import edu.emory.cci.aiw.i2b2etl.dest.config.ConfigurationInitException;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
 import edu.emory.cci.aiw.i2b2etl.dest.config.SettingsSupport;
@@ -222,5 +223,185 @@ final class DictionarySection extends ConfigurationSection implements Settings {
             return false;
         }
     }
+
+    @Override
+    public int getLoadThreads() {
+        String loadThreads = this.dictionary.get("loadThreads");
+        if (loadThreads != null) {
+            return Integer.parseInt(loadThreads);
+        } else {
+            return 1;
+        }
+    }
+
+    @Override
+    public StagingMethod getStagingMethod() {
+        String stagingMethodString = this.dictionary.get("stagingMethod");
+        if (stagingMethodString == null) {
+            return StagingMethod.INSERT;
+        } else {
+            return StagingMethod.valueOf(stagingMethodString);
+        }
+    }
+
+    @Override
+    public int getPromotionThreads() {
+        String promotionThreads = this.dictionary.get("promotionThreads");
+        if (promotionThreads != null) {
+            return Integer.parseInt(promotionThreads);
+        } else {
+            return 1;
+        }
+    }
+
+    @Override
+    public int getConnectionPoolSize() {
+        String connectionPoolSize = this.dictionary.get("connectionPoolSize");
+        if (connectionPoolSize != null) {
+            return Integer.parseInt(connectionPoolSize);
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public int getConnectionPoolStatementCacheSize() {
+        String statementCacheSize = this.dictionary.get("connectionPoolStatementCacheSize");
+        if (statementCacheSize != null) {
+            return Integer.parseInt(statementCacheSize);
+        } else {
+            return 20;
+        }
+    }
+
+    @Override
+    public String getConnectionPoolValidationQuery() {
+        return this.dictionary.get("connectionPoolValidationQuery");
+    }
+
+    @Override
+    public boolean getResumable() {
+        return Boolean.parseBoolean(this.dictionary.get("resumable"));
+    }
+
+    @Override
+    public int getCheckpointInterval() {
+        String checkpointInterval = this.dictionary.get("checkpointInterval");
+        if (checkpointInterval != null) {
+            return Integer.parseInt(checkpointInterval);
+        } else {
+            return 10000;
+        }
+    }
+
+    @Override
+    public boolean getIncrementalLoad() {
+        return Boolean.parseBoolean(this.dictionary.get("incrementalLoad"));
+    }
+
+    @Override
+    public int getPartitionCount() {
+        String partitionCount = this.dictionary.get("partitionCount");
+        if (partitionCount != null) {
+            return Integer.parseInt(partitionCount);
+        } else {
+            return 1;
+        }
+    }
+
+    @Override
+    public int getPartition() {
+        String partition = this.dictionary.get("partition");
+        if (partition != null) {
+            return Integer.parseInt(partition);
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public int getPartitionTimeout() {
+        String partitionTimeout = this.dictionary.get("partitionTimeout");
+        if (partitionTimeout != null) {
+            return Integer.parseInt(partitionTimeout);
+        } else {
+            return 86400;
+        }
+    }
+
+    @Override
+    public int getMetricsLogInterval() {
+        String metricsLogInterval = this.dictionary.get("metricsLogInterval");
+        if (metricsLogInterval != null) {
+            return Integer.parseInt(metricsLogInterval);
+        } else {
+            return 60;
+        }
+    }
+    
+    @Override
+    public int getRejectedFactQueueSize() {
+        String rejectedFactQueueSize = this.dictionary.get("rejectedFactQueueSize");
+        if (rejectedFactQueueSize != null) {
+            return Integer.parseInt(rejectedFactQueueSize);
+        } else {
+            return 10000;
+        }
+    }
+
+    @Override
+    public int getRejectedFactDetailLimit() {
+        String rejectedFactDetailLimit = this.dictionary.get("rejectedFactDetailLimit");
+        if (rejectedFactDetailLimit != null) {
+            return Integer.parseInt(rejectedFactDetailLimit);
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public String getRejectedFactFile() {
+        return this.dictionary.get("rejectedFactFile");
+    }
+    
+    @Override
+    public int getFactWriterThreads() {
+        String factWriterThreads = this.dictionary.get("factWriterThreads");
+        if (factWriterThreads != null) {
+            return Integer.parseInt(factWriterThreads);
+        } else {
+            return 0;
+        }
+    }
+    
+    @Override
+    public int getPromotionBatchSize() {
+        String promotionBatchSize = this.dictionary.get("promotionBatchSize");
+        if (promotionBatchSize != null) {
+            return Integer.parseInt(promotionBatchSize);
+        } else {
+            return 0;
+        }
+    }
+    
+    @Override
+    public String getOntologySnapshotDirectory() {
+        return this.dictionary.get("ontologySnapshotDirectory");
+    }
+    
+    @Override
+    public boolean getRebuildOntologySnapshot() {
+        return Boolean.parseBoolean(this.dictionary.get("rebuildOntologySnapshot"));
+    }
+    
+    @Override
+    public int getOntologyBuildThreads() {
+        String ontologyBuildThreads = this.dictionary.get("ontologyBuildThreads");
+        if (ontologyBuildThreads != null) {
+            return Integer.parseInt(ontologyBuildThreads);
+        } else {
+            return 1;
+        }
+    }
     
 }
@@ -22,17 +22,49 @@ package edu.emory.cci.aiw.i2b2etl.dest.metadata;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeException;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
 import edu.emory.cci.aiw.etl.table.Record;
-import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A node of the ontology. Nodes are linked to their parent, first and last
+ * child and next sibling directly, rather than through a vector of children
+ * per node, which keeps large ontologies compact. Not thread-safe.
+ *
+ * @author Andrew Post
+ */
+public final class Concept implements Record {
 
-public final class Concept extends DefaultMutableTreeNode implements Record {
-
-    private static final long serialVersionUID = 350127486830611865L;
     private final UserObject usrObj;
+    private Concept parent;
+    private Concept firstChild;
+    private Concept lastChild;
+    private Concept nextSibling;
+    private int childCount;
 
     public Concept(ConceptId id, String conceptCodePrefix, Metadata metadata) throws InvalidConceptCodeException {
         this.usrObj = new UserObject(id, conceptCodePrefix, this, metadata);
     }
+
+    /**
+     * Creates a concept from an ontology snapshot. Its fields are then read
+     * with {@link #readSnapshot(java.io.ObjectInput) }.
+     */
+    Concept(ConceptId id, String conceptCodePrefix, String conceptCode) {
+        this.usrObj = new UserObject(id, conceptCodePrefix, conceptCode, this);
+    }
+
+    void writeSnapshot(ObjectOutput out) throws IOException {
+        usrObj.writeSnapshot(out);
+    }
+
+    void readSnapshot(ObjectInput in) throws IOException, ClassNotFoundException {
+        usrObj.readSnapshot(in);
+    }
     
     public String getConceptCodePrefix() {
         return usrObj.getConceptCodePrefix();
@@ -42,9 +74,227 @@ public final class Concept extends DefaultMutableTreeNode implements Record {
         return usrObj.getId();
     }
 
-    @Override
-    public Object getUserObject() {
-        return usrObj.getId();
+    /**
+     * Adds a child as the last child of this concept. If the child already
+     * has a parent, it is removed from that parent first.
+     *
+     * @param child the child. Cannot be this concept or one of its
+     * ancestors.
+     */
+    public void add(Concept child) {
+        if (child == null) {
+            throw new IllegalArgumentException("child cannot be null");
+        }
+        for (Concept c = this; c != null; c = c.parent) {
+            if (c == child) {
+                throw new IllegalArgumentException("child is an ancestor of this concept");
+            }
+        }
+        if (child.parent != null) {
+            child.parent.remove(child);
+        }
+        child.parent = this;
+        if (this.lastChild == null) {
+            this.firstChild = child;
+        } else {
+            this.lastChild.nextSibling = child;
+        }
+        this.lastChild = child;
+        this.childCount++;
+    }
+
+    /**
+     * Removes a child of this concept.
+     *
+     * @param child the child.
+     */
+    public void remove(Concept child) {
+        if (child == null || child.parent != this) {
+            throw new IllegalArgumentException("not a child of this concept");
+        }
+        Concept prev = null;
+        for (Concept c = this.firstChild; c != child; c = c.nextSibling) {
+            prev = c;
+        }
+        if (prev == null) {
+            this.firstChild = child.nextSibling;
+        } else {
+            prev.nextSibling = child.nextSibling;
+        }
+        if (this.lastChild == child) {
+            this.lastChild = prev;
+        }
+        child.parent = null;
+        child.nextSibling = null;
+        this.childCount--;
+    }
+
+    public Concept getParent() {
+        return this.parent;
+    }
+
+    public Concept getFirstChild() {
+        return this.firstChild;
+    }
+
+    public Concept getNextSibling() {
+        return this.nextSibling;
+    }
+
+    public int getChildCount() {
+        return this.childCount;
+    }
+
+    public boolean isLeaf() {
+        return this.firstChild == null;
+    }
+
+    public boolean isRoot() {
+        return this.parent == null;
+    }
+
+    /**
+     * Gets the topmost ancestor of this concept.
+     *
+     * @return the root of this concept's tree, which is this concept if it
+     * has no parent.
+     */
+    public Concept getRoot() {
+        Concept c = this;
+        while (c.parent != null) {
+            c = c.parent;
+        }
+        return c;
+    }
+
+    /**
+     * Gets the concepts from the root of this concept's tree down to this
+     * concept.
+     *
+     * @return the path, starting with the root and ending with this concept.
+     */
+    public Concept[] getPath() {
+        int depth = getDepth();
+        Concept[] result = new Concept[depth + 1];
+        for (Concept c = this; c != null; c = c.parent) {
+            result[depth--] = c;
+        }
+        return result;
+    }
+
+    /**
+     * Iterates over this concept and its descendants, each parent before
+     * its children.
+     *
+     * @return an iterable.
+     */
+    public Iterable<Concept> preorder() {
+        return () -> new Iterator<Concept>() {
+            private Concept next = Concept.this;
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Concept next() {
+                Concept result = this.next;
+                if (result == null) {
+                    throw new NoSuchElementException();
+                }
+                if (result.firstChild != null) {
+                    this.next = result.firstChild;
+                } else {
+                    Concept c = result;
+                    while (c != Concept.this && c.nextSibling == null) {
+                        c = c.parent;
+                    }
+                    this.next = c != Concept.this ? c.nextSibling : null;
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Iterates over this concept and its descendants, each parent after its
+     * children.
+     *
+     * @return an iterable.
+     */
+    public Iterable<Concept> postorder() {
+        return () -> new Iterator<Concept>() {
+            private Concept next = firstLeaf(Concept.this);
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Concept next() {
+                Concept result = this.next;
+                if (result == null) {
+                    throw new NoSuchElementException();
+                }
+                if (result == Concept.this) {
+                    this.next = null;
+                } else if (result.nextSibling != null) {
+                    this.next = firstLeaf(result.nextSibling);
+                } else {
+                    this.next = result.parent;
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Iterates over this concept and its descendants level by level.
+     *
+     * @return an iterable.
+     */
+    public Iterable<Concept> breadthFirst() {
+        return () -> new Iterator<Concept>() {
+            private final ArrayDeque<Concept> queue = new ArrayDeque<>();
+
+            {
+                this.queue.add(Concept.this);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !this.queue.isEmpty();
+            }
+
+            @Override
+            public Concept next() {
+                Concept result = this.queue.poll();
+                if (result == null) {
+                    throw new NoSuchElementException();
+                }
+                for (Concept c = result.firstChild; c != null; c = c.nextSibling) {
+                    this.queue.add(c);
+                }
+                return result;
+            }
+        };
+    }
+
+    private static Concept firstLeaf(Concept concept) {
+        while (concept.firstChild != null) {
+            concept = concept.firstChild;
+        }
+        return concept;
+    }
+
+    private int getDepth() {
+        int depth = 0;
+        for (Concept c = this.parent; c != null; c = c.parent) {
+            depth++;
+        }
+        return depth;
     }
 
     public boolean isDerived() {
@@ -187,6 +437,10 @@ public final class Concept extends DefaultMutableTreeNode implements Record {
     public void addHierarchyPath(String path) {
         usrObj.addHierarchyPath(path);
     }
+
+    void addHierarchyPath(Concept node) {
+        usrObj.addHierarchyPath(node);
+    }
     
     public void setAppliedPath(String appliedPath) {
         this.usrObj.setAppliedPath(appliedPath);
@@ -268,11 +522,10 @@ public final class Concept extends DefaultMutableTreeNode implements Record {
         usrObj.setHLevel(level);
     }
     
-    @Override
     public int getLevel() {
         int level = usrObj.getHLevel();
         if (level < 0) {
-            return super.getLevel();
+            return getDepth();
         } else {
             return level;
         }
@@ -0,0 +1,187 @@
+package edu.emory.cci.aiw.i2b2etl.dest.metadata;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
+import org.protempa.proposition.value.Value;
+
+/**
+ * An open-addressing hash table of concept ids keyed by kind, id, property
+ * name and value. Lookups compute the hash from the key parts directly, so
+ * finding an existing concept id allocates nothing. Ids and property names
+ * are interned on insertion, so most comparisons are by reference. Entries
+ * are never removed. Not thread-safe while it is being filled; once
+ * {@link #freeze() frozen}, it is immutable and may be read concurrently
+ * without locking, provided that it was safely published.
+ *
+ * @author Andrew Post
+ */
+public final class ConceptIdIndex {
+
+    /**
+     * The kinds of concept ids, which keep otherwise equal keys apart.
+     */
+    public static enum Kind {
+        SIMPLE,
+        PROPERTY,
+        MODIFIER
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private Entry[] table;
+    private int size;
+    private boolean frozen;
+
+    ConceptIdIndex() {
+        this.table = new Entry[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Gets the concept id with the given key.
+     *
+     * @param kind the kind of concept id. Cannot be <code>null</code>.
+     * @param id the proposition id or string identifier.
+     * @param propertyName a property name, or <code>null</code>.
+     * @param value a value, or <code>null</code>.
+     * @return the concept id, or <code>null</code> if there is none.
+     */
+    ConceptId get(Kind kind, String id, String propertyName, Value value) {
+        Entry[] tab = this.table;
+        int mask = tab.length - 1;
+        int hash = hash(kind, id, propertyName, value);
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            Entry entry = tab[i];
+            if (entry == null) {
+                return null;
+            }
+            if (entry.matches(hash, kind, id, propertyName, value)) {
+                return entry.conceptId;
+            }
+        }
+    }
+
+    /**
+     * Adds a concept id with the given key unless there already is one.
+     *
+     * @param kind the kind of concept id. Cannot be <code>null</code>.
+     * @param id the proposition id or string identifier.
+     * @param propertyName a property name, or <code>null</code>.
+     * @param value a value, or <code>null</code>.
+     * @param conceptId the concept id to add.
+     * @return the concept id with the given key, either the one passed in
+     * or the one that was already there.
+     */
+    ConceptId putIfAbsent(Kind kind, String id, String propertyName,
+            Value value, ConceptId conceptId) {
+        if (this.frozen) {
+            throw new IllegalStateException("concept id index is frozen");
+        }
+        ConceptId existing = get(kind, id, propertyName, value);
+        if (existing != null) {
+            return existing;
+        }
+        if ((this.size + 1) * 2 > this.table.length) {
+            resize();
+        }
+        int hash = hash(kind, id, propertyName, value);
+        insert(this.table, new Entry(hash, kind,
+                id != null ? id.intern() : null,
+                propertyName != null ? propertyName.intern() : null,
+                value, conceptId));
+        this.size++;
+        return conceptId;
+    }
+
+    /**
+     * Makes this index immutable. Subsequent calls to
+     * {@link #putIfAbsent(edu.emory.cci.aiw.i2b2etl.dest.metadata.ConceptIdIndex.Kind, java.lang.String, java.lang.String, org.protempa.proposition.value.Value, edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId) }
+     * throw {@link IllegalStateException}.
+     */
+    void freeze() {
+        this.frozen = true;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private void resize() {
+        Entry[] newTable = new Entry[this.table.length * 2];
+        for (Entry entry : this.table) {
+            if (entry != null) {
+                insert(newTable, entry);
+            }
+        }
+        this.table = newTable;
+    }
+
+    private static void insert(Entry[] tab, Entry entry) {
+        int mask = tab.length - 1;
+        int i = entry.hash & mask;
+        while (tab[i] != null) {
+            i = (i + 1) & mask;
+        }
+        tab[i] = entry;
+    }
+
+    private static int hash(Kind kind, String id, String propertyName, Value value) {
+        int h = kind.ordinal();
+        h = 31 * h + (id != null ? id.hashCode() : 0);
+        h = 31 * h + (propertyName != null ? propertyName.hashCode() : 0);
+        h = 31 * h + (value != null ? value.hashCode() : 0);
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry {
+
+        final int hash;
+        final Kind kind;
+        final String id;
+        final String propertyName;
+        final Value value;
+        final ConceptId conceptId;
+
+        Entry(int hash, Kind kind, String id, String propertyName, Value value,
+                ConceptId conceptId) {
+            this.hash = hash;
+            this.kind = kind;
+            this.id = id;
+            this.propertyName = propertyName;
+            this.value = value;
+            this.conceptId = conceptId;
+        }
+
+        boolean matches(int hash, Kind kind, String id, String propertyName,
+                Value value) {
+            return this.hash == hash
+                    && this.kind == kind
+                    && equal(this.id, id)
+                    && equal(this.propertyName, propertyName)
+                    && (this.value == value
+                    || (this.value != null && this.value.equals(value)));
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == b || (a != null && a.equals(b));
+        }
+    }
+}
@@ -38,16 +38,21 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.tree.TreeNode;
 
-import org.apache.commons.collections4.map.ReferenceMap;
 import org.apache.commons.lang3.StringUtils;
 import org.arp.javautil.arrays.Arrays;
 import org.arp.javautil.collections.Collections;
@@ -71,7 +76,15 @@ public final class Metadata {
 
     private Concept conceptRoot;
     private final Map<ConceptId, Concept> conceptCache = new HashMap<>();
-    private final Map<List<Object>, ConceptId> conceptIdCache = new ReferenceMap<>();
+    private final ConceptIdIndex conceptIdCache = new ConceptIdIndex();
+    private final ConcurrentMap<ConceptId, Concept> lateConceptCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<Object>, ConceptId> lateConceptIdCache = new ConcurrentHashMap<>();
+    /*
+     * Set once the ontology is built. From then on, conceptCache and
+     * conceptIdCache are read without locking, and concepts and concept ids
+     * that are added later go into the late caches.
+     */
+    private volatile boolean frozen;
     private final Data dataSection;
     private final Settings settings;
     private final PropositionDefinition[] userDefinedPropositionDefinitions;
@@ -172,6 +185,61 @@ public final class Metadata {
         }
         assert !this.allRoots.contains(null) : "Null root concepts! " + this.allRoots;
         setI2B2PathsToConcepts();
+        freeze();
+    }
+
+    /**
+     * Restores the ontology from a snapshot instead of building it. Like
+     * {@link #init() }, it must be called before using any other methods.
+     *
+     * @param snapshot the snapshot to read.
+     * @return <code>true</code> if the ontology was restored,
+     * <code>false</code> if there is no snapshot.
+     * @throws IOException if the snapshot could not be read. This instance
+     * may then be partially restored, and it should be discarded.
+     */
+    boolean restore(OntologySnapshot snapshot) throws IOException {
+        this.allRoots = new ArrayList<>();
+        this.providerConceptTreeBuilder = new ProviderConceptTreeBuilder(this);
+        if (!snapshot.read(this)) {
+            return false;
+        }
+        try {
+            this.providerConceptTreeBuilder.restore();
+        } catch (InvalidConceptCodeException ex) {
+            throw new IOException("Could not restore the provider hierarchy", ex);
+        }
+        freeze();
+        return true;
+    }
+
+    void setRoots(Concept conceptRoot, List<Concept> allRoots, List<Concept> modifierRoots) {
+        this.conceptRoot = conceptRoot;
+        this.allRoots.addAll(allRoots);
+        this.modifierRoots.addAll(modifierRoots);
+    }
+
+    Collection<Concept> getCachedConcepts() {
+        return this.conceptCache.values();
+    }
+
+    PropositionDefinitionCache getPropositionDefinitionCache() {
+        return this.propDefs;
+    }
+
+    KnowledgeSourceCache getKnowledgeSourceCache() {
+        return this.cache;
+    }
+
+    void freeze() {
+        synchronized (this.conceptCache) {
+            synchronized (this.conceptIdCache) {
+                this.conceptIdCache.freeze();
+                this.frozen = true;
+            }
+        }
+        LOGGER.log(Level.FINE, "Froze {0} concept(s) and {1} concept id(s)",
+                new Object[]{this.conceptCache.size(), this.conceptIdCache.size()});
     }
 
     /**
@@ -266,40 +334,108 @@ public final class Metadata {
     }
 
     public Concept getFromIdCache(ConceptId conceptId) {
-        synchronized (this.conceptCache) {
-            return this.conceptCache.get(conceptId);
+        if (!this.frozen) {
+            synchronized (this.conceptCache) {
+                if (!this.frozen) {
+                    return this.conceptCache.get(conceptId);
+                }
+            }
         }
+        Concept concept = this.conceptCache.get(conceptId);
+        if (concept == null) {
+            concept = this.lateConceptCache.get(conceptId);
+        }
+        return concept;
     }
 
     public Concept getFromIdCache(String propId, String propertyName, Value value) {
-        return getFromIdCache(
-                PropDefConceptId.getInstance(propId, propertyName, value, this));
+        PropDefConceptId conceptId
+                = PropDefConceptId.getInstanceIfPresent(propId, propertyName, value, this);
+        return conceptId != null ? getFromIdCache(conceptId) : null;
     }
 
     public void addToIdCache(Concept concept) {
-        synchronized (this.conceptCache) {
-            if (!this.conceptCache.containsKey(concept.getId())) {
-                this.conceptCache.put(concept.getId(), concept);
-            } else {
-                throw new IllegalArgumentException("concept already added!");
+        if (!this.frozen) {
+            synchronized (this.conceptCache) {
+                if (!this.frozen) {
+                    if (!this.conceptCache.containsKey(concept.getId())) {
+                        this.conceptCache.put(concept.getId(), concept);
+                        return;
+                    } else {
+                        throw new IllegalArgumentException("concept already added!");
+                    }
+                }
             }
         }
+        if (this.conceptCache.containsKey(concept.getId())
+                || this.lateConceptCache.putIfAbsent(concept.getId(), concept) != null) {
+            throw new IllegalArgumentException("concept already added!");
+        }
     }
 
-    public void putInConceptIdCache(List<Object> key, ConceptId conceptId) {
-        synchronized (this.conceptIdCache) {
-            if (!this.conceptIdCache.containsKey(key)) {
-                this.conceptIdCache.put(key, conceptId);
-            } else {
-                throw new IllegalArgumentException("concept id already added!");
+    /**
+     * Caches a concept id under the given key unless another thread already
+     * cached one, so that concurrent loaders share a single instance.
+     *
+     * @param kind the kind of concept id.
+     * @param id the proposition id or string identifier.
+     * @param propertyName a property name, or <code>null</code>.
+     * @param value a value, or <code>null</code>.
+     * @param conceptId the concept id to cache.
+     * @return the concept id cached under the key, either the one passed in or
+     * the one that was already there.
+     */
+    public ConceptId putInConceptIdCacheIfAbsent(ConceptIdIndex.Kind kind,
+            String id, String propertyName, Value value, ConceptId conceptId) {
+        if (!this.frozen) {
+            synchronized (this.conceptIdCache) {
+                if (!this.frozen) {
+                    return this.conceptIdCache.putIfAbsent(kind, id, propertyName, value, conceptId);
+                }
             }
         }
+        ConceptId result = this.conceptIdCache.get(kind, id, propertyName, value);
+        if (result == null) {
+            result = this.lateConceptIdCache.putIfAbsent(
+                    lateConceptIdKey(kind, id, propertyName, value), conceptId);
+            if (result == null) {
+                result = conceptId;
+            }
+        }
+        return result;
     }
 
-    public ConceptId getFromConceptIdCache(List<Object> key) {
-        synchronized (this.conceptIdCache) {
-            return this.conceptIdCache.get(key);
+    /**
+     * Gets the cached concept id with the given key. Allocates nothing if
+     * the concept id was cached while the ontology was built, and does not
+     * lock once the ontology is built.
+     *
+     * @param kind the kind of concept id.
+     * @param id the proposition id or string identifier.
+     * @param propertyName a property name, or <code>null</code>.
+     * @param value a value, or <code>null</code>.
+     * @return the concept id, or <code>null</code> if none is cached.
+     */
+    public ConceptId getFromConceptIdCache(ConceptIdIndex.Kind kind,
+            String id, String propertyName, Value value) {
+        if (!this.frozen) {
+            synchronized (this.conceptIdCache) {
+                if (!this.frozen) {
+                    return this.conceptIdCache.get(kind, id, propertyName, value);
+                }
+            }
+        }
+        ConceptId result = this.conceptIdCache.get(kind, id, propertyName, value);
+        if (result == null && !this.lateConceptIdCache.isEmpty()) {
+            result = this.lateConceptIdCache.get(
+                    lateConceptIdKey(kind, id, propertyName, value));
         }
+        return result;
+    }
+
+    private static List<Object> lateConceptIdKey(ConceptIdIndex.Kind kind,
+            String id, String propertyName, Value value) {
+        return java.util.Arrays.asList(kind, id, propertyName, value);
     }
 
     public String[] extractDerived()
@@ -307,9 +443,7 @@ public final class Metadata {
         Set<String> potentialDerivedConceptCodes = new HashSet<>();
 
         for (Concept r : getAllRoots()) {
-            Enumeration<TreeNode> emu = r.depthFirstEnumeration();
-            while (emu.hasMoreElements()) {
-                Concept concept = (Concept) emu.nextElement();
+            for (Concept concept : r.postorder()) {
                 if (concept.isDerived()) {
                     potentialDerivedConceptCodes.add(concept.getId().getId());
                 }
@@ -342,21 +476,125 @@ public final class Metadata {
             throws IOException, SQLException, KnowledgeSourceReadException,
             UnknownPropositionDefinitionException, InvalidConceptCodeException,
             OntologyBuildException, InvalidPromoteArgumentException {
-        for (FolderSpec folderSpec : this.folderSpecs) {
-            processFolderSpec(folderSpec);
+        PropositionConceptTreeBuilder[] prepared = prepareFolderSpecs();
+        for (int i = 0; i < this.folderSpecs.length; i++) {
+            processFolderSpec(this.folderSpecs[i], prepared[i]);
         }
     }
 
-    private void processFolderSpec(FolderSpec folderSpec)
+    /**
+     * Builds the subtrees of folders concurrently, if the settings allow
+     * more than one ontology build thread. Only folders whose propositions
+     * no other folder or phenotype uses are built this way, so that the
+     * ontology is the same as when it is built on one thread.
+     *
+     * @return the prepared builder of each folder, or <code>null</code> for
+     * folders that are built when their turn comes.
+     */
+    private PropositionConceptTreeBuilder[] prepareFolderSpecs()
+            throws KnowledgeSourceReadException,
+            UnknownPropositionDefinitionException, OntologyBuildException {
+        PropositionConceptTreeBuilder[] result
+                = new PropositionConceptTreeBuilder[this.folderSpecs.length];
+        int threads = this.settings.getOntologyBuildThreads();
+        if (threads <= 1) {
+            return result;
+        }
+        Map<String, Integer> owners = new HashMap<>();
+        Set<Integer> shared = new HashSet<>();
+        for (int i = 0; i < this.folderSpecs.length; i++) {
+            FolderSpec folderSpec = this.folderSpecs[i];
+            if (folderSpec.getProperty() == null) {
+                result[i] = newPropositionConceptTreeBuilder(folderSpec);
+                claimPropIds(owners, shared, result[i].collectPropIds(), i);
+            } else {
+                claimPropIds(owners, shared,
+                        java.util.Arrays.asList(folderSpec.getPropositions()), i);
+            }
+        }
+        claimPropIds(owners, shared,
+                new PhenotypesBuilder(this.cache, this).collectPropIds(), -1);
+        List<PropositionConceptTreeBuilder> independent = new ArrayList<>();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] != null) {
+                if (shared.contains(i)) {
+                    result[i] = null;
+                } else {
+                    independent.add(result[i]);
+                }
+            }
+        }
+        int poolSize = Math.min(threads, independent.size());
+        if (poolSize <= 1) {
+            return new PropositionConceptTreeBuilder[this.folderSpecs.length];
+        }
+        LOGGER.log(Level.FINE, "Building {0} folder(s) on {1} threads",
+                new Object[]{independent.size(), poolSize});
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "i2b2-ontology-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>(independent.size());
+            for (PropositionConceptTreeBuilder builder : independent) {
+                futures.add(executor.submit(() -> {
+                    builder.prepare();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OntologyBuildException("Interrupted while building the ontology", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof OntologyBuildException) {
+                throw (OntologyBuildException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new OntologyBuildException(cause);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static void claimPropIds(Map<String, Integer> owners,
+            Set<Integer> shared, Collection<String> propIds, int index) {
+        for (String propId : propIds) {
+            Integer owner = owners.putIfAbsent(propId, index);
+            if (owner != null && owner != index) {
+                shared.add(owner);
+                shared.add(index);
+            }
+        }
+    }
+
+    private PropositionConceptTreeBuilder newPropositionConceptTreeBuilder(
+            FolderSpec folderSpec) throws KnowledgeSourceReadException,
+            UnknownPropositionDefinitionException {
+        return new PropositionConceptTreeBuilder(this.cache,
+                folderSpec.getPropositions(), folderSpec.getConceptCodePrefix(),
+                folderSpec.getValueType(), folderSpec.getModifiers(),
+                folderSpec.isAlreadyLoaded(), this);
+    }
+
+    private void processFolderSpec(FolderSpec folderSpec,
+            PropositionConceptTreeBuilder prepared)
             throws InvalidConceptCodeException, KnowledgeSourceReadException,
             InvalidPromoteArgumentException,
             UnknownPropositionDefinitionException, OntologyBuildException {
         if (folderSpec.getProperty() == null) {
-            PropositionConceptTreeBuilder propProxy
-                    = new PropositionConceptTreeBuilder(this.cache,
-                            folderSpec.getPropositions(), folderSpec.getConceptCodePrefix(),
-                            folderSpec.getValueType(), folderSpec.getModifiers(),
-                            folderSpec.isAlreadyLoaded(), this);
+            PropositionConceptTreeBuilder propProxy = prepared != null
+                    ? prepared : newPropositionConceptTreeBuilder(folderSpec);
             propProxy.build(this.conceptRoot);
             if (this.conceptRoot == null) {
                 Arrays.addAll(this.allRoots, propProxy.getRoots());
@@ -409,8 +647,45 @@ public final class Metadata {
         sql.append(" WHERE M_APPLIED_PATH <> '@'");
     };
 
+    /**
+     * Adds hierarchy paths to the concepts in the id cache. The paths of
+     * concepts that are in the ontology tables are streamed from them, and
+     * only the rows whose symbols are in this ontology are kept. Other
+     * concepts, and concepts under the phenotypes folder, get the paths of
+     * the ontology nodes that refer to them.
+     */
     private void setI2B2PathsToConcepts() throws OntologyBuildException {
-        Map<String, List<String>> result;
+        Map<String, List<Concept>> conceptsBySymbol = new HashMap<>();
+        Map<String, List<Concept[]>> nodesBySymbol = new HashMap<>();
+        for (Concept c : getAllRoots()) {
+            boolean isInPhenotypes = false;
+            for (Concept concept : c.preorder()) {
+                Concept parent = concept.getParent();
+                if (parent != null && parent.equals(c)) {
+                    isInPhenotypes = false;
+                }
+                if (concept.getSymbol().equals("AIW|Phenotypes")) {
+                    isInPhenotypes = true;
+                }
+                Concept conceptFromCache = getFromIdCache(concept.getId());
+                if (conceptFromCache != null) {
+                    if (isInPhenotypes) {
+                        conceptFromCache.addHierarchyPath(concept);
+                    } else {
+                        // Added after the ontology tables are read, unless
+                        // they have paths for the concept.
+                        Collections.putList(nodesBySymbol, conceptFromCache.getSymbol(),
+                                new Concept[]{conceptFromCache, concept});
+                    }
+                    List<Concept> concepts = conceptsBySymbol.computeIfAbsent(
+                            concept.getSymbol(), k -> new ArrayList<>(1));
+                    if (!concepts.contains(conceptFromCache)) {
+                        concepts.add(conceptFromCache);
+                    }
+                }
+            }
+        }
+        Set<String> symbolsInTables = new HashSet<>();
         if (this.metaConnectionSpec != null) {
             boolean allAlreadyLoaded = true;
             for (FolderSpec folderSpec : this.folderSpecs) {
@@ -441,20 +716,32 @@ public final class Metadata {
                     throw sqle;
                 }
                 try (QueryExecutor qe = new QueryExecutor(connection, theQuery, new TableAccessReader(this.metaConnectionSpec.getDatabaseProduct(), this.settings.getMetaTableName()))) {
-                    result = qe.execute((ResultSet rs) -> {
-                        Map<String, List<String>> result1 = new HashMap<>();
+                    long rows = qe.execute((ResultSet rs) -> {
+                        long count = 0;
                         if (rs != null) {
                             try {
                                 while (rs.next()) {
-                                    Collections.putList(result1, rs.getString(1), rs.getString(2));
+                                    count++;
+                                    String symbol = rs.getString(1);
+                                    if (nodesBySymbol.containsKey(symbol)) {
+                                        symbolsInTables.add(symbol);
+                                    }
+                                    List<Concept> concepts = conceptsBySymbol.get(symbol);
+                                    if (concepts != null) {
+                                        String path = rs.getString(2);
+                                        for (Concept concept : concepts) {
+                                            concept.addHierarchyPath(path);
+                                        }
+                                    }
                                 }
                             } catch (SQLException ex) {
                                 throw new KnowledgeSourceReadException(ex);
                             }
                         }
-                        return result1;
+                        return count;
                     });
                     connection.commit();
+                    LOGGER.log(Level.FINE, "Read {0} concept path(s) from the ontology tables", rows);
                 } catch (KnowledgeSourceReadException | SQLException ksre) {
                     try {
                         connection.rollback();
@@ -465,33 +752,11 @@ public final class Metadata {
             } catch (KnowledgeSourceReadException | SQLException ex) {
                 throw new OntologyBuildException(ex);
             }
-        } else {
-            result = new HashMap<>();
         }
-        for (Concept c : getAllRoots()) {
-            @SuppressWarnings("unchecked")
-            Enumeration<TreeNode> emu = c.preorderEnumeration();
-            boolean isInPhenotypes = false;
-            while (emu.hasMoreElements()) {
-                Concept concept = (Concept) emu.nextElement();
-                TreeNode parent = concept.getParent();
-                if (parent != null && parent.equals(c)) {
-                    isInPhenotypes = false;
-                }
-                if (concept.getSymbol().equals("AIW|Phenotypes")) {
-                    isInPhenotypes = true;
-                }
-                Concept conceptFromCache = getFromIdCache(concept.getId());
-                if (conceptFromCache != null && (isInPhenotypes || !result.containsKey(conceptFromCache.getSymbol()))) {
-                    conceptFromCache.addHierarchyPath(concept.getFullName());
-                }
-                if (conceptFromCache != null) {
-                    List<String> get = result.get(concept.getSymbol());
-                    if (get != null) {
-                        for (String hp : get) {
-                            conceptFromCache.addHierarchyPath(hp);
-                        }
-                    }
+        for (Map.Entry<String, List<Concept[]>> me : nodesBySymbol.entrySet()) {
+            if (!symbolsInTables.contains(me.getKey())) {
+                for (Concept[] conceptAndNode : me.getValue()) {
+                    conceptAndNode[0].addHierarchyPath(conceptAndNode[1]);
                 }
             }
         }
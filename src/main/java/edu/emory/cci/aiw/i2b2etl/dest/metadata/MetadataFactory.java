@@ -23,8 +23,14 @@ package edu.emory.cci.aiw.i2b2etl.dest.metadata;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Data;
 import edu.emory.cci.aiw.i2b2etl.dest.config.FolderSpec;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.arp.javautil.sql.ConnectionSpec;
 import org.protempa.KnowledgeSourceCache;
+import org.protempa.KnowledgeSourceReadException;
 import org.protempa.PropositionDefinition;
 import org.protempa.PropositionDefinitionCache;
 
@@ -34,6 +40,8 @@ import org.protempa.PropositionDefinitionCache;
  */
 public final class MetadataFactory {
 
+    private static final Logger LOGGER = Logger.getLogger(MetadataFactory.class.getName());
+
     public Metadata getInstance(PropositionDefinitionCache propDefs, String sourceSystemCode, KnowledgeSourceCache cache,
             PropositionDefinition[] userDefinedPropositionDefinitions,
             FolderSpec[] folderSpecs,
@@ -42,7 +50,39 @@ public final class MetadataFactory {
         Metadata result = new Metadata(propDefs, sourceSystemCode, cache, 
                 userDefinedPropositionDefinitions,
                 folderSpecs, settings, dataSection, metaConnectionSpec);
+        String snapshotDirectory = settings.getOntologySnapshotDirectory();
+        if (snapshotDirectory == null) {
+            result.init();
+            return result;
+        }
+        OntologySnapshot snapshot;
+        try {
+            snapshot = new OntologySnapshot(new File(snapshotDirectory), result);
+        } catch (KnowledgeSourceReadException | SQLException ex) {
+            throw new OntologyBuildException("Could not compute the ontology snapshot fingerprint", ex);
+        }
+        if (settings.getRebuildOntologySnapshot()) {
+            LOGGER.log(Level.INFO, "Rebuilding ontology snapshot {0}", snapshot.getFile());
+        } else {
+            try {
+                if (result.restore(snapshot)) {
+                    LOGGER.log(Level.INFO, "Restored ontology from snapshot {0}", snapshot.getFile());
+                    return result;
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Could not read ontology snapshot " + snapshot.getFile() + "; building the ontology", ex);
+            }
+        }
+        result = new Metadata(propDefs, sourceSystemCode, cache,
+                userDefinedPropositionDefinitions,
+                folderSpecs, settings, dataSection, metaConnectionSpec);
         result.init();
+        try {
+            snapshot.write(result);
+            LOGGER.log(Level.INFO, "Wrote ontology snapshot {0}", snapshot.getFile());
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Could not write ontology snapshot " + snapshot.getFile(), ex);
+        }
         return result;
     }
 }
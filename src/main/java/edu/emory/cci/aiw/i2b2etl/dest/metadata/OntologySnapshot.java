@@ -0,0 +1,539 @@
+package edu.emory.cci.aiw.i2b2etl.dest.metadata;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.config.DataSpec;
+import edu.emory.cci.aiw.i2b2etl.dest.config.FolderSpec;
+import edu.emory.cci.aiw.i2b2etl.dest.config.ModifierSpec;
+import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierParentConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropDefConceptId;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.SimpleConceptId;
+import edu.emory.cci.aiw.i2b2etl.ksb.QueryExecutor;
+import edu.emory.cci.aiw.i2b2etl.ksb.TableAccessReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.protempa.KnowledgeSourceCache;
+import org.protempa.KnowledgeSourceReadException;
+import org.protempa.PropertyDefinition;
+import org.protempa.PropositionDefinition;
+import org.protempa.proposition.value.Value;
+import org.protempa.valueset.ValueSet;
+import org.protempa.valueset.ValueSetElement;
+
+/**
+ * A file containing a built ontology, so that later loads with the same
+ * inputs can read it instead of building the ontology again. The file name
+ * is a SHA-256 fingerprint of the inputs: the proposition definitions and
+ * value sets, the row counts, last update dates and checksums of the concept
+ * paths of the i2b2 ontology tables, the folder and data specs, and the
+ * settings that the ontology builders read. Other edits to the ontology
+ * tables that keep their row counts, update dates and concept paths are not
+ * detected; the rebuildOntologySnapshot setting forces a rebuild after
+ * them. The file holds the concept trees in preorder, written with
+ * Java serialization and compressed with gzip.
+ *
+ * @author Andrew Post
+ */
+final class OntologySnapshot {
+
+    private static final int MAGIC = 0x4932424F;
+    private static final int FORMAT_VERSION = 2;
+
+    private static final byte SIMPLE = 0;
+    private static final byte PROP_DEF = 1;
+    private static final byte MODIFIER = 2;
+    private static final byte MODIFIER_PARENT = 3;
+
+    private final File file;
+    private final String fingerprint;
+
+    /**
+     * Finds the snapshot of the given ontology's inputs.
+     *
+     * @param directory the directory that holds snapshots.
+     * @param metadata an ontology that has not been built yet.
+     * @throws KnowledgeSourceReadException if an error occurred reading the
+     * knowledge source.
+     * @throws SQLException if an error occurred reading the i2b2 ontology
+     * tables.
+     */
+    OntologySnapshot(File directory, Metadata metadata) throws KnowledgeSourceReadException, SQLException {
+        this.fingerprint = fingerprint(metadata);
+        this.file = new File(directory, this.fingerprint + ".ontology");
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Reads this snapshot into an ontology that has not been built yet.
+     *
+     * @param metadata the ontology.
+     * @return <code>true</code> if the snapshot was read, <code>false</code>
+     * if it does not exist.
+     * @throws IOException if the snapshot could not be read.
+     */
+    boolean read(Metadata metadata) throws IOException {
+        if (!this.file.isFile()) {
+            return false;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(this.file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !this.fingerprint.equals(in.readObject())) {
+                throw new StreamCorruptedException("Not an ontology snapshot for these inputs: " + this.file);
+            }
+            List<Concept> concepts = new ArrayList<>();
+            for (int i = 0, n = in.readInt(); i < n; i++) {
+                readTree(in, metadata, concepts);
+            }
+            int conceptRoot = in.readInt();
+            metadata.setRoots(conceptRoot >= 0 ? concepts.get(conceptRoot) : null,
+                    readConcepts(in, concepts), readConcepts(in, concepts));
+        } catch (ClassNotFoundException | ClassCastException | IndexOutOfBoundsException ex) {
+            throw new InvalidClassException("Invalid ontology snapshot " + this.file + ": " + ex.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Writes a built ontology to this snapshot. The snapshot is written to a
+     * temporary file that is then renamed, so that concurrent loads never
+     * read a partial snapshot.
+     *
+     * @param metadata the ontology.
+     * @throws IOException if the snapshot could not be written.
+     */
+    void write(Metadata metadata) throws IOException {
+        File directory = this.file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        File tmp = File.createTempFile(this.fingerprint, ".tmp", directory);
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeObject(this.fingerprint);
+                // Concepts in the id cache whose trees are not among the
+                // roots are written too.
+                Set<Concept> trees = new LinkedHashSet<>();
+                for (Concept root : metadata.getAllRoots()) {
+                    trees.add(root.getRoot());
+                }
+                for (Concept concept : metadata.getCachedConcepts()) {
+                    trees.add(concept.getRoot());
+                }
+                Map<Concept, Integer> indexes = new IdentityHashMap<>();
+                out.writeInt(trees.size());
+                for (Concept tree : trees) {
+                    writeTree(out, metadata, tree, indexes);
+                }
+                Concept conceptRoot = metadata.getConceptRoot();
+                out.writeInt(conceptRoot != null ? indexes.get(conceptRoot) : -1);
+                writeConcepts(out, metadata.getAllRoots(), indexes);
+                writeConcepts(out, metadata.getModifierRoots(), indexes);
+            }
+            try {
+                Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void writeTree(ObjectOutputStream out, Metadata metadata,
+            Concept concept, Map<Concept, Integer> indexes) throws IOException {
+        indexes.put(concept, indexes.size());
+        writeConceptId(out, concept.getId());
+        out.writeObject(concept.getConceptCodePrefix());
+        out.writeObject(concept.getConceptCode());
+        out.writeBoolean(metadata.getFromIdCache(concept.getId()) == concept);
+        concept.writeSnapshot(out);
+        out.writeInt(concept.getChildCount());
+        for (Concept child = concept.getFirstChild(); child != null; child = child.getNextSibling()) {
+            writeTree(out, metadata, child, indexes);
+        }
+    }
+
+    private static Concept readTree(ObjectInputStream in, Metadata metadata,
+            List<Concept> concepts) throws IOException, ClassNotFoundException {
+        ConceptId conceptId = readConceptId(in, metadata);
+        String conceptCodePrefix = (String) in.readObject();
+        String conceptCode = (String) in.readObject();
+        boolean cached = in.readBoolean();
+        Concept concept = new Concept(conceptId, conceptCodePrefix, conceptCode);
+        concept.readSnapshot(in);
+        concepts.add(concept);
+        if (cached) {
+            metadata.addToIdCache(concept);
+        }
+        for (int i = 0, n = in.readInt(); i < n; i++) {
+            concept.add(readTree(in, metadata, concepts));
+        }
+        return concept;
+    }
+
+    private static void writeConcepts(ObjectOutputStream out, Concept[] concepts,
+            Map<Concept, Integer> indexes) throws IOException {
+        out.writeInt(concepts.length);
+        for (Concept concept : concepts) {
+            out.writeInt(indexes.get(concept));
+        }
+    }
+
+    private static List<Concept> readConcepts(ObjectInputStream in,
+            List<Concept> concepts) throws IOException {
+        int n = in.readInt();
+        List<Concept> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(concepts.get(in.readInt()));
+        }
+        return result;
+    }
+
+    private static void writeConceptId(ObjectOutputStream out, ConceptId conceptId) throws IOException {
+        if (conceptId instanceof SimpleConceptId) {
+            out.writeByte(SIMPLE);
+            out.writeObject(conceptId.getId());
+        } else if (conceptId instanceof PropDefConceptId) {
+            PropDefConceptId propDefConceptId = (PropDefConceptId) conceptId;
+            out.writeByte(PROP_DEF);
+            out.writeObject(propDefConceptId.getId());
+            out.writeObject(propDefConceptId.getPropertyName());
+            out.writeObject(propDefConceptId.getValue());
+        } else if (conceptId instanceof ModifierConceptId) {
+            ModifierConceptId modifierConceptId = (ModifierConceptId) conceptId;
+            out.writeByte(MODIFIER);
+            out.writeObject(modifierConceptId.getId());
+            out.writeObject(modifierConceptId.getPropertyName());
+            out.writeObject(modifierConceptId.getValue());
+        } else if (conceptId instanceof ModifierParentConceptId) {
+            out.writeByte(MODIFIER_PARENT);
+            out.writeObject(conceptId.getId());
+        } else {
+            throw new NotSerializableException(conceptId.getClass().getName());
+        }
+    }
+
+    private static ConceptId readConceptId(ObjectInputStream in, Metadata metadata) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        switch (type) {
+            case SIMPLE:
+                return SimpleConceptId.getInstance((String) in.readObject(), metadata);
+            case PROP_DEF:
+                return PropDefConceptId.getInstance((String) in.readObject(),
+                        (String) in.readObject(),
+                        (Value) in.readObject(), metadata);
+            case MODIFIER:
+                return ModifierConceptId.getInstance((String) in.readObject(),
+                        (String) in.readObject(),
+                        (Value) in.readObject(), metadata);
+            case MODIFIER_PARENT:
+                return ModifierParentConceptId.getInstance((String) in.readObject(), metadata);
+            default:
+                throw new StreamCorruptedException("Unknown concept id type " + type);
+        }
+    }
+
+    private static String fingerprint(Metadata metadata) throws KnowledgeSourceReadException, SQLException {
+        Fingerprint fp = new Fingerprint();
+        fp.add(FORMAT_VERSION);
+        fp.add(metadata.getSourceSystemCode());
+
+        Settings settings = metadata.getSettings();
+        fp.add(settings.getRootNodeName());
+        fp.add(settings.getMetaTableName());
+        fp.add(settings.getVisitDimension());
+        fp.add(settings.getAgeConceptCodePrefix());
+        fp.add(settings.getSkipProviderHierarchy());
+        fp.add(settings.getSkipDemographicsHierarchy());
+        fp.add(settings.getPatientDimensionGender());
+        fp.add(settings.getPatientDimensionLanguage());
+        fp.add(settings.getPatientDimensionMaritalStatus());
+        fp.add(settings.getPatientDimensionRace());
+        fp.add(settings.getPatientDimensionReligion());
+        fp.add(settings.getPatientDimensionVital());
+
+        for (FolderSpec folderSpec : metadata.getFolderSpecs()) {
+            fp.add(folderSpec.getDisplayName());
+            fp.add(folderSpec.getPropositions());
+            fp.add(folderSpec.getProperty());
+            fp.add(folderSpec.getConceptCodePrefix());
+            fp.add(String.valueOf(folderSpec.getValueType()));
+            fp.add(folderSpec.isAlreadyLoaded());
+            for (ModifierSpec modifierSpec : folderSpec.getModifiers()) {
+                fp.add(modifierSpec.getDisplayName());
+                fp.add(modifierSpec.getCodePrefix());
+                fp.add(modifierSpec.getProperty());
+                fp.add(modifierSpec.getValue());
+            }
+        }
+
+        List<DataSpec> dataSpecs = new ArrayList<>(metadata.getDataSection().getAll());
+        dataSpecs.sort(Comparator.comparing(DataSpec::getKey));
+        for (DataSpec dataSpec : dataSpecs) {
+            fp.add(dataSpec.getKey());
+            fp.add(dataSpec.getReferenceName());
+            fp.add(dataSpec.getPropertyName());
+            fp.add(dataSpec.getConceptCodePrefix());
+            fp.add(dataSpec.getStart());
+            fp.add(dataSpec.getFinish());
+            fp.add(dataSpec.getUnits());
+        }
+
+        for (PropositionDefinition propDef : metadata.getPhenotypeDefinitions()) {
+            fp.add(propDef.getId());
+        }
+        KnowledgeSourceCache cache = metadata.getKnowledgeSourceCache();
+        List<PropositionDefinition> propDefs = new ArrayList<>(metadata.getPropositionDefinitionCache().getAll());
+        propDefs.sort(Comparator.comparing(PropositionDefinition::getId));
+        Set<String> valueSetIds = new TreeSet<>();
+        for (PropositionDefinition propDef : propDefs) {
+            fp.add(propDef.getId());
+            fp.add(propDef.getClass().getName());
+            fp.add(propDef.getDisplayName());
+            fp.add(propDef.getAbbreviatedDisplayName());
+            fp.add(propDef.getDescription());
+            fp.add(propDef.getInDataSource());
+            fp.add(sorted(propDef.getChildren()));
+            fp.add(sorted(propDef.getInverseIsA()));
+            fp.add(propDef.getCreated());
+            fp.add(propDef.getUpdated());
+            fp.add(propDef.getDownloaded());
+            fp.add(propDef.getSourceId() != null ? propDef.getSourceId().getStringRepresentation() : null);
+            PropertyDefinition[] propertyDefs = propDef.getPropertyDefinitions().clone();
+            Arrays.sort(propertyDefs, Comparator.comparing(PropertyDefinition::getId));
+            for (PropertyDefinition propertyDef : propertyDefs) {
+                fp.add(propertyDef.getId());
+                fp.add(String.valueOf(propertyDef.getValueType()));
+                fp.add(propertyDef.getValueSetId());
+                if (propertyDef.getValueSetId() != null) {
+                    valueSetIds.add(propertyDef.getValueSetId());
+                }
+            }
+        }
+        for (String valueSetId : valueSetIds) {
+            ValueSet valueSet = cache.getValueSet(valueSetId);
+            fp.add(valueSetId);
+            if (valueSet != null) {
+                for (ValueSetElement element : valueSet.getValueSetElements()) {
+                    fp.add(element.getValue() != null ? element.getValue().getFormatted() : null);
+                    fp.add(element.getDisplayName());
+                }
+            }
+        }
+
+        ConnectionSpec metaConnectionSpec = metadata.getMetaConnectionSpec();
+        if (metaConnectionSpec != null) {
+            for (Map.Entry<String, String> me : readOntologyTableVersions(metaConnectionSpec, settings).entrySet()) {
+                fp.add(me.getKey());
+                fp.add(me.getValue());
+            }
+            for (Map.Entry<String, Long> me : readOntologyTableChecksums(metaConnectionSpec, settings).entrySet()) {
+                fp.add(me.getKey());
+                fp.add(me.getValue());
+            }
+        }
+        return fp.toHexString();
+    }
+
+    /**
+     * Reads the row count and last update date of each i2b2 ontology table
+     * that the ontology builders read.
+     */
+    private static Map<String, String> readOntologyTableVersions(ConnectionSpec metaConnectionSpec,
+            Settings settings) throws KnowledgeSourceReadException, SQLException {
+        try (Connection connection = metaConnectionSpec.getOrCreate();
+                QueryExecutor qe = new QueryExecutor(connection,
+                        (StringBuilder sql, String table) -> {
+                            sql.append("SELECT '").append(table).append("', COUNT(*), MAX(UPDATE_DATE) FROM ").append(table);
+                        },
+                        new TableAccessReader(metaConnectionSpec.getDatabaseProduct(), settings.getMetaTableName()))) {
+            return qe.execute((ResultSet rs) -> {
+                Map<String, String> result = new TreeMap<>();
+                if (rs != null) {
+                    try {
+                        while (rs.next()) {
+                            result.put(rs.getString(1), rs.getLong(2) + "|" + rs.getString(3));
+                        }
+                    } catch (SQLException ex) {
+                        throw new KnowledgeSourceReadException(ex);
+                    }
+                }
+                return result;
+            });
+        }
+    }
+
+    /**
+     * Reads a checksum of the EK_UNIQUE_ID and C_FULLNAME pairs of each i2b2
+     * ontology table that the ontology builders read, which are the paths
+     * that the ontology gives its concepts. The checksum is a sum of hashes
+     * of the pairs, so it does not depend on the order of the rows.
+     */
+    private static Map<String, Long> readOntologyTableChecksums(ConnectionSpec metaConnectionSpec,
+            Settings settings) throws KnowledgeSourceReadException, SQLException {
+        try (Connection connection = metaConnectionSpec.getOrCreate();
+                QueryExecutor qe = new QueryExecutor(connection,
+                        (StringBuilder sql, String table) -> {
+                            sql.append("SELECT '").append(table).append("', EK_UNIQUE_ID, C_FULLNAME FROM ").append(table);
+                        },
+                        new TableAccessReader(metaConnectionSpec.getDatabaseProduct(), settings.getMetaTableName()))) {
+            return qe.execute((ResultSet rs) -> {
+                Map<String, Long> result = new TreeMap<>();
+                if (rs != null) {
+                    try {
+                        while (rs.next()) {
+                            result.merge(rs.getString(1), hash(rs.getString(2), rs.getString(3)), Long::sum);
+                        }
+                    } catch (SQLException ex) {
+                        throw new KnowledgeSourceReadException(ex);
+                    }
+                }
+                return result;
+            });
+        }
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of a pair of strings.
+     */
+    private static long hash(String first, String second) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, first);
+        h = (h ^ 0xFFFF) * 0x100000001b3L;
+        return hash(h, second);
+    }
+
+    private static long hash(long h, String str) {
+        if (str != null) {
+            for (int i = 0, n = str.length(); i < n; i++) {
+                h = (h ^ str.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    private static String[] sorted(String[] strings) {
+        String[] result = strings.clone();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Accumulates a SHA-256 digest of a sequence of values. Each value is
+     * prefixed with its length, so that different sequences of values never
+     * have the same encoding.
+     */
+    private static final class Fingerprint {
+
+        private final MessageDigest digest;
+
+        Fingerprint() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new AssertionError("SHA-256 is not available", ex);
+            }
+        }
+
+        void add(String str) {
+            if (str == null) {
+                add(-1);
+            } else {
+                byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+                add(bytes.length);
+                this.digest.update(bytes);
+            }
+        }
+
+        void add(String[] strs) {
+            add(strs.length);
+            for (String str : strs) {
+                add(str);
+            }
+        }
+
+        void add(Date date) {
+            add(date != null ? date.getTime() : Long.MIN_VALUE);
+        }
+
+        void add(boolean b) {
+            this.digest.update((byte) (b ? 1 : 0));
+        }
+
+        void add(long l) {
+            for (int i = 56; i >= 0; i -= 8) {
+                this.digest.update((byte) (l >>> i));
+            }
+        }
+
+        String toHexString() {
+            StringBuilder result = new StringBuilder();
+            for (byte b : this.digest.digest()) {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        }
+    }
+}
@@ -19,15 +19,15 @@ package edu.emory.cci.aiw.i2b2etl.dest.metadata;
  * limitations under the License.
  * #L%
  */
-import javax.swing.tree.TreeNode;
-
 /**
+ * Computes the paths of concepts from their ancestors.
  *
  * @author Andrew Post
  */
-class PathSupport {
+final class PathSupport {
 
-    private Concept concept;
+    private PathSupport() {
+    }
 
     private static interface PathConceptRep {
 
@@ -68,50 +68,37 @@ class PathSupport {
 
     };
 
-    public Concept getConcept() {
-        return this.concept;
-    }
-
-    public void setConcept(Concept concept) {
-        this.concept = concept;
-    }
-
-    String getCPath() {
+    static String getCPath(Concept concept) {
         StringBuilder buf = new StringBuilder();
-        pathToString(buf, "\\", SYMBOL_REP);
+        pathToString(concept, buf, "\\", SYMBOL_REP);
         buf.append("\\");
         return buf.toString();
     }
 
-    String getFullName() {
+    static String getFullName(Concept concept) {
         StringBuilder buf = new StringBuilder();
-        appendFullname(buf, "\\", SYMBOL_REP);
+        appendFullname(concept, buf, "\\", SYMBOL_REP);
         buf.append("\\");
         return buf.toString();
     }
 
-    String getToolTip() {
+    static String getToolTip(Concept concept) {
         StringBuilder buf = new StringBuilder();
-        appendFullname(buf, " \\ ", DISPLAY_NAME_REP);
+        appendFullname(concept, buf, " \\ ", DISPLAY_NAME_REP);
         return buf.toString();
     }
 
-    int getLevel() {
-        return this.concept.getLevel();
-    }
-
-    private void appendFullname(StringBuilder buf, String sep, PathConceptRep rep) {
-        pathToString(buf, sep, rep);
+    private static void appendFullname(Concept concept, StringBuilder buf, String sep, PathConceptRep rep) {
+        pathToString(concept, buf, sep, rep);
         buf.append(sep);
-        buf.append(rep.toString(this.concept));
+        buf.append(rep.toString(concept));
     }
 
-    private void pathToString(StringBuilder buf, String sep, PathConceptRep rep) {
-        TreeNode[] path = this.concept.getPath();
+    private static void pathToString(Concept concept, StringBuilder buf, String sep, PathConceptRep rep) {
+        Concept[] path = concept.getPath();
         for (int i = 0; i < path.length - 1; i++) {
-            TreeNode tn = path[i];
             buf.append(sep);
-            buf.append(rep.toString((Concept) tn));
+            buf.append(rep.toString(path[i]));
         }
     }
 
@@ -29,7 +29,11 @@ import edu.emory.cci.aiw.i2b2etl.util.Util;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.protempa.Attribute;
 import org.protempa.KnowledgeSourceCache;
@@ -56,6 +60,8 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
     private final KnowledgeSourceCache knowledgeSourceCache;
     private final boolean alreadyLoaded;
     private List<Concept> roots;
+    private List<Runnable> registrations;
+    private Map<String, PropositionDefinition> propDefs;
 
     PropositionConceptTreeBuilder(KnowledgeSourceCache knowledgeSourceCache,
             String[] propIds, String conceptCode, ValueTypeCode valueTypeCode,
@@ -84,12 +90,100 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
         return metadata;
     }
 
+    /**
+     * Builds this builder's subtrees without attaching them to a parent or
+     * registering their concepts with the metadata, so that it may run on
+     * a thread other than the one that builds the rest of the ontology. A
+     * subsequent call to {@link #build(edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept) }
+     * attaches the subtrees and registers the concepts in the same order as
+     * building them there would have. No other builder may use the concept
+     * ids of this builder's propositions meanwhile, because concept ids
+     * keep the first concept code that is computed for them.
+     *
+     * @throws OntologyBuildException if an error occurred.
+     */
+    void prepare() throws OntologyBuildException {
+        this.registrations = new ArrayList<>();
+        buildRoots(null);
+    }
+
     @Override
     public void build(Concept concept) throws OntologyBuildException {
+        if (this.registrations == null) {
+            buildRoots(concept);
+        } else {
+            if (concept != null) {
+                for (Concept root : this.roots) {
+                    concept.add(root);
+                }
+            }
+            for (Runnable registration : this.registrations) {
+                registration.run();
+            }
+            this.registrations = null;
+        }
+    }
+
+    /**
+     * Collects the ids of the propositions that this builder creates
+     * concepts for.
+     *
+     * @return a newly created set of proposition ids.
+     * @throws KnowledgeSourceReadException if an error occurred reading the
+     * knowledge source.
+     */
+    Set<String> collectPropIds() throws KnowledgeSourceReadException {
+        return new HashSet<>(readPropositionDefinitions().keySet());
+    }
+
+    /**
+     * Reads the definitions of this builder's propositions and of their
+     * descendants one level of the hierarchy at a time. Each proposition is
+     * looked up once, however many parents it has, rather than once per
+     * node of the tree.
+     *
+     * @return the definitions by proposition id. Propositions that the
+     * knowledge source does not have are left out.
+     * @throws KnowledgeSourceReadException if an error occurred reading the
+     * knowledge source.
+     */
+    private Map<String, PropositionDefinition> readPropositionDefinitions()
+            throws KnowledgeSourceReadException {
+        if (this.propDefs == null) {
+            Map<String, PropositionDefinition> result = new HashMap<>();
+            Set<String> seen = new HashSet<>();
+            List<String> level = new ArrayList<>();
+            for (String propId : this.propIds) {
+                if (seen.add(propId)) {
+                    level.add(propId);
+                }
+            }
+            while (!level.isEmpty()) {
+                List<String> nextLevel = new ArrayList<>();
+                for (String propId : level) {
+                    PropositionDefinition propDef
+                            = this.knowledgeSourceCache.get(propId);
+                    if (propDef != null) {
+                        result.put(propId, propDef);
+                        for (String childPropId : propDef.getInverseIsA()) {
+                            if (seen.add(childPropId)) {
+                                nextLevel.add(childPropId);
+                            }
+                        }
+                    }
+                }
+                level = nextLevel;
+            }
+            this.propDefs = result;
+        }
+        return this.propDefs;
+    }
+
+    private void buildRoots(Concept concept) throws OntologyBuildException {
         try {
+            Map<String, PropositionDefinition> defs = readPropositionDefinitions();
             for (String childPropId : this.propIds) {
-                PropositionDefinition childPropDef
-                        = this.knowledgeSourceCache.get(childPropId);
+                PropositionDefinition childPropDef = defs.get(childPropId);
                 if (childPropDef != null) {
                     Concept child = addNode(childPropDef);
                     if (concept != null) {
@@ -97,13 +191,14 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
                     }
                     this.roots.add(child);
                     addModifierConcepts(childPropDef, child);
-                    buildHelper(childPropDef.getInverseIsA(), child);
+                    buildHelper(defs, childPropDef.getInverseIsA(), child);
                 }
             }
         } catch (InvalidConceptCodeException | KnowledgeSourceReadException ex) {
             throw new OntologyBuildException(
                     "Could not build proposition concept tree", ex);
         }
+        this.propDefs = null;
     }
 
     @Override
@@ -111,16 +206,16 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
         return this.roots.toArray(new Concept[this.roots.size()]);
     }
 
-    private void buildHelper(String[] childPropIds, Concept parent)
+    private void buildHelper(Map<String, PropositionDefinition> defs,
+            String[] childPropIds, Concept parent)
             throws KnowledgeSourceReadException, InvalidConceptCodeException, OntologyBuildException {
         for (String childPropId : childPropIds) {
-            PropositionDefinition childPropDef
-                    = this.knowledgeSourceCache.get(childPropId);
+            PropositionDefinition childPropDef = defs.get(childPropId);
             if (childPropDef != null) {
                 Concept child = addNode(childPropDef);
                 parent.add(child);
                 addModifierConcepts(childPropDef, child);
-                buildHelper(childPropDef.getInverseIsA(), child);
+                buildHelper(defs, childPropDef.getInverseIsA(), child);
             }
         }
     }
@@ -165,11 +260,7 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
         } else {
             newChild.setDataType(DataType.TEXT);
         }
-        if (this.metadata.getFromIdCache(conceptId) == null) {
-            this.metadata.addToIdCache(newChild);
-        } else {
-            newChild.setSynonymCode(SynonymCode.SYNONYM);
-        }
+        register(() -> addToIdCacheOrMarkSynonym(newChild));
         return newChild;
     }
 
@@ -178,12 +269,10 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
             ConceptId modParentId = ModifierParentConceptId.getInstance(propDef.getId(), this.metadata);
             Concept modParent = new Concept(modParentId, null, this.metadata);
             modParent.setAlreadyLoaded(this.alreadyLoaded);
-            this.metadata.addModifierRoot(modParent);
-            if (this.metadata.getFromIdCache(modParentId) == null) {
-                this.metadata.addToIdCache(modParent);
-            } else {
-                modParent.setSynonymCode(SynonymCode.SYNONYM);
-            }
+            register(() -> {
+                this.metadata.addModifierRoot(modParent);
+                addToIdCacheOrMarkSynonym(modParent);
+            });
             for (ModifierSpec modifier : this.modifiers) {
                 PropertyDefinition propertyDef = propDef.propertyDefinition(modifier.getProperty());
                 if (propertyDef != null && !propertyDef.isInherited()) {
@@ -203,7 +292,7 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
                             MetadataUtil.toSourceSystemCode(
                                     propDef.getSourceId().getStringRepresentation()));
                     mod.setValueTypeCode(this.valueTypeCode);
-                    mod.setAppliedPath(appliedConcept.getFullName() + "%");
+                    register(() -> mod.setAppliedPath(appliedConcept.getFullName() + "%"));
                     mod.setDataType(DataType.dataTypeFor(propertyDef.getValueType()));
                     mod.setFactTableColumn("MODIFIER_CD");
                     mod.setTableName("MODIFIER_DIMENSION");
@@ -247,20 +336,35 @@ class PropositionConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
                         mXml.append("<Flagstouse></Flagstouse><Oktousevalues>Y</Oktousevalues><UnitValues><NormalUnits> </NormalUnits></UnitValues></ValueMetadata>");
                         mod.setMetadataXml(mXml.toString());
                     }
-                    if (this.metadata.getFromIdCache(modId) == null) {
-                        this.metadata.addToIdCache(mod);
-                    } else {
-                        mod.setSynonymCode(SynonymCode.SYNONYM);
-                    }
-                    if (this.metadata.getFromIdCache(modId) == null) {
-                        this.metadata.addToIdCache(mod);
-                    } else {
-                        mod.setSynonymCode(SynonymCode.SYNONYM);
-                    }
+                    // Checked twice, as it always has been, so the second
+                    // check marks every modifier as a synonym.
+                    register(() -> {
+                        addToIdCacheOrMarkSynonym(mod);
+                        addToIdCacheOrMarkSynonym(mod);
+                    });
                     modParent.add(mod);
                 }
             }
         }
     }
 
+    /**
+     * Runs a step that touches state shared with other builders now, or
+     * when the subtrees are attached if they are being prepared.
+     */
+    private void register(Runnable registration) {
+        if (this.registrations != null) {
+            this.registrations.add(registration);
+        } else {
+            registration.run();
+        }
+    }
+
+    private void addToIdCacheOrMarkSynonym(Concept concept) {
+        if (this.metadata.getFromIdCache(concept.getId()) == null) {
+            this.metadata.addToIdCache(concept);
+        } else {
+            concept.setSynonymCode(SynonymCode.SYNONYM);
+        }
+    }
 }
@@ -29,6 +29,8 @@ import java.util.TreeMap;
  */
 class ProviderConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
 
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
     private final Metadata metadata;
     private Concept root;
     private TreeMap<Character, Concept> alpha;
@@ -67,6 +69,23 @@ class ProviderConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
         }
     }
 
+    /**
+     * Finds the provider hierarchy in an ontology that was restored from a
+     * snapshot, so that providers can be added to it.
+     *
+     * @throws InvalidConceptCodeException if the hierarchy could not be
+     * found or created.
+     */
+    void restore() throws InvalidConceptCodeException {
+        if (!this.skipProviderHierarchy) {
+            this.root = this.metadata.getOrCreateHardCodedFolder("Provider");
+            this.alpha = new TreeMap<>();
+            for (char c : ALPHABET.toCharArray()) {
+                this.alpha.put(c, this.metadata.getOrCreateHardCodedFolder("Provider", String.valueOf(c)));
+            }
+        }
+    }
+
     void add(ProviderDimension pd) throws InvalidConceptCodeException {
         if (!this.skipProviderHierarchy) {
             String fullName = pd.getConcept().getDisplayName();
@@ -95,9 +114,8 @@ class ProviderConceptTreeBuilder implements OntologyBuilder, SubtreeBuilder {
     }
 
     private TreeMap<Character, Concept> createAlphaCategoryConcepts() throws InvalidConceptCodeException {
-        String ca = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
         TreeMap<Character, Concept> alpha = new TreeMap<>();
-        for (char c : ca.toCharArray()) {
+        for (char c : ALPHABET.toCharArray()) {
             Concept ontologyNode = this.metadata.getOrCreateHardCodedFolder("Provider", String.valueOf(c));
             ontologyNode.setFactTableColumn("provider_id");
             ontologyNode.setTableName("provider_dimension");
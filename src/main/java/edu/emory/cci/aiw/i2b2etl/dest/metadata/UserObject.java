@@ -24,11 +24,13 @@ import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
 import edu.emory.cci.aiw.etl.util.CodeUtil;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import org.apache.commons.lang3.ArrayUtils;
 
 public class UserObject {
@@ -52,7 +54,7 @@ public class UserObject {
     private boolean inUse;
     private final String conceptCodePrefix;
     private String dimCode;
-    private Set<String> hierarchyPaths;
+    private Object[] hierarchyPaths;
     private String appliedPath;
     private String metadataXml;
     private String factTableColumn;
@@ -63,7 +65,6 @@ public class UserObject {
     private String comment;
     
     private Date downloaded;
-    private final PathSupport pathSupport;
     private String fullName;
     private String cPath;
     private String toolTip;
@@ -75,10 +76,18 @@ public class UserObject {
     private Date updated;
     
     UserObject(ConceptId id, String conceptCodePrefix, Concept concept, Metadata metadata) throws InvalidConceptCodeException {
+        this(id, conceptCodePrefix, id.toConceptCode(conceptCodePrefix), concept);
+    }
+
+    /**
+     * Creates a user object with a concept code that was computed earlier,
+     * for restoring an ontology snapshot.
+     */
+    UserObject(ConceptId id, String conceptCodePrefix, String conceptCode, Concept concept) {
         assert id != null : "id cannot be null";
         this.id = id;
         this.concept = concept;
-        this.conceptCode = id.toConceptCode(conceptCodePrefix);
+        this.conceptCode = conceptCode;
         this.valueTypeCode = ValueTypeCode.UNSPECIFIED;
         this.dataType = DEFAULT_DATA_TYPE;
         this.conceptCodePrefix = conceptCodePrefix;
@@ -87,8 +96,6 @@ public class UserObject {
         this.tableName = DEFAULT_TABLE_NAME;
         this.columnName = DEFAULT_COLUMN_NAME;
         this.operator = defaultOperator();
-        this.pathSupport = new PathSupport();
-        this.pathSupport.setConcept(this.concept);
         this.synonymCode = SynonymCode.NOT_SYNONYM;
     }
     
@@ -230,7 +237,7 @@ public class UserObject {
         if (this.cPath != null) {
             return this.cPath;
         } else {
-            return this.pathSupport.getCPath();
+            return PathSupport.getCPath(this.concept);
         }
     }
     
@@ -238,7 +245,7 @@ public class UserObject {
         if (this.fullName != null) {
             return this.fullName;
         } else {
-            return this.pathSupport.getFullName();
+            return PathSupport.getFullName(this.concept);
         }
     }
     
@@ -246,7 +253,7 @@ public class UserObject {
         if (this.toolTip != null) {
             return this.toolTip;
         } else {
-            return this.pathSupport.getToolTip();
+            return PathSupport.getToolTip(this.concept);
         }
     }
     
@@ -285,19 +292,57 @@ public class UserObject {
             this.metadataXml = metadataXml;
     }
 
+    /**
+     * Gets the hierarchy paths, computing the paths of ontology nodes from
+     * their ancestors.
+     *
+     * @return the distinct paths.
+     */
     public String[] getHierarchyPaths() {
         if (this.hierarchyPaths == null) {
             return ArrayUtils.EMPTY_STRING_ARRAY;
-        } else {
-            return this.hierarchyPaths.toArray(new String[this.hierarchyPaths.size()]);
         }
+        String[] result = new String[this.hierarchyPaths.length];
+        int n = 0;
+        for (Object hierarchyPath : this.hierarchyPaths) {
+            String path = hierarchyPath instanceof Concept
+                    ? ((Concept) hierarchyPath).getFullName()
+                    : (String) hierarchyPath;
+            if (!ArrayUtils.contains(result, path)) {
+                result[n++] = path;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
     }
 
+    /**
+     * Adds a hierarchy path unless it was already added. Most concepts have
+     * only one or two paths, so they are kept in an array.
+     *
+     * @param path a path.
+     */
     public void addHierarchyPath(String path) {
+        addHierarchyPathInt(path);
+    }
+
+    /**
+     * Adds the path of an ontology node as a hierarchy path. The node is
+     * kept rather than its path, so that the prefixes that nodes share with
+     * their ancestors are only turned into strings when the paths are
+     * written.
+     *
+     * @param node a node of the ontology.
+     */
+    void addHierarchyPath(Concept node) {
+        addHierarchyPathInt(node);
+    }
+
+    private void addHierarchyPathInt(Object path) {
         if (this.hierarchyPaths == null) {
-            this.hierarchyPaths = new HashSet<>();
+            this.hierarchyPaths = new Object[]{path};
+        } else if (!ArrayUtils.contains(this.hierarchyPaths, path)) {
+            this.hierarchyPaths = ArrayUtils.add(this.hierarchyPaths, path);
         }
-        this.hierarchyPaths.add(path);
     }
     
     public void setAppliedPath(String appliedPath) {
@@ -440,6 +485,105 @@ public class UserObject {
         this.rejectionReasons.add(reason);
     }
     
+    /**
+     * Writes the fields that the ontology builders set, for an ontology
+     * snapshot. The id, concept code and concept code prefix are written by
+     * the caller.
+     *
+     * @param out the snapshot.
+     * @throws IOException if an error occurred writing the snapshot.
+     */
+    void writeSnapshot(ObjectOutput out) throws IOException {
+        out.writeObject(this.displayName);
+        out.writeBoolean(this.inDataSource);
+        out.writeObject(this.dataType);
+        out.writeObject(this.valueTypeCode);
+        out.writeObject(this.sourceSystemId);
+        out.writeBoolean(this.derived);
+        out.writeBoolean(this.inUse);
+        out.writeObject(this.dimCode);
+        // A null path stands for this concept's own full name.
+        String[] paths = null;
+        if (this.hierarchyPaths != null) {
+            paths = new String[this.hierarchyPaths.length];
+            for (int i = 0; i < paths.length; i++) {
+                Object path = this.hierarchyPaths[i];
+                if (path != this.concept) {
+                    paths[i] = path instanceof Concept
+                            ? ((Concept) path).getFullName() : (String) path;
+                }
+            }
+        }
+        out.writeObject(paths);
+        out.writeObject(this.appliedPath);
+        out.writeObject(this.metadataXml);
+        out.writeObject(this.factTableColumn);
+        out.writeObject(this.tableName);
+        out.writeObject(this.columnName);
+        out.writeObject(this.operator);
+        out.writeObject(this.cVisualAttributes);
+        out.writeObject(this.comment);
+        out.writeObject(this.downloaded);
+        out.writeObject(this.fullName);
+        out.writeObject(this.cPath);
+        out.writeObject(this.toolTip);
+        out.writeInt(this.level);
+        out.writeObject(this.synonymCode);
+        out.writeBoolean(this.alreadyLoaded);
+        out.writeBoolean(this.rejected);
+        out.writeObject(this.rejectionReasons != null ? getRejectionReasons() : null);
+        out.writeObject(this.symbol);
+        out.writeObject(this.updated);
+    }
+
+    /**
+     * Reads the fields written by {@link #writeSnapshot(java.io.ObjectOutput) }.
+     *
+     * @param in the snapshot.
+     * @throws IOException if an error occurred reading the snapshot.
+     * @throws ClassNotFoundException if the snapshot refers to a class that
+     * is not available.
+     */
+    void readSnapshot(ObjectInput in) throws IOException, ClassNotFoundException {
+        this.displayName = (String) in.readObject();
+        this.inDataSource = in.readBoolean();
+        this.dataType = (DataType) in.readObject();
+        this.valueTypeCode = (ValueTypeCode) in.readObject();
+        this.sourceSystemId = (String) in.readObject();
+        this.derived = in.readBoolean();
+        this.inUse = in.readBoolean();
+        this.dimCode = (String) in.readObject();
+        String[] paths = (String[]) in.readObject();
+        if (paths != null) {
+            this.hierarchyPaths = new Object[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                this.hierarchyPaths[i] = paths[i] != null ? paths[i] : this.concept;
+            }
+        } else {
+            this.hierarchyPaths = null;
+        }
+        this.appliedPath = (String) in.readObject();
+        this.metadataXml = (String) in.readObject();
+        this.factTableColumn = (String) in.readObject();
+        this.tableName = (String) in.readObject();
+        this.columnName = (String) in.readObject();
+        this.operator = (ConceptOperator) in.readObject();
+        this.cVisualAttributes = (String) in.readObject();
+        this.comment = (String) in.readObject();
+        this.downloaded = (Date) in.readObject();
+        this.fullName = (String) in.readObject();
+        this.cPath = (String) in.readObject();
+        this.toolTip = (String) in.readObject();
+        this.level = in.readInt();
+        this.synonymCode = (SynonymCode) in.readObject();
+        this.alreadyLoaded = in.readBoolean();
+        this.rejected = in.readBoolean();
+        String[] reasons = (String[]) in.readObject();
+        this.rejectionReasons = reasons != null ? new ArrayList<>(Arrays.asList(reasons)) : null;
+        this.symbol = (String) in.readObject();
+        this.updated = (Date) in.readObject();
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
@@ -19,9 +19,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid;
  * limitations under the License.
  * #L%
  */
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.ConceptIdIndex;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.protempa.proposition.value.Value;
@@ -51,19 +50,34 @@ public final class ModifierConceptId implements PropertyConceptId {
      * @return a {@link PropDefConceptId}.
      */
     public static ModifierConceptId getInstance(String propId, String propertyName, Value value, Metadata metadata) {
-        List<Object> key = new ArrayList<>(4);
-        key.add(propId);
-        key.add(propertyName);
-        key.add(value);
-        key.add(Boolean.FALSE); //distinguishes these from properties represented as a concept.
-        ModifierConceptId conceptId = (ModifierConceptId) metadata.getFromConceptIdCache(key);
+        ModifierConceptId conceptId = getInstanceIfPresent(propId, propertyName, value, metadata);
         if (conceptId == null) {
-            conceptId = new ModifierConceptId(propId, propertyName, value, metadata);
-            metadata.putInConceptIdCache(key, conceptId);
+            conceptId = (ModifierConceptId) metadata.putInConceptIdCacheIfAbsent(
+                    ConceptIdIndex.Kind.MODIFIER, propId, propertyName, value,
+                    new ModifierConceptId(propId, propertyName, value, metadata));
         }
         return conceptId;
     }
 
+    /**
+     * Returns the existing concept id with the given proposition propId,
+     * property name and value. Unlike
+     * {@link #getInstance(java.lang.String, java.lang.String, org.protempa.proposition.value.Value, edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata) },
+     * it never creates one, so probing for a modifier that is not in the
+     * ontology allocates nothing.
+     *
+     * @param propId a proposition propId {@link String}. Cannot be
+     * <code>null</code>.
+     * @param propertyName a property name {@link String}.
+     * @param value a {@link Value}.
+     * @return a {@link ModifierConceptId}, or <code>null</code> if there is
+     * none.
+     */
+    public static ModifierConceptId getInstanceIfPresent(String propId, String propertyName, Value value, Metadata metadata) {
+        return (ModifierConceptId) metadata.getFromConceptIdCache(
+                ConceptIdIndex.Kind.MODIFIER, propId, propertyName, value);
+    }
+
     private ModifierConceptId(String propId, String propertyName, Value value, Metadata metadata) {
         if (metadata == null) {
             throw new IllegalArgumentException("metadata cannot be null");
@@ -93,7 +107,6 @@ public final class ModifierConceptId implements PropertyConceptId {
         int hash = 7;
         hash = 79 * hash + Objects.hashCode(this.propId);
         hash = 79 * hash + Objects.hashCode(this.propertyName);
-        hash = 79 * hash + Objects.hashCode(this.conceptCode);
         hash = 79 * hash + Objects.hashCode(this.value);
         return hash;
     }
@@ -113,9 +126,6 @@ public final class ModifierConceptId implements PropertyConceptId {
         if (!Objects.equals(this.propertyName, other.propertyName)) {
             return false;
         }
-        if (!Objects.equals(this.conceptCode, other.conceptCode)) {
-            return false;
-        }
         if (!Objects.equals(this.value, other.value)) {
             return false;
         }
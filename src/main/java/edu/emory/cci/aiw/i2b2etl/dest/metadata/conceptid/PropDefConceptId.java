@@ -23,9 +23,8 @@
  */
 package edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid;
 
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.ConceptIdIndex;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
-import java.util.ArrayList;
-import java.util.List;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.protempa.proposition.value.Value;
 
@@ -66,19 +65,34 @@ public final class PropDefConceptId implements PropertyConceptId {
      */
     public static PropDefConceptId getInstance(String propId,
             String propertyName, Value value, Metadata metadata) {
-        List<Object> key = new ArrayList<>(4);
-        key.add(propId);
-        key.add(propertyName);
-        key.add(value);
-        key.add(Boolean.TRUE); //distinguishes these from properties represented as a modifier.
-        PropDefConceptId conceptId = (PropDefConceptId) metadata.getFromConceptIdCache(key);
+        PropDefConceptId conceptId = getInstanceIfPresent(propId, propertyName, value, metadata);
         if (conceptId == null) {
-            conceptId = new PropDefConceptId(propId, propertyName, value, metadata);
-            metadata.putInConceptIdCache(key, conceptId);
+            conceptId = (PropDefConceptId) metadata.putInConceptIdCacheIfAbsent(
+                    ConceptIdIndex.Kind.PROPERTY, propId, propertyName, value,
+                    new PropDefConceptId(propId, propertyName, value, metadata));
         }
         return conceptId;
     }
 
+    /**
+     * Returns the existing concept id with the given proposition propId,
+     * property name and value. Unlike
+     * {@link #getInstance(java.lang.String, java.lang.String, org.protempa.proposition.value.Value, edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata) },
+     * it never creates one, so looking up data that is not in the ontology
+     * allocates nothing and caches nothing.
+     *
+     * @param propId a proposition propId {@link String}. Cannot be
+     * <code>null</code>.
+     * @param propertyName a property name {@link String}.
+     * @param value a {@link Value}.
+     * @return a {@link PropDefConceptId}, or <code>null</code> if there is
+     * none.
+     */
+    public static PropDefConceptId getInstanceIfPresent(String propId, String propertyName, Value value, Metadata metadata) {
+        return (PropDefConceptId) metadata.getFromConceptIdCache(
+                ConceptIdIndex.Kind.PROPERTY, propId, propertyName, value);
+    }
+
     private PropDefConceptId(String propId, String propertyName, Value value, Metadata metadata) {
         if (metadata == null) {
             throw new IllegalArgumentException("metadata cannot be null");
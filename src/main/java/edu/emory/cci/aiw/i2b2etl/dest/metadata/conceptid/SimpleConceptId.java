@@ -20,9 +20,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid;
  * #L%
  */
 
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.ConceptIdIndex;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
@@ -40,15 +39,14 @@ public final class SimpleConceptId implements ConceptId {
      * @return a {@link PropDefConceptId}.
      */
     public static ConceptId getInstance(String id, Metadata metadata) {
-        List<Object> key = new ArrayList<>(1);
-        key.add(id);
-        ConceptId result = metadata.getFromConceptIdCache(key);
+        ConceptId result = metadata.getFromConceptIdCache(
+                ConceptIdIndex.Kind.SIMPLE, id, null, null);
         if (result != null) {
             return result;
         } else {
-            result = new SimpleConceptId(id, metadata);
-            metadata.putInConceptIdCache(key, result);
-            return result;
+            return metadata.putInConceptIdCacheIfAbsent(
+                    ConceptIdIndex.Kind.SIMPLE, id, null, null,
+                    new SimpleConceptId(id, metadata));
         }
     }
     
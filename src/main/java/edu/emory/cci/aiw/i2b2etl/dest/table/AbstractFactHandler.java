@@ -21,8 +21,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  */
 
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import java.util.logging.Level;
 import org.arp.javautil.sql.ConnectionSpec;
@@ -35,73 +35,73 @@ import org.protempa.proposition.value.Value;
  *
  * @author Andrew Post
  */
-public abstract class AbstractFactHandler extends RecordHandler<ObservationFact> {
+public abstract class AbstractFactHandler extends StagingRecordHandler<ObservationFact> {
 
-    AbstractFactHandler(ConnectionSpec connSpec, String statement) throws SQLException {
-        super(connSpec, statement);
+    AbstractFactHandler(ConnectionSpec connSpec, String statement, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
+        super(connSpec, statement, stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps, ObservationFact record) throws SQLException {
+    protected void setParameters(RowSink row, ObservationFact record) throws SQLException {
         assert record != null : "record cannot be null";
         VisitDimension visit = record.getVisit();
         if (visit != null) {
-            ps.setString(1, visit.getVisitId());
-            ps.setString(2, visit.getVisitIdSource());
+            row.setString(1, visit.getVisitId());
+            row.setString(2, visit.getVisitIdSource());
         } else {
-            ps.setString(1, null);
-            ps.setString(2, null);
+            row.setString(1, null);
+            row.setString(2, null);
         }
         Concept concept = record.getConcept();
-        ps.setString(3, concept != null ? concept.getConceptCode() : null);
-        ps.setString(4, record.getPatient().getEncryptedPatientId());
-        ps.setString(5, record.getPatient().getEncryptedPatientIdSource());
-        ps.setString(6, TableUtil.setStringAttribute(record.getProvider().getConcept().getConceptCode()));
-        ps.setTimestamp(7, record.getStartDate());
-        ps.setString(8, record.getModifierCd());
-        ps.setLong(9, record.getInstanceNum());
+        row.setString(3, concept != null ? concept.getConceptCode() : null);
+        row.setString(4, record.getPatient().getEncryptedPatientId());
+        row.setString(5, record.getPatient().getEncryptedPatientIdSource());
+        row.setString(6, TableUtil.setStringAttribute(record.getProvider().getConcept().getConceptCode()));
+        row.setTimestamp(7, record.getStartDate());
+        row.setString(8, record.getModifierCd());
+        row.setLong(9, record.getInstanceNum());
 
         Value value = record.getValue();
         if (value == null) {
-            ps.setString(10, ValTypeCode.NO_VALUE.getCode());
-            ps.setString(11, null);
-            ps.setObject(12, null);
+            row.setString(10, ValTypeCode.NO_VALUE.getCode());
+            row.setString(11, null);
+            row.setObject(12, null);
         } else if (value instanceof NumericalValue) {
-            ps.setString(10, ValTypeCode.NUMERIC.getCode());
+            row.setString(10, ValTypeCode.NUMERIC.getCode());
             if (value instanceof NumberValue) {
-                ps.setString(11, TValCharWhenNumberCode.EQUAL.getCode());
+                row.setString(11, TValCharWhenNumberCode.EQUAL.getCode());
             } else {
                 InequalityNumberValue inv = (InequalityNumberValue) value;
                 TValCharWhenNumberCode tvalCode =
                         TValCharWhenNumberCode.codeFor(inv.getComparator());
-                ps.setString(11, tvalCode.getCode());
+                row.setString(11, tvalCode.getCode());
             }
-            ps.setObject(12, ((NumericalValue) value).getNumber());
+            row.setObject(12, ((NumericalValue) value).getNumber());
         } else {
-            ps.setString(10, ValTypeCode.TEXT.getCode());
+            row.setString(10, ValTypeCode.TEXT.getCode());
             String tval = value.getFormatted();
             if (tval.length() > 255) {
-                ps.setString(11, tval.substring(0, 255));
+                row.setString(11, tval.substring(0, 255));
                 TableUtil.logger().log(Level.WARNING, "Truncated text result to 255 characters: {0}", tval);
             } else {
-                ps.setString(11, tval);
+                row.setString(11, tval);
             }
-            ps.setObject(12, null);
+            row.setObject(12, null);
         }
 
-        ps.setString(13, record.getValueFlagCode().getCode());
-        ps.setObject(14, null);
-        ps.setObject(15, null);
-        ps.setObject(16, null);
-        ps.setString(17, record.getUnits());
-        ps.setTimestamp(18, record.getEndDate());
-        ps.setString(19, null);
-        ps.setTimestamp(20, record.getUpdateDate());
-        ps.setTimestamp(21, record.getDownloadDate());
-        ps.setTimestamp(22, importTimestamp());
-        ps.setString(23, record.getSourceSystem());
-        ps.setInt(24, 0);
-        ps.setTimestamp(25, record.getDeletedDate());
+        row.setString(13, record.getValueFlagCode().getCode());
+        row.setObject(14, null);
+        row.setObject(15, null);
+        row.setObject(16, null);
+        row.setString(17, record.getUnits());
+        row.setTimestamp(18, record.getEndDate());
+        row.setString(19, null);
+        row.setTimestamp(20, record.getUpdateDate());
+        row.setTimestamp(21, record.getDownloadDate());
+        row.setTimestamp(22, importTimestamp());
+        row.setString(23, record.getSourceSystem());
+        row.setInt(24, 0);
+        row.setTimestamp(25, record.getDeletedDate());
     }
     
 }
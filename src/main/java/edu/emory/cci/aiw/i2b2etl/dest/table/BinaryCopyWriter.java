@@ -0,0 +1,315 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes rows in PostgreSQL's binary copy format. Each value is encoded
+ * according to the type of its column, which is read from the table's
+ * metadata when the writer is created.
+ *
+ * @author Andrew Post
+ */
+final class BinaryCopyWriter extends CopyWriter {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    private static final long POSTGRES_EPOCH_SECONDS = 946684800L;
+
+    private static final long POSTGRES_EPOCH_DAYS = 10957L;
+
+    private static final short NUMERIC_POS = 0x0000;
+
+    private static final short NUMERIC_NEG = 0x4000;
+
+    private static final Set<String> SUPPORTED_TYPES = new HashSet<>(Arrays.asList(
+            "int2", "int4", "int8", "float4", "float8", "numeric", "bool",
+            "varchar", "bpchar", "text", "date", "timestamp", "timestamptz"));
+
+    private final String[] columnTypes;
+    private final ByteArrayOutputStream field;
+    private final DataOutputStream fieldOut;
+
+    BinaryCopyWriter(String table, String[] columns, String[] columnTypes) {
+        super(table, columns);
+        this.columnTypes = columnTypes;
+        this.field = new ByteArrayOutputStream(64);
+        this.fieldOut = new DataOutputStream(this.field);
+    }
+
+    /**
+     * Reads the database type names of the given columns.
+     *
+     * @param connection a connection.
+     * @param table the table.
+     * @param columns the columns.
+     * @return the lower-case type names, in the order of the columns.
+     * @throws SQLException if an error occurred reading the table's metadata.
+     */
+    static String[] readColumnTypes(Connection connection, String table, String[] columns) throws SQLException {
+        String[] result = new String[columns.length];
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT " + String.join(",", columns) + " FROM " + table + " WHERE 1=0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 0; i < result.length; i++) {
+                result[i] = metaData.getColumnTypeName(i + 1).toLowerCase(Locale.ROOT);
+            }
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+        return result;
+    }
+
+    static boolean supportsColumnTypes(String[] columnTypes) {
+        for (String columnType : columnTypes) {
+            if (!SUPPORTED_TYPES.contains(columnType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    String copyOptions() {
+        return "WITH (FORMAT binary)";
+    }
+
+    @Override
+    void writeHeader(ByteArrayOutputStream out) throws IOException {
+        out.write(SIGNATURE);
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(0);
+        dataOut.writeInt(0);
+        dataOut.flush();
+    }
+
+    @Override
+    void writeRow(Object[] values, ByteArrayOutputStream out) throws IOException, SQLException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeShort(values.length);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value == null) {
+                dataOut.writeInt(-1);
+            } else {
+                this.field.reset();
+                writeValue(this.fieldOut, this.columnTypes[i], value);
+                this.fieldOut.flush();
+                dataOut.writeInt(this.field.size());
+                this.field.writeTo(dataOut);
+            }
+        }
+        dataOut.flush();
+    }
+
+    @Override
+    void writeTrailer(ByteArrayOutputStream out) throws IOException {
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeShort(-1);
+        dataOut.flush();
+    }
+
+    static void writeValue(DataOutputStream out, String columnType, Object value) throws IOException, SQLException {
+        switch (columnType) {
+            case "int2":
+                out.writeShort(toNumber(value).shortValue());
+                break;
+            case "int4":
+                out.writeInt(toNumber(value).intValue());
+                break;
+            case "int8":
+                out.writeLong(toNumber(value).longValue());
+                break;
+            case "float4":
+                out.writeFloat(toNumber(value).floatValue());
+                break;
+            case "float8":
+                out.writeDouble(toNumber(value).doubleValue());
+                break;
+            case "numeric":
+                writeNumeric(out, toBigDecimal(value));
+                break;
+            case "bool":
+                out.writeByte(toBoolean(value) ? 1 : 0);
+                break;
+            case "date":
+                out.writeInt((int) (toLocalDate(value).toEpochDay() - POSTGRES_EPOCH_DAYS));
+                break;
+            case "timestamp":
+                LocalDateTime ldt = toTimestamp(value).toLocalDateTime();
+                out.writeLong(toPostgresMicros(ldt.toEpochSecond(ZoneOffset.UTC), ldt.getNano()));
+                break;
+            case "timestamptz":
+                Timestamp ts = toTimestamp(value);
+                out.writeLong(toPostgresMicros(Math.floorDiv(ts.getTime(), 1000L), ts.getNanos()));
+                break;
+            default:
+                out.write(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Writes a numeric in PostgreSQL's base-10000 representation: the number
+     * of digits, the weight of the first digit, the sign, the display scale,
+     * and then the digits.
+     */
+    static void writeNumeric(DataOutputStream out, BigDecimal value) throws IOException {
+        BigDecimal abs = value.abs();
+        if (abs.scale() < 0) {
+            abs = abs.setScale(0);
+        }
+        String plain = abs.toPlainString();
+        int point = plain.indexOf('.');
+        String intPart = point < 0 ? plain : plain.substring(0, point);
+        String fracPart = point < 0 ? "" : plain.substring(point + 1);
+        if (intPart.equals("0")) {
+            intPart = "";
+        }
+        int intGroups = (intPart.length() + 3) / 4;
+        int fracGroups = (fracPart.length() + 3) / 4;
+        StringBuilder digits = new StringBuilder((intGroups + fracGroups) * 4);
+        for (int i = intGroups * 4 - intPart.length(); i > 0; i--) {
+            digits.append('0');
+        }
+        digits.append(intPart).append(fracPart);
+        for (int i = fracGroups * 4 - fracPart.length(); i > 0; i--) {
+            digits.append('0');
+        }
+        short[] groups = new short[intGroups + fracGroups];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = Short.parseShort(digits.substring(i * 4, i * 4 + 4));
+        }
+        int weight = intGroups - 1;
+        int first = 0;
+        while (first < groups.length && groups[first] == 0) {
+            first++;
+            weight--;
+        }
+        int last = groups.length;
+        while (last > first && groups[last - 1] == 0) {
+            last--;
+        }
+        int ndigits = last - first;
+        if (ndigits == 0) {
+            weight = 0;
+        }
+        out.writeShort(ndigits);
+        out.writeShort(weight);
+        out.writeShort(ndigits > 0 && value.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS);
+        out.writeShort(abs.scale());
+        for (int i = first; i < last; i++) {
+            out.writeShort(groups[i]);
+        }
+    }
+
+    private static long toPostgresMicros(long epochSeconds, int nanos) {
+        return (epochSeconds - POSTGRES_EPOCH_SECONDS) * 1000000L + nanos / 1000;
+    }
+
+    private static Number toNumber(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return (Number) value;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1 : 0;
+        } else {
+            try {
+                return new BigDecimal(value.toString().trim());
+            } catch (NumberFormatException ex) {
+                throw new SQLException("Not a number: " + value, ex);
+            }
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Object value) throws SQLException {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof Double || value instanceof Float) {
+            return BigDecimal.valueOf(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        } else {
+            return new BigDecimal(toNumber(value).toString());
+        }
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        } else {
+            String str = value.toString().trim();
+            return str.equalsIgnoreCase("t") || str.equalsIgnoreCase("true") || str.equals("1");
+        }
+    }
+
+    private static LocalDate toLocalDate(Object value) throws SQLException {
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        } else if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime().toLocalDate();
+        } else if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime()).toLocalDateTime().toLocalDate();
+        } else {
+            try {
+                return java.sql.Date.valueOf(value.toString().trim()).toLocalDate();
+            } catch (IllegalArgumentException ex) {
+                throw new SQLException("Not a date: " + value, ex);
+            }
+        }
+    }
+
+    private static Timestamp toTimestamp(Object value) throws SQLException {
+        if (value instanceof Timestamp) {
+            return (Timestamp) value;
+        } else if (value instanceof java.sql.Date) {
+            return Timestamp.valueOf(((java.sql.Date) value).toLocalDate().atStartOfDay());
+        } else if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime());
+        } else {
+            try {
+                return Timestamp.valueOf(value.toString().trim());
+            } catch (IllegalArgumentException ex) {
+                throw new SQLException("Not a timestamp: " + value, ex);
+            }
+        }
+    }
+}
@@ -20,8 +20,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * #L%
  */
 
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -29,25 +29,25 @@ import org.arp.javautil.sql.ConnectionSpec;
  *
  * @author Andrew Post
  */
-public class ConceptDimensionHandler extends RecordHandler<ConceptDimension> {
+public class ConceptDimensionHandler extends StagingRecordHandler<ConceptDimension> {
 
     public static final String TEMP_CONCEPT_TABLE = "ek_temp_concept";
 
-    public ConceptDimensionHandler(ConnectionSpec connSpec) throws SQLException {
+    public ConceptDimensionHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
         super(connSpec,
                 "insert into " + TEMP_CONCEPT_TABLE + " (concept_cd,concept_path,name_char,concept_blob,"
-                + "update_date,download_date,import_date,sourcesystem_cd) values (?,?,?,?,?,?,?,?)");
+                + "update_date,download_date,import_date,sourcesystem_cd) values (?,?,?,?,?,?,?,?)", stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps, ConceptDimension record) throws SQLException {
-        ps.setString(1, record.getConceptCode());
-        ps.setString(2, record.getPath());
-        ps.setString(3, record.getDisplayName());
-        ps.setObject(4, null);
-        ps.setTimestamp(5, record.getUpdated());
-        ps.setTimestamp(6, record.getDownloaded());
-        ps.setTimestamp(7, importTimestamp());
-        ps.setString(8, record.getSourceSystemCode());
+    protected void setParameters(RowSink row, ConceptDimension record) throws SQLException {
+        row.setString(1, record.getConceptCode());
+        row.setString(2, record.getPath());
+        row.setString(3, record.getDisplayName());
+        row.setObject(4, null);
+        row.setTimestamp(5, record.getUpdated());
+        row.setTimestamp(6, record.getDownloaded());
+        row.setTimestamp(7, importTimestamp());
+        row.setString(8, record.getSourceSystemCode());
     }
 }
@@ -21,9 +21,6 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  */
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
 import java.sql.SQLException;
-import java.util.Enumeration;
-
-import javax.swing.tree.TreeNode;
 
 import org.protempa.ProtempaUtil;
 
@@ -40,9 +37,8 @@ public abstract class ConceptHierarchyLoader {
     public final void execute(Concept... roots) throws SQLException {
         ProtempaUtil.checkArrayForNullElement(roots, "roots");
         for (Concept root : roots) {
-            Enumeration<TreeNode> emu = root.breadthFirstEnumeration();
-            while (emu.hasMoreElements()) {
-                loadConcept((Concept) emu.nextElement());
+            for (Concept concept : root.breadthFirst()) {
+                loadConcept(concept);
             }
         }
     }
@@ -0,0 +1,194 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes rows into a table with PostgreSQL's
+ * <code>COPY ... FROM STDIN</code>. Rows are encoded by a subclass and
+ * buffered until {@link #copy(java.sql.Connection) } sends them to the server
+ * as one copy and commits it, so each batch of rows is its own transaction,
+ * like a batch of inserts.
+ *
+ * @author Andrew Post
+ */
+abstract class CopyWriter {
+
+    private static final Pattern INSERT_PATTERN = Pattern.compile(
+            "^\\s*insert\\s+into\\s+(\\S+?)\\s*\\(([^)]*)\\)\\s*values.*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final int INITIAL_BUFFER_SIZE = 65536;
+
+    private final String table;
+    private final String[] columns;
+    private final ByteArrayOutputStream buffer;
+    private int rows;
+
+    /**
+     * Creates a copy writer for the table and columns of the given insert
+     * statement.
+     *
+     * @param connection a connection, which is used to check the database and
+     * read the table's column types.
+     * @param insertStatement an insert statement of the form
+     * <code>insert into table (column, ...) values (...)</code>.
+     * @param stagingMethod the staging method.
+     * @return a copy writer, or <code>null</code> if the staging method is
+     * {@link StagingMethod#INSERT} or the database is not PostgreSQL.
+     * @throws SQLException if an error occurred reading the database or table
+     * metadata.
+     */
+    static CopyWriter getInstance(Connection connection, String insertStatement, StagingMethod stagingMethod) throws SQLException {
+        if (stagingMethod == null || stagingMethod == StagingMethod.INSERT) {
+            return null;
+        }
+        Logger logger = TableUtil.logger();
+        String productName = connection.getMetaData().getDatabaseProductName();
+        if (!"PostgreSQL".equalsIgnoreCase(productName)) {
+            logger.log(Level.FINE, "Staging method {0} is not supported by {1}; using INSERT", new Object[]{stagingMethod, productName});
+            return null;
+        }
+        Matcher matcher = INSERT_PATTERN.matcher(insertStatement);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not an insert statement: " + insertStatement);
+        }
+        String table = matcher.group(1);
+        String[] columns = matcher.group(2).split(",");
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim();
+        }
+        switch (stagingMethod) {
+            case COPY_TEXT:
+                return new TextCopyWriter(table, columns);
+            case COPY_BINARY:
+                String[] columnTypes = BinaryCopyWriter.readColumnTypes(connection, table, columns);
+                if (BinaryCopyWriter.supportsColumnTypes(columnTypes)) {
+                    return new BinaryCopyWriter(table, columns, columnTypes);
+                } else {
+                    logger.log(Level.WARNING, "Binary copy does not support all of the column types of {0}; using text copy", table);
+                    return new TextCopyWriter(table, columns);
+                }
+            default:
+                throw new AssertionError("Unexpected staging method " + stagingMethod);
+        }
+    }
+
+    CopyWriter(String table, String[] columns) {
+        this.table = table;
+        this.columns = columns;
+        this.buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Encodes a row and adds it to the current batch.
+     *
+     * @param values the row's values, in the order of the columns.
+     * @throws SQLException if a value could not be encoded.
+     */
+    final void addRow(Object[] values) throws SQLException {
+        try {
+            if (this.rows == 0) {
+                writeHeader(this.buffer);
+            }
+            writeRow(values, this.buffer);
+        } catch (IOException ex) {
+            throw new SQLException("Error encoding row for " + this.table, ex);
+        }
+        this.rows++;
+    }
+
+    /**
+     * Sends the current batch of rows to the server as one copy, and commits
+     * it if the connection is not in auto-commit mode. The batch is discarded
+     * whether or not the copy succeeds.
+     *
+     * @param connection the connection on which to copy.
+     * @throws SQLException if the copy failed.
+     */
+    final void copy(Connection connection) throws SQLException {
+        if (this.rows == 0) {
+            return;
+        }
+        PgCopyIn copyIn = null;
+        try {
+            try {
+                writeTrailer(this.buffer);
+            } catch (IOException ex) {
+                throw new SQLException("Error encoding copy trailer for " + this.table, ex);
+            }
+            copyIn = new PgCopyIn(connection, copyStatement());
+            copyIn.write(this.buffer.toByteArray());
+            long copied = copyIn.end();
+            TableUtil.logger().log(Level.FINE, "Copied {0} row(s) into {1}", new Object[]{copied, this.table});
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } catch (SQLException ex) {
+            if (copyIn != null) {
+                copyIn.cancel();
+            }
+            throw ex;
+        } finally {
+            this.buffer.reset();
+            this.rows = 0;
+        }
+    }
+
+    private String copyStatement() {
+        StringBuilder sql = new StringBuilder("COPY ");
+        sql.append(this.table).append(" (");
+        for (int i = 0; i < this.columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(this.columns[i]);
+        }
+        sql.append(") FROM STDIN");
+        String options = copyOptions();
+        if (options != null) {
+            sql.append(' ').append(options);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Returns the options clause of the copy statement.
+     *
+     * @return the options, or <code>null</code> for none.
+     */
+    abstract String copyOptions();
+
+    abstract void writeHeader(ByteArrayOutputStream out) throws IOException;
+
+    abstract void writeRow(Object[] values, ByteArrayOutputStream out) throws IOException, SQLException;
+
+    abstract void writeTrailer(ByteArrayOutputStream out) throws IOException;
+}
@@ -0,0 +1,162 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang3.ArrayUtils;
+import org.protempa.KnowledgeSourceCache;
+import org.protempa.dest.table.Derivation;
+import org.protempa.dest.table.Link;
+import org.protempa.dest.table.LinkTraverser;
+import org.protempa.dest.table.Reference;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * Traverses the references and derivations of one encounter at a time on
+ * behalf of all of a load thread's fact handlers. Each reference is
+ * traversed at most once per encounter, as are each proposition's
+ * derivations, no matter how many fact handlers ask for them. The set of
+ * derived propositions that have already been loaded for the encounter is
+ * shared by the fact handlers, so each derived proposition is loaded once.
+ *
+ * Not thread-safe; each load thread has its own.
+ *
+ * @author Andrew Post
+ */
+public final class EncounterLinkTraverser {
+
+    private final LinkTraverser linkTraverser;
+    private final KnowledgeSourceCache cache;
+    private final Link[] derivationLinks;
+    private final Map<String, Link[]> referenceLinks;
+    private final Map<String, List<Proposition>> propositionsByReference;
+    private final Map<Proposition, List<Proposition>> derivedPropositions;
+    private final Set<Proposition> loadedDerivedPropositions;
+    private Proposition encounterProp;
+    private Map<Proposition, Set<Proposition>> forwardDerivations;
+    private Map<Proposition, Set<Proposition>> backwardDerivations;
+    private Map<UniqueId, Proposition> references;
+
+    /**
+     * Creates a traverser.
+     *
+     * @param cache the knowledge source cache.
+     * @param potentialDerivedPropIds the ids of the derived propositions to
+     * load along with the propositions that they are derived from.
+     */
+    public EncounterLinkTraverser(KnowledgeSourceCache cache, String[] potentialDerivedPropIds) {
+        if (cache == null) {
+            throw new IllegalArgumentException("cache cannot be null");
+        }
+        this.linkTraverser = new LinkTraverser();
+        this.cache = cache;
+        if (potentialDerivedPropIds == null) {
+            potentialDerivedPropIds = ArrayUtils.EMPTY_STRING_ARRAY;
+        }
+        this.derivationLinks = new Link[]{
+            new Derivation(potentialDerivedPropIds,
+            Derivation.Behavior.MULT_FORWARD)
+        };
+        this.referenceLinks = new HashMap<>();
+        this.propositionsByReference = new HashMap<>();
+        this.derivedPropositions = new HashMap<>();
+        this.loadedDerivedPropositions = new HashSet<>();
+    }
+
+    /**
+     * Starts traversing a new encounter, and forgets the previous one.
+     *
+     * @param encounterProp the encounter.
+     * @param forwardDerivations the patient's forward derivations.
+     * @param backwardDerivations the patient's backward derivations.
+     * @param references the patient's references.
+     */
+    public void reset(Proposition encounterProp,
+            Map<Proposition, Set<Proposition>> forwardDerivations,
+            Map<Proposition, Set<Proposition>> backwardDerivations,
+            Map<UniqueId, Proposition> references) {
+        this.encounterProp = encounterProp;
+        this.forwardDerivations = forwardDerivations;
+        this.backwardDerivations = backwardDerivations;
+        this.references = references;
+        this.propositionsByReference.clear();
+        this.derivedPropositions.clear();
+        this.loadedDerivedPropositions.clear();
+    }
+
+    /**
+     * Gets the propositions that the encounter references by name.
+     *
+     * @param referenceName a reference name, or <code>null</code> for the
+     * encounter itself.
+     * @return the referenced propositions. Do not modify.
+     */
+    List<Proposition> getPropositions(String referenceName) {
+        List<Proposition> result = this.propositionsByReference.get(referenceName);
+        if (result == null) {
+            Link[] links = this.referenceLinks.computeIfAbsent(referenceName,
+                    k -> k != null ? new Link[]{new Reference(k)} : null);
+            result = this.linkTraverser.traverseLinks(links, this.encounterProp,
+                    this.forwardDerivations, this.backwardDerivations,
+                    this.references, this.cache);
+            this.propositionsByReference.put(referenceName, result);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the derived propositions of interest that were derived from the
+     * given proposition.
+     *
+     * @param prop a proposition of the current encounter.
+     * @return the derived propositions. Do not modify.
+     */
+    List<Proposition> getDerivedPropositions(Proposition prop) {
+        List<Proposition> result = this.derivedPropositions.get(prop);
+        if (result == null) {
+            result = this.linkTraverser.traverseLinks(this.derivationLinks,
+                    prop, this.forwardDerivations, this.backwardDerivations,
+                    this.references, this.cache);
+            if (result.isEmpty()) {
+                result = Collections.emptyList();
+            }
+            this.derivedPropositions.put(prop, result);
+        }
+        return result;
+    }
+
+    /**
+     * Records that a derived proposition is being loaded for the current
+     * encounter.
+     *
+     * @param derivedProp a derived proposition.
+     * @return <code>true</code> if it had not been loaded yet.
+     */
+    boolean markLoaded(Proposition derivedProp) {
+        return this.loadedDerivedPropositions.add(derivedProp);
+    }
+}
@@ -20,8 +20,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * #L%
  */
 
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -29,30 +29,30 @@ import org.arp.javautil.sql.ConnectionSpec;
  *
  * @author arpost
  */
-public class EncounterMappingHandler extends RecordHandler<VisitDimension> {
+public class EncounterMappingHandler extends StagingRecordHandler<VisitDimension> {
     public static final String TEMP_ENC_MAPPING_TABLE = "ek_temp_encounter_mapping";
     
-    public EncounterMappingHandler(ConnectionSpec connSpec) throws SQLException {
+    public EncounterMappingHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
         super(connSpec,
                 "insert into " + TEMP_ENC_MAPPING_TABLE + "(encounter_id, encounter_id_source, encounter_map_id, encounter_map_id_source, " +
                     "encounter_map_id_status, patient_map_id, patient_map_id_source, update_date, download_date, import_date, sourcesystem_cd, delete_date)" +
-                    " values (?,?,?,?,?,?,?,?,?,?,?,?)");
+                    " values (?,?,?,?,?,?,?,?,?,?,?,?)", stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps2, VisitDimension visit) throws SQLException {
-        ps2.setString(1, visit.getVisitId());
-        ps2.setString(2, visit.getVisitIdSource());
-        ps2.setString(3, visit.getVisitId());
-        ps2.setString(4, visit.getVisitIdSource());
-        ps2.setString(5, EncounterIdeStatusCode.ACTIVE.getCode());
-        ps2.setString(6, visit.getEncryptedPatientId());
-        ps2.setString(7, visit.getEncryptedPatientIdSource());
-        ps2.setTimestamp(8, visit.getUpdated());
-        ps2.setTimestamp(9, visit.getDownloaded());
-        ps2.setTimestamp(10, importTimestamp());
-        ps2.setString(11, visit.getVisitSourceSystem());
-        ps2.setTimestamp(12,visit.getDeletedDate());
+    protected void setParameters(RowSink row, VisitDimension visit) throws SQLException {
+        row.setString(1, visit.getVisitId());
+        row.setString(2, visit.getVisitIdSource());
+        row.setString(3, visit.getVisitId());
+        row.setString(4, visit.getVisitIdSource());
+        row.setString(5, EncounterIdeStatusCode.ACTIVE.getCode());
+        row.setString(6, visit.getEncryptedPatientId());
+        row.setString(7, visit.getEncryptedPatientIdSource());
+        row.setTimestamp(8, visit.getUpdated());
+        row.setTimestamp(9, visit.getDownloaded());
+        row.setTimestamp(10, importTimestamp());
+        row.setString(11, visit.getVisitSourceSystem());
+        row.setTimestamp(12,visit.getDeletedDate());
     }
 
 }
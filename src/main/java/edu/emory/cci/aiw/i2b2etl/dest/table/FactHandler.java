@@ -19,19 +19,19 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * limitations under the License.
  * #L%
  */
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierConceptId;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropertyConceptId;
 import java.sql.SQLException;
 import java.util.Date;
-import java.util.Map;
-import java.util.Set;
 import org.arp.javautil.sql.ConnectionSpec;
 import org.protempa.proposition.Parameter;
 import org.protempa.proposition.Proposition;
 import org.protempa.proposition.TemporalProposition;
-import org.protempa.proposition.UniqueId;
 import org.protempa.proposition.value.AbsoluteTimeGranularityUtil;
 import org.protempa.proposition.value.NominalValue;
 import org.protempa.proposition.value.Value;
@@ -45,19 +45,34 @@ public abstract class FactHandler extends AbstractFactHandler {
     public static final String TEMP_OBSERVATION_TABLE = "ek_temp_observation";
     public static final String TEMP_OBSERVATION_COMPLETE_TABLE = "ek_temp_observation_complete";
 
+    static final String TEMP_OBSERVATION_INSERT = "insert into " + TEMP_OBSERVATION_TABLE + "(encounter_id, encounter_id_source, concept_cd, "
+            + "patient_id, patient_id_source, provider_id, start_date, modifier_cd, instance_num, valtype_cd, tval_char, nval_num, valueflag_cd, quantity_num, "
+            + "confidence_num, observation_blob, units_cd, end_date, location_cd, update_date, download_date, import_date, sourcesystem_cd, upload_id, delete_date)"
+            + " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    private static final int TIMESTAMP_CACHE_BITS = 12;
+
+    // how many concept id lookups to count before adding them to the metrics
+    private static final int CONCEPT_CACHE_LOOKUPS_PER_PUBLISH = 1000;
+
     private final String startConfig;
     private final String finishConfig;
     private final String unitsPropertyName;
     private final String propertyName;
     private final Metadata metadata;
-    private final RejectedFactHandler rejectedFactHandler;
+    private final RejectedFactWriter rejectedFactWriter;
+    private final FactWriterPool factWriterPool;
+    private final ObservationFact factBuffer;
+    private final ObservationFact modifierFactBuffer;
+    private final TimestampCache timestampCache;
+    private final LoadMetrics.FactCounters factCounters;
+    private final LoadMetrics metrics;
+    // concept id lookups not yet in the metrics; a handler has one load thread
+    private long conceptCacheHits;
+    private long conceptCacheMisses;
 
-    public FactHandler(ConnectionSpec connSpec, String propertyName, String startConfig, String finishConfig, String unitsPropertyName, Metadata metadata, RejectedFactHandlerFactory rejectedFactHandlerFactory) throws SQLException {
-        super(connSpec,
-                "insert into " + TEMP_OBSERVATION_TABLE + "(encounter_id, encounter_id_source, concept_cd, "
-                + "patient_id, patient_id_source, provider_id, start_date, modifier_cd, instance_num, valtype_cd, tval_char, nval_num, valueflag_cd, quantity_num, "
-                + "confidence_num, observation_blob, units_cd, end_date, location_cd, update_date, download_date, import_date, sourcesystem_cd, upload_id, delete_date)"
-                + " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+    public FactHandler(ConnectionSpec connSpec, String propertyName, String startConfig, String finishConfig, String unitsPropertyName, Metadata metadata, RejectedFactWriter rejectedFactWriter, FactWriterPool factWriterPool, StagingMethod stagingMethod, LoadMetrics metrics, String name) throws SQLException {
+        super(connSpec, TEMP_OBSERVATION_INSERT, stagingMethod, metrics);
         if (metadata == null) {
             throw new IllegalArgumentException("metadata cannot be null");
         }
@@ -66,11 +81,13 @@ public abstract class FactHandler extends AbstractFactHandler {
         this.finishConfig = finishConfig;
         this.unitsPropertyName = unitsPropertyName;
         this.metadata = metadata;
-        if (rejectedFactHandlerFactory != null) {
-            this.rejectedFactHandler = rejectedFactHandlerFactory.getInstance();
-        } else {
-            this.rejectedFactHandler = null;
-        }
+        this.rejectedFactWriter = rejectedFactWriter;
+        this.factWriterPool = factWriterPool;
+        this.factBuffer = new ObservationFact();
+        this.modifierFactBuffer = new ObservationFact();
+        this.timestampCache = new TimestampCache(TIMESTAMP_CACHE_BITS);
+        this.factCounters = metrics != null ? metrics.getFactCounters(name) : null;
+        this.metrics = metrics;
     }
 
     Metadata getMetadata() {
@@ -93,25 +110,57 @@ public abstract class FactHandler extends AbstractFactHandler {
         return propertyName;
     }
 
-    @Override
-    public void close() throws SQLException {
-        try {
-            super.close();
-        } finally {
-            if (this.rejectedFactHandler != null) {
-                this.rejectedFactHandler.close();
-            }
+    /**
+     * Counts a concept id lookup as a hit or a miss.
+     *
+     * @param conceptId the concept id that was looked up, or
+     * <code>null</code> if there is none.
+     * @return the concept id.
+     */
+    <C extends ConceptId> C counted(C conceptId) {
+        countConceptCacheLookup(conceptId != null);
+        return conceptId;
+    }
+
+    /**
+     * Counts a concept id lookup, and adds the counts to the load metrics
+     * every {@link #CONCEPT_CACHE_LOOKUPS_PER_PUBLISH} lookups, so that they
+     * stay current while patients are staged.
+     *
+     * @param hit whether the lookup found a concept.
+     */
+    void countConceptCacheLookup(boolean hit) {
+        if (hit) {
+            this.conceptCacheHits++;
+        } else {
+            this.conceptCacheMisses++;
+        }
+        if (this.conceptCacheHits + this.conceptCacheMisses >= CONCEPT_CACHE_LOOKUPS_PER_PUBLISH) {
+            publishConceptCacheLookups();
         }
     }
-    
+
+    private void publishConceptCacheLookups() {
+        if (this.metrics != null) {
+            this.metrics.conceptCacheLookups(this.conceptCacheHits, this.conceptCacheMisses);
+        }
+        this.conceptCacheHits = 0L;
+        this.conceptCacheMisses = 0L;
+    }
+
     public abstract void handleRecord(PatientDimension patient, 
             VisitDimension visit, ProviderDimension provider, 
             Proposition encounterProp, 
-            Map<Proposition, Set<Proposition>> forwardDerivations, 
-            Map<Proposition, Set<Proposition>> backwardDerivations, 
-            Map<UniqueId, Proposition> references, 
-            Set<Proposition> derivedPropositions) throws InvalidFactException;
+            EncounterLinkTraverser linkTraverser) throws InvalidFactException;
 
+    /**
+     * Fills in an observation fact for the given proposition. The returned
+     * object is a buffer that this handler reuses, one for facts and one for
+     * modifier facts, so it must be passed to {@link #insert(edu.emory.cci.aiw.i2b2etl.dest.table.ObservationFact) }
+     * before this method is called again for the same kind of fact.
+     *
+     * @return an observation fact buffer.
+     */
     protected ObservationFact populateObxFact(Proposition prop,
             Proposition encounterProp, PatientDimension patient,
             VisitDimension visit, ProviderDimension provider,
@@ -134,14 +183,14 @@ public abstract class FactHandler extends AbstractFactHandler {
 	    if(modConcept == null){
 		    units = handleUnits(prop);
 	    }
-        ObservationFact obx = new ObservationFact();
+        ObservationFact obx = modConcept != null ? this.modifierFactBuffer : this.factBuffer;
         obx.reset();
-        obx.setStartDate(TableUtil.setTimestampAttribute(start));
+        obx.setStartDate(this.timestampCache.get(start));
         if (start == null) {
             obx.setRejected(true);
             obx.addRejectionReason("Null start date");
         }
-        obx.setEndDate(TableUtil.setTimestampAttribute(finish));
+        obx.setEndDate(this.timestampCache.get(finish));
         obx.setPatient(patient);
         obx.setVisit(visit);
         obx.setProvider(provider);
@@ -150,13 +199,13 @@ public abstract class FactHandler extends AbstractFactHandler {
         obx.setValueFlagCode(valueFlagCode);
         obx.setUnits(units);
         obx.setSourceSystem(prop.getSourceSystem().getStringRepresentation());
-        obx.setDownloadDate(TableUtil.setTimestampAttribute(prop.getDownloadDate()));
+        obx.setDownloadDate(this.timestampCache.get(prop.getDownloadDate()));
         Date updateDate = prop.getUpdateDate();
         if (updateDate == null) {
             updateDate = prop.getCreateDate();
         }
-        obx.setUpdateDate(TableUtil.setTimestampAttribute(updateDate));
-        obx.setDeletedDate(TableUtil.setTimestampAttribute(prop.getDeleteDate()));
+        obx.setUpdateDate(this.timestampCache.get(updateDate));
+        obx.setDeletedDate(this.timestampCache.get(prop.getDeleteDate()));
         obx.setInstanceNum(prop.getUniqueId().getLocalUniqueId().getNumericalId());
         if (concept != null) {
             obx.setDisplayName(concept.getDisplayName());
@@ -177,15 +226,37 @@ public abstract class FactHandler extends AbstractFactHandler {
     public void insert(ObservationFact record) throws SQLException {
         if (record != null) {
             if (record.isRejected()) {
-                if (this.rejectedFactHandler != null) {
-                    this.rejectedFactHandler.insert(record);
+                if (this.rejectedFactWriter != null) {
+                    this.rejectedFactWriter.write(record);
+                }
+                if (this.factCounters != null) {
+                    this.factCounters.rejected();
                 }
             } else {
-                super.insert(record);
+                if (this.factWriterPool != null) {
+                    this.factWriterPool.write(record);
+                } else {
+                    super.insert(record);
+                }
+                if (this.factCounters != null) {
+                    this.factCounters.fact();
+                }
             }
         }
     }
 
+    /**
+     * Adds the remaining concept id lookups to the load metrics, and flushes
+     * the staged facts.
+     *
+     * @throws SQLException if an error occurred flushing facts.
+     */
+    @Override
+    public void close() throws SQLException {
+        publishConceptCacheLookups();
+        super.close();
+    }
+
     protected final String handleUnits(Proposition prop) {
         String value;
         if (this.unitsPropertyName != null && prop != null) {
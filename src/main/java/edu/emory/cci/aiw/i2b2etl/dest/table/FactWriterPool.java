@@ -0,0 +1,232 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.arp.javautil.sql.ConnectionSpec;
+
+/**
+ * Writes facts into the temp observation fact table on a fixed set of
+ * threads, so that building facts and inserting them overlap. Fact handlers
+ * put copies of their facts on a bounded queue that all of the threads
+ * drain, and block when it is full. Each thread has its own connection and
+ * batch, or copy stream. Facts are committed on {@link #flush() } and
+ * {@link #close() }.
+ *
+ * @author Andrew Post
+ */
+public final class FactWriterPool {
+
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final ObservationFact END = new ObservationFact();
+    private static final ObservationFact FLUSH = new ObservationFact();
+
+    private final String queryName;
+    private final ConnectionSpec connectionSpec;
+    private final StagingMethod stagingMethod;
+    private final LoadMetrics metrics;
+    private final BlockingQueue<ObservationFact> queue;
+    private final AtomicReference<SQLException> failure;
+    private final Worker[] workers;
+    private volatile CountDownLatch flushed;
+    private boolean closed;
+
+    /**
+     * Creates a fact writer pool and starts its threads.
+     *
+     * @param queryName the name of the query being loaded.
+     * @param connectionSpec the connection for each thread to open.
+     * @param stagingMethod how the threads write facts.
+     * @param metrics where to record batch write latency, or <code>null</code>.
+     * @param threads the number of threads. Must be positive.
+     */
+    public FactWriterPool(String queryName, ConnectionSpec connectionSpec,
+            StagingMethod stagingMethod, LoadMetrics metrics, int threads) {
+        if (connectionSpec == null) {
+            throw new IllegalArgumentException("connectionSpec cannot be null");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.queryName = queryName;
+        this.connectionSpec = connectionSpec;
+        this.stagingMethod = stagingMethod;
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.failure = new AtomicReference<>();
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = new Worker(i);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Queues a copy of a fact, blocking if the queue is full. The fact itself
+     * may be reused as soon as this method returns.
+     *
+     * @param record a fact.
+     * @throws SQLException if writing a previous fact failed.
+     */
+    public void write(ObservationFact record) throws SQLException {
+        checkFailure();
+        put(new ObservationFact(record));
+    }
+
+    /**
+     * Waits for the queued facts to be written, and commits them.
+     *
+     * @throws SQLException if writing a fact failed.
+     */
+    public void flush() throws SQLException {
+        CountDownLatch latch = new CountDownLatch(this.workers.length);
+        this.flushed = latch;
+        // Each worker waits at the latch after taking one marker, so every
+        // worker takes exactly one.
+        for (int i = 0; i < this.workers.length; i++) {
+            put(FLUSH);
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted flushing facts for query " + this.queryName, ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes the queued facts, commits them, and stops the threads.
+     *
+     * @throws SQLException if writing a fact failed.
+     */
+    public void close() throws SQLException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (int i = 0; i < this.workers.length; i++) {
+            put(END);
+        }
+        for (Worker worker : this.workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for fact writer threads for query " + this.queryName, ex);
+            }
+        }
+        checkFailure();
+    }
+
+    private void put(ObservationFact record) throws SQLException {
+        try {
+            this.queue.put(record);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted queuing a fact for query " + this.queryName, ex);
+        }
+    }
+
+    private void checkFailure() throws SQLException {
+        SQLException ex = this.failure.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private void fail(Throwable t) {
+        SQLException ex = t instanceof SQLException ? (SQLException) t
+                : new SQLException("Error writing facts for query " + this.queryName, t);
+        if (!this.failure.compareAndSet(null, ex)) {
+            this.failure.get().addSuppressed(ex);
+        }
+    }
+
+    private final class Worker extends Thread {
+
+        private TempFactHandler handler;
+
+        Worker(int index) {
+            super("i2b2-fact-writer-" + queryName + "-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (ObservationFact record = queue.take(); record != END; record = queue.take()) {
+                    if (record == FLUSH) {
+                        closeHandler();
+                        CountDownLatch latch = flushed;
+                        latch.countDown();
+                        latch.await();
+                    } else if (failure.get() == null) {
+                        // After a failure, keep draining so loaders never
+                        // block. Errors are caught too, or the thread would
+                        // die and flush and close would wait forever.
+                        try {
+                            if (this.handler == null) {
+                                this.handler = new TempFactHandler(connectionSpec, stagingMethod, metrics);
+                            }
+                            this.handler.insert(record);
+                        } catch (Throwable ex) {
+                            fail(ex);
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                fail(new SQLException("Fact writer thread interrupted for query " + queryName, ex));
+            } finally {
+                closeHandler();
+            }
+        }
+
+        private void closeHandler() {
+            if (this.handler != null) {
+                TempFactHandler h = this.handler;
+                this.handler = null;
+                try {
+                    h.close();
+                } catch (Throwable ex) {
+                    fail(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts already built facts into the temp observation fact table.
+     */
+    private static final class TempFactHandler extends AbstractFactHandler {
+
+        TempFactHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
+            super(connSpec, FactHandler.TEMP_OBSERVATION_INSERT, stagingMethod, metrics);
+        }
+    }
+}
@@ -20,8 +20,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * #L%
  */
 
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -29,25 +29,25 @@ import org.arp.javautil.sql.ConnectionSpec;
  *
  * @author Andrew Post
  */
-public class ModifierDimensionHandler extends RecordHandler<ModifierDimension> {
+public class ModifierDimensionHandler extends StagingRecordHandler<ModifierDimension> {
 
     public static final String TEMP_MODIFIER_TABLE = "ek_temp_modifier";
 
-    public ModifierDimensionHandler(ConnectionSpec connSpec) throws SQLException {
+    public ModifierDimensionHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
         super(connSpec,
                 "insert into " + TEMP_MODIFIER_TABLE + " (modifier_cd,modifier_path,name_char,modifier_blob,"
-                + "update_date,download_date,import_date,sourcesystem_cd) values (?,?,?,?,?,?,?,?)");
+                + "update_date,download_date,import_date,sourcesystem_cd) values (?,?,?,?,?,?,?,?)", stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps, ModifierDimension record) throws SQLException {
-        ps.setString(1, record.getConceptCode());
-        ps.setString(2, record.getPath());
-        ps.setString(3, record.getDisplayName());
-        ps.setObject(4, null);
-        ps.setTimestamp(5, record.getUpdated());
-        ps.setTimestamp(6, record.getDownloaded());
-        ps.setTimestamp(7, importTimestamp());
-        ps.setString(8, record.getSourceSystemCode());
+    protected void setParameters(RowSink row, ModifierDimension record) throws SQLException {
+        row.setString(1, record.getConceptCode());
+        row.setString(2, record.getPath());
+        row.setString(3, record.getDisplayName());
+        row.setObject(4, null);
+        row.setTimestamp(5, record.getUpdated());
+        row.setTimestamp(6, record.getDownloaded());
+        row.setTimestamp(7, importTimestamp());
+        row.setString(8, record.getSourceSystemCode());
     }
 }
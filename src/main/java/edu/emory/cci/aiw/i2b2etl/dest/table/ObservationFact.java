@@ -47,6 +47,37 @@ public class ObservationFact extends AbstractRecord {
     public ObservationFact() {
         this.modifierCd = "@";  //using the default value since we do not use this i2b2 feature currently
     }
+
+    /**
+     * Creates a copy of a fact, for handing it off to another thread while
+     * the original is reused.
+     *
+     * @param other a fact.
+     */
+    ObservationFact(ObservationFact other) {
+        this.displayName = other.displayName;
+        this.value = other.value;
+        this.startDate = other.startDate;
+        this.endDate = other.endDate;
+        this.patient = other.patient;
+        this.visit = other.visit;
+        this.provider = other.provider;
+        this.concept = other.concept;
+        this.sourceSystem = other.sourceSystem;
+        this.units = other.units;
+        this.valueFlagCode = other.valueFlagCode;
+        this.instanceNum = other.instanceNum;
+        this.modifierCd = other.modifierCd;
+        this.updateDate = other.updateDate;
+        this.downloadDate = other.downloadDate;
+        this.deletedDate = other.deletedDate;
+        if (other.isRejected()) {
+            setRejected(true);
+            for (String reason : other.getRejectionReasons()) {
+                addRejectionReason(reason);
+            }
+        }
+    }
     
     @Override
     public void reset() {
@@ -19,6 +19,7 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * limitations under the License.
  * #L%
  */
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Data;
 import edu.emory.cci.aiw.i2b2etl.dest.config.DataSpec;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
@@ -53,13 +54,13 @@ public class PatientDimensionFactory extends DimensionFactory {
     private final Settings settings;
 
     public PatientDimensionFactory(Metadata metadata, Settings settings,
-            Data obxSection, ConnectionSpec dataConnectionSpec) throws SQLException {
+            Data obxSection, ConnectionSpec dataConnectionSpec, LoadMetrics metrics) throws SQLException {
         super(obxSection);
         this.settings = settings;
         this.metadata = metadata;
 
-        this.patientDimensionHandler = new PatientDimensionHandler(dataConnectionSpec);
-        this.patientMappingHandler = new PatientMappingHandler(dataConnectionSpec);
+        this.patientDimensionHandler = new PatientDimensionHandler(dataConnectionSpec, settings.getStagingMethod(), metrics);
+        this.patientMappingHandler = new PatientMappingHandler(dataConnectionSpec, settings.getStagingMethod(), metrics);
     }
 
     public PatientDimension getInstance(String keyId, Proposition encounterProp,
@@ -20,8 +20,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * #L%
  */
 
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -29,27 +29,27 @@ import org.arp.javautil.sql.ConnectionSpec;
  *
  * @author arpost
  */
-public class PatientMappingHandler extends RecordHandler<PatientDimension> {
+public class PatientMappingHandler extends StagingRecordHandler<PatientDimension> {
     public static final String TEMP_PATIENT_MAPPING_TABLE = "ek_temp_patient_mapping";
     
-    public PatientMappingHandler(ConnectionSpec connSpec) throws SQLException {
+    public PatientMappingHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
         super(connSpec,
                 "insert into " + TEMP_PATIENT_MAPPING_TABLE + " (patient_id,patient_id_source,patient_map_id,patient_map_id_source,patient_map_id_status," +
-                    "update_date,download_date,import_date,sourcesystem_cd,delete_date) values (?,?,?,?,?,?,?,?,?,?)");
+                    "update_date,download_date,import_date,sourcesystem_cd,delete_date) values (?,?,?,?,?,?,?,?,?,?)", stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps2, PatientDimension patient) throws SQLException {
-        ps2.setString(1, patient.getEncryptedPatientId());
-        ps2.setString(2, patient.getEncryptedPatientIdSource());
-        ps2.setString(3, patient.getEncryptedPatientId());
-        ps2.setString(4, patient.getEncryptedPatientIdSource());
-        ps2.setString(5, PatientIdeStatusCode.ACTIVE.getCode());
-        ps2.setTimestamp(6, patient.getUpdated());
-        ps2.setTimestamp(7, patient.getDownloaded());
-        ps2.setTimestamp(8, importTimestamp());
-        ps2.setString(9, patient.getSourceSystem());
-        ps2.setTimestamp(10,patient.getDeletedDate());
+    protected void setParameters(RowSink row, PatientDimension patient) throws SQLException {
+        row.setString(1, patient.getEncryptedPatientId());
+        row.setString(2, patient.getEncryptedPatientIdSource());
+        row.setString(3, patient.getEncryptedPatientId());
+        row.setString(4, patient.getEncryptedPatientIdSource());
+        row.setString(5, PatientIdeStatusCode.ACTIVE.getCode());
+        row.setTimestamp(6, patient.getUpdated());
+        row.setTimestamp(7, patient.getDownloaded());
+        row.setTimestamp(8, importTimestamp());
+        row.setString(9, patient.getSourceSystem());
+        row.setTimestamp(10,patient.getDeletedDate());
     }
     
 }
@@ -0,0 +1,64 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Wraps the PostgreSQL JDBC driver's copy API so that the rest of the package
+ * does not depend on it directly.
+ *
+ * @author Andrew Post
+ */
+final class PgCopyIn {
+
+    private final CopyIn copyIn;
+
+    PgCopyIn(Connection connection, String sql) throws SQLException {
+        this.copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+    }
+
+    void write(byte[] bytes) throws SQLException {
+        this.copyIn.writeToCopy(bytes, 0, bytes.length);
+    }
+
+    long end() throws SQLException {
+        return this.copyIn.endCopy();
+    }
+
+    /**
+     * Cancels the copy if it is still active. Errors are logged, since this
+     * is only called while handling an earlier error.
+     */
+    void cancel() {
+        if (this.copyIn.isActive()) {
+            try {
+                this.copyIn.cancelCopy();
+            } catch (SQLException ex) {
+                TableUtil.logger().log(Level.FINE, "Error cancelling copy", ex);
+            }
+        }
+    }
+}
@@ -19,9 +19,10 @@
  */
 package edu.emory.cci.aiw.i2b2etl.dest.table;
 
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
-import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ModifierConceptId;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropDefConceptId;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.PropertyConceptId;
@@ -30,22 +31,16 @@ import edu.emory.cci.aiw.i2b2etl.dest.metadata.UnknownPropositionDefinitionExcep
 import java.sql.*;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.arp.javautil.sql.ConnectionSpec;
-import org.drools.util.StringUtils;
 import org.protempa.KnowledgeSourceCache;
 import org.protempa.PropertyDefinition;
 import org.protempa.PropositionDefinition;
 import org.protempa.proposition.*;
 import org.protempa.proposition.value.*;
-import org.protempa.dest.table.Derivation;
-import org.protempa.dest.table.Link;
-import org.protempa.dest.table.LinkTraverser;
 import org.protempa.proposition.comparator.AllPropositionIntervalComparator;
 
 public final class PropositionFactHandler extends FactHandler {
@@ -53,32 +48,25 @@ public final class PropositionFactHandler extends FactHandler {
     private static final Comparator<Proposition> PROP_COMP
             = new AllPropositionIntervalComparator();
 
-    private final LinkTraverser linkTraverser;
-    private final Link[] links;
-    private final Link[] derivationLinks;
+    private final String referenceName;
     private KnowledgeSourceCache cache;
-    private final Set<ConceptId> missingConcepts;
+    private final Set<String> missingConcepts;
 
     public PropositionFactHandler(ConnectionSpec connSpec,
-            Link[] links, String propertyName,
+            String referenceName, String propertyName,
             String start, String finish, String unitsPropertyName,
-            String[] potentialDerivedPropIds, Metadata metadata,
+            Metadata metadata,
             KnowledgeSourceCache cache,
-            RejectedFactHandlerFactory rejectedFactHandlerFactory) throws SQLException {
-        super(connSpec, propertyName, start, finish, unitsPropertyName, metadata, rejectedFactHandlerFactory);
+            RejectedFactWriter rejectedFactWriter,
+            FactWriterPool factWriterPool,
+            StagingMethod stagingMethod,
+            LoadMetrics metrics, String name) throws SQLException {
+        super(connSpec, propertyName, start, finish, unitsPropertyName, metadata, rejectedFactWriter, factWriterPool, stagingMethod, metrics, name);
         if (cache == null) {
             throw new IllegalArgumentException("cache cannot be null");
         }
 
-        this.linkTraverser = new LinkTraverser();
-        this.links = links;
-        if (potentialDerivedPropIds == null) {
-            potentialDerivedPropIds = StringUtils.EMPTY_STRING_ARRAY;
-        }
-        this.derivationLinks = new Link[]{
-            new Derivation(potentialDerivedPropIds,
-            Derivation.Behavior.MULT_FORWARD)
-        };
+        this.referenceName = referenceName;
         this.cache = cache;
         this.missingConcepts = new HashSet<>();
     }
@@ -99,34 +87,22 @@ public final class PropositionFactHandler extends FactHandler {
     public void handleRecord(PatientDimension patient, VisitDimension visit,
             ProviderDimension provider,
             Proposition encounterProp,
-            Map<Proposition, Set<Proposition>> forwardDerivations,
-            Map<Proposition, Set<Proposition>> backwardDerivations,
-            Map<UniqueId, Proposition> references,
-            Set<Proposition> derivedPropositions)
+            EncounterLinkTraverser linkTraverser)
             throws InvalidFactException {
         assert patient != null : "patient cannot be null";
         assert visit != null : "visit cannot be null";
         assert provider != null : "provider cannot be null";
-        List<Proposition> props;
         try {
-            props = this.linkTraverser.traverseLinks(this.links, encounterProp,
-                    forwardDerivations,
-                    backwardDerivations, references, this.cache);
-            Set<Proposition> derivedPropCache = new HashSet<>();
-            for (Proposition prop : props) {
+            for (Proposition prop : linkTraverser.getPropositions(this.referenceName)) {
                 String propertyName = getPropertyName();
                 Value propertyVal = propertyName != null
                         ? prop.getProperty(propertyName) : null;
-                PropDefConceptId conceptId = PropDefConceptId.getInstance(prop.getId(), propertyName, propertyVal, getMetadata());
-                doInsert(conceptId, prop, encounterProp, patient, visit, provider);
-                List<Proposition> derivedProps = this.linkTraverser.traverseLinks(
-                            this.derivationLinks, prop, forwardDerivations,
-                            backwardDerivations, references,
-                            this.cache);
-                for (Proposition derivedProp : derivedProps) {
-                    if (derivedPropCache.add(derivedProp)) {
-                        PropDefConceptId derivedConceptId = PropDefConceptId.getInstance(derivedProp.getId(), null, null, getMetadata());
-                        doInsert(derivedConceptId, derivedProp, encounterProp, patient, visit, provider);
+                PropDefConceptId conceptId = counted(PropDefConceptId.getInstanceIfPresent(prop.getId(), propertyName, propertyVal, getMetadata()));
+                doInsert(conceptId, prop, propertyName, encounterProp, patient, visit, provider);
+                for (Proposition derivedProp : linkTraverser.getDerivedPropositions(prop)) {
+                    if (linkTraverser.markLoaded(derivedProp)) {
+                        PropDefConceptId derivedConceptId = counted(PropDefConceptId.getInstanceIfPresent(derivedProp.getId(), null, null, getMetadata()));
+                        doInsert(derivedConceptId, derivedProp, null, encounterProp, patient, visit, provider);
                     }
                 }
             }
@@ -135,17 +111,24 @@ public final class PropositionFactHandler extends FactHandler {
         }
     }
 
-    private void doInsert(PropertyConceptId conceptId, Proposition prop, Proposition encounterProp, PatientDimension patient, VisitDimension visit, ProviderDimension provider) throws InvalidFactException, UnknownPropositionDefinitionException {
-        assert conceptId != null : "conceptId cannot be null";
+    /**
+     * Inserts a fact for a proposition, and its modifier facts.
+     *
+     * @param conceptId the proposition's concept id, or <code>null</code> if
+     * there is none, because the ontology has no concept for it.
+     */
+    private void doInsert(PropertyConceptId conceptId, Proposition prop, String propertyName, Proposition encounterProp, PatientDimension patient, VisitDimension visit, ProviderDimension provider) throws InvalidFactException, UnknownPropositionDefinitionException {
         assert prop != null : "prop cannot be null";
         assert encounterProp != null : "encounterProp cannot be null";
         assert patient != null : "patient cannot be null";
         assert visit != null : "visit cannot be null";
         assert provider != null : "provider cannot be null";
-        if (getMetadata().getFromIdCache(conceptId) == null) {
-            // Only log the problem on its first occurrence.
-            if (this.missingConcepts.add(conceptId)) {
-                TableUtil.logger().log(Level.WARNING, "No metadata for concept {0}; this data will not be loaded", conceptId);
+        if (conceptId == null || getMetadata().getFromIdCache(conceptId) == null) {
+            // Only log the problem on its first occurrence. Values are left
+            // out of the key, so that the set stays small.
+            String missing = propertyName != null ? prop.getId() + "." + propertyName : prop.getId();
+            if (this.missingConcepts.add(missing)) {
+                TableUtil.logger().log(Level.WARNING, "No metadata for concept {0}; this data will not be loaded", missing);
             }
         } else {
             ObservationFact obx = populateObxFact(prop,
@@ -160,19 +143,23 @@ public final class PropositionFactHandler extends FactHandler {
                 String msg = "Observation fact not created";
                 throw new InvalidFactException(msg, ex);
             }
-            for (String propertyName : prop.getPropertyNames()) {
-                PropertyDefinition propertyDefinition = propDef.propertyDefinition(propertyName);
+            for (String modPropertyName : prop.getPropertyNames()) {
+                PropertyDefinition propertyDefinition = propDef.propertyDefinition(modPropertyName);
                 if (propertyDefinition != null) {
-                    ModifierConceptId modConceptId = ModifierConceptId.getInstance(propertyDefinition.getDeclaringPropId(), propertyName, prop.getProperty(propertyName), getMetadata());
                     //Check with property value, then without, to cover both kinds of modifier concepts.
-                    boolean found = getMetadata().getFromIdCache(modConceptId) != null;
+                    String declaringPropId = propertyDefinition.getDeclaringPropId();
+                    ModifierConceptId modConceptId = ModifierConceptId.getInstanceIfPresent(declaringPropId, modPropertyName, prop.getProperty(modPropertyName), getMetadata());
+                    boolean found = modConceptId != null && getMetadata().getFromIdCache(modConceptId) != null;
                     if (!found) {
-                        modConceptId = ModifierConceptId.getInstance(propertyDefinition.getDeclaringPropId(), propertyName, null, getMetadata());
-                        found = getMetadata().getFromIdCache(modConceptId) != null;
+                        modConceptId = ModifierConceptId.getInstanceIfPresent(declaringPropId, modPropertyName, null, getMetadata());
+                        found = modConceptId != null && getMetadata().getFromIdCache(modConceptId) != null;
                     }
+                    // Both tries are one lookup of the modifier.
+                    countConceptCacheLookup(found);
                     if (!found) {
-                        if (this.missingConcepts.add(modConceptId)) {
-                            TableUtil.logger().log(Level.WARNING, "No metadata for modifier {0}; this modifier data will not be loaded. If you already are loading it as a concept, you may ignore this warning.", modConceptId);
+                        String missing = declaringPropId + "." + modPropertyName;
+                        if (this.missingConcepts.add(missing)) {
+                            TableUtil.logger().log(Level.WARNING, "No metadata for modifier {0}; this modifier data will not be loaded. If you already are loading it as a concept, you may ignore this warning.", missing);
                         }
                     } else {
                         ObservationFact modObx = populateObxFact(prop, encounterProp, patient, visit, provider, conceptId, modConceptId);
@@ -19,6 +19,9 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * limitations under the License.
  * #L%
  */
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.config.Data;
+import edu.emory.cci.aiw.i2b2etl.dest.config.DataSpec;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
@@ -27,10 +30,16 @@ import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.InvalidConceptCodeExcep
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.MetadataUtil;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.SimpleConceptId;
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,6 +60,7 @@ public class ProviderDimensionFactory {
 
     private static final String PROVIDER_ID_PREFIX = MetadataUtil.DEFAULT_CONCEPT_ID_PREFIX_INTERNAL + "|Provider:";
     private static final String NOT_RECORDED_PROVIDER_ID = PROVIDER_ID_PREFIX + "NotRecorded";
+    private static final String NOT_RECORDED_PROVIDER_NAME = "Not Recorded";
     private static final Calendar CAL;
     private static final Date PROVIDER_NOT_RECORDED_DATE;
     static {
@@ -64,12 +74,54 @@ public class ProviderDimensionFactory {
         PROVIDER_NOT_RECORDED_DATE = CAL.getTime();
     }
 
+    private static final int FULL_NAME = 0;
+    private static final int FIRST_NAME = 1;
+    private static final int MIDDLE_NAME = 2;
+    private static final int LAST_NAME = 3;
+
     private final Metadata metadata;
     private final ProviderDimensionHandler providerDimensionHandler;
+    private final ConnectionSpec dataConnectionSpec;
+
+    /*
+     * The extraction plan, compiled from the provider name data specs. Each
+     * distinct reference is resolved once per encounter. For each name part,
+     * the index of its reference (or -1) and the property to read from the
+     * referenced provider.
+     */
+    private final String[] referenceNames;
+    private final int[] namePartReferences;
+    private final String[] namePartProperties;
 
-    public ProviderDimensionFactory(Metadata metadata, Settings settings, ConnectionSpec dataConnectionSpec) throws SQLException {
+    public ProviderDimensionFactory(Metadata metadata, Settings settings, Data data, ConnectionSpec dataConnectionSpec, LoadMetrics metrics) throws SQLException {
         this.metadata = metadata;
-        this.providerDimensionHandler = new ProviderDimensionHandler(dataConnectionSpec);
+        DataSpec[] namePartSpecs = {
+            data.get(settings.getProviderFullName()),
+            data.get(settings.getProviderFirstName()),
+            data.get(settings.getProviderMiddleName()),
+            data.get(settings.getProviderLastName())
+        };
+        List<String> refNames = new ArrayList<>(namePartSpecs.length);
+        this.namePartReferences = new int[namePartSpecs.length];
+        this.namePartProperties = new String[namePartSpecs.length];
+        for (int i = 0; i < namePartSpecs.length; i++) {
+            DataSpec dataSpec = namePartSpecs[i];
+            String referenceName = dataSpec != null ? dataSpec.getReferenceName() : null;
+            if (referenceName != null) {
+                int index = refNames.indexOf(referenceName);
+                if (index < 0) {
+                    index = refNames.size();
+                    refNames.add(referenceName);
+                }
+                this.namePartReferences[i] = index;
+                this.namePartProperties[i] = dataSpec.getPropertyName();
+            } else {
+                this.namePartReferences[i] = -1;
+            }
+        }
+        this.referenceNames = refNames.toArray(new String[refNames.size()]);
+        this.providerDimensionHandler = new ProviderDimensionHandler(dataConnectionSpec, settings.getStagingMethod(), metrics);
+        this.dataConnectionSpec = dataConnectionSpec;
     }
 
     private static enum DateType {
@@ -79,17 +131,49 @@ public class ProviderDimensionFactory {
         DOWNLOADED
     }
 
-    public ProviderDimension getInstance(Proposition encounterProp, String fullNameReference, String fullNameProperty,
-            String firstNameReference, String firstNameProperty,
-            String middleNameReference, String middleNameProperty,
-            String lastNameReference, String lastNameProperty,
-            Map<UniqueId, Proposition> references) throws InvalidConceptCodeException, SQLException {
+    /**
+     * Gets the provider of the given encounter, creating its provider concept
+     * and staging its provider dimension record if this is the first time
+     * that provider has been seen. Each of the provider references is
+     * resolved once. Safe to call from multiple load threads.
+     *
+     * @param encounterProp the encounter.
+     * @param references the patient's references.
+     * @param cache the providers already computed for the encounters of the
+     * current patient, keyed by the unique ids of the referenced provider
+     * propositions. Owned by the caller, and must be cleared between
+     * patients.
+     * @return the provider.
+     */
+    public ProviderDimension getInstance(Proposition encounterProp,
+            Map<UniqueId, Proposition> references,
+            Map<List<UniqueId>, ProviderDimension> cache) throws InvalidConceptCodeException, SQLException {
+        UniqueId[] providerUids = new UniqueId[this.referenceNames.length];
+        for (int i = 0; i < providerUids.length; i++) {
+            providerUids[i] = resolveReference(encounterProp, this.referenceNames[i]);
+        }
+        List<UniqueId> key = Arrays.asList(providerUids);
+        ProviderDimension providerDimension = cache.get(key);
+        if (providerDimension == null) {
+            Proposition[] providers = new Proposition[providerUids.length];
+            for (int i = 0; i < providers.length; i++) {
+                if (providerUids[i] != null) {
+                    providers[i] = references.get(providerUids[i]);
+                }
+            }
+            providerDimension = newProviderDimension(providers);
+            cache.put(key, providerDimension);
+        }
+        return providerDimension;
+    }
+
+    private ProviderDimension newProviderDimension(Proposition[] providers) throws InvalidConceptCodeException, SQLException {
         Set<String> sources = new HashSet<>(4);
 
-        String firstName = extractNamePart(firstNameReference, firstNameProperty, encounterProp, references, sources);
-        String middleName = extractNamePart(middleNameReference, middleNameProperty, encounterProp, references, sources);
-        String lastName = extractNamePart(lastNameReference, lastNameProperty, encounterProp, references, sources);
-        String fullName = extractNamePart(fullNameReference, fullNameProperty, encounterProp, references, sources);
+        String firstName = extractNamePart(FIRST_NAME, providers, sources);
+        String middleName = extractNamePart(MIDDLE_NAME, providers, sources);
+        String lastName = extractNamePart(LAST_NAME, providers, sources);
+        String fullName = extractNamePart(FULL_NAME, providers, sources);
         if (fullName == null) {
             fullName = constructFullName(firstName, middleName, lastName);
         }
@@ -102,20 +186,79 @@ public class ProviderDimensionFactory {
         if (!sources.isEmpty()) {
             id = PROVIDER_ID_PREFIX + fullName;
             source = MetadataUtil.toSourceSystemCode(StringUtils.join(sources, " & "));
-            updated = extract(DateType.UPDATED, fullNameReference, firstNameReference, middleNameReference, lastNameReference, encounterProp, references);
+            updated = extract(DateType.UPDATED, providers);
             if (updated == null) {
-                updated = extract(DateType.CREATED, fullNameReference, firstNameReference, middleNameReference, lastNameReference, encounterProp, references);
+                updated = extract(DateType.CREATED, providers);
             }
-            downloaded = extract(DateType.DOWNLOADED, fullNameReference, firstNameReference, middleNameReference, lastNameReference, encounterProp, references);
-            deleted = extract(DateType.DELETED, fullNameReference, firstNameReference, middleNameReference, lastNameReference, encounterProp, references);
+            downloaded = extract(DateType.DOWNLOADED, providers);
+            deleted = extract(DateType.DELETED, providers);
         } else {
             id = NOT_RECORDED_PROVIDER_ID;
             source = this.metadata.getSourceSystemCode();
-            fullName = "Not Recorded";
+            fullName = NOT_RECORDED_PROVIDER_NAME;
             updated = PROVIDER_NOT_RECORDED_DATE;
             downloaded = null;
             deleted = null;
         }
+        return getOrCreate(id, source, fullName, updated, downloaded, deleted, true);
+    }
+
+    /**
+     * Recreates the provider concepts of the providers that a previous run
+     * staged into the provider temp table, without staging them again. Used
+     * when resuming a load.
+     *
+     * @return the number of providers restored.
+     */
+    public int restoreStagedProviders() throws InvalidConceptCodeException, SQLException {
+        return readStagedProviders().size();
+    }
+
+    /**
+     * Recreates the provider concepts of the providers that any process
+     * staged into the provider temp table, and replaces the table's contents
+     * with one record per provider. Used by the coordinator of a partitioned
+     * load, since the partitions stage the providers they share separately.
+     *
+     * @return the number of distinct providers.
+     */
+    public int consolidateStagedProviders() throws InvalidConceptCodeException, SQLException {
+        Map<String, ProviderDimension> providers = readStagedProviders();
+        try (Connection conn = this.dataConnectionSpec.getOrCreate();
+                Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(true);
+            stmt.executeUpdate("DELETE FROM " + ProviderDimensionHandler.TEMP_PROVIDER_TABLE);
+        }
+        for (ProviderDimension providerDimension : providers.values()) {
+            this.providerDimensionHandler.insert(providerDimension);
+        }
+        return providers.size();
+    }
+
+    private Map<String, ProviderDimension> readStagedProviders() throws InvalidConceptCodeException, SQLException {
+        Map<String, ProviderDimension> result = new LinkedHashMap<>();
+        try (Connection conn = this.dataConnectionSpec.getOrCreate();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT name_char, sourcesystem_cd, update_date, download_date, delete_date FROM " + ProviderDimensionHandler.TEMP_PROVIDER_TABLE)) {
+            while (rs.next()) {
+                String fullName = rs.getString(1);
+                String source = rs.getString(2);
+                String id;
+                if (NOT_RECORDED_PROVIDER_NAME.equals(fullName) && this.metadata.getSourceSystemCode().equals(source)) {
+                    id = NOT_RECORDED_PROVIDER_ID;
+                } else {
+                    id = PROVIDER_ID_PREFIX + fullName;
+                }
+                if (!result.containsKey(id)) {
+                    result.put(id, getOrCreate(id, source, fullName, rs.getTimestamp(3), rs.getTimestamp(4), rs.getTimestamp(5), false));
+                }
+            }
+        }
+        return result;
+    }
+
+    private synchronized ProviderDimension getOrCreate(String id, String source, String fullName,
+            Date updated, Date downloaded, Date deleted, boolean stage) throws InvalidConceptCodeException, SQLException {
         ConceptId cid = SimpleConceptId.getInstance(id, this.metadata);
         Concept concept = this.metadata.getFromIdCache(cid);
         boolean found = concept != null;
@@ -140,75 +283,52 @@ public class ProviderDimensionFactory {
         providerDimension.setDeleted(TableUtil.setTimestampAttribute(deleted));
         if (!found) {
             this.metadata.addProvider(providerDimension);
-            providerDimensionHandler.insert(providerDimension);
+            if (stage) {
+                providerDimensionHandler.insert(providerDimension);
+            }
         }
 
         return providerDimension;
     }
 
-    public void close() throws SQLException {
+    public synchronized void close() throws SQLException {
         this.providerDimensionHandler.close();
     }
 
-    private Date extract(DateType dateType, String fullNameReference, String firstNameReference, String middleNameReference, String lastNameReference, Proposition encounterProp, Map<UniqueId, Proposition> references) {
-        Date updated = null;
-        if (fullNameReference != null) {
-            updated = extract(dateType, fullNameReference, encounterProp, references);
-        }
-        if (firstNameReference != null) {
-            Date u = extract(dateType, firstNameReference, encounterProp, references);
-            if (u != null) {
-                if (updated == null || u.after(updated)) {
-                    updated = u;
-                }
-            }
-        }
-        if (middleNameReference != null) {
-            Date u = extract(dateType, middleNameReference, encounterProp, references);
-            if (u != null) {
-                if (updated == null || u.after(updated)) {
-                    updated = u;
-                }
-            }
-        }
-        if (lastNameReference != null) {
-            Date u = extract(dateType, lastNameReference, encounterProp, references);
-            if (u != null) {
-                if (updated == null || u.after(updated)) {
-                    updated = u;
-                }
-            }
-        }
-        return updated;
-    }
-
-    private Date extract(DateType dateType, String reference, Proposition encounterProp, Map<UniqueId, Proposition> references) {
-        if (reference != null) {
-            Proposition provider = resolveReference(encounterProp, reference, references);
+    private static Date extract(DateType dateType, Proposition[] providers) {
+        Date result = null;
+        for (Proposition provider : providers) {
             if (provider != null) {
+                Date d;
                 switch (dateType) {
                     case CREATED:
-                        return provider.getCreateDate();
+                        d = provider.getCreateDate();
+                        break;
                     case UPDATED:
-                        return provider.getUpdateDate();
+                        d = provider.getUpdateDate();
+                        break;
                     case DELETED:
-                        return provider.getDeleteDate();
+                        d = provider.getDeleteDate();
+                        break;
                     case DOWNLOADED:
-                        return provider.getDownloadDate();
+                        d = provider.getDownloadDate();
+                        break;
                     default:
                         throw new AssertionError("unexpected dateType " + dateType);
                 }
-            } else {
-                return null;
+                if (d != null && (result == null || d.after(result))) {
+                    result = d;
+                }
             }
-        } else {
-            return null;
         }
+        return result;
     }
 
-    private String extractNamePart(String namePartReference, String namePartProperty, Proposition encounterProp, Map<UniqueId, Proposition> references, Set<String> sources) {
-        if (namePartReference != null && namePartProperty != null) {
-            Proposition provider = resolveReference(encounterProp, namePartReference, references);
+    private String extractNamePart(int namePart, Proposition[] providers, Set<String> sources) {
+        int reference = this.namePartReferences[namePart];
+        String namePartProperty = this.namePartProperties[namePart];
+        if (reference >= 0 && namePartProperty != null) {
+            Proposition provider = providers[reference];
             extractSource(sources, provider);
             return getNamePart(provider, namePartProperty);
         } else {
@@ -222,10 +342,9 @@ public class ProviderDimensionFactory {
         }
     }
 
-    private Proposition resolveReference(Proposition encounterProp, String namePartReference, Map<UniqueId, Proposition> references) {
-        Proposition provider;
+    private UniqueId resolveReference(Proposition encounterProp, String referenceName) {
         List<UniqueId> providerUIDs
-                = encounterProp.getReferences(namePartReference);
+                = encounterProp.getReferences(referenceName);
         int size = providerUIDs.size();
         if (size > 0) {
             if (size > 1) {
@@ -234,11 +353,10 @@ public class ProviderDimensionFactory {
                         "Multiple providers found for {0}, using only the first one",
                         encounterProp);
             }
-            provider = references.get(providerUIDs.get(0));
+            return providerUIDs.get(0);
         } else {
-            provider = null;
+            return null;
         }
-        return provider;
     }
 
     private String getNamePart(Proposition provider, String namePartProperty) {
@@ -22,8 +22,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
 
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.MetadataUtil;
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -31,29 +31,29 @@ import org.arp.javautil.sql.ConnectionSpec;
  *
  * @author arpost
  */
-public class ProviderDimensionHandler extends RecordHandler<ProviderDimension> {
+public class ProviderDimensionHandler extends StagingRecordHandler<ProviderDimension> {
 
     public static final String TEMP_PROVIDER_TABLE = "ek_temp_provider";
 
-    public ProviderDimensionHandler(ConnectionSpec connSpec) throws SQLException {
+    public ProviderDimensionHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
         super(connSpec,
                 "insert into " + TEMP_PROVIDER_TABLE + " (provider_id,provider_path,name_char,"
-                + "provider_blob,update_date,download_date,import_date,sourcesystem_cd,upload_id,delete_date) values (?,?,?,?,?,?,?,?,?,?)");
+                + "provider_blob,update_date,download_date,import_date,sourcesystem_cd,upload_id,delete_date) values (?,?,?,?,?,?,?,?,?,?)", stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps, ProviderDimension provider) throws SQLException {
+    protected void setParameters(RowSink row, ProviderDimension provider) throws SQLException {
         Concept concept = provider.getConcept();
-        ps.setString(1, TableUtil.setStringAttribute(concept.getConceptCode()));
-        ps.setString(2, concept.getFullName());
-        ps.setString(3, concept.getDisplayName());
-        ps.setObject(4, null);
-        ps.setTimestamp(5, provider.getUpdated());
-        ps.setTimestamp(6, provider.getDownloaded());
-        ps.setTimestamp(7, new java.sql.Timestamp(System.currentTimeMillis()));
-        ps.setString(8, MetadataUtil.toSourceSystemCode(provider.getSourceSystem()));
-        ps.setObject(9, null);
-        ps.setTimestamp(10,provider.getDeleted());
+        row.setString(1, TableUtil.setStringAttribute(concept.getConceptCode()));
+        row.setString(2, concept.getFullName());
+        row.setString(3, concept.getDisplayName());
+        row.setObject(4, null);
+        row.setTimestamp(5, provider.getUpdated());
+        row.setTimestamp(6, provider.getDownloaded());
+        row.setTimestamp(7, new java.sql.Timestamp(System.currentTimeMillis()));
+        row.setString(8, MetadataUtil.toSourceSystemCode(provider.getSourceSystem()));
+        row.setObject(9, null);
+        row.setTimestamp(10,provider.getDeleted());
     }
 
 }
@@ -20,7 +20,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * #L%
  */
 
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.apache.commons.lang3.StringUtils;
 import org.arp.javautil.sql.ConnectionSpec;
@@ -33,21 +34,21 @@ public class RejectedFactHandler extends AbstractFactHandler {
     
     public static final String REJECTED_FACT_TABLE = "EK_REJECTED_OBSERVATION_FACT";
 
-    public RejectedFactHandler(ConnectionSpec connSpec, String table) throws SQLException {
+    public RejectedFactHandler(ConnectionSpec connSpec, String table, LoadMetrics metrics) throws SQLException {
         super(connSpec, "insert into " + table + "(encounter_id, encounter_id_source, concept_cd, " +
                             "patient_id, patient_id_source, provider_id, start_date, modifier_cd, instance_num, valtype_cd, tval_char, nval_num, valueflag_cd, quantity_num, " +
                             "confidence_num, observation_blob, units_cd, end_date, location_cd, update_date, download_date, import_date, sourcesystem_cd, upload_id, reason)" +
-                            " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+                            " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", StagingMethod.INSERT, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps, ObservationFact record) throws SQLException {
-        super.setParameters(ps, record);
+    protected void setParameters(RowSink row, ObservationFact record) throws SQLException {
+        super.setParameters(row, record);
         String[] rejectionReasons = record.getRejectionReasons();
         if (rejectionReasons.length > 0) {
-            ps.setString(25, StringUtils.join(rejectionReasons, ", "));
+            row.setString(25, StringUtils.join(rejectionReasons, ", "));
         } else {
-            ps.setString(25, null);
+            row.setString(25, null);
         }
     }
     
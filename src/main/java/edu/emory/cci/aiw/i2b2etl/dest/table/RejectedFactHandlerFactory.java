@@ -20,6 +20,7 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * #L%
  */
 
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -30,8 +31,9 @@ import org.arp.javautil.sql.ConnectionSpec;
 public class RejectedFactHandlerFactory {
     private final ConnectionSpec connectionSpec;
     private final String tableName;
+    private final LoadMetrics metrics;
 
-    public RejectedFactHandlerFactory(ConnectionSpec connectionSpec, String tableName) {
+    public RejectedFactHandlerFactory(ConnectionSpec connectionSpec, String tableName, LoadMetrics metrics) {
         if (connectionSpec == null) {
             throw new IllegalArgumentException("connectionSpec cannot be null");
         }
@@ -40,6 +42,7 @@ public class RejectedFactHandlerFactory {
         }
         this.connectionSpec = connectionSpec;
         this.tableName = tableName;
+        this.metrics = metrics;
     }
     
     public ConnectionSpec getConnectionSpec() {
@@ -51,6 +54,6 @@ public class RejectedFactHandlerFactory {
     }
     
     public RejectedFactHandler getInstance() throws SQLException {
-        return new RejectedFactHandler(this.connectionSpec, this.tableName);
+        return new RejectedFactHandler(this.connectionSpec, this.tableName, this.metrics);
     }
 }
@@ -0,0 +1,358 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.Concept;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import org.protempa.proposition.value.Value;
+
+/**
+ * Writes rejected facts on a background thread, so that loaders do not wait
+ * on the rejected fact table. Facts are queued in a bounded queue, and
+ * callers block when it is full. Rejections are counted by concept code and
+ * reason, and the counts are logged on {@link #close() }. Up to a limit,
+ * the rejected facts themselves are written either to the rejected fact
+ * table or to a gzip-compressed, tab-delimited file.
+ *
+ * @author Andrew Post
+ */
+public final class RejectedFactWriter {
+
+    private static final ObservationFact END = new ObservationFact();
+    private static final ObservationFact FLUSH = new ObservationFact();
+    private static final int TOP_COUNTS = 20;
+    private static final String NONE = "(none)";
+    private static final String[] FILE_COLUMNS = {"patient_id", "encounter_id",
+        "concept_cd", "modifier_cd", "start_date", "end_date", "value",
+        "units_cd", "provider_id", "sourcesystem_cd", "reason"};
+
+    private final String queryName;
+    private final RejectedFactHandlerFactory handlerFactory;
+    private final File detailFile;
+    private final int detailLimit;
+    private final BlockingQueue<ObservationFact> queue;
+    private final AtomicReference<SQLException> failure;
+    private final Map<String, Map<String, long[]>> counts;
+    private final WriterThread thread;
+    private volatile CountDownLatch flushed;
+    private RejectedFactHandler handler;
+    private Writer fileWriter;
+    private long rejected;
+    private long persisted;
+    private boolean closed;
+
+    /**
+     * Creates a rejected fact writer and starts its thread.
+     *
+     * @param queryName the name of the query being loaded.
+     * @param handlerFactory creates the handler that writes rejected facts to
+     * the rejected fact table. Cannot be <code>null</code>.
+     * @param detailFile the file to which to write rejected facts instead of
+     * the rejected fact table, or <code>null</code>.
+     * @param detailLimit the maximum number of rejected facts to write. A
+     * negative number writes all of them; zero only counts them.
+     * @param queueSize the number of rejected facts that may be waiting to be
+     * written.
+     */
+    public RejectedFactWriter(String queryName,
+            RejectedFactHandlerFactory handlerFactory, File detailFile,
+            int detailLimit, int queueSize) {
+        if (handlerFactory == null) {
+            throw new IllegalArgumentException("handlerFactory cannot be null");
+        }
+        this.queryName = queryName;
+        this.handlerFactory = handlerFactory;
+        this.detailFile = detailFile;
+        this.detailLimit = detailLimit;
+        this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.failure = new AtomicReference<>();
+        this.counts = new HashMap<>();
+        this.thread = new WriterThread();
+        this.thread.start();
+    }
+
+    /**
+     * Queues a copy of a rejected fact, blocking if the queue is full. The
+     * fact itself may be reused as soon as this method returns.
+     *
+     * @param record a rejected fact.
+     * @throws SQLException if writing a previous rejected fact failed.
+     */
+    public void write(ObservationFact record) throws SQLException {
+        checkFailure();
+        put(new ObservationFact(record));
+    }
+
+    /**
+     * Waits for the queued rejected facts to be written, and commits them.
+     *
+     * @throws SQLException if writing a rejected fact failed.
+     */
+    public void flush() throws SQLException {
+        CountDownLatch latch = new CountDownLatch(1);
+        this.flushed = latch;
+        put(FLUSH);
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted flushing rejected facts for query " + this.queryName, ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes the queued rejected facts, stops the writer thread, and logs the
+     * rejection counts.
+     *
+     * @throws SQLException if writing a rejected fact failed.
+     */
+    public void close() throws SQLException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        put(END);
+        try {
+            this.thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the rejected fact writer for query " + this.queryName, ex);
+        }
+        logCounts();
+        checkFailure();
+    }
+
+    private void put(ObservationFact record) throws SQLException {
+        try {
+            this.queue.put(record);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted queuing a rejected fact for query " + this.queryName, ex);
+        }
+    }
+
+    private void checkFailure() throws SQLException {
+        SQLException ex = this.failure.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    private void fail(Throwable t) {
+        SQLException ex = t instanceof SQLException ? (SQLException) t
+                : new SQLException("Error writing rejected facts for query " + this.queryName, t);
+        if (!this.failure.compareAndSet(null, ex)) {
+            this.failure.get().addSuppressed(ex);
+        }
+    }
+
+    private final class WriterThread extends Thread {
+
+        WriterThread() {
+            super("i2b2-rejected-" + queryName);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (ObservationFact record = queue.take(); record != END; record = queue.take()) {
+                    if (record == FLUSH) {
+                        closeDetail();
+                        flushed.countDown();
+                    } else {
+                        // After a failure, keep draining so loaders never
+                        // block. Errors are caught too, or the thread would
+                        // die and flush and close would wait forever.
+                        try {
+                            count(record);
+                            if (failure.get() == null
+                                    && (detailLimit < 0 || persisted < detailLimit)) {
+                                writeDetail(record);
+                                persisted++;
+                            }
+                        } catch (Throwable ex) {
+                            fail(ex);
+                        }
+                    }
+                }
+            } catch (InterruptedException ex) {
+                fail(new SQLException("Rejected fact writer interrupted for query " + queryName, ex));
+            } finally {
+                closeDetail();
+                CountDownLatch latch = flushed;
+                if (latch != null) {
+                    latch.countDown();
+                }
+            }
+        }
+    }
+
+    private void count(ObservationFact record) {
+        this.rejected++;
+        Concept concept = record.getConcept();
+        String conceptCode = concept != null ? concept.getConceptCode() : NONE;
+        Map<String, long[]> byReason = this.counts.computeIfAbsent(conceptCode, k -> new HashMap<>());
+        String[] reasons = record.getRejectionReasons();
+        if (reasons.length == 0) {
+            byReason.computeIfAbsent(NONE, k -> new long[1])[0]++;
+        } else {
+            for (String reason : reasons) {
+                byReason.computeIfAbsent(reason, k -> new long[1])[0]++;
+            }
+        }
+    }
+
+    private void writeDetail(ObservationFact record) throws SQLException {
+        if (this.detailFile == null) {
+            if (this.handler == null) {
+                this.handler = this.handlerFactory.getInstance();
+            }
+            this.handler.insert(record);
+        } else {
+            try {
+                if (this.fileWriter == null) {
+                    openFile();
+                }
+                this.fileWriter.write(fileRow(record));
+            } catch (IOException ex) {
+                throw new SQLException("Error writing rejected facts to " + this.detailFile, ex);
+            }
+        }
+    }
+
+    private void openFile() throws IOException {
+        boolean exists = this.detailFile.length() > 0;
+        this.fileWriter = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(this.detailFile, true)),
+                StandardCharsets.UTF_8));
+        if (!exists) {
+            this.fileWriter.write(String.join("\t", FILE_COLUMNS));
+            this.fileWriter.write('\n');
+        }
+    }
+
+    /**
+     * Commits the rejected facts written so far. Appending to the file after
+     * it is closed adds a gzip member, which readers of gzip files treat as
+     * a continuation of the same file.
+     */
+    private void closeDetail() {
+        if (this.handler != null) {
+            RejectedFactHandler h = this.handler;
+            this.handler = null;
+            try {
+                h.close();
+            } catch (Throwable ex) {
+                fail(ex);
+            }
+        }
+        if (this.fileWriter != null) {
+            Writer w = this.fileWriter;
+            this.fileWriter = null;
+            try {
+                w.close();
+            } catch (IOException ex) {
+                fail(new SQLException("Error writing rejected facts to " + this.detailFile, ex));
+            } catch (Throwable ex) {
+                fail(ex);
+            }
+        }
+    }
+
+    private static String fileRow(ObservationFact record) {
+        StringBuilder sb = new StringBuilder(256);
+        PatientDimension patient = record.getPatient();
+        TextCopyWriter.appendValue(sb, patient != null ? patient.getEncryptedPatientId() : null);
+        sb.append('\t');
+        VisitDimension visit = record.getVisit();
+        TextCopyWriter.appendValue(sb, visit != null ? visit.getVisitId() : null);
+        sb.append('\t');
+        Concept concept = record.getConcept();
+        TextCopyWriter.appendValue(sb, concept != null ? concept.getConceptCode() : null);
+        sb.append('\t');
+        TextCopyWriter.appendValue(sb, record.getModifierCd());
+        sb.append('\t');
+        TextCopyWriter.appendValue(sb, record.getStartDate());
+        sb.append('\t');
+        TextCopyWriter.appendValue(sb, record.getEndDate());
+        sb.append('\t');
+        Value value = record.getValue();
+        TextCopyWriter.appendValue(sb, value != null ? value.getFormatted() : null);
+        sb.append('\t');
+        TextCopyWriter.appendValue(sb, record.getUnits());
+        sb.append('\t');
+        ProviderDimension provider = record.getProvider();
+        TextCopyWriter.appendValue(sb, provider != null && provider.getConcept() != null ? provider.getConcept().getConceptCode() : null);
+        sb.append('\t');
+        TextCopyWriter.appendValue(sb, record.getSourceSystem());
+        sb.append('\t');
+        String[] reasons = record.getRejectionReasons();
+        TextCopyWriter.appendValue(sb, reasons.length > 0 ? String.join(", ", reasons) : null);
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    private void logCounts() {
+        if (this.rejected == 0) {
+            return;
+        }
+        Logger logger = TableUtil.logger();
+        logger.log(Level.INFO, "Rejected {0} fact(s) for query {1}; wrote {2} of them to {3}",
+                new Object[]{this.rejected, this.queryName, this.persisted,
+                    this.detailFile != null ? this.detailFile : this.handlerFactory.getTableName()});
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (Map.Entry<String, Map<String, long[]>> me : this.counts.entrySet()) {
+            for (Map.Entry<String, long[]> reason : me.getValue().entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                        me.getKey() + ": " + reason.getKey(), reason.getValue()[0]));
+            }
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            Map.Entry<String, Long> entry = entries.get(i);
+            logger.log(i < TOP_COUNTS ? Level.INFO : Level.FINE,
+                    "{0} rejected fact(s) for {1} in query {2}",
+                    new Object[]{entry.getValue(), entry.getKey(), this.queryName});
+        }
+    }
+}
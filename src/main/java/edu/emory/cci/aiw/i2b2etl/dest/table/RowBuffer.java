@@ -0,0 +1,131 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * A row sink that keeps the values of the current row, along with the type
+ * of each column as it was set, so that the row can be encoded as a copy row
+ * or bound to an insert statement.
+ *
+ * @author Andrew Post
+ */
+final class RowBuffer implements RowSink {
+
+    private final Object[] values;
+    private final int[] types;
+
+    RowBuffer(int columnCount) {
+        this.values = new Object[columnCount];
+        this.types = new int[columnCount];
+        clear();
+    }
+
+    @Override
+    public void setString(int column, String value) {
+        set(column, value, Types.VARCHAR);
+    }
+
+    @Override
+    public void setTimestamp(int column, Timestamp value) {
+        set(column, value, Types.TIMESTAMP);
+    }
+
+    @Override
+    public void setDate(int column, Date value) {
+        set(column, value, Types.DATE);
+    }
+
+    @Override
+    public void setInt(int column, int value) {
+        set(column, value, Types.INTEGER);
+    }
+
+    @Override
+    public void setLong(int column, long value) {
+        set(column, value, Types.BIGINT);
+    }
+
+    @Override
+    public void setObject(int column, Object value) {
+        set(column, value, Types.JAVA_OBJECT);
+    }
+
+    Object[] getValues() {
+        return this.values;
+    }
+
+    int[] getTypes() {
+        return this.types;
+    }
+
+    void clear() {
+        Arrays.fill(this.values, null);
+        Arrays.fill(this.types, Types.JAVA_OBJECT);
+    }
+
+    /**
+     * Sets the parameters of an insert statement to a row that was copied
+     * from {@link #getValues() } and {@link #getTypes() }, with the setter
+     * that was used for each column.
+     *
+     * @param ps an insert statement.
+     * @param values the row's values.
+     * @param types the row's column types.
+     * @throws SQLException if setting a parameter failed.
+     */
+    static void bind(PreparedStatement ps, Object[] values, int[] types) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            switch (types[i]) {
+                case Types.VARCHAR:
+                    ps.setString(i + 1, (String) value);
+                    break;
+                case Types.TIMESTAMP:
+                    ps.setTimestamp(i + 1, (Timestamp) value);
+                    break;
+                case Types.DATE:
+                    ps.setDate(i + 1, (Date) value);
+                    break;
+                case Types.INTEGER:
+                    ps.setInt(i + 1, (Integer) value);
+                    break;
+                case Types.BIGINT:
+                    ps.setLong(i + 1, (Long) value);
+                    break;
+                default:
+                    ps.setObject(i + 1, value);
+            }
+        }
+    }
+
+    private void set(int column, Object value, int type) {
+        this.values[column - 1] = value;
+        this.types[column - 1] = type;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * The columns of one row of a staging table, which a
+ * {@link StagingRecordHandler} fills in from a record. Columns are numbered
+ * from <code>1</code> in the order of the handler's insert statement, like
+ * the parameters of a prepared statement. On the insert path, columns are
+ * bound to the insert statement as they are set; for a copy, they are kept
+ * in a buffer and encoded.
+ *
+ * @author Andrew Post
+ */
+public interface RowSink {
+
+    void setString(int column, String value) throws SQLException;
+
+    void setTimestamp(int column, Timestamp value) throws SQLException;
+
+    void setDate(int column, Date value) throws SQLException;
+
+    void setInt(int column, int value) throws SQLException;
+
+    void setLong(int column, long value) throws SQLException;
+
+    /**
+     * Sets a column whose type is decided by the value, such as a number of
+     * unknown precision, or a column that is always null.
+     *
+     * @param column the column.
+     * @param value the value, or <code>null</code>.
+     * @throws SQLException if the column could not be set.
+     */
+    void setObject(int column, Object value) throws SQLException;
+}
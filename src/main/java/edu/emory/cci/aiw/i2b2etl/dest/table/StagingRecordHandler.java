@@ -0,0 +1,319 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.PooledConnectionSpec;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.arp.javautil.sql.ConnectionSpec;
+
+/**
+ * A record handler for the temp tables that writes with batched inserts or
+ * with PostgreSQL's <code>COPY ... FROM STDIN</code>. Subclasses implement
+ * {@link #setParameters(edu.emory.cci.aiw.i2b2etl.dest.table.RowSink, java.lang.Object) }
+ * to fill in the columns of the insert statement. Every {@link #BATCH_SIZE}
+ * records are written and committed together. A handler keeps one connection
+ * and one insert statement for its lifetime, and binds each record straight
+ * to the statement's batch. If its connection spec is a
+ * {@link PooledConnectionSpec}, it instead keeps each batch in memory and
+ * borrows a connection only while it writes the batch, so that handlers that
+ * are waiting for records neither hold pooled sessions nor wait on each other
+ * for them. For a copy, records are encoded into the copy buffer. On
+ * databases other than PostgreSQL, records are inserted.
+ *
+ * @author Andrew Post
+ * @param <E> the record type.
+ */
+public abstract class StagingRecordHandler<E> implements AutoCloseable {
+
+    /**
+     * The number of records that are written and committed together.
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    private static final Pattern TABLE_PATTERN = Pattern.compile(
+            "^\\s*insert\\s+into\\s+([^\\s(]+)", Pattern.CASE_INSENSITIVE);
+
+    private final ConnectionSpec connectionSpec;
+    private final boolean pooled;
+    private final String statement;
+    private final CopyWriter copyWriter;
+    private final RowBuffer row;
+    private final List<Object[]> batchValues;
+    private final List<int[]> batchTypes;
+    private final Timestamp importTimestamp;
+    private final LoadMetrics.Histogram batchWriteLatency;
+    private Connection connection;
+    private PreparedStatement preparedStatement;
+    private StatementRowSink statementRow;
+    private int batched;
+
+    /**
+     * Creates a staging record handler.
+     *
+     * @param connSpec the connections to use.
+     * @param statement the insert statement.
+     * @param stagingMethod how to write records.
+     * @param metrics where to record the latency of each batch write, keyed
+     * by the statement's table, or <code>null</code>.
+     * @throws SQLException if an error occurred checking whether the
+     * database supports the staging method.
+     */
+    protected StagingRecordHandler(ConnectionSpec connSpec, String statement, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
+        this.connectionSpec = connSpec;
+        this.pooled = connSpec instanceof PooledConnectionSpec;
+        this.statement = statement;
+        if (metrics != null) {
+            Matcher matcher = TABLE_PATTERN.matcher(statement);
+            this.batchWriteLatency = metrics.getBatchWriteLatency(matcher.find() ? matcher.group(1) : statement);
+        } else {
+            this.batchWriteLatency = null;
+        }
+        this.importTimestamp = new Timestamp(System.currentTimeMillis());
+        if (stagingMethod == null || stagingMethod == StagingMethod.INSERT) {
+            this.copyWriter = null;
+        } else {
+            try {
+                this.copyWriter = CopyWriter.getInstance(connection(), statement, stagingMethod);
+            } catch (SQLException | RuntimeException ex) {
+                try {
+                    release();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+                throw ex;
+            }
+            if (this.pooled) {
+                release();
+            }
+        }
+        if (this.copyWriter != null || this.pooled) {
+            this.row = new RowBuffer(countParameters(statement));
+        } else {
+            this.row = null;
+        }
+        if (this.copyWriter == null && this.pooled) {
+            this.batchValues = new ArrayList<>();
+            this.batchTypes = new ArrayList<>();
+        } else {
+            this.batchValues = null;
+            this.batchTypes = null;
+        }
+    }
+
+    /**
+     * Writes a record. Records are written and committed in batches, so the
+     * record may not be in the database until a later call or until
+     * {@link #close() }.
+     *
+     * @param record a record. A <code>null</code> record is ignored.
+     * @throws SQLException if writing the current batch failed.
+     */
+    public void insert(E record) throws SQLException {
+        if (record == null) {
+            return;
+        }
+        if (this.copyWriter != null) {
+            this.row.clear();
+            setParameters(this.row, record);
+            this.copyWriter.addRow(this.row.getValues());
+        } else if (this.pooled) {
+            this.row.clear();
+            setParameters(this.row, record);
+            this.batchValues.add(this.row.getValues().clone());
+            this.batchTypes.add(this.row.getTypes().clone());
+        } else {
+            if (this.preparedStatement == null) {
+                this.preparedStatement = connection().prepareStatement(this.statement);
+                this.statementRow = new StatementRowSink(this.preparedStatement);
+            }
+            setParameters(this.statementRow, record);
+            this.preparedStatement.addBatch();
+        }
+        if (++this.batched >= BATCH_SIZE) {
+            writeBatch();
+        }
+    }
+
+    private void writeBatch() throws SQLException {
+        if (this.batched == 0) {
+            return;
+        }
+        this.batched = 0;
+        long start = this.batchWriteLatency != null ? System.nanoTime() : 0L;
+        try {
+            Connection conn = connection();
+            try {
+                if (this.copyWriter != null) {
+                    this.copyWriter.copy(conn);
+                } else if (this.pooled) {
+                    try (PreparedStatement ps = conn.prepareStatement(this.statement)) {
+                        for (int i = 0, n = this.batchValues.size(); i < n; i++) {
+                            RowBuffer.bind(ps, this.batchValues.get(i), this.batchTypes.get(i));
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                    conn.commit();
+                } else {
+                    this.preparedStatement.executeBatch();
+                    conn.commit();
+                }
+            } catch (SQLException ex) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+                throw ex;
+            }
+            if (this.batchWriteLatency != null) {
+                this.batchWriteLatency.record(System.nanoTime() - start);
+            }
+        } finally {
+            if (this.pooled) {
+                if (this.batchValues != null) {
+                    this.batchValues.clear();
+                    this.batchTypes.clear();
+                }
+                release();
+            }
+        }
+    }
+
+    /**
+     * Returns the handler's connection, opening or borrowing it if needed.
+     */
+    private Connection connection() throws SQLException {
+        if (this.connection == null) {
+            Connection conn = this.connectionSpec.getOrCreate();
+            try {
+                conn.setAutoCommit(false);
+            } catch (SQLException ex) {
+                try {
+                    conn.close();
+                } catch (SQLException ignore) {
+                    ex.addSuppressed(ignore);
+                }
+                throw ex;
+            }
+            this.connection = conn;
+        }
+        return this.connection;
+    }
+
+    /**
+     * Closes the insert statement and closes or returns the connection.
+     */
+    private void release() throws SQLException {
+        SQLException exception = null;
+        if (this.preparedStatement != null) {
+            try {
+                this.preparedStatement.close();
+            } catch (SQLException ex) {
+                exception = ex;
+            }
+            this.preparedStatement = null;
+            this.statementRow = null;
+        }
+        if (this.connection != null) {
+            try {
+                this.connection.close();
+            } catch (SQLException ex) {
+                if (exception == null) {
+                    exception = ex;
+                } else {
+                    exception.addSuppressed(ex);
+                }
+            }
+            this.connection = null;
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Writes any remaining records, and closes or returns the connection.
+     *
+     * @throws SQLException if writing the remaining records failed.
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException exception = null;
+        try {
+            writeBatch();
+        } catch (SQLException ex) {
+            exception = ex;
+        }
+        try {
+            release();
+        } catch (SQLException ex) {
+            if (exception == null) {
+                exception = ex;
+            } else {
+                exception.addSuppressed(ex);
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Returns the time at which this handler was created, for the
+     * <code>import_date</code> column.
+     *
+     * @return a timestamp.
+     */
+    protected Timestamp importTimestamp() {
+        return this.importTimestamp;
+    }
+
+    /**
+     * Fills in the columns of a row from a record.
+     *
+     * @param row the row, with its columns numbered in the order of the insert
+     * statement's parameters.
+     * @param record a record.
+     * @throws SQLException if the record could not be converted.
+     */
+    protected abstract void setParameters(RowSink row, E record) throws SQLException;
+
+    private static int countParameters(String statement) {
+        int count = 0;
+        for (int i = 0, n = statement.length(); i < n; i++) {
+            if (statement.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,73 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * A row sink that binds each column straight to the parameters of an insert
+ * statement, so that inserting a row allocates nothing beyond what the
+ * driver does.
+ *
+ * @author Andrew Post
+ */
+final class StatementRowSink implements RowSink {
+
+    private final PreparedStatement statement;
+
+    StatementRowSink(PreparedStatement statement) {
+        this.statement = statement;
+    }
+
+    @Override
+    public void setString(int column, String value) throws SQLException {
+        this.statement.setString(column, value);
+    }
+
+    @Override
+    public void setTimestamp(int column, Timestamp value) throws SQLException {
+        this.statement.setTimestamp(column, value);
+    }
+
+    @Override
+    public void setDate(int column, Date value) throws SQLException {
+        this.statement.setDate(column, value);
+    }
+
+    @Override
+    public void setInt(int column, int value) throws SQLException {
+        this.statement.setInt(column, value);
+    }
+
+    @Override
+    public void setLong(int column, long value) throws SQLException {
+        this.statement.setLong(column, value);
+    }
+
+    @Override
+    public void setObject(int column, Object value) throws SQLException {
+        this.statement.setObject(column, value);
+    }
+}
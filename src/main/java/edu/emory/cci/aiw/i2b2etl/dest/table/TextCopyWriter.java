@@ -0,0 +1,101 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes rows in PostgreSQL's text copy format: tab-separated columns,
+ * newline-terminated rows, <code>\N</code> for nulls and backslash escapes
+ * for special characters.
+ *
+ * @author Andrew Post
+ */
+final class TextCopyWriter extends CopyWriter {
+
+    private final StringBuilder row;
+
+    TextCopyWriter(String table, String[] columns) {
+        super(table, columns);
+        this.row = new StringBuilder(256);
+    }
+
+    @Override
+    String copyOptions() {
+        return null;
+    }
+
+    @Override
+    void writeHeader(ByteArrayOutputStream out) {
+    }
+
+    @Override
+    void writeRow(Object[] values, ByteArrayOutputStream out) throws IOException {
+        StringBuilder sb = this.row;
+        sb.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            appendValue(sb, values[i]);
+        }
+        sb.append('\n');
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    void writeTrailer(ByteArrayOutputStream out) {
+    }
+
+    static void appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("\\N");
+        } else if (value instanceof BigDecimal) {
+            sb.append(((BigDecimal) value).toPlainString());
+        } else if (value instanceof Boolean) {
+            sb.append(((Boolean) value) ? 't' : 'f');
+        } else {
+            String str = value.toString();
+            for (int i = 0, n = str.length(); i < n; i++) {
+                char c = str.charAt(i);
+                switch (c) {
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+        }
+    }
+}
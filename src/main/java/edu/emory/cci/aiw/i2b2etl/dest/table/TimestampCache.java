@@ -0,0 +1,78 @@
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * A small direct-mapped cache of timestamps keyed by epoch milliseconds, so
+ * that facts with the same dates share {@link Timestamp} objects rather than
+ * allocating new ones. A slot holds the most recent timestamp that hashed to
+ * it. The cached timestamps are never modified, so it is safe to pass them
+ * to JDBC drivers that keep references to batched parameters. Not
+ * thread-safe.
+ *
+ * @author Andrew Post
+ */
+final class TimestampCache {
+
+    private final Timestamp[] slots;
+    private final int shift;
+
+    /**
+     * Creates a cache.
+     *
+     * @param bits the base-2 logarithm of the number of slots.
+     */
+    TimestampCache(int bits) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("bits must be between 1 and 30");
+        }
+        this.slots = new Timestamp[1 << bits];
+        this.shift = 64 - bits;
+    }
+
+    /**
+     * Gets a timestamp with the same time as the given date.
+     *
+     * @param date a date, or <code>null</code>.
+     * @return a timestamp, or <code>null</code> if the date is
+     * <code>null</code>.
+     */
+    Timestamp get(Date date) {
+        if (date == null) {
+            return null;
+        }
+        long millis = date.getTime();
+        /*
+         * Fibonacci hashing, because dates at midnight have many trailing
+         * zero bits.
+         */
+        int i = (int) ((millis * 0x9E3779B97F4A7C15L) >>> this.shift);
+        Timestamp ts = this.slots[i];
+        if (ts == null || ts.getTime() != millis) {
+            ts = new Timestamp(millis);
+            this.slots[i] = ts;
+        }
+        return ts;
+    }
+}
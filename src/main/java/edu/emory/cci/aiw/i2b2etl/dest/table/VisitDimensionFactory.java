@@ -19,6 +19,7 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  * limitations under the License.
  * #L%
  */
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Data;
 import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.Metadata;
@@ -49,11 +50,11 @@ public class VisitDimensionFactory extends DimensionFactory {
 
     public VisitDimensionFactory(Metadata metadata,
             Settings settings,
-            Data data, ConnectionSpec dataConnectionSpec) throws SQLException {
+            Data data, ConnectionSpec dataConnectionSpec, LoadMetrics metrics) throws SQLException {
         super(data);
         this.settings = settings;
-        this.visitDimensionHandler = new VisitDimensionHandler(dataConnectionSpec);
-        this.encounterMappingHandler = new EncounterMappingHandler(dataConnectionSpec);
+        this.visitDimensionHandler = new VisitDimensionHandler(dataConnectionSpec, settings.getStagingMethod(), metrics);
+        this.encounterMappingHandler = new EncounterMappingHandler(dataConnectionSpec, settings.getStagingMethod(), metrics);
     }
 
     public VisitDimension getInstance(String encryptedPatientId,
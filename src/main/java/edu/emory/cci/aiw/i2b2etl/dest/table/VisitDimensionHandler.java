@@ -21,8 +21,8 @@ package edu.emory.cci.aiw.i2b2etl.dest.table;
  */
 
 import edu.emory.cci.aiw.i2b2etl.dest.metadata.MetadataUtil;
-import edu.emory.cci.aiw.etl.util.RecordHandler;
-import java.sql.PreparedStatement;
+import edu.emory.cci.aiw.i2b2etl.dest.LoadMetrics;
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
 import java.sql.SQLException;
 import org.arp.javautil.sql.ConnectionSpec;
 
@@ -30,37 +30,37 @@ import org.arp.javautil.sql.ConnectionSpec;
  *
  * @author arpost
  */
-public class VisitDimensionHandler extends RecordHandler<VisitDimension> {
+public class VisitDimensionHandler extends StagingRecordHandler<VisitDimension> {
 
     public static final String TEMP_VISIT_TABLE = "ek_temp_visit";
 
-    public VisitDimensionHandler(ConnectionSpec connSpec) throws SQLException {
+    public VisitDimensionHandler(ConnectionSpec connSpec, StagingMethod stagingMethod, LoadMetrics metrics) throws SQLException {
         super(connSpec, 
                 "insert into " + TEMP_VISIT_TABLE + "(encounter_id, encounter_id_source,"
                 + "patient_id, patient_id_source, inout_cd, location_cd, location_path, start_date, end_date, "
                 + "visit_blob, update_date, download_date, import_date, sourcesystem_cd, active_status_cd, length_of_stay,delete_date)" +
-                        " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+                        " values (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)", stagingMethod, metrics);
     }
 
     @Override
-    protected void setParameters(PreparedStatement ps, VisitDimension visit) throws SQLException {
-        ps.setString(1, visit.getVisitId());
-        ps.setString(2, MetadataUtil.toSourceSystemCode(visit.getVisitIdSource()));
-        ps.setString(3, visit.getEncryptedPatientId());
-        ps.setString(4, MetadataUtil.toSourceSystemCode(visit.getEncryptedPatientIdSource()));
-        ps.setString(5, visit.getInOut());
-        ps.setString(6, null);
-        ps.setString(7, null);
-        ps.setTimestamp(8, visit.getStartDate());
-        ps.setTimestamp(9, visit.getEndDate());
-        ps.setObject(10, null);
-        ps.setTimestamp(11, visit.getUpdated());
-        ps.setTimestamp(12, visit.getDownloaded());
-        ps.setTimestamp(13, importTimestamp());
-        ps.setString(14, MetadataUtil.toSourceSystemCode(visit.getVisitSourceSystem()));
-        ps.setString(15, visit.getActiveStatus());
-        ps.setObject(16, visit.getLengthOfStayInDays());
-        ps.setTimestamp(17,visit.getDeletedDate());
+    protected void setParameters(RowSink row, VisitDimension visit) throws SQLException {
+        row.setString(1, visit.getVisitId());
+        row.setString(2, MetadataUtil.toSourceSystemCode(visit.getVisitIdSource()));
+        row.setString(3, visit.getEncryptedPatientId());
+        row.setString(4, MetadataUtil.toSourceSystemCode(visit.getEncryptedPatientIdSource()));
+        row.setString(5, visit.getInOut());
+        row.setString(6, null);
+        row.setString(7, null);
+        row.setTimestamp(8, visit.getStartDate());
+        row.setTimestamp(9, visit.getEndDate());
+        row.setObject(10, null);
+        row.setTimestamp(11, visit.getUpdated());
+        row.setTimestamp(12, visit.getDownloaded());
+        row.setTimestamp(13, importTimestamp());
+        row.setString(14, MetadataUtil.toSourceSystemCode(visit.getVisitSourceSystem()));
+        row.setString(15, visit.getActiveStatus());
+        row.setObject(16, visit.getLengthOfStayInDays());
+        row.setTimestamp(17,visit.getDeletedDate());
     }
 
 }
@@ -21,10 +21,12 @@ package edu.emory.cci.aiw.i2b2etl;
  */
 import java.io.File;
 import java.io.IOException;
+import java.net.ServerSocket;
 import java.sql.SQLException;
 import javax.naming.NamingException;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.arp.javautil.sql.DataSourceInitialContextBinder;
+import org.h2.tools.Server;
 import org.protempa.backend.Configuration;
 import org.protempa.backend.ConfigurationsLoadException;
 import org.protempa.backend.ConfigurationsNotFoundException;
@@ -36,10 +38,11 @@ import org.protempa.bconfigs.ini4j.INIConfigurations;
  */
 public class ConfigurationFactory implements AutoCloseable {
 
-    static class Builder {
+    public static class Builder {
 
         private boolean populateMetaSchema;
         private boolean populateDataSchema;
+        private boolean serveDataSchema;
         private String destinationConfigResource;
 
         public Builder() {
@@ -81,8 +84,28 @@ public class ConfigurationFactory implements AutoCloseable {
             return this;
         }
 
+        public boolean isServeDataSchema() {
+            return serveDataSchema;
+        }
+
+        /**
+         * Whether to connect to the data schema through an H2 TCP server
+         * rather than opening the database file directly, like separate
+         * processes sharing a database would.
+         *
+         * @param serveDataSchema <code>true</code> to start a TCP server.
+         */
+        public void setServeDataSchema(boolean serveDataSchema) {
+            this.serveDataSchema = serveDataSchema;
+        }
+
+        public Builder serveDataSchema(boolean serveDataSchema) {
+            setServeDataSchema(serveDataSchema);
+            return this;
+        }
+
         public ConfigurationFactory build() throws NamingException, IOException, SQLException {
-            return new ConfigurationFactory(this.populateMetaSchema, this.populateDataSchema, this.destinationConfigResource);
+            return new ConfigurationFactory(this.populateMetaSchema, this.populateDataSchema, this.serveDataSchema, this.destinationConfigResource);
         }
 
     }
@@ -99,6 +122,7 @@ public class ConfigurationFactory implements AutoCloseable {
 
     private BasicDataSource metaDS;
     private BasicDataSource dataDS;
+    private Server dataServer;
     private final String destinationConfigResource;
     /*
      * Binding for the H2 database connection pool
@@ -106,10 +130,10 @@ public class ConfigurationFactory implements AutoCloseable {
     private final DataSourceInitialContextBinder initialContextBinder;
 
     public ConfigurationFactory(String destinationConfigResource) throws NamingException, IOException, SQLException {
-        this(true, true, destinationConfigResource);
+        this(true, true, false, destinationConfigResource);
     }
 
-    private ConfigurationFactory(boolean populateMetaSchema, boolean populateDataSchema, String destinationConfigResource) throws NamingException, IOException, SQLException {
+    private ConfigurationFactory(boolean populateMetaSchema, boolean populateDataSchema, boolean serveDataSchema, String destinationConfigResource) throws NamingException, IOException, SQLException {
         this.initialContextBinder = new DataSourceInitialContextBinder();
         if (destinationConfigResource != null) {
             this.destinationConfigResource = destinationConfigResource;
@@ -126,7 +150,12 @@ public class ConfigurationFactory implements AutoCloseable {
 
             if (populateDataSchema) {
                 File dsbDb = new I2b2DataSchemaPopulator().populate();
-                this.dataDS = newBasicDataSource("jdbc:h2:" + dsbDb.getAbsolutePath() + ";LOG=0;LOCK_MODE=0;UNDO_LOG=0");
+                if (serveDataSchema) {
+                    this.dataServer = Server.createTcpServer("-tcpPort", String.valueOf(freePort())).start();
+                    this.dataDS = newBasicDataSource("jdbc:h2:tcp://localhost:" + this.dataServer.getPort() + "/" + dsbDb.getAbsolutePath() + ";LOG=0;LOCK_MODE=0;UNDO_LOG=0");
+                } else {
+                    this.dataDS = newBasicDataSource("jdbc:h2:" + dsbDb.getAbsolutePath() + ";LOG=0;LOCK_MODE=0;UNDO_LOG=0");
+                }
                 this.initialContextBinder.bind(I2B2_DATASOURCE, this.dataDS);
             }
         } catch (IOException | SQLException ex) {
@@ -134,6 +163,9 @@ public class ConfigurationFactory implements AutoCloseable {
                 this.initialContextBinder.close();
             } catch (Exception ignore) {
             }
+            if (this.dataServer != null) {
+                this.dataServer.stop();
+            }
             throw ex;
         }
     }
@@ -164,13 +196,25 @@ public class ConfigurationFactory implements AutoCloseable {
                     this.metaDS.close();
                 }
             } finally {
-                if (this.dataDS != null) {
-                    this.dataDS.close();
+                try {
+                    if (this.dataDS != null) {
+                        this.dataDS.close();
+                    }
+                } finally {
+                    if (this.dataServer != null) {
+                        this.dataServer.stop();
+                    }
                 }
             }
         }
     }
 
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
     private static BasicDataSource newBasicDataSource(String url) {
         BasicDataSource bds = new BasicDataSource();
         bds.setDriverClassName(DRIVER_CLASS_NAME);
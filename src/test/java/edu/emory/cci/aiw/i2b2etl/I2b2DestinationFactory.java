@@ -25,6 +25,7 @@ import edu.emory.cci.aiw.i2b2etl.dest.config.ConfigurationInitException;
 import edu.emory.cci.aiw.i2b2etl.dest.config.xml.XmlFileConfiguration;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import org.protempa.dest.DestinationInitException;
 
 /**
@@ -38,6 +39,18 @@ public class I2b2DestinationFactory {
     public I2b2DestinationFactory(String configResource) throws IOException {
         this.confXML = new I2b2ETLConfAsFile(configResource).getFile();
     }
+
+    /**
+     * Creates a destination factory from a config resource with some of its
+     * settings overridden.
+     *
+     * @param configResource the config resource.
+     * @param settings the settings to override, keyed by setting name.
+     * @throws IOException if the config resource could not be read.
+     */
+    public I2b2DestinationFactory(String configResource, Map<String, String> settings) throws IOException {
+        this.confXML = new I2b2ETLConfAsFile(configResource, settings).getFile();
+    }
     
     public I2b2Destination getInstance() throws DestinationInitException {
         return getInstance(false);
@@ -21,6 +21,10 @@ package edu.emory.cci.aiw.i2b2etl;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.arp.javautil.io.IOUtil;
 
 /**
@@ -33,6 +37,35 @@ class I2b2ETLConfAsFile {
     public I2b2ETLConfAsFile(String configResource) throws IOException {
         this.confXML = IOUtil.resourceToFile(configResource, "conf", null);
     }
+
+    /**
+     * Copies a config resource to a file with some of its settings
+     * overridden. The overriding entries are added at the end of the
+     * dictionary, and later entries win over earlier ones with the same key.
+     *
+     * @param configResource the config resource.
+     * @param settings the dictionary entries to add, keyed by setting name.
+     * @throws IOException if the config resource could not be read or the
+     * file could not be written.
+     */
+    public I2b2ETLConfAsFile(String configResource, Map<String, String> settings) throws IOException {
+        this.confXML = IOUtil.resourceToFile(configResource, "conf", null);
+        String xml = new String(Files.readAllBytes(this.confXML.toPath()), StandardCharsets.UTF_8);
+        int end = xml.indexOf("</dictionary>");
+        if (end < 0) {
+            throw new IOException("No dictionary in " + configResource);
+        }
+        StringBuilder entries = new StringBuilder();
+        for (Map.Entry<String, String> me : settings.entrySet()) {
+            entries.append("    <entry key=\"")
+                    .append(StringEscapeUtils.escapeXml10(me.getKey()))
+                    .append("\" value=\"")
+                    .append(StringEscapeUtils.escapeXml10(me.getValue()))
+                    .append("\"/>\n    ");
+        }
+        Files.write(this.confXML.toPath(),
+                new StringBuilder(xml).insert(end, entries).toString().getBytes(StandardCharsets.UTF_8));
+    }
     
     File getFile() {
         return this.confXML;
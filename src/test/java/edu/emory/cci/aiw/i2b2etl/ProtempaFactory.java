@@ -25,6 +25,7 @@ import java.io.Writer;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Map;
 import org.arp.javautil.sql.DatabaseAPI;
 import org.arp.javautil.sql.InvalidConnectionSpecArguments;
 import org.dbunit.Assertion;
@@ -76,6 +77,25 @@ public class ProtempaFactory implements AutoCloseable {
     }
 
     public void execute(QueryBuilder queryBuilder) throws ProtempaException {
+        execute(queryBuilder, this.dest);
+    }
+
+    /**
+     * Executes a query with a destination configured by the configuration
+     * factory's config resource with some of its settings overridden, for
+     * example one partition of a partitioned load.
+     *
+     * @param queryBuilder the query.
+     * @param settings the settings to override, keyed by setting name.
+     * @throws ProtempaException if an error occurred.
+     * @throws IOException if the config resource could not be read.
+     */
+    public void execute(QueryBuilder queryBuilder, Map<String, String> settings) throws ProtempaException, IOException {
+        execute(queryBuilder, new I2b2DestinationFactory(
+                this.configurationFactory.getDestinationConfigResource(), settings));
+    }
+
+    private void execute(QueryBuilder queryBuilder, I2b2DestinationFactory dest) throws ProtempaException {
         try (Protempa protempa = newInstance()) {
             protempa.addEventListener(new ProtempaEventListener() {
                 @Override
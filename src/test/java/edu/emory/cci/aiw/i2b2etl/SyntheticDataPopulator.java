@@ -0,0 +1,288 @@
+package edu.emory.cci.aiw.i2b2etl;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.arp.javautil.sql.DatabaseAPI;
+import org.arp.javautil.sql.InvalidConnectionSpecArguments;
+import org.arp.javautil.sql.SQLExecutor;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+
+/**
+ * Populates the test data source with any number of synthetic patients. Each
+ * patient, encounter and event is a copy of a randomly chosen row of the
+ * sample data with new keys, so every code that it uses is in the test
+ * ontology. The random number generator is seeded, so the same settings
+ * produce the same data.
+ *
+ * @author Andrew Post
+ */
+public final class SyntheticDataPopulator implements AutoCloseable {
+
+    public static class Builder {
+
+        private int patients = 1000;
+        private int encountersPerPatient = 5;
+        private int diagnosesPerEncounter = 4;
+        private int proceduresPerEncounter = 2;
+        private int labsPerEncounter = 10;
+        private int medicationsPerEncounter = 3;
+        private int vitalsPerEncounter = 3;
+        private long seed;
+
+        public Builder patients(int patients) {
+            this.patients = patients;
+            return this;
+        }
+
+        public Builder encountersPerPatient(int encountersPerPatient) {
+            this.encountersPerPatient = encountersPerPatient;
+            return this;
+        }
+
+        public Builder diagnosesPerEncounter(int diagnosesPerEncounter) {
+            this.diagnosesPerEncounter = diagnosesPerEncounter;
+            return this;
+        }
+
+        public Builder proceduresPerEncounter(int proceduresPerEncounter) {
+            this.proceduresPerEncounter = proceduresPerEncounter;
+            return this;
+        }
+
+        public Builder labsPerEncounter(int labsPerEncounter) {
+            this.labsPerEncounter = labsPerEncounter;
+            return this;
+        }
+
+        public Builder medicationsPerEncounter(int medicationsPerEncounter) {
+            this.medicationsPerEncounter = medicationsPerEncounter;
+            return this;
+        }
+
+        public Builder vitalsPerEncounter(int vitalsPerEncounter) {
+            this.vitalsPerEncounter = vitalsPerEncounter;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SyntheticDataPopulator build() {
+            return new SyntheticDataPopulator(this);
+        }
+    }
+
+    private static final String JDBC_URL = "jdbc:h2:mem:test;LOG=0;UNDO_LOG=0;DB_CLOSE_DELAY=-1";
+
+    private static final String SCHEMA_SCRIPT = "src/test/resources/test-schema.sql";
+
+    /**
+     * Sample data file, from which rows are copied.
+     */
+    private static final String SAMPLE_DATA_FILE = "/testData.xml";
+
+    private static final String SCHEMA = "TEST";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Logger logger = Logger
+            .getLogger(SyntheticDataPopulator.class.getName());
+
+    private final Builder settings;
+    private final ConnectionSpec connectionSpec;
+    private long events;
+
+    private SyntheticDataPopulator(Builder builder) {
+        this.settings = builder;
+        try {
+            this.connectionSpec = DatabaseAPI.DRIVERMANAGER.newConnectionSpecInstance(JDBC_URL, null, null, false);
+        } catch (InvalidConnectionSpecArguments ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    public int getPatients() {
+        return this.settings.patients;
+    }
+
+    public int getEncounters() {
+        return this.settings.patients * this.settings.encountersPerPatient;
+    }
+
+    /**
+     * Returns the number of event rows that {@link #doPopulate() } inserted.
+     *
+     * @return the number of events.
+     */
+    public long getEvents() {
+        return this.events;
+    }
+
+    public void doPopulate() throws SQLException, DataSetException {
+        logger.log(Level.INFO, "Generating {0} synthetic patient(s)", this.settings.patients);
+        IDataSet samples = new FlatXmlDataSetBuilder().setColumnSensing(true).build(getClass().getResource(SAMPLE_DATA_FILE));
+        Random random = new Random(this.settings.seed);
+        try (Connection conn = this.connectionSpec.getOrCreate()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("RUNSCRIPT FROM '" + SCHEMA_SCRIPT + "'");
+            }
+            conn.setAutoCommit(false);
+            try (RowWriter providers = new RowWriter(conn, samples.getTable("PROVIDER"));
+                    RowWriter patients = new RowWriter(conn, samples.getTable("PATIENT"));
+                    RowWriter encounters = new RowWriter(conn, samples.getTable("ENCOUNTER"));
+                    RowWriter diagnoses = new RowWriter(conn, samples.getTable("ICD9D_EVENT"));
+                    RowWriter procedures = new RowWriter(conn, samples.getTable("ICD9P_EVENT"));
+                    RowWriter labs = new RowWriter(conn, samples.getTable("LABS_EVENT"));
+                    RowWriter medications = new RowWriter(conn, samples.getTable("MEDS_EVENT"));
+                    RowWriter vitals = new RowWriter(conn, samples.getTable("VITALS_EVENT"))) {
+                for (int i = 0, n = providers.getRowCount(); i < n; i++) {
+                    providers.write(i);
+                }
+                long encounterKey = 0L;
+                for (int patientKey = 0; patientKey < this.settings.patients; patientKey++) {
+                    patients.set("PATIENT_KEY", patientKey);
+                    patients.write(random.nextInt(patients.getRowCount()));
+                    for (int j = 0; j < this.settings.encountersPerPatient; j++, encounterKey++) {
+                        encounters.set("ENCOUNTER_KEY", encounterKey);
+                        encounters.set("PATIENT_KEY", patientKey);
+                        encounters.write(random.nextInt(encounters.getRowCount()));
+                        writeEvents(diagnoses, encounterKey, this.settings.diagnosesPerEncounter, random);
+                        writeEvents(procedures, encounterKey, this.settings.proceduresPerEncounter, random);
+                        writeEvents(labs, encounterKey, this.settings.labsPerEncounter, random);
+                        writeEvents(medications, encounterKey, this.settings.medicationsPerEncounter, random);
+                        writeEvents(vitals, encounterKey, this.settings.vitalsPerEncounter, random);
+                    }
+                }
+            }
+            conn.commit();
+        }
+        logger.log(Level.INFO, "Generated {0} patient(s), {1} encounter(s) and {2} event(s)",
+                new Object[]{this.settings.patients, getEncounters(), this.events});
+    }
+
+    @Override
+    public void close() throws Exception {
+        SQLExecutor.executeSQL(this.connectionSpec, "DROP ALL OBJECTS", null);
+    }
+
+    private void writeEvents(RowWriter writer, long encounterKey, int count, Random random) throws SQLException {
+        int rows = writer.getRowCount();
+        if (rows > 0) {
+            for (int i = 0; i < count; i++) {
+                writer.set("EVENT_KEY", "S" + this.events++);
+                writer.set("ENCOUNTER_KEY", encounterKey);
+                writer.write(random.nextInt(rows));
+            }
+        }
+    }
+
+    /**
+     * Copies rows of a sample table into the same table of the data source,
+     * replacing the values of the columns that were {@link #set set}.
+     */
+    private static final class RowWriter implements AutoCloseable {
+
+        private final ITable samples;
+        private final Column[] columns;
+        private final Object[] overrides;
+        private final PreparedStatement stmt;
+        private int batched;
+
+        RowWriter(Connection conn, ITable samples) throws SQLException, DataSetException {
+            this.samples = samples;
+            this.columns = samples.getTableMetaData().getColumns();
+            this.overrides = new Object[this.columns.length];
+            StringBuilder sql = new StringBuilder("INSERT INTO ");
+            sql.append(SCHEMA).append('.').append(samples.getTableMetaData().getTableName()).append(" (");
+            for (int i = 0; i < this.columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(this.columns[i].getColumnName());
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < this.columns.length; i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(')');
+            this.stmt = conn.prepareStatement(sql.toString());
+        }
+
+        int getRowCount() {
+            return this.samples.getRowCount();
+        }
+
+        void set(String columnName, Object value) {
+            for (int i = 0; i < this.columns.length; i++) {
+                if (this.columns[i].getColumnName().equalsIgnoreCase(columnName)) {
+                    this.overrides[i] = value;
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("No column " + columnName);
+        }
+
+        void write(int row) throws SQLException {
+            try {
+                for (int i = 0; i < this.columns.length; i++) {
+                    Object value = this.overrides[i];
+                    if (value == null) {
+                        value = this.samples.getValue(row, this.columns[i].getColumnName());
+                    }
+                    this.stmt.setObject(i + 1, value);
+                }
+            } catch (DataSetException ex) {
+                throw new SQLException(ex);
+            }
+            this.stmt.addBatch();
+            if (++this.batched == BATCH_SIZE) {
+                this.stmt.executeBatch();
+                this.batched = 0;
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (this.batched > 0) {
+                    this.stmt.executeBatch();
+                }
+            } finally {
+                this.stmt.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the query of {@link I2b2LoadTest} with the default settings and then
+ * with several load threads, a COPY staging method, fact writer threads,
+ * several promotion threads and batched promotion, and checks that both
+ * loads promote the same rows.
+ *
+ * @author Andrew Post
+ */
+public class I2b2ConcurrentLoadTest extends AbstractI2b2DestTest {
+
+    private static Map<String, Long> defaultCounts;
+    private static Map<String, Long> concurrentCounts;
+    private static long concurrentTempPatients;
+
+    /**
+     * Executes the load with the default settings and then with the
+     * concurrent settings, and counts the promoted rows after each.
+     *
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        PromotedRows.install();
+
+        getProtempaFactory().execute(I2b2LoadTest.newQueryBuilder());
+        defaultCounts = PromotedRows.countAndClear(true);
+
+        getProtempaFactory().execute(I2b2LoadTest.newQueryBuilder(), concurrentSettings());
+        concurrentCounts = PromotedRows.countAndClear(true);
+        try (Connection conn = PromotedRows.openDataConnection();
+                Statement stmt = conn.createStatement()) {
+            concurrentTempPatients = PromotedRows.count(stmt, "SELECT COUNT(*) FROM EK_TEMP_PATIENT");
+        }
+    }
+
+    /**
+     * Returns settings that stage patients on several threads with a COPY
+     * staging method, which falls back to inserts on H2, write facts on
+     * writer threads, and promote every 5 patients on several threads.
+     */
+    private static Map<String, String> concurrentSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("loadThreads", "4");
+        settings.put("stagingMethod", "COPY_BINARY");
+        settings.put("factWriterThreads", "2");
+        settings.put("promotionThreads", "3");
+        settings.put("promotionBatchSize", "5");
+        return settings;
+    }
+
+    @Test
+    public void testPatientsLoaded() {
+        assertTrue(defaultCounts.get(PromotedRows.PATIENT) > 0);
+    }
+
+    @Test
+    public void testPromotedInBatches() {
+        // The temp tables only hold the patients of the last batch.
+        assertTrue(concurrentTempPatients < concurrentCounts.get(PromotedRows.PATIENT));
+    }
+
+    @Test
+    public void testObservations() {
+        assertSamePromotedRowCount(PromotedRows.OBSERVATION);
+    }
+
+    @Test
+    public void testPatients() {
+        assertSamePromotedRowCount(PromotedRows.PATIENT);
+    }
+
+    @Test
+    public void testPatientMappings() {
+        assertSamePromotedRowCount(PromotedRows.PATIENT_MAPPING);
+    }
+
+    @Test
+    public void testVisits() {
+        assertSamePromotedRowCount(PromotedRows.VISIT);
+    }
+
+    @Test
+    public void testEncounterMappings() {
+        assertSamePromotedRowCount(PromotedRows.ENCOUNTER_MAPPING);
+    }
+
+    @Test
+    public void testProviders() {
+        assertSamePromotedRowCount(PromotedRows.PROVIDER);
+    }
+
+    @Test
+    public void testConcepts() {
+        assertSamePromotedRowCount(PromotedRows.CONCEPT);
+    }
+
+    @Test
+    public void testModifiers() {
+        assertSamePromotedRowCount(PromotedRows.MODIFIER);
+    }
+
+    private static void assertSamePromotedRowCount(String tableName) {
+        assertEquals(tableName, defaultCounts.get(tableName), concurrentCounts.get(tableName));
+    }
+}
@@ -0,0 +1,211 @@
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2016 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import edu.emory.cci.aiw.i2b2etl.ConfigurationFactory;
+import edu.emory.cci.aiw.i2b2etl.I2b2DestinationFactory;
+import edu.emory.cci.aiw.i2b2etl.SyntheticDataPopulator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.protempa.CompoundLowLevelAbstractionDefinition;
+import org.protempa.DataSource;
+import org.protempa.KnowledgeSource;
+import org.protempa.LowLevelAbstractionDefinition;
+import org.protempa.LowLevelAbstractionValueDefinition;
+import org.protempa.PropositionDefinition;
+import org.protempa.Protempa;
+import org.protempa.ProtempaEventListener;
+import org.protempa.SimpleGapFunction;
+import org.protempa.SlidingWindowWidthMode;
+import org.protempa.SourceFactory;
+import org.protempa.ValueClassification;
+import org.protempa.dest.AbstractDestination;
+import org.protempa.dest.GetSupportedPropositionIdsException;
+import org.protempa.dest.QueryResultsHandler;
+import org.protempa.dest.QueryResultsHandlerInitException;
+import org.protempa.dest.Statistics;
+import org.protempa.dest.StatisticsException;
+import org.protempa.proposition.value.NominalValue;
+import org.protempa.proposition.value.NumberValue;
+import org.protempa.proposition.value.ValueComparator;
+import org.protempa.query.DefaultQueryBuilder;
+import org.protempa.query.Query;
+
+/**
+ * Measures the throughput of a complete load of synthetic patients, from the
+ * test data source through Protempa into the embedded H2 i2b2 schemas, and
+ * reports the wall time of each phase of the load. It is not a unit test. Run
+ * it with <code>mvn -Pload-benchmark verify</code>, setting the size of the
+ * data with the <code>benchmark.patients</code>,
+ * <code>benchmark.encounters</code>, <code>benchmark.diagnoses</code>,
+ * <code>benchmark.procedures</code>, <code>benchmark.labs</code>,
+ * <code>benchmark.medications</code>, <code>benchmark.vitals</code> and
+ * <code>benchmark.seed</code> system properties. Counts other than patients
+ * are per patient for encounters and per encounter for everything else.
+ *
+ * @author Andrew Post
+ */
+public final class I2b2LoadBenchmark {
+
+    private static final String QUERY_NAME = "i2b2 ETL Load Benchmark";
+
+    private I2b2LoadBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SyntheticDataPopulator.Builder builder = new SyntheticDataPopulator.Builder()
+                .patients(Integer.getInteger("benchmark.patients", 1000))
+                .encountersPerPatient(Integer.getInteger("benchmark.encounters", 5))
+                .diagnosesPerEncounter(Integer.getInteger("benchmark.diagnoses", 4))
+                .proceduresPerEncounter(Integer.getInteger("benchmark.procedures", 2))
+                .labsPerEncounter(Integer.getInteger("benchmark.labs", 10))
+                .medicationsPerEncounter(Integer.getInteger("benchmark.medications", 3))
+                .vitalsPerEncounter(Integer.getInteger("benchmark.vitals", 3))
+                .seed(Long.getLong("benchmark.seed", 0L));
+
+        try (ConfigurationFactory configFactory = new ConfigurationFactory("/conf.xml");
+                SyntheticDataPopulator populator = builder.build()) {
+            long start = System.nanoTime();
+            populator.doPopulate();
+            long generateMillis = millisSince(start);
+
+            MetricsDestination destination = new MetricsDestination(new I2b2DestinationFactory(configFactory.getDestinationConfigResource()).getInstance());
+            long loadMillis;
+            try (Protempa protempa = Protempa.newInstance(new SourceFactory(configFactory.getProtempaConfiguration()))) {
+                Query query = protempa.buildQuery(newQueryBuilder());
+                start = System.nanoTime();
+                protempa.execute(query, destination);
+                loadMillis = millisSince(start);
+            }
+            LoadMetrics metrics = destination.getMetrics();
+
+            System.out.printf("Generated %d patient(s), %d encounter(s) and %d event(s) in %d ms%n",
+                    populator.getPatients(), populator.getEncounters(), populator.getEvents(), generateMillis);
+            System.out.printf("Loaded %d patient(s) and %d fact(s) (%d rejected) in %d ms: %.1f patients/s, %.1f facts/s%n",
+                    metrics.getPatients(), metrics.getFacts(), metrics.getRejectedFacts(), loadMillis,
+                    perSecond(metrics.getPatients(), loadMillis), perSecond(metrics.getFacts(), loadMillis));
+            System.out.println("Phases (ms):");
+            print(metrics.getPhaseMillis());
+            System.out.println("Stored procedures (ms):");
+            print(metrics.getProcedureMillis());
+        }
+    }
+
+    private static DefaultQueryBuilder newQueryBuilder() {
+        LowLevelAbstractionDefinition plt = newThreshold("BenchmarkPlateletThreshold", "Platelet Threshold", "LAB:PLT", 80);
+        LowLevelAbstractionDefinition ast = newThreshold("BenchmarkAstThreshold", "AST Threshold", "LAB:AST", 40);
+
+        CompoundLowLevelAbstractionDefinition compound
+                = new CompoundLowLevelAbstractionDefinition("BenchmarkCompound");
+        compound.setDisplayName("Combined Thresholds");
+        compound.setValueDefinitionMatchOperator(CompoundLowLevelAbstractionDefinition.ValueDefinitionMatchOperator.ANY);
+        compound.addValueClassification(new ValueClassification("High", plt.getId(), "High"));
+        compound.addValueClassification(new ValueClassification("High", ast.getId(), "High"));
+        compound.addValueClassification(new ValueClassification("Other", plt.getId(), "Other"));
+        compound.addValueClassification(new ValueClassification("Other", ast.getId(), "Other"));
+        compound.setGapFunction(new SimpleGapFunction(Integer.valueOf(0), null));
+        compound.setConcatenable(false);
+        compound.setMinimumNumberOfValues(1);
+
+        DefaultQueryBuilder q = new DefaultQueryBuilder();
+        q.setPropositionDefinitions(new PropositionDefinition[]{plt, ast, compound});
+        q.setPropositionIds(new String[]{plt.getId(), ast.getId(), compound.getId(), "ICD9:Diagnoses", "ICD9:Procedures", "LAB:LabTest", "Encounter", "MED:medications", "VitalSign", "PatientDetails", "Provider"});
+        q.setName(QUERY_NAME);
+        return q;
+    }
+
+    private static LowLevelAbstractionDefinition newThreshold(String id, String displayName, String labId, int threshold) {
+        LowLevelAbstractionDefinition ld = new LowLevelAbstractionDefinition(id);
+        ld.setDisplayName(displayName);
+        ld.addPrimitiveParameterId(labId);
+        LowLevelAbstractionValueDefinition high = new LowLevelAbstractionValueDefinition(ld, id + "High");
+        high.setValue(NominalValue.getInstance("High"));
+        high.setParameterComp("minThreshold", ValueComparator.GREATER_THAN);
+        high.setParameterValue("minThreshold", NumberValue.getInstance(threshold));
+        ld.addValueDefinition(high);
+        LowLevelAbstractionValueDefinition other = new LowLevelAbstractionValueDefinition(ld, id + "Other");
+        other.setValue(NominalValue.getInstance("Other"));
+        other.setParameterComp("maxThreshold", ValueComparator.LESS_THAN_OR_EQUAL_TO);
+        other.setParameterValue("maxThreshold", NumberValue.getInstance(threshold));
+        ld.addValueDefinition(other);
+        ld.setAlgorithmId("stateDetector");
+        ld.setMaximumNumberOfValues(1);
+        ld.setMinimumNumberOfValues(1);
+        ld.setGapFunction(new SimpleGapFunction(0, null));
+        ld.setSlidingWindowWidthMode(SlidingWindowWidthMode.RANGE);
+        return ld;
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static double perSecond(long count, long millis) {
+        return millis > 0 ? count * 1000.0 / millis : 0.0;
+    }
+
+    private static void print(Map<String, Long> times) {
+        for (Map.Entry<String, Long> me : times.entrySet()) {
+            System.out.printf("  %-30s %10d%n", me.getKey(), me.getValue());
+        }
+    }
+
+    /**
+     * Creates the i2b2 query results handler of the benchmark load, and keeps
+     * it so that its metrics can be read after the load.
+     */
+    private static final class MetricsDestination extends AbstractDestination {
+
+        private final I2b2Destination destination;
+        private I2b2QueryResultsHandler handler;
+
+        MetricsDestination(I2b2Destination destination) {
+            this.destination = destination;
+        }
+
+        LoadMetrics getMetrics() {
+            return this.handler.getMetrics();
+        }
+
+        @Override
+        public QueryResultsHandler getQueryResultsHandler(Query query, DataSource dataSource, KnowledgeSource knowledgeSource, List<? extends ProtempaEventListener> eventListeners) throws QueryResultsHandlerInitException {
+            this.handler = (I2b2QueryResultsHandler) this.destination.getQueryResultsHandler(query, dataSource, knowledgeSource, eventListeners);
+            return this.handler;
+        }
+
+        @Override
+        public boolean isGetStatisticsSupported() {
+            return this.destination.isGetStatisticsSupported();
+        }
+
+        @Override
+        public Statistics getStatistics() throws StatisticsException {
+            return this.destination.getStatistics();
+        }
+
+        @Override
+        public String[] getSupportedPropositionIds(DataSource dataSource, KnowledgeSource knowledgeSource) throws GetSupportedPropositionIdsException {
+            return this.destination.getSupportedPropositionIds(dataSource, knowledgeSource);
+        }
+    }
+}
@@ -62,6 +62,23 @@ public class I2b2LoadTest extends AbstractI2b2DestLoadTest {
      */
     @BeforeClass
     public static void setUp() throws Exception {
+        try {
+            getProtempaFactory().execute(newQueryBuilder());
+        } catch (ProtempaException ex) {
+            dumpTruth("i2b2LoadTest");
+            throw ex;
+        }
+        
+        setExpectedDataSet("/truth/i2b2LoadTestData.xml");
+    }
+
+    /**
+     * Creates the query of this test, which other load tests may run with
+     * other settings.
+     *
+     * @return a query builder.
+     */
+    static DefaultQueryBuilder newQueryBuilder() {
         DefaultQueryBuilder q = new DefaultQueryBuilder();
 
         EventDefinition ed = new EventDefinition("MyDiagnosis");
@@ -165,15 +182,7 @@ public class I2b2LoadTest extends AbstractI2b2DestLoadTest {
                 new PropositionDefinition[]{ed, hd, ld, ldWrapper, ld2, clad, clad2, ld2, sd});
         q.setPropositionIds(new String[]{ed.getId(), hd.getId(), ldWrapper.getId(), ld2.getId(), clad.getId(), clad2.getId(), ld2.getId(), sd.getId(), "ICD9:Diagnoses", "ICD9:Procedures", "LAB:LabTest", "Encounter", "MED:medications", "VitalSign", "PatientDetails", "Provider"});
         q.setName("i2b2 ETL Test Query");
-
-        try {
-            getProtempaFactory().execute(q);
-        } catch (ProtempaException ex) {
-            dumpTruth("i2b2LoadTest");
-            throw ex;
-        }
-        
-        setExpectedDataSet("/truth/i2b2LoadTestData.xml");
+        return q;
     }
 
 }
@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import edu.emory.cci.aiw.i2b2etl.ConfigurationFactory;
+import edu.emory.cci.aiw.i2b2etl.ProtempaFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.arp.javautil.sql.DatabaseAPI;
+import org.arp.javautil.sql.InvalidConnectionSpecArguments;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the query of {@link I2b2LoadTest} as a load split into two
+ * partitions. Both partitions run in this process on their own threads, and
+ * they share the data schema through an H2 TCP server like separate
+ * processes would. The temp tables that the coordinator promotes must have
+ * as many rows as after a load by a single process.
+ *
+ * @author Andrew Post
+ */
+public class I2b2PartitionedLoadTest {
+
+    private static final int PARTITION_COUNT = 2;
+
+    private static final String[] PROMOTED_TABLES = {
+        "EK_TEMP_OBSERVATION",
+        "EK_TEMP_PATIENT",
+        "EK_TEMP_PATIENT_MAPPING",
+        "EK_TEMP_VISIT",
+        "EK_TEMP_ENCOUNTER_MAPPING",
+        "EK_TEMP_PROVIDER",
+        "EK_TEMP_CONCEPT",
+        "EK_TEMP_MODIFIER"
+    };
+
+    private static ConfigurationFactory configFactory;
+    private static ProtempaFactory protempaFactory;
+    private static Map<String, Long> singleProcessCounts;
+    private static Map<String, Long> partitionedCounts;
+
+    /**
+     * Executes the load by a single process and then the partitioned load,
+     * and counts the rows of the promoted tables after each.
+     *
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        configFactory = new ConfigurationFactory.Builder()
+                .serveDataSchema(true)
+                .build();
+        protempaFactory = new ProtempaFactory(configFactory);
+
+        protempaFactory.execute(I2b2LoadTest.newQueryBuilder());
+        singleProcessCounts = countRows();
+
+        ExecutorService executor = Executors.newFixedThreadPool(PARTITION_COUNT);
+        try {
+            List<Future<Void>> partitions = new ArrayList<>();
+            for (int i = 0; i < PARTITION_COUNT; i++) {
+                Map<String, String> settings = partitionSettings(i);
+                partitions.add(executor.submit(() -> {
+                    protempaFactory.execute(I2b2LoadTest.newQueryBuilder(), settings);
+                    return null;
+                }));
+            }
+            for (Future<Void> partition : partitions) {
+                partition.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        partitionedCounts = countRows();
+    }
+
+    /**
+     * Returns settings that load the patients of a partition into the shared
+     * temp tables. Partition 0 coordinates the load and promotes the temp
+     * tables.
+     *
+     * @param partition the partition.
+     */
+    private static Map<String, String> partitionSettings(int partition) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("partitionCount", String.valueOf(PARTITION_COUNT));
+        settings.put("partition", String.valueOf(partition));
+        settings.put("partitionTimeout", "600");
+        return settings;
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        try {
+            if (protempaFactory != null) {
+                protempaFactory.close();
+            }
+        } finally {
+            if (configFactory != null) {
+                configFactory.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPatientsLoaded() {
+        assertTrue(singleProcessCounts.get("EK_TEMP_PATIENT") > 0);
+    }
+
+    @Test
+    public void testEKTempObservation() {
+        assertSameRowCount("EK_TEMP_OBSERVATION");
+    }
+
+    @Test
+    public void testEKTempPatient() {
+        assertSameRowCount("EK_TEMP_PATIENT");
+    }
+
+    @Test
+    public void testEKTempPatientMapping() {
+        assertSameRowCount("EK_TEMP_PATIENT_MAPPING");
+    }
+
+    @Test
+    public void testEKTempVisit() {
+        assertSameRowCount("EK_TEMP_VISIT");
+    }
+
+    @Test
+    public void testEKTempEncounterMapping() {
+        assertSameRowCount("EK_TEMP_ENCOUNTER_MAPPING");
+    }
+
+    @Test
+    public void testEKTempProvider() {
+        assertSameRowCount("EK_TEMP_PROVIDER");
+    }
+
+    @Test
+    public void testEKTempConcept() {
+        assertSameRowCount("EK_TEMP_CONCEPT");
+    }
+
+    @Test
+    public void testEKTempModifier() {
+        assertSameRowCount("EK_TEMP_MODIFIER");
+    }
+
+    private static void assertSameRowCount(String tableName) {
+        assertEquals(tableName, singleProcessCounts.get(tableName), partitionedCounts.get(tableName));
+    }
+
+    private static Map<String, Long> countRows() throws InvalidConnectionSpecArguments, SQLException {
+        Map<String, Long> result = new HashMap<>();
+        try (Connection conn = DatabaseAPI.DATASOURCE.newConnectionSpecInstance(configFactory.getDataJndiUri(), null, null, false).getOrCreate();
+                Statement stmt = conn.createStatement()) {
+            for (String tableName : PROMOTED_TABLES) {
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tableName)) {
+                    rs.next();
+                    result.put(tableName, rs.getLong(1));
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the query of {@link I2b2LoadTest} as a resumable load, then journals
+ * most of its patients and the patient promotion step as a failed run would
+ * have, and runs the query again. The second run must resume: it must skip
+ * the journaled patients and the completed step, restage the patients that
+ * were not journaled, and promote the same rows as the first run otherwise.
+ *
+ * @author Andrew Post
+ */
+public class I2b2ResumeLoadTest extends AbstractI2b2DestTest {
+
+    private static final String QUERY_NAME = "i2b2 ETL Test Query";
+
+    private static Map<String, Long> fullCounts;
+    private static Map<String, Long> resumedCounts;
+    private static long fullTempPatients;
+    private static long resumedTempPatients;
+    private static LoadJournal journal;
+
+    /**
+     * Executes the full load, journals it, and executes the resumed load.
+     *
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        PromotedRows.install();
+        journal = new LoadJournal(PromotedRows.dataConnectionSpec(), QUERY_NAME);
+
+        getProtempaFactory().execute(I2b2LoadTest.newQueryBuilder(), resumableSettings());
+        fullCounts = PromotedRows.countAndClear(false);
+
+        // The temp tables still hold every patient. Journal all but the
+        // last two, whose records must be purged and staged again.
+        List<String> keyIds = new ArrayList<>();
+        try (Connection conn = PromotedRows.openDataConnection();
+                Statement stmt = conn.createStatement()) {
+            fullTempPatients = PromotedRows.count(stmt, "SELECT COUNT(*) FROM EK_TEMP_PATIENT");
+            try (ResultSet rs = stmt.executeQuery("SELECT PATIENT_ID FROM EK_TEMP_PATIENT ORDER BY PATIENT_ID")) {
+                while (rs.next()) {
+                    keyIds.add(rs.getString(1));
+                }
+            }
+        }
+        journal.recordStagedKeys(keyIds.subList(0, keyIds.size() - 2));
+        journal.recordStep("patient");
+
+        getProtempaFactory().execute(I2b2LoadTest.newQueryBuilder(), resumableSettings());
+        resumedCounts = PromotedRows.countAndClear(false);
+        try (Connection conn = PromotedRows.openDataConnection();
+                Statement stmt = conn.createStatement()) {
+            resumedTempPatients = PromotedRows.count(stmt, "SELECT COUNT(*) FROM EK_TEMP_PATIENT");
+        }
+    }
+
+    /**
+     * Returns settings that journal the load so that a failed run can
+     * resume, with a checkpoint every 5 patients.
+     */
+    private static Map<String, String> resumableSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("resumable", "true");
+        settings.put("checkpointInterval", "5");
+        return settings;
+    }
+
+    @Test
+    public void testPatientsLoaded() {
+        assertTrue(fullTempPatients > 2);
+    }
+
+    @Test
+    public void testJournalCleared() throws Exception {
+        assertTrue(journal.readStagedKeys().isEmpty());
+        assertTrue(journal.readCompletedSteps().isEmpty());
+    }
+
+    @Test
+    public void testCompletedStepSkipped() {
+        assertTrue(fullCounts.get(PromotedRows.PATIENT) > 0);
+        assertEquals(Long.valueOf(0L), resumedCounts.get(PromotedRows.PATIENT));
+    }
+
+    @Test
+    public void testPatientsStagedOnce() {
+        assertEquals(fullTempPatients, resumedTempPatients);
+    }
+
+    @Test
+    public void testObservations() {
+        assertSamePromotedRowCount(PromotedRows.OBSERVATION);
+    }
+
+    @Test
+    public void testPatientMappings() {
+        assertSamePromotedRowCount(PromotedRows.PATIENT_MAPPING);
+    }
+
+    @Test
+    public void testVisits() {
+        assertSamePromotedRowCount(PromotedRows.VISIT);
+    }
+
+    @Test
+    public void testEncounterMappings() {
+        assertSamePromotedRowCount(PromotedRows.ENCOUNTER_MAPPING);
+    }
+
+    @Test
+    public void testProviders() {
+        assertSamePromotedRowCount(PromotedRows.PROVIDER);
+    }
+
+    @Test
+    public void testConcepts() {
+        assertSamePromotedRowCount(PromotedRows.CONCEPT);
+    }
+
+    @Test
+    public void testModifiers() {
+        assertSamePromotedRowCount(PromotedRows.MODIFIER);
+    }
+
+    private static void assertSamePromotedRowCount(String tableName) {
+        assertEquals(tableName, fullCounts.get(tableName), resumedCounts.get(tableName));
+    }
+}
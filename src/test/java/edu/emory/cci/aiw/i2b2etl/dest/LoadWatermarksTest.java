@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import edu.emory.cci.aiw.i2b2etl.AbstractDataTest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.arp.javautil.sql.DatabaseAPI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.protempa.SourceSystem;
+import org.protempa.proposition.DerivedSourceId;
+import org.protempa.proposition.DerivedUniqueId;
+import org.protempa.proposition.Event;
+import org.protempa.proposition.Proposition;
+import org.protempa.proposition.UniqueId;
+
+/**
+ * Tests for deciding whether a patient changed since the marks of the last
+ * successful run of an incremental load.
+ *
+ * @author Andrew Post
+ */
+public class LoadWatermarksTest extends AbstractDataTest {
+
+    private static final long MARK = 1450000000000L;
+    private static final Map<UniqueId, Proposition> NO_REFERENCES = Collections.emptyMap();
+
+    private ConnectionSpec connectionSpec;
+    private int nextId;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connectionSpec = DatabaseAPI.DATASOURCE.newConnectionSpecInstance(getConfigFactory().getDataJndiUri(), null, null, false);
+    }
+
+    @Test
+    public void testUndatedIsChanged() throws Exception {
+        LoadWatermarks watermarks = marked("undated", MARK);
+        assertTrue(watermarks.isChanged(props(event(null, null, null)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testNoMarkIsChanged() throws Exception {
+        LoadWatermarks watermarks = new LoadWatermarks(this.connectionSpec, "no mark");
+        assertEquals(0, watermarks.read());
+        assertTrue(watermarks.isChanged(props(event(MARK - 1000L, null, null)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testOlderIsUnchanged() throws Exception {
+        LoadWatermarks watermarks = marked("older", MARK);
+        assertFalse(watermarks.isChanged(props(event(MARK - 1000L, null, null)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testAtMarkIsUnchanged() throws Exception {
+        LoadWatermarks watermarks = marked("at mark", MARK);
+        assertFalse(watermarks.isChanged(props(event(MARK, null, null)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testNewerIsChanged() throws Exception {
+        LoadWatermarks watermarks = marked("newer", MARK);
+        assertTrue(watermarks.isChanged(props(event(MARK - 1000L, null, null), event(MARK + 1000L, null, null)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testNewerCreateDateIsChanged() throws Exception {
+        LoadWatermarks watermarks = marked("newer create date", MARK);
+        assertTrue(watermarks.isChanged(props(event(null, MARK + 1000L, null)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testNewerDownloadDateIsChanged() throws Exception {
+        LoadWatermarks watermarks = marked("newer download date", MARK);
+        assertTrue(watermarks.isChanged(props(event(MARK - 1000L, null, MARK + 1000L)), NO_REFERENCES));
+    }
+
+    @Test
+    public void testNewerReferenceIsChanged() throws Exception {
+        LoadWatermarks watermarks = marked("newer reference", MARK);
+        Event reference = event(MARK + 1000L, null, null);
+        assertTrue(watermarks.isChanged(props(event(MARK - 1000L, null, null)),
+                Collections.singletonMap(reference.getUniqueId(), reference)));
+    }
+
+    @Test
+    public void testWriteAdvancesMarks() throws Exception {
+        LoadWatermarks watermarks = marked("advance", MARK);
+        assertTrue(watermarks.isChanged(props(event(MARK + 1000L, null, null)), NO_REFERENCES));
+        watermarks.write();
+        LoadWatermarks next = new LoadWatermarks(this.connectionSpec, "advance");
+        assertEquals(1, next.read());
+        assertFalse(next.isChanged(props(event(MARK + 1000L, null, null)), NO_REFERENCES));
+    }
+
+    /**
+     * Runs a load that sees data updated at the given time, and returns the
+     * marks that the next run reads.
+     */
+    private LoadWatermarks marked(String queryName, long updated) throws Exception {
+        LoadWatermarks previous = new LoadWatermarks(this.connectionSpec, queryName);
+        previous.read();
+        previous.isChanged(props(event(updated, null, updated)), NO_REFERENCES);
+        previous.write();
+        LoadWatermarks result = new LoadWatermarks(this.connectionSpec, queryName);
+        assertEquals(1, result.read());
+        return result;
+    }
+
+    private static List<Proposition> props(Proposition... props) {
+        return Arrays.asList(props);
+    }
+
+    private Event event(Long updated, Long created, Long downloaded) {
+        Event event = new Event("Encounter", new UniqueId(DerivedSourceId.getInstance(), new DerivedUniqueId("event" + this.nextId++)));
+        event.setSourceSystem(SourceSystem.DERIVED);
+        if (updated != null) {
+            event.setUpdateDate(new Date(updated));
+        }
+        if (created != null) {
+            event.setCreateDate(new Date(created));
+        }
+        if (downloaded != null) {
+            event.setDownloadDate(new Date(downloaded));
+        }
+        return event;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import edu.emory.cci.aiw.i2b2etl.dest.config.Settings;
+import java.lang.reflect.Proxy;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.protempa.dest.QueryResultsHandlerProcessingException;
+import org.protempa.proposition.Proposition;
+
+/**
+ * Tests that the patient loader pool routes every key id to the same worker
+ * thread, and that it reports a failed worker without blocking the caller.
+ *
+ * @author Andrew Post
+ */
+public class PatientLoaderPoolTest {
+
+    private static final String QUERY_NAME = "test";
+
+    private final Map<String, Set<String>> threadsByKeyId = new ConcurrentHashMap<>();
+
+    @Test
+    public void testWorkerOfIsStableAndInRange() {
+        for (int i = 0; i < 1000; i++) {
+            String keyId = "patient" + i;
+            int worker = PatientLoaderPool.workerOf(keyId, 4);
+            assertTrue(worker >= 0 && worker < 4);
+            assertEquals(worker, PatientLoaderPool.workerOf(new String(keyId), 4));
+        }
+    }
+
+    @Test
+    public void testWorkerOfSpreadsKeyIds() {
+        int[] counts = new int[4];
+        for (int i = 0; i < 1000; i++) {
+            counts[PatientLoaderPool.workerOf("patient" + i, 4)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 150);
+        }
+    }
+
+    @Test
+    public void testOneLoaderStagesOnCallerThread() throws Exception {
+        PatientLoaderPool pool = new PatientLoaderPool(QUERY_NAME, newLoaders(1));
+        pool.load("patient0", new RecordingPropositions("patient0"), null, null, null);
+        pool.awaitCompletion();
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), this.threadsByKeyId.get("patient0"));
+    }
+
+    @Test(timeout = 60000L)
+    public void testKeyIdsRouteToTheirWorker() throws Exception {
+        PatientLoaderPool pool = new PatientLoaderPool(QUERY_NAME, newLoaders(4));
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < 200; i++) {
+                String keyId = "patient" + i;
+                pool.load(keyId, new RecordingPropositions(keyId), null, null, null);
+            }
+        }
+        pool.awaitCompletion();
+        assertEquals(200, this.threadsByKeyId.size());
+        for (Map.Entry<String, Set<String>> me : this.threadsByKeyId.entrySet()) {
+            String worker = "i2b2-load-" + QUERY_NAME + "-" + PatientLoaderPool.workerOf(me.getKey(), 4);
+            assertEquals(me.getKey(), Collections.singleton(worker), me.getValue());
+        }
+    }
+
+    @Test(timeout = 60000L)
+    public void testErrorInWorkerIsReported() throws Exception {
+        PatientLoaderPool pool = new PatientLoaderPool(QUERY_NAME, newLoaders(2));
+        List<String> keyIds = new ArrayList<>();
+        for (int i = 0; keyIds.size() < 500; i++) {
+            if (PatientLoaderPool.workerOf("patient" + i, 2) == 0) {
+                keyIds.add("patient" + i);
+            }
+        }
+        pool.load(keyIds.get(0), new FailingPropositions(), null, null, null);
+        // More patients than the worker's queue holds; the worker must keep
+        // draining after the error or this blocks.
+        try {
+            for (String keyId : keyIds.subList(1, keyIds.size())) {
+                pool.load(keyId, new RecordingPropositions(keyId), null, null, null);
+            }
+        } catch (QueryResultsHandlerProcessingException ex) {
+            assertTrue(ex.getCause() instanceof AssertionError);
+        }
+        try {
+            pool.awaitCompletion();
+            fail("expected a QueryResultsHandlerProcessingException");
+        } catch (QueryResultsHandlerProcessingException ex) {
+            assertTrue(ex.getCause() instanceof AssertionError);
+        }
+    }
+
+    private static List<PatientLoader> newLoaders(int count) {
+        Settings settings = (Settings) Proxy.newProxyInstance(
+                Settings.class.getClassLoader(), new Class<?>[]{Settings.class},
+                (proxy, method, args) -> "getVisitDimension".equals(method.getName()) ? "Encounter" : null);
+        List<PatientLoader> loaders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            loaders.add(new PatientLoader(settings, null, null, null, new ArrayList<>(), null));
+        }
+        return loaders;
+    }
+
+    /**
+     * An empty list of propositions that records the threads that the
+     * loaders iterate over it on.
+     */
+    private final class RecordingPropositions extends AbstractList<Proposition> {
+
+        private final String keyId;
+
+        RecordingPropositions(String keyId) {
+            this.keyId = keyId;
+        }
+
+        @Override
+        public int size() {
+            threadsByKeyId.computeIfAbsent(this.keyId, k -> ConcurrentHashMap.newKeySet())
+                    .add(Thread.currentThread().getName());
+            return 0;
+        }
+
+        @Override
+        public Proposition get(int index) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+
+    /**
+     * A list of propositions that throws an error when a loader iterates
+     * over it.
+     */
+    private static final class FailingPropositions extends AbstractList<Proposition> {
+
+        @Override
+        public int size() {
+            throw new AssertionError("staging failed");
+        }
+
+        @Override
+        public Proposition get(int index) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import org.arp.javautil.sql.ConnectionSpec;
+import org.arp.javautil.sql.DatabaseAPI;
+import org.arp.javautil.sql.InvalidConnectionSpecArguments;
+
+/**
+ * Counts the rows that loads promote out of the temp tables. The H2 mock
+ * stored procedures do not promote anything, so {@link #install() } replaces
+ * them with ones that copy the keys of the promoted rows into
+ * <code>EK_PROMOTED_*</code> tables.
+ *
+ * @author Andrew Post
+ */
+final class PromotedRows {
+
+    static final String OBSERVATION = "EK_PROMOTED_OBSERVATION";
+    static final String PATIENT = "EK_PROMOTED_PATIENT";
+    static final String PATIENT_MAPPING = "EK_PROMOTED_PATIENT_MAPPING";
+    static final String VISIT = "EK_PROMOTED_VISIT";
+    static final String ENCOUNTER_MAPPING = "EK_PROMOTED_ENCOUNTER_MAPPING";
+    static final String PROVIDER = "EK_PROMOTED_PROVIDER";
+    static final String CONCEPT = "EK_PROMOTED_CONCEPT";
+    static final String MODIFIER = "EK_PROMOTED_MODIFIER";
+
+    private static final String[] TABLES = {
+        OBSERVATION, PATIENT, PATIENT_MAPPING, VISIT, ENCOUNTER_MAPPING,
+        PROVIDER, CONCEPT, MODIFIER
+    };
+
+    private PromotedRows() {
+    }
+
+    /**
+     * Replaces the stored procedures with recording ones, and empties the
+     * <code>EK_PROMOTED_*</code> tables.
+     */
+    static void install() throws InvalidConnectionSpecArguments, SQLException {
+        try (Connection conn = openDataConnection();
+                Statement stmt = conn.createStatement()) {
+            stmt.execute("RUNSCRIPT FROM 'src/test/resources/recording_stored_procedures_h2.sql'");
+            for (String tableName : TABLES) {
+                stmt.execute("DELETE FROM " + tableName);
+            }
+        }
+    }
+
+    /**
+     * Counts the promoted rows of each table, and empties the tables for the
+     * next load.
+     *
+     * @param distinctDimensions whether to count distinct dimension rows
+     * rather than all of them, as batched promotion may promote the same
+     * provider, concept or modifier once per batch. Facts are always all
+     * counted.
+     * @return the counts by table name.
+     */
+    static Map<String, Long> countAndClear(boolean distinctDimensions) throws InvalidConnectionSpecArguments, SQLException {
+        Map<String, Long> result = new HashMap<>();
+        try (Connection conn = openDataConnection();
+                Statement stmt = conn.createStatement()) {
+            for (String tableName : TABLES) {
+                String sql;
+                if (distinctDimensions && !OBSERVATION.equals(tableName)) {
+                    sql = "SELECT COUNT(*) FROM (SELECT DISTINCT * FROM " + tableName + ")";
+                } else {
+                    sql = "SELECT COUNT(*) FROM " + tableName;
+                }
+                result.put(tableName, count(stmt, sql));
+                stmt.execute("DELETE FROM " + tableName);
+            }
+        }
+        return result;
+    }
+
+    static long count(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    static ConnectionSpec dataConnectionSpec() throws InvalidConnectionSpecArguments {
+        return DatabaseAPI.DATASOURCE.newConnectionSpecInstance(AbstractI2b2DestTest.getConfigFactory().getDataJndiUri(), null, null, false);
+    }
+
+    static Connection openDataConnection() throws InvalidConnectionSpecArguments, SQLException {
+        return dataConnectionSpec().getOrCreate();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests the order in which the promotion steps run, with one thread and with
+ * several, and how a failed step stops the promotion.
+ *
+ * @author Andrew Post
+ */
+public class PromotionGraphTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testOneThreadRunsInOrderAdded() throws Exception {
+        PromotionGraph graph = newGraph(1);
+        graph.execute();
+        assertEquals(Arrays.asList(
+                "start provider", "end provider",
+                "start concept", "end concept",
+                "start modifier", "end modifier",
+                "start patient", "end patient",
+                "start visit", "end visit",
+                "start observation", "end observation"), this.events);
+    }
+
+    @Test
+    public void testThreadsRespectDependencies() throws Exception {
+        PromotionGraph graph = newGraph(4);
+        graph.execute();
+        assertEquals(12, this.events.size());
+        assertBefore("end patient", "start visit");
+        for (String step : new String[]{"provider", "concept", "modifier", "patient", "visit"}) {
+            assertBefore("end " + step, "start observation");
+        }
+    }
+
+    @Test
+    public void testThreadsRunIndependentStepsConcurrently() throws Exception {
+        // Each step waits for the other, so they only finish if they run at
+        // the same time.
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        PromotionGraph graph = new PromotionGraph("test", 2);
+        graph.add("concept", () -> await(barrier));
+        graph.add("modifier", () -> await(barrier));
+        graph.execute();
+    }
+
+    @Test
+    public void testOneThreadStopsAtFailure() {
+        assertStopsAtFailure(1);
+    }
+
+    @Test
+    public void testThreadsStopAtFailure() {
+        assertStopsAtFailure(4);
+    }
+
+    @Test
+    public void testFirstFailureIsThrown() {
+        SQLException failure = new SQLException("patient failed");
+        PromotionGraph graph = new PromotionGraph("test", 4);
+        graph.add("patient", () -> {
+            throw failure;
+        });
+        graph.add("visit", () -> {
+            throw new SQLException("visit failed");
+        }, "patient");
+        try {
+            graph.execute();
+            fail("expected an SQLException");
+        } catch (SQLException ex) {
+            assertSame(failure, ex);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDependency() {
+        new PromotionGraph("test", 1).add("visit", () -> {
+        }, "patient");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateStep() {
+        PromotionGraph graph = new PromotionGraph("test", 1);
+        graph.add("patient", () -> {
+        });
+        graph.add("patient", () -> {
+        });
+    }
+
+    private void assertStopsAtFailure(int threads) {
+        SQLException failure = new SQLException("patient failed");
+        PromotionGraph graph = new PromotionGraph("test", threads);
+        graph.add("patient", () -> {
+            this.events.add("start patient");
+            throw failure;
+        });
+        graph.add("visit", step("visit"), "patient");
+        graph.add("observation", step("observation"), "visit");
+        try {
+            graph.execute();
+            fail("expected an SQLException");
+        } catch (SQLException ex) {
+            assertSame(failure, ex);
+        }
+        assertEquals(Collections.singletonList("start patient"), this.events);
+    }
+
+    private PromotionGraph newGraph(int threads) {
+        PromotionGraph graph = new PromotionGraph("test", threads);
+        graph.add("provider", step("provider"));
+        graph.add("concept", step("concept"));
+        graph.add("modifier", step("modifier"));
+        graph.add("patient", step("patient"));
+        graph.add("visit", step("visit"), "patient");
+        graph.add("observation", step("observation"), "provider", "concept", "modifier", "patient", "visit");
+        return graph;
+    }
+
+    private PromotionGraph.Step step(String name) {
+        return () -> {
+            this.events.add("start " + name);
+            this.events.add("end " + name);
+        };
+    }
+
+    private void assertBefore(String first, String second) {
+        int firstIndex = this.events.indexOf(first);
+        int secondIndex = this.events.indexOf(second);
+        assertFalse(first + " did not happen", firstIndex < 0);
+        assertTrue(first + " happened after " + second, firstIndex < secondIndex);
+    }
+
+    private static void await(CyclicBarrier barrier) throws SQLException {
+        try {
+            barrier.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException ex) {
+            throw new SQLException("Steps did not run concurrently", ex);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest.metadata;
+
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.ConceptIdIndex.Kind;
+import edu.emory.cci.aiw.i2b2etl.dest.metadata.conceptid.ConceptId;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.protempa.proposition.value.NominalValue;
+
+/**
+ * Tests lookups in the concept id index, with colliding hashes, across
+ * resizes, and for keys that are not in it.
+ *
+ * @author Andrew Post
+ */
+public class ConceptIdIndexTest {
+
+    private ConceptIdIndex index;
+
+    @Before
+    public void setUp() {
+        this.index = new ConceptIdIndex();
+    }
+
+    @Test
+    public void testGetFromEmptyIndex() {
+        assertNull(this.index.get(Kind.SIMPLE, "ICD9:250", null, null));
+    }
+
+    @Test
+    public void testGetAfterPut() {
+        ConceptId conceptId = new TestConceptId("ICD9:250");
+        this.index.putIfAbsent(Kind.SIMPLE, "ICD9:250", null, null, conceptId);
+        assertSame(conceptId, this.index.get(Kind.SIMPLE, "ICD9:250", null, null));
+    }
+
+    @Test
+    public void testGetWithCopiedKeyParts() {
+        ConceptId conceptId = new TestConceptId("Encounter");
+        this.index.putIfAbsent(Kind.PROPERTY, "Encounter", "dischargeDisposition", NominalValue.getInstance("Home"), conceptId);
+        assertSame(conceptId, this.index.get(Kind.PROPERTY, new String("Encounter"), new String("dischargeDisposition"), NominalValue.getInstance("Home")));
+    }
+
+    @Test
+    public void testMissOnOtherKeyParts() {
+        this.index.putIfAbsent(Kind.PROPERTY, "Encounter", "dischargeDisposition", NominalValue.getInstance("Home"), new TestConceptId("Encounter"));
+        assertNull(this.index.get(Kind.MODIFIER, "Encounter", "dischargeDisposition", NominalValue.getInstance("Home")));
+        assertNull(this.index.get(Kind.PROPERTY, "Patient", "dischargeDisposition", NominalValue.getInstance("Home")));
+        assertNull(this.index.get(Kind.PROPERTY, "Encounter", "disposition", NominalValue.getInstance("Home")));
+        assertNull(this.index.get(Kind.PROPERTY, "Encounter", "dischargeDisposition", NominalValue.getInstance("Expired")));
+        assertNull(this.index.get(Kind.PROPERTY, "Encounter", "dischargeDisposition", null));
+        assertNull(this.index.get(Kind.PROPERTY, "Encounter", null, null));
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsExisting() {
+        ConceptId first = new TestConceptId("ICD9:250");
+        this.index.putIfAbsent(Kind.SIMPLE, "ICD9:250", null, null, first);
+        assertSame(first, this.index.putIfAbsent(Kind.SIMPLE, "ICD9:250", null, null, new TestConceptId("ICD9:250")));
+        assertEquals(1, this.index.size());
+    }
+
+    @Test
+    public void testCollidingHashes() {
+        // "Aa", "BB" and "C#" have the same String hash code.
+        ConceptId aa = new TestConceptId("Aa");
+        ConceptId bb = new TestConceptId("BB");
+        this.index.putIfAbsent(Kind.SIMPLE, "Aa", null, null, aa);
+        this.index.putIfAbsent(Kind.SIMPLE, "BB", null, null, bb);
+        assertSame(aa, this.index.get(Kind.SIMPLE, "Aa", null, null));
+        assertSame(bb, this.index.get(Kind.SIMPLE, "BB", null, null));
+        assertNull(this.index.get(Kind.SIMPLE, "C#", null, null));
+        assertEquals(2, this.index.size());
+    }
+
+    @Test
+    public void testGetAfterResize() {
+        int count = 10000;
+        ConceptId[] conceptIds = new ConceptId[count];
+        for (int i = 0; i < count; i++) {
+            conceptIds[i] = new TestConceptId("LAB:" + i);
+            this.index.putIfAbsent(Kind.SIMPLE, "LAB:" + i, null, null, conceptIds[i]);
+        }
+        assertEquals(count, this.index.size());
+        for (int i = 0; i < count; i++) {
+            assertSame(conceptIds[i], this.index.get(Kind.SIMPLE, "LAB:" + i, null, null));
+        }
+        assertNull(this.index.get(Kind.SIMPLE, "LAB:" + count, null, null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPutIfAbsentWhenFrozen() {
+        this.index.freeze();
+        this.index.putIfAbsent(Kind.SIMPLE, "ICD9:250", null, null, new TestConceptId("ICD9:250"));
+    }
+
+    private static final class TestConceptId implements ConceptId {
+
+        private final String id;
+
+        TestConceptId(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return this.id;
+        }
+
+        @Override
+        public String toConceptCode() {
+            return this.id;
+        }
+
+        @Override
+        public String toConceptCode(String prefix) {
+            return prefix + this.id;
+        }
+    }
+}
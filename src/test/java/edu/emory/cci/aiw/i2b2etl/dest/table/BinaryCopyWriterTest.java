@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.Test;
+
+/**
+ * Tests the encoding of values in PostgreSQL's binary copy format.
+ *
+ * @author Andrew Post
+ */
+public class BinaryCopyWriterTest {
+
+    @Test
+    public void testNumericZero() throws Exception {
+        assertArrayEquals(shorts(0, 0, 0x0000, 0), numeric("0"));
+    }
+
+    @Test
+    public void testNumericKeepsDisplayScale() throws Exception {
+        assertArrayEquals(shorts(0, 0, 0x0000, 2), numeric("0.00"));
+    }
+
+    @Test
+    public void testNumericIntegerAndFraction() throws Exception {
+        assertArrayEquals(shorts(3, 1, 0x0000, 3, 1, 2345, 6780), numeric("12345.678"));
+    }
+
+    @Test
+    public void testNumericNegativeFraction() throws Exception {
+        assertArrayEquals(shorts(1, -1, 0x4000, 4, 1), numeric("-0.0001"));
+    }
+
+    @Test
+    public void testNumericTrailingZeroGroups() throws Exception {
+        assertArrayEquals(shorts(1, 1, 0x0000, 0, 1), numeric("10000"));
+    }
+
+    @Test
+    public void testNumericNegativeScale() throws Exception {
+        assertArrayEquals(shorts(1, 0, 0x0000, 0, 1000), numeric("1E+3"));
+    }
+
+    @Test
+    public void testTimestampAtPostgresEpoch() throws Exception {
+        assertArrayEquals(longs(0L), encode("timestamp", Timestamp.valueOf("2000-01-01 00:00:00")));
+    }
+
+    @Test
+    public void testTimestampWithFraction() throws Exception {
+        assertArrayEquals(longs(1500000L), encode("timestamp", Timestamp.valueOf("2000-01-01 00:00:01.5")));
+    }
+
+    @Test
+    public void testTimestampBeforePostgresEpoch() throws Exception {
+        assertArrayEquals(longs(-1000000L), encode("timestamp", Timestamp.valueOf("1999-12-31 23:59:59")));
+    }
+
+    @Test
+    public void testTimestamptzIsUtc() throws Exception {
+        assertArrayEquals(longs(0L), encode("timestamptz", new Timestamp(946684800000L)));
+    }
+
+    @Test
+    public void testDate() throws Exception {
+        assertArrayEquals(ints(1), encode("date", java.sql.Date.valueOf("2000-01-02")));
+        assertArrayEquals(ints(-1), encode("date", java.sql.Date.valueOf("1999-12-31")));
+    }
+
+    @Test
+    public void testNumberFromString() throws Exception {
+        assertArrayEquals(ints(42), encode("int4", " 42 "));
+    }
+
+    @Test(expected = SQLException.class)
+    public void testNotANumber() throws Exception {
+        encode("int4", "forty-two");
+    }
+
+    @Test
+    public void testRowWithNull() throws Exception {
+        BinaryCopyWriter writer = new BinaryCopyWriter("ek_temp_patient",
+                new String[]{"patient_num", "vital_status_cd"}, new String[]{"int4", "varchar"});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeRow(new Object[]{7, null}, out);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(expected);
+        dataOut.writeShort(2);
+        dataOut.writeInt(4);
+        dataOut.writeInt(7);
+        dataOut.writeInt(-1);
+        dataOut.flush();
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    private static byte[] numeric(String value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        BinaryCopyWriter.writeNumeric(dataOut, new BigDecimal(value));
+        dataOut.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] encode(String columnType, Object value) throws IOException, SQLException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        BinaryCopyWriter.writeValue(dataOut, columnType, value);
+        dataOut.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] shorts(int... values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        for (int value : values) {
+            dataOut.writeShort(value);
+        }
+        dataOut.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] ints(int... values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        for (int value : values) {
+            dataOut.writeInt(value);
+        }
+        dataOut.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] longs(long... values) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        for (long value : values) {
+            dataOut.writeLong(value);
+        }
+        dataOut.flush();
+        return out.toByteArray();
+    }
+}
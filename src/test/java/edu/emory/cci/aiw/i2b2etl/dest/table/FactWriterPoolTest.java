@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+import edu.emory.cci.aiw.i2b2etl.dest.StagingMethod;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import org.arp.javautil.sql.ConnectionSpec;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests that the fact writer pool reports a failed writer thread without
+ * blocking the caller.
+ *
+ * @author Andrew Post
+ */
+public class FactWriterPoolTest {
+
+    @Test(timeout = 60000L)
+    public void testErrorInWriterIsReported() throws Exception {
+        FactWriterPool pool = new FactWriterPool("test", newFailingConnectionSpec(), StagingMethod.INSERT, null, 1);
+        ObservationFact fact = new ObservationFact();
+        // More facts than the queue holds; the writer must keep draining
+        // after the error or this blocks.
+        try {
+            for (int i = 0; i < 25000; i++) {
+                pool.write(fact);
+            }
+        } catch (SQLException ex) {
+            assertTrue(ex.getCause() instanceof AssertionError);
+        }
+        try {
+            pool.flush();
+            fail("expected an SQLException");
+        } catch (SQLException ex) {
+            assertTrue(ex.getCause() instanceof AssertionError);
+        }
+        try {
+            pool.close();
+            fail("expected an SQLException");
+        } catch (SQLException ex) {
+            assertTrue(ex.getCause() instanceof AssertionError);
+        }
+    }
+
+    /**
+     * Returns a connection spec that throws an error when asked for a
+     * connection.
+     */
+    private static ConnectionSpec newFailingConnectionSpec() {
+        return (ConnectionSpec) Proxy.newProxyInstance(
+                ConnectionSpec.class.getClassLoader(), new Class<?>[]{ConnectionSpec.class},
+                (proxy, method, args) -> {
+                    if ("getOrCreate".equals(method.getName())) {
+                        throw new AssertionError("connecting failed");
+                    }
+                    return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                });
+    }
+}
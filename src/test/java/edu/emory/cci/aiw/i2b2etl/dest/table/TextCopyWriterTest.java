@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests the encoding of values in PostgreSQL's text copy format.
+ *
+ * @author Andrew Post
+ */
+public class TextCopyWriterTest {
+
+    @Test
+    public void testNull() {
+        assertEquals("\\N", append(null));
+    }
+
+    @Test
+    public void testPlainString() {
+        assertEquals("ICD9:250.00", append("ICD9:250.00"));
+    }
+
+    @Test
+    public void testEscapes() {
+        assertEquals("a\\\\b\\nc\\rd\\te", append("a\\b\nc\rd\te"));
+    }
+
+    @Test
+    public void testBackslashN() {
+        assertEquals("\\\\N", append("\\N"));
+    }
+
+    @Test
+    public void testBigDecimalIsPlain() {
+        assertEquals("1000", append(new BigDecimal("1E+3")));
+        assertEquals("0.000001", append(new BigDecimal("1E-6")));
+    }
+
+    @Test
+    public void testBoolean() {
+        assertEquals("t", append(Boolean.TRUE));
+        assertEquals("f", append(Boolean.FALSE));
+    }
+
+    @Test
+    public void testRow() throws Exception {
+        TextCopyWriter writer = new TextCopyWriter("ek_temp_patient",
+                new String[]{"patient_id", "patient_num", "vital_status_cd"});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeRow(new Object[]{"\u00fc\t1", 7, null}, out);
+        assertEquals("\u00fc\\t1\t7\t\\N\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String append(Object value) {
+        StringBuilder sb = new StringBuilder();
+        TextCopyWriter.appendValue(sb, value);
+        return sb.toString();
+    }
+}
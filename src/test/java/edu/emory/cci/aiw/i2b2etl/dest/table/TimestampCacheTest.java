@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * AIW i2b2 ETL
+ * %%
+ * Copyright (C) 2012 - 2013 Emory University
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.emory.cci.aiw.i2b2etl.dest.table;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Tests that the timestamp cache shares timestamps and always returns the
+ * time of the date that was passed in.
+ *
+ * @author Andrew Post
+ */
+public class TimestampCacheTest {
+
+    private static final long MIDNIGHT = 1420070400000L;
+
+    @Test
+    public void testNull() {
+        assertNull(new TimestampCache(4).get(null));
+    }
+
+    @Test
+    public void testSameTimeIsShared() {
+        TimestampCache cache = new TimestampCache(4);
+        Timestamp ts = cache.get(new Date(MIDNIGHT));
+        assertEquals(MIDNIGHT, ts.getTime());
+        assertSame(ts, cache.get(new Date(MIDNIGHT)));
+        assertSame(ts, cache.get(new Timestamp(MIDNIGHT)));
+    }
+
+    @Test
+    public void testConsecutiveMidnightsAreShared() {
+        TimestampCache cache = new TimestampCache(10);
+        List<Timestamp> first = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            first.add(cache.get(new Date(MIDNIGHT + TimeUnit.DAYS.toMillis(i))));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertSame(first.get(i), cache.get(new Date(MIDNIGHT + TimeUnit.DAYS.toMillis(i))));
+        }
+    }
+
+    @Test
+    public void testReplacedSlotHasTheRightTime() {
+        // With two slots, most of these dates replace another one's slot.
+        TimestampCache cache = new TimestampCache(1);
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 50; i++) {
+                long millis = MIDNIGHT + TimeUnit.HOURS.toMillis(i) + i;
+                assertEquals(millis, cache.get(new Date(millis)).getTime());
+            }
+        }
+    }
+
+    @Test
+    public void testMillisecondsAreKept() {
+        TimestampCache cache = new TimestampCache(4);
+        assertEquals(123000000, cache.get(new Date(MIDNIGHT + 123)).getNanos());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooFewBits() {
+        new TimestampCache(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyBits() {
+        new TimestampCache(31);
+    }
+}
@@ -0,0 +1,113 @@
+---
+-- #%L
+-- AIW i2b2 ETL
+-- %%
+-- Copyright (C) 2012 - 2015 Emory University
+-- %%
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--      http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- #L%
+---
+--
+-- Replaces the mock stored procedures that promote the temp tables with ones
+-- that copy the keys of the promoted rows into EK_PROMOTED_* tables, so that
+-- tests can count what a load promoted even when the temp tables are
+-- truncated between batches.
+--
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_PATIENT_MAPPING (PATIENT_MAP_ID VARCHAR, PATIENT_MAP_ID_SOURCE VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INSERT_PID_MAP_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INSERT_PID_MAP_FROMTEMP AS $$
+void insertPIDMapFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_PATIENT_MAPPING SELECT PATIENT_MAP_ID, PATIENT_MAP_ID_SOURCE FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_ENCOUNTER_MAPPING (ENCOUNTER_MAP_ID VARCHAR, ENCOUNTER_MAP_ID_SOURCE VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INSERT_EID_MAP_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INSERT_EID_MAP_FROMTEMP AS $$
+void insertEIDMapFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_ENCOUNTER_MAPPING SELECT ENCOUNTER_MAP_ID, ENCOUNTER_MAP_ID_SOURCE FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_PATIENT (PATIENT_ID VARCHAR, PATIENT_ID_SOURCE VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INS_PATIENT_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INS_PATIENT_FROMTEMP AS $$
+void insertPatientFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_PATIENT SELECT PATIENT_ID, PATIENT_ID_SOURCE FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_VISIT (ENCOUNTER_ID VARCHAR, ENCOUNTER_ID_SOURCE VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INS_ENC_VISIT_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INS_ENC_VISIT_FROMTEMP AS $$
+void insertEncVisitFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_VISIT SELECT ENCOUNTER_ID, ENCOUNTER_ID_SOURCE FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_PROVIDER (PROVIDER_ID VARCHAR, PROVIDER_PATH VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INS_PROVIDER_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INS_PROVIDER_FROMTEMP AS $$
+void insertProviderFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_PROVIDER SELECT PROVIDER_ID, PROVIDER_PATH FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_CONCEPT (CONCEPT_CD VARCHAR, CONCEPT_PATH VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INS_CONCEPT_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INS_CONCEPT_FROMTEMP AS $$
+void insertConceptFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_CONCEPT SELECT CONCEPT_CD, CONCEPT_PATH FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_MODIFIER (MODIFIER_CD VARCHAR, MODIFIER_PATH VARCHAR);
+
+DROP ALIAS IF EXISTS EUREKA.EK_INS_MODIFIER_FROMTEMP;
+CREATE ALIAS EUREKA.EK_INS_MODIFIER_FROMTEMP AS $$
+void insertModifierFromTemp(Connection conn, String tableName, int uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_MODIFIER SELECT MODIFIER_CD, MODIFIER_PATH FROM " + tableName);
+    }
+}
+$$;
+
+CREATE TABLE IF NOT EXISTS EK_PROMOTED_OBSERVATION (ENCOUNTER_ID VARCHAR, PATIENT_ID VARCHAR, CONCEPT_CD VARCHAR, MODIFIER_CD VARCHAR, START_DATE TIMESTAMP);
+
+DROP ALIAS IF EXISTS EUREKA.EK_UPDATE_OBSERVATION_FACT;
+CREATE ALIAS EUREKA.EK_UPDATE_OBSERVATION_FACT AS $$
+void updateObservationFact(Connection conn, String tableName, String tableName2, long appendFlag, long uploadId) throws SQLException {
+    try (Statement stmt = conn.createStatement()) {
+        stmt.execute("INSERT INTO EK_PROMOTED_OBSERVATION SELECT ENCOUNTER_ID, PATIENT_ID, CONCEPT_CD, MODIFIER_CD, START_DATE FROM " + tableName);
+    }
+}
+$$;